@@ -0,0 +1,361 @@
+package ie.atu.sw.util;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * utility class with SIMD similarity kernels, written with the JDK Vector API
+ * (jdk.incubator.vector)
+ * </p>
+ * <p>
+ * this class lives in its own source folder (src-simd), compiled with
+ * --add-modules jdk.incubator.vector after the rest of the tree; Vector loads
+ * it by name, and falls back to ScalarVector when the class is missing or the
+ * module is not present at run time
+ * </p>
+ * <p>
+ * each kernel runs two vector accumulators over the preferred species width,
+ * then one vector at a time, then a scalar loop for the tail, so any length
+ * (e.g. 50, 100, 200 or 300 features) is handled; the second vector may start
+ * at an offset inside a larger array, e.g. a row of a flat embeddings matrix;
+ * lengths are not checked here, Vector does that before dispatching
+ * </p>
+ * <p>
+ * the float kernels fit twice as many lanes per vector; they accumulate in
+ * float lanes, and reduce and finish the tail in double
+ * </p>
+ */
+public final class SimdVector implements SimilarityKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+
+    // the early-abandoning kernels check their bound once per block, so a block
+    // holds a whole number of vectors (lanes and blocks are powers of two)
+    private static final int BLOCK = Math.max(Vector.ABANDON_BLOCK, LANES);
+    private static final int FLOAT_BLOCK = Math.max(Vector.ABANDON_BLOCK, FLOAT_LANES);
+
+    /**
+     * sum the squares of the values in a row of a matrix
+     *
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    @Override
+    public double squaredNorm(double[] matrix, int offset, int length) {
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        DoubleVector sum2 = DoubleVector.zero(SPECIES);
+        int i = 0;
+
+        for (; i + 2 * LANES <= length; i += 2 * LANES) {
+            DoubleVector values1 = DoubleVector.fromArray(SPECIES, matrix, offset + i);
+            DoubleVector values2 = DoubleVector.fromArray(SPECIES, matrix, offset + i + LANES);
+            sum1 = values1.fma(values1, sum1);
+            sum2 = values2.fma(values2, sum2);
+        }
+
+        for (; i + LANES <= length; i += LANES) {
+            DoubleVector values = DoubleVector.fromArray(SPECIES, matrix, offset + i);
+            sum1 = values.fma(values, sum1);
+        }
+
+        double squaredNorm = sum1.add(sum2).reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+            squaredNorm += matrix[offset + i] * matrix[offset + i];
+
+        return squaredNorm;
+    }
+
+    /**
+     * calculate the dot product of a vector and a row of a matrix
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    @Override
+    public double dotProduct(double[] vector, double[] matrix, int offset) {
+        int length = vector.length;
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        DoubleVector sum2 = DoubleVector.zero(SPECIES);
+        int i = 0;
+
+        for (; i + 2 * LANES <= length; i += 2 * LANES) {
+            sum1 = DoubleVector.fromArray(SPECIES, vector, i)
+                    .fma(DoubleVector.fromArray(SPECIES, matrix, offset + i), sum1);
+            sum2 = DoubleVector.fromArray(SPECIES, vector, i + LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, matrix, offset + i + LANES), sum2);
+        }
+
+        for (; i + LANES <= length; i += LANES)
+            sum1 = DoubleVector.fromArray(SPECIES, vector, i)
+                    .fma(DoubleVector.fromArray(SPECIES, matrix, offset + i), sum1);
+
+        double dotProduct = sum1.add(sum2).reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+            dotProduct += vector[i] * matrix[offset + i];
+
+        return dotProduct;
+    }
+
+    /**
+     * calculate the euclidean distance between a vector and a row of a matrix,
+     * without applying the final square-root operation
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    @Override
+    public double euclideanDistanceNoSqrt(double[] vector, double[] matrix, int offset) {
+        int length = vector.length;
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        DoubleVector sum2 = DoubleVector.zero(SPECIES);
+        int i = 0;
+
+        for (; i + 2 * LANES <= length; i += 2 * LANES) {
+            DoubleVector difference1 = DoubleVector.fromArray(SPECIES, vector, i)
+                    .sub(DoubleVector.fromArray(SPECIES, matrix, offset + i));
+            DoubleVector difference2 = DoubleVector.fromArray(SPECIES, vector, i + LANES)
+                    .sub(DoubleVector.fromArray(SPECIES, matrix, offset + i + LANES));
+            sum1 = difference1.fma(difference1, sum1);
+            sum2 = difference2.fma(difference2, sum2);
+        }
+
+        for (; i + LANES <= length; i += LANES) {
+            DoubleVector difference = DoubleVector.fromArray(SPECIES, vector, i)
+                    .sub(DoubleVector.fromArray(SPECIES, matrix, offset + i));
+            sum1 = difference.fma(difference, sum1);
+        }
+
+        double distance = sum1.add(sum2).reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++) {
+            double difference = vector[i] - matrix[offset + i];
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+
+    /**
+     * sum the squared differences between a vector and a row of a matrix, one
+     * block of whole vectors at a time, and stop early once the partial sum
+     * exceeds a bound; the lanes are only reduced at the end of a block
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did (the last
+     *         block is never checked)
+     */
+    @Override
+    public int euclideanDistanceAbandonAt(double[] vector, double[] matrix, int offset, double bound) {
+        int length = vector.length;
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+
+        for (int end = BLOCK; end < length; end += BLOCK) {
+            for (; i < end; i += LANES) {
+                DoubleVector difference = DoubleVector.fromArray(SPECIES, vector, i)
+                        .sub(DoubleVector.fromArray(SPECIES, matrix, offset + i));
+                sum = difference.fma(difference, sum);
+            }
+
+            if (sum.reduceLanes(VectorOperators.ADD) > bound)
+                return end;
+        }
+
+        return length;
+    }
+
+    /**
+     * calculate the cosine similarity of a vector and a row of a matrix; the dot
+     * product and both squared norms are accumulated in a single loop
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the cosine similarity of the vector and the row
+     */
+    @Override
+    public double cosineSimilarity(double[] vector, double[] matrix, int offset) {
+        int length = vector.length;
+        DoubleVector dotProducts = DoubleVector.zero(SPECIES);
+        DoubleVector squaredNorms1 = DoubleVector.zero(SPECIES);
+        DoubleVector squaredNorms2 = DoubleVector.zero(SPECIES);
+        int i = 0;
+
+        for (; i + LANES <= length; i += LANES) {
+            DoubleVector values1 = DoubleVector.fromArray(SPECIES, vector, i);
+            DoubleVector values2 = DoubleVector.fromArray(SPECIES, matrix, offset + i);
+            dotProducts = values1.fma(values2, dotProducts);
+            squaredNorms1 = values1.fma(values1, squaredNorms1);
+            squaredNorms2 = values2.fma(values2, squaredNorms2);
+        }
+
+        double dotProduct = dotProducts.reduceLanes(VectorOperators.ADD);
+        double squaredNorm1 = squaredNorms1.reduceLanes(VectorOperators.ADD);
+        double squaredNorm2 = squaredNorms2.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++) {
+            double value = matrix[offset + i];
+            dotProduct += vector[i] * value;
+            squaredNorm1 += vector[i] * vector[i];
+            squaredNorm2 += value * value;
+        }
+
+        return dotProduct / Math.sqrt(squaredNorm1 * squaredNorm2);
+    }
+
+    /**
+     * sum the squares of the values in a row of a float matrix
+     *
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    @Override
+    public double squaredNorm(float[] matrix, int offset, int length) {
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+
+        for (; i + FLOAT_LANES <= length; i += FLOAT_LANES) {
+            FloatVector values = FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i);
+            sum = values.fma(values, sum);
+        }
+
+        double squaredNorm = sum.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+            squaredNorm += (double) matrix[offset + i] * matrix[offset + i];
+
+        return squaredNorm;
+    }
+
+    /**
+     * calculate the dot product of a float vector and a row of a float matrix
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    @Override
+    public double dotProduct(float[] vector, float[] matrix, int offset) {
+        int length = vector.length;
+        FloatVector sum1 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum2 = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+
+        for (; i + 2 * FLOAT_LANES <= length; i += 2 * FLOAT_LANES) {
+            sum1 = FloatVector.fromArray(FLOAT_SPECIES, vector, i)
+                    .fma(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i), sum1);
+            sum2 = FloatVector.fromArray(FLOAT_SPECIES, vector, i + FLOAT_LANES)
+                    .fma(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i + FLOAT_LANES), sum2);
+        }
+
+        for (; i + FLOAT_LANES <= length; i += FLOAT_LANES)
+            sum1 = FloatVector.fromArray(FLOAT_SPECIES, vector, i)
+                    .fma(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i), sum1);
+
+        double dotProduct = (double) sum1.reduceLanes(VectorOperators.ADD) + sum2.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++)
+            dotProduct += (double) vector[i] * matrix[offset + i];
+
+        return dotProduct;
+    }
+
+    /**
+     * calculate the euclidean distance between a float vector and a row of a
+     * float matrix, without applying the final square-root operation
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    @Override
+    public double euclideanDistanceNoSqrt(float[] vector, float[] matrix, int offset) {
+        int length = vector.length;
+        FloatVector sum1 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum2 = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+
+        for (; i + 2 * FLOAT_LANES <= length; i += 2 * FLOAT_LANES) {
+            FloatVector difference1 = FloatVector.fromArray(FLOAT_SPECIES, vector, i)
+                    .sub(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i));
+            FloatVector difference2 = FloatVector.fromArray(FLOAT_SPECIES, vector, i + FLOAT_LANES)
+                    .sub(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i + FLOAT_LANES));
+            sum1 = difference1.fma(difference1, sum1);
+            sum2 = difference2.fma(difference2, sum2);
+        }
+
+        for (; i + FLOAT_LANES <= length; i += FLOAT_LANES) {
+            FloatVector difference = FloatVector.fromArray(FLOAT_SPECIES, vector, i)
+                    .sub(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i));
+            sum1 = difference.fma(difference, sum1);
+        }
+
+        double distance = (double) sum1.reduceLanes(VectorOperators.ADD) + sum2.reduceLanes(VectorOperators.ADD);
+
+        for (; i < length; i++) {
+            double difference = (double) vector[i] - matrix[offset + i];
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+
+    /**
+     * sum the squared differences between a float vector and a row of a float
+     * matrix, one block of whole vectors at a time, and stop early once the
+     * partial sum exceeds a bound; the float lanes are only reduced at the end
+     * of a block
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did (the last
+     *         block is never checked)
+     */
+    @Override
+    public int euclideanDistanceAbandonAt(float[] vector, float[] matrix, int offset, double bound) {
+        int length = vector.length;
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+
+        for (int end = FLOAT_BLOCK; end < length; end += FLOAT_BLOCK) {
+            for (; i < end; i += FLOAT_LANES) {
+                FloatVector difference = FloatVector.fromArray(FLOAT_SPECIES, vector, i)
+                        .sub(FloatVector.fromArray(FLOAT_SPECIES, matrix, offset + i));
+                sum = difference.fma(difference, sum);
+            }
+
+            if (sum.reduceLanes(VectorOperators.ADD) > bound)
+                return end;
+        }
+
+        return length;
+    }
+}
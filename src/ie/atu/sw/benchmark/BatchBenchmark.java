@@ -0,0 +1,92 @@
+package ie.atu.sw.benchmark;
+
+import java.util.Arrays;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.LoadOptions;
+import ie.atu.sw.embeddings.Precision;
+import ie.atu.sw.embeddings.WordsEmbeddings;
+import ie.atu.sw.util.SimilarityAlgorithm;
+
+/**
+ * <p>
+ * compare one batched search for many query words with one search per query
+ * word, over a reference set of query words spread evenly through the
+ * vocabulary
+ * </p>
+ * <p>
+ * run with: java -Xmx4g --add-modules jdk.incubator.vector
+ * ie.atu.sw.benchmark.BatchBenchmark file [#queries] [#similarities]
+ * [float32|float64]
+ * </p>
+ * <p>
+ * defaults to 1000 queries of 10 similarities each, stored as float64, for
+ * every similarity algorithm; reports the share of queries with identical
+ * top-k words and scores, and the time per query of each way
+ * </p>
+ */
+public class BatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            ConsolePrint.printError("Usage: BatchBenchmark file [#queries] [#similarities] [float32|float64]");
+            return;
+        }
+
+        String fileName = args[0];
+        int numberOfQueries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int howMany = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Precision precision = args.length > 3 && args[3].equalsIgnoreCase("float32") ? Precision.FLOAT32
+                : Precision.FLOAT64;
+
+        ConsolePrint.printTitle("Batched vs One-at-a-Time Searches");
+
+        LoadOptions loadOptions = new LoadOptions();
+        loadOptions.setPrecision(precision);
+        WordsEmbeddings wordsEmbeddings = new WordsEmbeddings(fileName, loadOptions);
+
+        numberOfQueries = Math.min(numberOfQueries, wordsEmbeddings.getNumberOfWords());
+        howMany = Math.min(howMany, wordsEmbeddings.getNumberOfWords());
+        String[] queries = new String[numberOfQueries];
+        for (int i = 0; i < numberOfQueries; i++)
+            queries[i] = wordsEmbeddings.getWords()[(int) ((long) i * wordsEmbeddings.getNumberOfWords()
+                    / numberOfQueries)];
+
+        for (SimilarityAlgorithm algorithm : SimilarityAlgorithm.values())
+            compare(algorithm, wordsEmbeddings, queries, howMany);
+    }
+
+    /**
+     * run every query one at a time, then all of them in one batch, with one
+     * similarity algorithm, and print whether the results match
+     */
+    private static void compare(SimilarityAlgorithm algorithm, WordsEmbeddings wordsEmbeddings, String[] queries,
+            int howMany) throws Exception {
+        wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+
+        String[][] expected = new String[queries.length][];
+        double[][] expectedScores = new double[queries.length][];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i++) {
+            expected[i] = wordsEmbeddings.getSimilarWords(queries[i], howMany);
+            expectedScores[i] = wordsEmbeddings.getPreviousSimilarWordsScores();
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        String[][] actual = wordsEmbeddings.getSimilarWords(queries, howMany, true);
+        long batchNanos = System.nanoTime() - start;
+        double[][] actualScores = wordsEmbeddings.getPreviousBatchSimilarWordsScores();
+
+        int identical = 0;
+        for (int i = 0; i < queries.length; i++)
+            if (Arrays.equals(expected[i], actual[i]) && Arrays.equals(expectedScores[i], actualScores[i]))
+                identical++;
+
+        ConsolePrint.printHeading(algorithm.toString());
+        System.out.printf("identical top-%d: %d/%d queries%n", howMany, identical, queries.length);
+        System.out.printf("one at a time: %8.3f ms/query%n", singleNanos / 1e6 / queries.length);
+        System.out.printf("batched:       %8.3f ms/query%n", batchNanos / 1e6 / queries.length);
+    }
+}
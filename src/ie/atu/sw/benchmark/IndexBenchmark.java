@@ -0,0 +1,200 @@
+package ie.atu.sw.benchmark;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.WordsEmbeddings;
+import ie.atu.sw.index.IndexParameter;
+import ie.atu.sw.index.SearchIndexType;
+import ie.atu.sw.util.SimilarityAlgorithm;
+
+/**
+ * <p>
+ * compare the top-k results of a search index with the exact brute-force scan,
+ * over a reference set of query words spread evenly through the vocabulary
+ * </p>
+ * <p>
+ * run with: java -Xmx4g --add-modules jdk.incubator.vector
+ * ie.atu.sw.benchmark.IndexBenchmark file index [#queries] [#similarities]
+ * [PARAMETER=value[,value...]]...
+ * </p>
+ * <p>
+ * 'index' is a SearchIndexType name, e.g. INT8; parameters are IndexParameter
+ * names, e.g. OVERSAMPLE=1,2,4,8 (a list of values sweeps the parameter, one
+ * run per value, rebuilding the index for a build parameter); defaults to 100 queries of 10 similarities each, for every
+ * similarity algorithm the index supports (an index built for one similarity
+ * algorithm, e.g. HNSW, is rebuilt for each)
+ * </p>
+ * <p>
+ * reports the memory used by the matrix and by the index, the build time, the
+ * share of queries with identical top-k words (in the same order), the share
+ * of exact top-k words that the index found (recall@k), and the time per query
+ * </p>
+ */
+public class IndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            ConsolePrint.printError(
+                    "Usage: IndexBenchmark file index [#queries] [#similarities] [PARAMETER=value[,value...]]...");
+            return;
+        }
+
+        String fileName = args[0];
+        SearchIndexType type = SearchIndexType.valueOf(args[1]);
+        int numberOfQueries = 100;
+        int howMany = 10;
+        int numbers = 0;
+
+        WordsEmbeddings wordsEmbeddings = new WordsEmbeddings(fileName);
+        wordsEmbeddings.setParallelism(Runtime.getRuntime().availableProcessors());
+
+        IndexParameter sweepParameter = null;
+        int[] sweepValues = { 0 };
+
+        for (int i = 2; i < args.length; i++) {
+            if (!args[i].contains("=")) {
+                if (numbers++ == 0)
+                    numberOfQueries = Integer.parseInt(args[i]);
+                else
+                    howMany = Integer.parseInt(args[i]);
+                continue;
+            }
+
+            IndexParameter parameter = IndexParameter.valueOf(args[i].substring(0, args[i].indexOf('=')));
+            int[] values = Arrays.stream(args[i].substring(args[i].indexOf('=') + 1).split(","))
+                    .mapToInt(Integer::parseInt).toArray();
+
+            wordsEmbeddings.getIndexParameters().set(parameter, values[0]);
+
+            if (values.length > 1) {
+                sweepParameter = parameter;
+                sweepValues = values;
+            }
+        }
+
+        ConsolePrint.printTitle(type + " vs " + SearchIndexType.EXACT);
+
+        numberOfQueries = Math.min(numberOfQueries, wordsEmbeddings.getNumberOfWords());
+        howMany = Math.min(howMany, wordsEmbeddings.getNumberOfWords());
+        String[] queries = new String[numberOfQueries];
+        for (int i = 0; i < numberOfQueries; i++)
+            queries[i] = wordsEmbeddings.getWords()[(int) ((long) i * wordsEmbeddings.getNumberOfWords()
+                    / numberOfQueries)];
+
+        // the exact results of every algorithm, found before the index is built
+        SimilarityAlgorithm[] algorithms = SimilarityAlgorithm.values();
+        String[][][] expected = new String[algorithms.length][][];
+        double[] exactMilliseconds = new double[algorithms.length];
+
+        for (SimilarityAlgorithm algorithm : algorithms) {
+            wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+
+            long start = System.nanoTime();
+            expected[algorithm.ordinal()] = searchAll(wordsEmbeddings, queries, howMany);
+            exactMilliseconds[algorithm.ordinal()] = (System.nanoTime() - start) / 1e6 / queries.length;
+        }
+
+        long start = System.nanoTime();
+        wordsEmbeddings.setSearchIndexType(type);
+        long buildNanos = System.nanoTime() - start;
+
+        ConsolePrint.printHeading("Memory");
+        System.out.printf("matrix (%s): %10.1f MB%n", wordsEmbeddings.getPrecision(),
+                wordsEmbeddings.getEmbeddingMatrix().getSizeInBytes() / (1024.0 * 1024.0));
+        System.out.printf("index:        %10.1f MB%n", wordsEmbeddings.getSearchIndex() == null ? 0.0
+                : wordsEmbeddings.getSearchIndex().getSizeInBytes() / (1024.0 * 1024.0));
+        System.out.printf("build time:   %10.1f ms%n", buildNanos / 1e6);
+
+        for (SimilarityAlgorithm algorithm : algorithms) {
+            wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+
+            // an index built for one similarity algorithm is rebuilt (or loaded) for each
+            if (type.isAlgorithmSpecific() && wordsEmbeddings.needsSearchIndexBuild(type)) {
+                start = System.nanoTime();
+                wordsEmbeddings.setSearchIndexType(type);
+                buildNanos = System.nanoTime() - start;
+            } else {
+                buildNanos = 0;
+            }
+
+            if (wordsEmbeddings.getSearchIndex() != null
+                    && !wordsEmbeddings.getSearchIndex().supports(algorithm, !isDistance(algorithm)))
+                continue;
+
+            ConsolePrint.printHeading(algorithm.toString());
+            if (buildNanos > 0)
+                System.out.printf("build time:   %10.1f ms%n", buildNanos / 1e6);
+            System.out.printf("%s: %8.2f ms/query%n", SearchIndexType.EXACT, exactMilliseconds[algorithm.ordinal()]);
+
+            for (int value : sweepValues) {
+                if (sweepParameter != null) {
+                    wordsEmbeddings.getIndexParameters().set(sweepParameter, value);
+                    System.out.println(sweepParameter.name() + "=" + value);
+
+                    // a build parameter takes a new index
+                    if (sweepParameter.isBuildParameter()) {
+                        start = System.nanoTime();
+                        wordsEmbeddings.setSearchIndexType(type);
+                        System.out.printf("build time:   %10.1f ms%n", (System.nanoTime() - start) / 1e6);
+                    }
+                }
+
+                compare(wordsEmbeddings, expected[algorithm.ordinal()], queries, howMany);
+            }
+        }
+    }
+
+    /**
+     * does the similarity algorithm find similar words with its smallest scores?
+     */
+    private static boolean isDistance(SimilarityAlgorithm algorithm) {
+        return algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                || algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+    }
+
+    /**
+     * run every query with the current search index
+     */
+    private static String[][] searchAll(WordsEmbeddings wordsEmbeddings, String[] queries, int howMany)
+            throws Exception {
+        String[][] results = new String[queries.length][];
+
+        for (int i = 0; i < queries.length; i++)
+            results[i] = wordsEmbeddings.getSimilarWords(queries[i], howMany);
+
+        return results;
+    }
+
+    /**
+     * run every query against the index, and print how closely the results
+     * match the exact results
+     */
+    private static void compare(WordsEmbeddings wordsEmbeddings, String[][] expected, String[] queries,
+            int howMany) throws Exception {
+        int identical = 0;
+        int found = 0;
+        long nanos = 0;
+
+        for (int i = 0; i < queries.length; i++) {
+            long start = System.nanoTime();
+            String[] actual = wordsEmbeddings.getSimilarWords(queries[i], howMany);
+            nanos += System.nanoTime() - start;
+
+            if (Arrays.equals(expected[i], actual))
+                identical++;
+
+            Set<String> expectedWords = new HashSet<>(Arrays.asList(expected[i]));
+            for (String word : actual)
+                if (expectedWords.contains(word))
+                    found++;
+        }
+
+        System.out.printf("identical top-%d: %d/%d queries%n", howMany, identical, queries.length);
+        System.out.printf("recall@%d:        %.4f%n", howMany, (double) found / (queries.length * howMany));
+        System.out.printf("%s: %8.2f ms/query%n", wordsEmbeddings.getSearchIndexType(),
+                nanos / 1e6 / queries.length);
+    }
+}
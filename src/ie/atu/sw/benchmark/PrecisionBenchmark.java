@@ -0,0 +1,109 @@
+package ie.atu.sw.benchmark;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.LoadOptions;
+import ie.atu.sw.embeddings.Precision;
+import ie.atu.sw.embeddings.WordsEmbeddings;
+import ie.atu.sw.util.SimilarityAlgorithm;
+
+/**
+ * <p>
+ * compare the top-k results of a words-embeddings file stored as 32-bit floats
+ * with the same file stored as 64-bit doubles, over a reference set of query
+ * words spread evenly through the vocabulary
+ * </p>
+ * <p>
+ * run with: java -Xmx4g --add-modules jdk.incubator.vector
+ * ie.atu.sw.benchmark.PrecisionBenchmark file [#queries] [#similarities]
+ * </p>
+ * <p>
+ * defaults to 100 queries of 10 similarities each, for every similarity
+ * algorithm; reports the memory used by each matrix, the share of queries with
+ * identical top-k words (in the same order), the share of top-k words found by
+ * both (recall@k), and the time per query
+ * </p>
+ */
+public class PrecisionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            ConsolePrint.printError("Usage: PrecisionBenchmark file [#queries] [#similarities]");
+            return;
+        }
+
+        String fileName = args[0];
+        int numberOfQueries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int howMany = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        ConsolePrint.printTitle("Float32 vs Float64 Embeddings");
+
+        WordsEmbeddings doubles = load(fileName, Precision.FLOAT64);
+        WordsEmbeddings floats = load(fileName, Precision.FLOAT32);
+
+        ConsolePrint.printHeading("Memory");
+        System.out.printf("%s: %10.1f MB%n", Precision.FLOAT64, megabytes(doubles));
+        System.out.printf("%s:  %10.1f MB%n", Precision.FLOAT32, megabytes(floats));
+
+        numberOfQueries = Math.min(numberOfQueries, doubles.getNumberOfWords());
+        howMany = Math.min(howMany, doubles.getNumberOfWords());
+        String[] queries = new String[numberOfQueries];
+        for (int i = 0; i < numberOfQueries; i++)
+            queries[i] = doubles.getWords()[(int) ((long) i * doubles.getNumberOfWords() / numberOfQueries)];
+
+        for (SimilarityAlgorithm algorithm : SimilarityAlgorithm.values())
+            compare(algorithm, doubles, floats, queries, howMany);
+    }
+
+    private static WordsEmbeddings load(String fileName, Precision precision) throws Exception {
+        LoadOptions loadOptions = new LoadOptions();
+        loadOptions.setPrecision(precision);
+        return new WordsEmbeddings(fileName, loadOptions);
+    }
+
+    private static double megabytes(WordsEmbeddings wordsEmbeddings) {
+        return wordsEmbeddings.getEmbeddingMatrix().getSizeInBytes() / (1024.0 * 1024.0);
+    }
+
+    /**
+     * run every query against both matrices with one similarity algorithm, and
+     * print how closely the float32 results match the float64 results
+     */
+    private static void compare(SimilarityAlgorithm algorithm, WordsEmbeddings doubles, WordsEmbeddings floats,
+            String[] queries, int howMany) throws Exception {
+        doubles.setSimilarityAlgorithm(algorithm);
+        floats.setSimilarityAlgorithm(algorithm);
+
+        int identical = 0;
+        int found = 0;
+        long doubleNanos = 0;
+        long floatNanos = 0;
+
+        for (String query : queries) {
+            long start = System.nanoTime();
+            String[] expected = doubles.getSimilarWords(query, howMany);
+            doubleNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            String[] actual = floats.getSimilarWords(query, howMany);
+            floatNanos += System.nanoTime() - start;
+
+            if (Arrays.equals(expected, actual))
+                identical++;
+
+            Set<String> expectedWords = new HashSet<>(Arrays.asList(expected));
+            for (String word : actual)
+                if (expectedWords.contains(word))
+                    found++;
+        }
+
+        ConsolePrint.printHeading(algorithm.toString());
+        System.out.printf("identical top-%d: %d/%d queries%n", howMany, identical, queries.length);
+        System.out.printf("recall@%d:        %.4f%n", howMany, (double) found / (queries.length * howMany));
+        System.out.printf("%s: %8.2f ms/query%n", Precision.FLOAT64, doubleNanos / 1e6 / queries.length);
+        System.out.printf("%s:  %8.2f ms/query%n", Precision.FLOAT32, floatNanos / 1e6 / queries.length);
+    }
+}
@@ -0,0 +1,112 @@
+package ie.atu.sw.benchmark;
+
+import java.util.Random;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.util.ScalarVector;
+import ie.atu.sw.util.SimilarityKernels;
+import ie.atu.sw.util.Vector;
+
+/**
+ * <p>
+ * measure the speed-up of the SIMD similarity kernels (SimdVector) over the
+ * scalar kernels (ScalarVector) with a full scan of a random, flat row-major
+ * embeddings matrix
+ * </p>
+ * <p>
+ * run with: java -Xmx2g --add-modules jdk.incubator.vector
+ * ie.atu.sw.benchmark.SimilarityBenchmark [#words] [#features]
+ * </p>
+ * <p>
+ * defaults to 400000 words with 300 features (about 1GB of doubles)
+ * </p>
+ */
+public class SimilarityBenchmark {
+
+    private static final int WARMUP_SCANS = 3;
+    private static final int MEASURED_SCANS = 10;
+
+    /** a kernel that scores a query against one row of a flat matrix */
+    @FunctionalInterface
+    private interface Kernel {
+        double score(double[] query, double[] matrix, int offset);
+    }
+
+    public static void main(String[] args) {
+        int numberOfWords = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+        int numberOfFeatures = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        ConsolePrint.printTitle("Similarity Kernel Benchmark");
+
+        if (!Vector.SIMD_ENABLED) {
+            ConsolePrint.printError(
+                    "SimdVector is not available; compile src-simd, and run with --add-modules jdk.incubator.vector");
+            return;
+        }
+
+        SimilarityKernels simd = Vector.getSimdKernels();
+
+        ConsolePrint.printInfo("Generating " + numberOfWords + " x " + numberOfFeatures + " random matrix");
+
+        Random random = new Random(42);
+        double[] matrix = new double[numberOfWords * numberOfFeatures];
+        for (int i = 0; i < matrix.length; i++)
+            matrix[i] = random.nextGaussian();
+        double[] query = new double[numberOfFeatures];
+        for (int i = 0; i < numberOfFeatures; i++)
+            query[i] = random.nextGaussian();
+
+        benchmark("Dot Product", matrix, query, ScalarVector::dotProduct, simd::dotProduct);
+        benchmark("Euclidean Distance (No Square Root)", matrix, query,
+                ScalarVector::euclideanDistanceNoSqrt, simd::euclideanDistanceNoSqrt);
+        benchmark("Euclidean Distance", matrix, query,
+                (q, m, offset) -> Math.sqrt(ScalarVector.euclideanDistanceNoSqrt(q, m, offset)),
+                (q, m, offset) -> Math.sqrt(simd.euclideanDistanceNoSqrt(q, m, offset)));
+        benchmark("Cosine Similarity", matrix, query, ScalarVector::cosineSimilarity, simd::cosineSimilarity);
+    }
+
+    /**
+     * time full scans with a scalar and a SIMD kernel, and print the results
+     */
+    private static void benchmark(String name, double[] matrix, double[] query, Kernel scalar, Kernel simd) {
+        double scalarMillis = timeScans(matrix, query, scalar);
+        double simdMillis = timeScans(matrix, query, simd);
+
+        ConsolePrint.printHeading(name);
+        System.out.printf("scalar: %10.2f ms/scan%n", scalarMillis);
+        System.out.printf("SIMD:   %10.2f ms/scan%n", simdMillis);
+        System.out.printf("speed-up: %.2fx%n", scalarMillis / simdMillis);
+    }
+
+    /**
+     * time full scans of the matrix, after some warm-up scans
+     *
+     * @return the average time of one full scan, in milliseconds
+     */
+    private static double timeScans(double[] matrix, double[] query, Kernel kernel) {
+        double checksum = 0;
+
+        for (int i = 0; i < WARMUP_SCANS; i++)
+            checksum += scan(matrix, query, kernel);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_SCANS; i++)
+            checksum += scan(matrix, query, kernel);
+        long elapsed = System.nanoTime() - start;
+
+        // use the checksum, so the JIT cannot remove the scans
+        if (checksum == 42)
+            System.out.println();
+
+        return elapsed / 1e6 / MEASURED_SCANS;
+    }
+
+    private static double scan(double[] matrix, double[] query, Kernel kernel) {
+        double sum = 0;
+
+        for (int offset = 0; offset < matrix.length; offset += query.length)
+            sum += kernel.score(query, matrix, offset);
+
+        return sum;
+    }
+}
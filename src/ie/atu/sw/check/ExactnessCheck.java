@@ -0,0 +1,978 @@
+package ie.atu.sw.check;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.LoadOptions;
+import ie.atu.sw.embeddings.Precision;
+import ie.atu.sw.embeddings.WordsEmbeddings;
+import ie.atu.sw.index.SearchIndexType;
+import ie.atu.sw.index.SimilarityIndex;
+import ie.atu.sw.util.AnalogyObjective;
+import ie.atu.sw.util.DoubleParser;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * self-checking comparisons of the optimized code paths whose results must be
+ * exact against plain reference implementations, on seeded random data
+ * </p>
+ * <p>
+ * run with: java --add-modules jdk.incubator.vector
+ * ie.atu.sw.check.ExactnessCheck [seed]
+ * </p>
+ * <p>
+ * prints one line per check, and exits with status 1 if any check fails, so
+ * it can gate a build
+ * </p>
+ */
+public class ExactnessCheck {
+
+    private static final String WORD_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789-'.é";
+    private static final String NUMBER_CHARACTERS = "0123456789.-+eE";
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        Random random = new Random(seed);
+
+        ConsolePrint.printTitle("Exactness Checks (seed " + seed + ")");
+
+        checkTopK(random);
+        checkDoubleParser(random);
+        checkLoader(random);
+        checkSearches(random);
+
+        if (failures > 0) {
+            ConsolePrint.printError(failures + " check(s) failed");
+            System.exit(1);
+        }
+
+        ConsolePrint.printInfo("Every check passed");
+    }
+
+    /**
+     * record and print the outcome of one check
+     *
+     * @param name   - what was checked
+     * @param passed - did the check pass?
+     */
+    private static void check(String name, boolean passed) {
+        if (passed) {
+            ConsolePrint.printInfo("PASS " + name);
+        } else {
+            failures++;
+            ConsolePrint.printError("FAIL " + name);
+        }
+    }
+
+    /**
+     * TopK, with the heap and with quickselect, against a full sort: scores are
+     * drawn from a few values, so most are ties, and some are NaN; equal scores
+     * must be ordered by index, and NaN must come last
+     */
+    private static void checkTopK(Random random) {
+        boolean passed = true;
+
+        for (int trial = 0; trial < 2000 && passed; trial++) {
+            int count = 1 + random.nextInt(300);
+            int howMany = random.nextInt(count + 1);
+            boolean largest = random.nextBoolean();
+            int expectedCount = random.nextBoolean() ? count : 1 + random.nextInt(2 * count);
+
+            double[] scores = new double[count];
+            for (int i = 0; i < count; i++)
+                scores[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(8) - 4 + (i % 2) * 0.5;
+
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++)
+                order[i] = i;
+            Arrays.sort(order, referenceOrder(scores, largest));
+
+            // offer in a shuffled order, half to a second selector that is merged
+            int[] offers = shuffledRows(count, random);
+            TopK topK = new TopK(howMany, largest, expectedCount);
+            TopK other = new TopK(howMany, largest, expectedCount);
+            for (int i = 0; i < count; i++)
+                (i % 2 == 0 ? topK : other).offer(offers[i], scores[offers[i]]);
+            topK.merge(other);
+
+            int[] indexes = topK.getIndexes();
+            double[] kept = topK.getScores();
+            passed = indexes.length == howMany;
+
+            for (int i = 0; i < indexes.length && passed; i++)
+                passed = indexes[i] == order[i]
+                        && Double.doubleToLongBits(kept[i]) == Double.doubleToLongBits(scores[order[i]]);
+        }
+
+        check("TopK (heap and quickselect, ties and NaN) matches a full sort", passed);
+    }
+
+    /**
+     * DoubleParser against Double.parseDouble, over random numbers in the
+     * formats of words-embeddings files, random strings of number characters,
+     * and the special cases the fast path hands over to Double.parseDouble; the
+     * results must be bit-identical, and invalid numbers must throw
+     */
+    private static void checkDoubleParser(Random random) {
+        List<String> inputs = new ArrayList<>(List.of("0", "-0", "+0", "-0.0", ".5", "5.", "1e+5", "2.5E-3",
+                "123456789012345678", "1234567890123456789012", "9007199254740993", "1e22", "1e23", "1e-22",
+                "1e-23", "4.9e-324", "1.7976931348623157e308", "NaN", "-Infinity", "0x1p3", "1d", "2.5f", " 3 ",
+                "", "-", ".", "e5", "1e", "1..2", "--1", "1e5.5"));
+
+        for (int i = 0; i < 200000; i++)
+            inputs.add(i % 2 == 0 ? randomNumber(random)
+                    : randomString(random, NUMBER_CHARACTERS, 1 + random.nextInt(12)));
+
+        boolean passed = true;
+        String failure = "";
+
+        for (String input : inputs) {
+            byte[] bytes = (" " + input + ",").getBytes(StandardCharsets.US_ASCII);
+            String expected;
+            String actual;
+
+            try {
+                expected = Long.toHexString(Double.doubleToRawLongBits(Double.parseDouble(input)));
+            } catch (NumberFormatException e) {
+                expected = "NumberFormatException";
+            }
+
+            try {
+                actual = Long.toHexString(
+                        Double.doubleToRawLongBits(DoubleParser.parseDouble(bytes, 1, bytes.length - 1)));
+            } catch (NumberFormatException e) {
+                actual = "NumberFormatException";
+            }
+
+            if (!expected.equals(actual)) {
+                passed = false;
+                failure = " (first mismatch: '" + input + "')";
+                break;
+            }
+        }
+
+        check("DoubleParser matches Double.parseDouble over " + inputs.size() + " inputs" + failure, passed);
+    }
+
+    /**
+     * the parallel byte-level loader against String.split and
+     * Double.parseDouble, the way files were parsed line by line: random words
+     * and numbers, each delimiter, trailing delimiters and "\r\n" line endings;
+     * the words must be equal, and every value bit-identical
+     */
+    private static void checkLoader(Random random) throws Exception {
+        for (String delimiter : new String[] { ", ", ",", " " }) {
+            File file = File.createTempFile("exactness-check", ".txt");
+            file.deleteOnExit();
+
+            // a few MB, so the file is split into several chunks
+            int numberOfWords = 60000;
+            int numberOfFeatures = 4 + random.nextInt(9);
+            boolean trailingDelimiter = random.nextBoolean();
+            String lineEnding = random.nextBoolean() ? "\r\n" : "\n";
+
+            StringBuilder text = new StringBuilder();
+            for (int row = 0; row < numberOfWords; row++) {
+                text.append(randomString(random, WORD_CHARACTERS, 1 + random.nextInt(10)));
+                for (int feature = 0; feature < numberOfFeatures; feature++)
+                    text.append(delimiter).append(randomNumber(random));
+                text.append(trailingDelimiter ? delimiter : "").append(lineEnding);
+            }
+            Files.writeString(file.toPath(), text, StandardCharsets.UTF_8);
+
+            String name = "Loader matches String.split and Double.parseDouble (delimiter '" + delimiter + "', "
+                    + numberOfFeatures + " features" + (trailingDelimiter ? ", trailing delimiters" : "")
+                    + (lineEnding.length() == 2 ? ", \\r\\n" : "") + ")";
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            boolean passed;
+
+            LoadOptions loadOptions = new LoadOptions();
+            loadOptions.setParallelism(4);
+
+            try (WordsEmbeddings wordsEmbeddings = new WordsEmbeddings(file.getPath(), loadOptions)) {
+                EmbeddingMatrix matrix = wordsEmbeddings.getEmbeddingMatrix();
+                passed = wordsEmbeddings.getNumberOfWords() == lines.size()
+                        && matrix.getNumberOfFeatures() == numberOfFeatures;
+
+                for (int row = 0; row < lines.size() && passed; row++) {
+                    String[] tokens = lines.get(row).split(delimiter);
+                    passed = tokens.length == numberOfFeatures + 1
+                            && tokens[0].equals(wordsEmbeddings.getWords()[row]);
+
+                    for (int feature = 0; feature < numberOfFeatures && passed; feature++)
+                        passed = Double.doubleToRawLongBits(Double.parseDouble(tokens[feature + 1])) == Double
+                                .doubleToRawLongBits(matrix.get(row, feature));
+                }
+            } catch (Exception e) {
+                name += ": " + e;
+                passed = false;
+            }
+
+            file.delete();
+            check(name, passed);
+        }
+    }
+
+    /**
+     * early-abandoning euclidean scans, and batched tiled scans, against the
+     * single-query exact scan, for every storage mode: the words and scores
+     * must be identical, for the nearest and the farthest words, serial and in
+     * parallel, with batches of several query blocks, and VP-tree searches
+     * against exact scans; then snapshots of the same file against the file
+     * itself, and VP-tree searches of a file with few features
+     */
+    private static void checkSearches(Random random) throws Exception {
+        File file = writeRandomFile(random, 12000, 67, "%.5f");
+
+        for (Precision precision : Precision.values()) {
+            for (boolean offHeap : new boolean[] { false, true }) {
+                try (WordsEmbeddings wordsEmbeddings = new WordsEmbeddings(file.getPath(),
+                        loadOptions(precision, offHeap))) {
+                    double[][] queries = randomQueries(wordsEmbeddings, 40, random);
+
+                    String storage = precision + (offHeap ? ", off-heap" : ", on-heap");
+                    check("Early-abandoning euclidean scans match the exact scan (" + storage + ")",
+                            checkEarlyAbandon(wordsEmbeddings, queries));
+                    check("Batched tiled scans match one exact scan per query (" + storage + ")",
+                            checkBatches(wordsEmbeddings, queries));
+                    check("VP-tree searches match the exact scan (" + storage + ")",
+                            checkVpTree(wordsEmbeddings, queries, random));
+                    check("3CosAdd and 3CosMul analogies match a plain scan, without their own words (" + storage
+                            + ")", checkAnalogies(wordsEmbeddings, random));
+                    check("Tiered searches stop at the head tier or match the untiered search (" + storage + ")",
+                            checkTiers(wordsEmbeddings, queries, random));
+                    check("Filtered searches through every search index return allowed words with exact scores ("
+                            + storage + ")", checkFilteredIndexes(wordsEmbeddings,
+                                    Arrays.copyOf(queries, 10), random));
+                }
+            }
+        }
+
+        checkSnapshots(file, random);
+
+        deleteWithIndexes(file);
+
+        // few features, rounded to two decimals: the tree prunes most of its
+        // nodes, and many distances are ties
+        File lowDimensionalFile = writeRandomFile(random, 12000, 4, "%.2f");
+
+        for (Precision precision : Precision.values()) {
+            for (boolean offHeap : new boolean[] { false, true }) {
+                try (WordsEmbeddings wordsEmbeddings = new WordsEmbeddings(lowDimensionalFile.getPath(),
+                        loadOptions(precision, offHeap))) {
+                    check("VP-tree searches match the exact scan (4 features, " + precision
+                            + (offHeap ? ", off-heap)" : ", on-heap)"), checkVpTree(wordsEmbeddings,
+                                    randomQueries(wordsEmbeddings, 40, random), random));
+                }
+            }
+        }
+
+        lowDimensionalFile.delete();
+    }
+
+    /**
+     * write a temporary words-embeddings file of words "w0", "w1", ... with
+     * normally distributed values
+     *
+     * @param format - the format of each value, e.g. "%.5f"
+     */
+    private static File writeRandomFile(Random random, int numberOfWords, int numberOfFeatures, String format)
+            throws Exception {
+        File file = File.createTempFile("exactness-check", ".txt");
+        file.deleteOnExit();
+
+        StringBuilder text = new StringBuilder();
+        for (int row = 0; row < numberOfWords; row++) {
+            text.append("w").append(row);
+            for (int feature = 0; feature < numberOfFeatures; feature++)
+                text.append(' ').append(String.format(Locale.ROOT, format, random.nextGaussian()));
+            text.append('\n');
+        }
+        Files.writeString(file.toPath(), text, StandardCharsets.UTF_8);
+
+        return file;
+    }
+
+    /**
+     * get load options for a storage mode, parsing on 4 threads
+     */
+    private static LoadOptions loadOptions(Precision precision, boolean offHeap) {
+        LoadOptions loadOptions = new LoadOptions();
+        loadOptions.setPrecision(precision);
+        loadOptions.setOffHeap(offHeap);
+        loadOptions.setParallelism(4);
+
+        return loadOptions;
+    }
+
+    /**
+     * get query vectors: word vectors, and vectors that are no word's, in more
+     * than one query block
+     */
+    private static double[][] randomQueries(WordsEmbeddings wordsEmbeddings, int count, Random random)
+            throws Exception {
+        int numberOfWords = wordsEmbeddings.getNumberOfWords();
+        int numberOfFeatures = wordsEmbeddings.getEmbeddingMatrix().getNumberOfFeatures();
+
+        double[][] queries = new double[count][];
+        for (int q = 0; q < count; q++)
+            queries[q] = q % 3 == 0 ? random.doubles(numberOfFeatures).toArray()
+                    : wordsEmbeddings.getWordEmbedding("w" + random.nextInt(numberOfWords));
+
+        return queries;
+    }
+
+    /**
+     * snapshots against the text file they were saved from: a snapshot saved
+     * on-heap at each precision is loaded at each precision, on-heap and
+     * off-heap (memory-mapped when the precisions match), and must give the
+     * same vocabulary, word index, and words and scores for every similarity
+     * algorithm, as the text file loaded with the same options; float32
+     * snapshots hold rounded values, so they are only loaded as float32
+     */
+    private static void checkSnapshots(File file, Random random) throws Exception {
+        File snapshot = File.createTempFile("exactness-check", ".snapshot");
+        snapshot.deleteOnExit();
+
+        for (Precision savedPrecision : Precision.values()) {
+            try (WordsEmbeddings saved = new WordsEmbeddings(file.getPath(), loadOptions(savedPrecision, false))) {
+                saved.saveSnapshot(snapshot.getPath());
+            }
+
+            for (Precision precision : Precision.values()) {
+                if (savedPrecision == Precision.FLOAT32 && precision == Precision.FLOAT64)
+                    continue;
+
+                for (boolean offHeap : new boolean[] { false, true }) {
+                    LoadOptions loadOptions = loadOptions(precision, offHeap);
+                    String name = "Snapshot round trip matches the text file (saved as " + savedPrecision
+                            + ", loaded as " + precision + (offHeap ? ", off-heap" : ", on-heap") + ")";
+                    boolean passed;
+
+                    try (WordsEmbeddings text = new WordsEmbeddings(file.getPath(), loadOptions);
+                            WordsEmbeddings loaded = new WordsEmbeddings(snapshot.getPath(), loadOptions)) {
+                        passed = loaded.isSnapshot() && checkSameWords(text, loaded)
+                                && checkSameSearches(text, loaded, randomQueries(text, 10, random));
+                    } catch (Exception e) {
+                        name += ": " + e;
+                        passed = false;
+                    }
+
+                    check(name, passed);
+                }
+            }
+        }
+
+        snapshot.delete();
+    }
+
+    /**
+     * compare the vocabularies and word indexes of two loads of a file
+     */
+    private static boolean checkSameWords(WordsEmbeddings expected, WordsEmbeddings actual) {
+        if (!Arrays.equals(expected.getWords(), actual.getWords()))
+            return false;
+
+        String[] words = actual.getWords();
+        for (int row = 0; row < words.length; row++) {
+            try {
+                if (actual.getWordIndex(words[row]) != row)
+                    return false;
+            } catch (Exception e) {
+                return false;
+            }
+
+            // a word that was never loaded must not be found
+            try {
+                actual.getWordIndex("missing-" + words[row]);
+                return false;
+            } catch (Exception e) {
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * compare the words and scores of the same searches on two loads of a file
+     */
+    private static boolean checkSameSearches(WordsEmbeddings expected, WordsEmbeddings actual, double[][] queries)
+            throws Exception {
+        for (SimilarityAlgorithm algorithm : SimilarityAlgorithm.values()) {
+            expected.setSimilarityAlgorithm(algorithm);
+            actual.setSimilarityAlgorithm(algorithm);
+
+            for (boolean similar : new boolean[] { true, false }) {
+                for (double[] query : queries) {
+                    if (!Arrays.equals(expected.getSimilarWords(query, 10, similar),
+                            actual.getSimilarWords(query, 10, similar))
+                            || !Arrays.equals(expected.getPreviousSimilarWordsScores(),
+                                    actual.getPreviousSimilarWordsScores()))
+                        return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * compare the nearest euclidean words with and without early abandoning
+     */
+    private static boolean checkEarlyAbandon(WordsEmbeddings wordsEmbeddings, double[][] queries) throws Exception {
+        for (SimilarityAlgorithm algorithm : new SimilarityAlgorithm[] { SimilarityAlgorithm.EUCLIDEAN_DISTANCE,
+                SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT }) {
+            wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+
+            for (int parallelThreshold : new int[] { 1, Integer.MAX_VALUE }) {
+                wordsEmbeddings.setParallelThreshold(parallelThreshold);
+
+                for (int howMany : new int[] { 1, 10, 200 }) {
+                    for (double[] query : queries) {
+                        wordsEmbeddings.setEarlyAbandon(false);
+                        String[] words = wordsEmbeddings.getSimilarWords(query, howMany, true);
+                        double[] scores = wordsEmbeddings.getPreviousSimilarWordsScores();
+
+                        wordsEmbeddings.setEarlyAbandon(true);
+                        if (!Arrays.equals(words, wordsEmbeddings.getSimilarWords(query, howMany, true))
+                                || !Arrays.equals(scores, wordsEmbeddings.getPreviousSimilarWordsScores()))
+                            return false;
+                    }
+                }
+            }
+        }
+
+        wordsEmbeddings.setEarlyAbandon(false);
+        return true;
+    }
+
+    /**
+     * compare one batched search of every query with one search per query
+     */
+    private static boolean checkBatches(WordsEmbeddings wordsEmbeddings, double[][] queries) throws Exception {
+        for (SimilarityAlgorithm algorithm : SimilarityAlgorithm.values()) {
+            wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+
+            for (int parallelThreshold : new int[] { 1, Integer.MAX_VALUE }) {
+                wordsEmbeddings.setParallelThreshold(parallelThreshold);
+
+                for (boolean similar : new boolean[] { true, false }) {
+                    for (int howMany : new int[] { 1, 10, 200 }) {
+                        String[][] batchWords = wordsEmbeddings.getSimilarWords(queries, howMany, similar);
+                        double[][] batchScores = wordsEmbeddings.getPreviousBatchSimilarWordsScores();
+
+                        for (int q = 0; q < queries.length; q++) {
+                            String[] words = wordsEmbeddings.getSimilarWords(queries[q], howMany, similar);
+                            double[] scores = wordsEmbeddings.getPreviousSimilarWordsScores();
+
+                            if (!Arrays.equals(batchWords[q], words) || !Arrays.equals(batchScores[q], scores))
+                                return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * compare VP-tree searches with exact scans, for the nearest and the
+     * farthest words, with no filter, a filter allowing a third of the words,
+     * and a filter allowing only 250 words
+     */
+    private static boolean checkVpTree(WordsEmbeddings wordsEmbeddings, double[][] queries, Random random)
+            throws Exception {
+        RowFilter[] filters = randomFilters(wordsEmbeddings.getNumberOfWords(), random);
+        boolean passed = true;
+
+        wordsEmbeddings.setSearchIndexType(SearchIndexType.VP_TREE);
+
+        for (SimilarityAlgorithm algorithm : new SimilarityAlgorithm[] { SimilarityAlgorithm.EUCLIDEAN_DISTANCE,
+                SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT }) {
+            wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+
+            for (int parallelThreshold : new int[] { 1, Integer.MAX_VALUE }) {
+                wordsEmbeddings.setParallelThreshold(parallelThreshold);
+
+                for (RowFilter filter : filters)
+                    for (boolean similar : new boolean[] { true, false })
+                        for (int howMany : new int[] { 1, 10, 200 })
+                            for (double[] query : queries)
+                                passed &= checkIndexedSearch(wordsEmbeddings, query, howMany, similar, filter);
+            }
+        }
+
+        wordsEmbeddings.setSearchIndexType(SearchIndexType.EXACT);
+        return passed;
+    }
+
+    /**
+     * compare one search through the search index with an exact scan
+     */
+    private static boolean checkIndexedSearch(WordsEmbeddings wordsEmbeddings, double[] query, int howMany,
+            boolean similar, RowFilter filter) throws Exception {
+        wordsEmbeddings.setExactSearch(true);
+        String[] words = wordsEmbeddings.getSimilarWords(query, howMany, similar, filter);
+        double[] scores = wordsEmbeddings.getPreviousSimilarWordsScores();
+
+        wordsEmbeddings.setExactSearch(false);
+        return Arrays.equals(words, wordsEmbeddings.getSimilarWords(query, howMany, similar, filter))
+                && Arrays.equals(scores, wordsEmbeddings.getPreviousSimilarWordsScores());
+    }
+
+    /**
+     * compare tiered searches (a head tier of a quarter of the words) with
+     * untiered ones, with the same three filters, for every similarity
+     * algorithm, with no tier score threshold and with the median of the head
+     * tier's k-th best scores (so some queries stop at the head, and some
+     * continue into the tail): each search must return what a search of the
+     * head alone returns when the head fills the top-k well enough, and the
+     * untiered search's words otherwise, and batches must do the same for each
+     * query; dissimilar and full searches are never tiered
+     */
+    private static boolean checkTiers(WordsEmbeddings wordsEmbeddings, double[][] queries, Random random)
+            throws Exception {
+        int numberOfWords = wordsEmbeddings.getNumberOfWords();
+        int tierWords = numberOfWords / 4;
+        SimilarityAlgorithm originalAlgorithm = wordsEmbeddings.getSimilarityAlgorithm();
+        boolean passed = true;
+        int stopped = 0;
+        int continued = 0;
+
+        for (SimilarityAlgorithm algorithm : SimilarityAlgorithm.values()) {
+            wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+            boolean largest = algorithm != SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                    && algorithm != SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+
+            for (RowFilter filter : randomFilters(numberOfWords, random)) {
+                RowFilter headFilter = RowFilter.of(numberOfWords,
+                        row -> row < tierWords && RowFilter.allows(filter, row));
+
+                for (int howMany : new int[] { 1, 10, 100 }) {
+                    // the untiered searches, and searches of the head alone
+                    wordsEmbeddings.setTierWords(0);
+                    String[][] untiered = new String[queries.length][];
+                    double[][] untieredScores = new double[queries.length][];
+                    String[][] dissimilar = new String[queries.length][];
+                    String[][] head = new String[queries.length][];
+                    double[][] headScores = new double[queries.length][];
+
+                    for (int q = 0; q < queries.length; q++) {
+                        untiered[q] = wordsEmbeddings.getSimilarWords(queries[q], howMany, true, filter);
+                        untieredScores[q] = wordsEmbeddings.getPreviousSimilarWordsScores();
+                        dissimilar[q] = wordsEmbeddings.getSimilarWords(queries[q], howMany, false, filter);
+
+                        if (headFilter.getCardinality() >= howMany) {
+                            head[q] = wordsEmbeddings.getSimilarWords(queries[q], howMany, true, headFilter);
+                            headScores[q] = wordsEmbeddings.getPreviousSimilarWordsScores();
+                        }
+                    }
+
+                    double[] worstHeadScores = Arrays.stream(headScores).filter(scores -> scores != null)
+                            .mapToDouble(scores -> scores[scores.length - 1]).sorted().toArray();
+                    double median = worstHeadScores.length == 0 ? Double.NaN
+                            : worstHeadScores[worstHeadScores.length / 2];
+
+                    wordsEmbeddings.setTierWords(tierWords);
+
+                    for (double threshold : new double[] { Double.NaN, median }) {
+                        wordsEmbeddings.setTierScoreThreshold(threshold);
+                        boolean[] filled = new boolean[queries.length];
+
+                        for (int q = 0; q < queries.length; q++) {
+                            double worst = headScores[q] == null ? Double.NaN
+                                    : headScores[q][headScores[q].length - 1];
+                            filled[q] = head[q] != null && (Double.isNaN(threshold)
+                                    || (largest ? worst >= threshold : worst <= threshold));
+
+                            if (filled[q])
+                                stopped++;
+                            else
+                                continued++;
+
+                            String[] words = wordsEmbeddings.getSimilarWords(queries[q], howMany, true, filter,
+                                    false);
+                            passed &= Arrays.equals(words, filled[q] ? head[q] : untiered[q])
+                                    && Arrays.equals(wordsEmbeddings.getPreviousSimilarWordsScores(),
+                                            filled[q] ? headScores[q] : untieredScores[q])
+                                    && wordsEmbeddings.getPreviousSearchedWords() == (filled[q] ? tierWords
+                                            : numberOfWords);
+
+                            passed &= Arrays.equals(untiered[q],
+                                    wordsEmbeddings.getSimilarWords(queries[q], howMany, true, filter, true))
+                                    && wordsEmbeddings.getPreviousSearchedWords() == numberOfWords;
+
+                            passed &= Arrays.equals(dissimilar[q],
+                                    wordsEmbeddings.getSimilarWords(queries[q], howMany, false, filter))
+                                    && wordsEmbeddings.getPreviousSearchedWords() == numberOfWords;
+                        }
+
+                        String[][] batch = wordsEmbeddings.getSimilarWords(queries, howMany, true, filter, false);
+                        double[][] batchScores = wordsEmbeddings.getPreviousBatchSimilarWordsScores();
+                        boolean anyFilled = false;
+
+                        for (int q = 0; q < queries.length; q++) {
+                            passed &= Arrays.equals(batch[q], filled[q] ? head[q] : untiered[q])
+                                    && Arrays.equals(batchScores[q], filled[q] ? headScores[q] : untieredScores[q]);
+                            anyFilled |= filled[q];
+                        }
+
+                        passed &= wordsEmbeddings.getPreviousSearchedWords() == (anyFilled ? tierWords
+                                : numberOfWords);
+                    }
+                }
+            }
+        }
+
+        wordsEmbeddings.setTierWords(0);
+        wordsEmbeddings.setTierScoreThreshold(Double.NaN);
+        wordsEmbeddings.setSimilarityAlgorithm(originalAlgorithm);
+
+        // both outcomes must have been checked
+        return passed && stopped > 0 && continued > 0;
+    }
+
+    /**
+     * search through every kind of search index, with every similarity
+     * algorithm, for the similar and the dissimilar words, with the same three
+     * filters; the reference is an exact ranking of every word, filtered
+     * afterwards: exact searches (an exact scan, a VP-tree, or a search the
+     * index does not support) must return its first allowed words, and
+     * approximate ones 'howMany' allowed words, best first, with its scores
+     */
+    private static boolean checkFilteredIndexes(WordsEmbeddings wordsEmbeddings, double[][] queries, Random random)
+            throws Exception {
+        int numberOfWords = wordsEmbeddings.getNumberOfWords();
+        RowFilter[] filters = randomFilters(numberOfWords, random);
+        SimilarityAlgorithm originalAlgorithm = wordsEmbeddings.getSimilarityAlgorithm();
+        boolean passed = true;
+
+        for (SearchIndexType type : SearchIndexType.values()) {
+            for (SimilarityAlgorithm algorithm : SimilarityAlgorithm.values()) {
+                wordsEmbeddings.setSimilarityAlgorithm(algorithm);
+                wordsEmbeddings.setSearchIndexType(type);
+
+                boolean euclidean = algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                        || algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+
+                for (double[] query : queries) {
+                    for (boolean similar : new boolean[] { true, false }) {
+                        boolean largest = euclidean != similar;
+                        SimilarityIndex index = wordsEmbeddings.getSearchIndex();
+                        boolean exact = index == null || type == SearchIndexType.VP_TREE
+                                || !index.supports(algorithm, largest);
+
+                        wordsEmbeddings.setExactSearch(true);
+                        String[] ranking = wordsEmbeddings.getSimilarWords(query, numberOfWords, similar);
+                        double[] rankingScores = wordsEmbeddings.getPreviousSimilarWordsScores();
+                        wordsEmbeddings.setExactSearch(false);
+
+                        int[] rankedRows = new int[numberOfWords];
+                        double[] exactScores = new double[numberOfWords];
+                        for (int i = 0; i < numberOfWords; i++) {
+                            rankedRows[i] = wordsEmbeddings.getWordIndex(ranking[i]);
+                            exactScores[rankedRows[i]] = rankingScores[i];
+                        }
+
+                        for (RowFilter filter : filters)
+                            for (int howMany : new int[] { 1, 10, 100 })
+                                passed &= checkFilteredSearch(wordsEmbeddings, query, howMany, similar, filter,
+                                        largest, exact, rankedRows, exactScores);
+                    }
+                }
+            }
+        }
+
+        wordsEmbeddings.setSearchIndexType(SearchIndexType.EXACT);
+        wordsEmbeddings.setSimilarityAlgorithm(originalAlgorithm);
+        return passed;
+    }
+
+    /**
+     * check one filtered search against the exact ranking of every word
+     */
+    private static boolean checkFilteredSearch(WordsEmbeddings wordsEmbeddings, double[] query, int howMany,
+            boolean similar, RowFilter filter, boolean largest, boolean exact, int[] rankedRows,
+            double[] exactScores) throws Exception {
+        String[] found = wordsEmbeddings.getSimilarWords(query, howMany, similar, filter);
+        double[] scores = wordsEmbeddings.getPreviousSimilarWordsScores();
+
+        if (found.length != howMany || scores.length != howMany)
+            return false;
+
+        if (exact) {
+            String[] words = wordsEmbeddings.getWords();
+            String[] expected = Arrays.stream(rankedRows).filter(row -> RowFilter.allows(filter, row))
+                    .limit(howMany).mapToObj(row -> words[row]).toArray(String[]::new);
+            double[] expectedScores = Arrays.stream(rankedRows).filter(row -> RowFilter.allows(filter, row))
+                    .limit(howMany).mapToDouble(row -> exactScores[row]).toArray();
+
+            return Arrays.equals(found, expected) && Arrays.equals(scores, expectedScores);
+        }
+
+        boolean[] returned = new boolean[exactScores.length];
+
+        for (int i = 0; i < howMany; i++) {
+            int row = wordsEmbeddings.getWordIndex(found[i]);
+
+            if (returned[row] || !RowFilter.allows(filter, row) || scores[i] != exactScores[row]
+                    || i > 0 && (largest ? scores[i] > scores[i - 1] : scores[i] < scores[i - 1]))
+                return false;
+
+            returned[row] = true;
+        }
+
+        return true;
+    }
+
+    /**
+     * delete a temporary words-embeddings file, and the search indexes saved
+     * next to it (see IndexFile)
+     */
+    private static void deleteWithIndexes(File file) {
+        File[] indexFiles = file.getAbsoluteFile().getParentFile()
+                .listFiles((directory, name) -> name.startsWith(file.getName() + ".") && name.endsWith(".index"));
+
+        if (indexFiles != null)
+            for (File indexFile : indexFiles)
+                indexFile.delete();
+
+        file.delete();
+    }
+
+    /**
+     * compare analogies (3 and 5 terms, and terms naming the same word twice)
+     * with a plain scan that scores every word with its own loops: the results
+     * must be the best allowed words besides the terms, best first, with the
+     * scores of the plain scan; the scans sum in different orders (and the
+     * vectorized kernels sum 32-bit floats as floats), so scores may differ by
+     * 1e-9 (1e-4 for 32-bit floats)
+     */
+    private static boolean checkAnalogies(WordsEmbeddings wordsEmbeddings, Random random) throws Exception {
+        int numberOfWords = wordsEmbeddings.getNumberOfWords();
+        String[] words = wordsEmbeddings.getWords();
+        double tolerance = wordsEmbeddings.getEmbeddingMatrix().getPrecision() == Precision.FLOAT32 ? 1e-4 : 1e-9;
+
+        for (RowFilter filter : randomFilters(numberOfWords, random)) {
+            // terms the filter allows, so leaving them out of the results matters
+            int[] allowed = IntStream.range(0, numberOfWords)
+                    .filter(row -> RowFilter.allows(filter, row)).toArray();
+
+            for (int analogy = 0; analogy < 6; analogy++) {
+                int numberOfPositives = analogy % 3 == 2 ? 3 : 2;
+                int numberOfTerms = analogy % 3 == 2 ? 5 : 3;
+                int[] termRows = new int[numberOfTerms];
+                for (int t = 0; t < numberOfTerms; t++)
+                    termRows[t] = allowed[random.nextInt(allowed.length)];
+                if (analogy % 3 == 1)
+                    termRows[2] = termRows[0];
+
+                String[] positive = new String[numberOfPositives];
+                String[] negative = new String[numberOfTerms - numberOfPositives];
+                for (int t = 0; t < numberOfTerms; t++) {
+                    if (t < numberOfPositives)
+                        positive[t] = words[termRows[t]];
+                    else
+                        negative[t - numberOfPositives] = words[termRows[t]];
+                }
+
+                for (AnalogyObjective objective : AnalogyObjective.values()) {
+                    double[] expected = plainAnalogyScores(wordsEmbeddings.getEmbeddingMatrix(), termRows,
+                            numberOfPositives, objective);
+
+                    for (int parallelThreshold : new int[] { 1, Integer.MAX_VALUE }) {
+                        wordsEmbeddings.setParallelThreshold(parallelThreshold);
+
+                        for (int howMany : new int[] { 1, 10, 100 }) {
+                            String[] found = wordsEmbeddings.getAnalogyWords(positive, negative, howMany, objective,
+                                    filter);
+                            double[] scores = wordsEmbeddings.getPreviousSimilarWordsScores();
+
+                            if (!checkAnalogy(wordsEmbeddings, found, scores, howMany, expected, termRows, filter,
+                                    tolerance))
+                                return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * check one analogy's results against the plain scan's scores
+     */
+    private static boolean checkAnalogy(WordsEmbeddings wordsEmbeddings, String[] found, double[] scores,
+            int howMany, double[] expected, int[] termRows, RowFilter filter, double tolerance) throws Exception {
+        if (found.length != howMany)
+            return false;
+
+        boolean[] returned = new boolean[expected.length];
+
+        for (int i = 0; i < found.length; i++) {
+            int row = wordsEmbeddings.getWordIndex(found[i]);
+
+            if (returned[row] || !RowFilter.allows(filter, row) || Arrays.stream(termRows).anyMatch(t -> t == row)
+                    || Math.abs(scores[i] - expected[row]) > tolerance || i > 0 && scores[i] > scores[i - 1])
+                return false;
+
+            returned[row] = true;
+        }
+
+        // no candidate that was left out may beat the worst result
+        double worst = scores[scores.length - 1];
+
+        for (int row = 0; row < expected.length; row++) {
+            int candidate = row;
+
+            if (!returned[row] && RowFilter.allows(filter, row)
+                    && Arrays.stream(termRows).noneMatch(t -> t == candidate) && expected[row] > worst + tolerance)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * score every word of an analogy with plain loops over the stored values:
+     * cosine similarity to each term, combined by 3CosAdd (the positive
+     * similarities minus the negative ones) or 3CosMul (the positive
+     * similarities, shifted to [0, 1], multiplied, over the negative ones)
+     */
+    private static double[] plainAnalogyScores(EmbeddingMatrix matrix, int[] termRows, int numberOfPositives,
+            AnalogyObjective objective) {
+        int numberOfRows = matrix.getNumberOfRows();
+        double[][] terms = new double[termRows.length][];
+        for (int t = 0; t < termRows.length; t++)
+            terms[t] = matrix.copyRow(termRows[t]);
+
+        double[] scores = new double[numberOfRows];
+
+        for (int row = 0; row < numberOfRows; row++) {
+            double[] values = matrix.copyRow(row);
+            double sum = 0.0;
+            double positive = 1.0;
+            double negative = 1.0;
+
+            for (int t = 0; t < terms.length; t++) {
+                double dotProduct = 0.0;
+                double termNorm = 0.0;
+                double rowNorm = 0.0;
+
+                for (int feature = 0; feature < values.length; feature++) {
+                    dotProduct += terms[t][feature] * values[feature];
+                    termNorm += terms[t][feature] * terms[t][feature];
+                    rowNorm += values[feature] * values[feature];
+                }
+
+                double cosine = dotProduct / Math.sqrt(termNorm * rowNorm);
+                sum += t < numberOfPositives ? cosine : -cosine;
+
+                if (t < numberOfPositives)
+                    positive *= (cosine + 1.0) / 2.0;
+                else
+                    negative *= (cosine + 1.0) / 2.0;
+            }
+
+            scores[row] = objective == AnalogyObjective.THREE_COS_ADD ? sum
+                    : positive / (negative + AnalogyObjective.EPSILON);
+        }
+
+        return scores;
+    }
+
+    /**
+     * get the filters to search with: none, one allowing a random third of the
+     * words, and one allowing only 250 random words
+     */
+    private static RowFilter[] randomFilters(int numberOfWords, Random random) {
+        int[] rows = Arrays.copyOf(shuffledRows(numberOfWords, random), 250);
+
+        return new RowFilter[] { null, RowFilter.of(numberOfWords, row -> random.nextInt(3) == 0),
+                RowFilter.of(numberOfWords, rows, true) };
+    }
+
+    /**
+     * get a random number in one of the formats of words-embeddings files, e.g.
+     * -0.41800, 1.5e-3, 12, or one with too many digits for the fast path
+     */
+    private static String randomNumber(Random random) {
+        return switch (random.nextInt(5)) {
+            case 0 -> String.format(Locale.ROOT, "%.5f", random.nextGaussian());
+            case 1 -> Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(50) - 25));
+            case 2 -> Integer.toString(random.nextInt(2001) - 1000);
+            case 3 -> (random.nextBoolean() ? "-" : "") + random.nextInt(10) + "." + randomString(random,
+                    "0123456789", 1 + random.nextInt(25));
+            default -> String.format(Locale.ROOT, "%.3e", random.nextGaussian()).replace("e+0", "e")
+                    .replace("e-0", "e-");
+        };
+    }
+
+    /**
+     * get a random string of a length, from a set of characters
+     */
+    private static String randomString(Random random, String characters, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            text.append(characters.charAt(random.nextInt(characters.length())));
+
+        return text.toString();
+    }
+
+    /**
+     * the order TopK must return: best score first (NaN last), then lowest index
+     */
+    private static Comparator<Integer> referenceOrder(double[] scores, boolean largest) {
+        return (index1, index2) -> {
+            double score1 = scores[index1];
+            double score2 = scores[index2];
+
+            if (Double.isNaN(score1) || Double.isNaN(score2)) {
+                if (Double.isNaN(score1) && Double.isNaN(score2))
+                    return Integer.compare(index1, index2);
+
+                return Double.isNaN(score1) ? 1 : -1;
+            }
+
+            if (score1 != score2)
+                return largest ? Double.compare(score2, score1) : Double.compare(score1, score2);
+
+            return Integer.compare(index1, index2);
+        };
+    }
+
+    /**
+     * get the rows 0 to count - 1 in a random order
+     */
+    private static int[] shuffledRows(int count, Random random) {
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++)
+            rows[i] = i;
+
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+
+        return rows;
+    }
+}
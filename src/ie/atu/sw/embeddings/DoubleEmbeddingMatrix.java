@@ -0,0 +1,98 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+import ie.atu.sw.util.Vector;
+
+/**
+ * an EmbeddingMatrix that stores its values in one array of doubles
+ */
+public class DoubleEmbeddingMatrix extends EmbeddingMatrix {
+
+    private final double[] values;
+
+    /**
+     * create an empty matrix, ready to be filled by the loader
+     *
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     * @throws Exception if the matrix is too big for a single array
+     */
+    public DoubleEmbeddingMatrix(int numberOfRows, int numberOfFeatures) throws Exception {
+        super(numberOfRows, numberOfFeatures);
+        this.values = new double[singleArraySize(numberOfRows, numberOfFeatures)];
+    }
+
+    @Override
+    public Precision getPrecision() {
+        return Precision.FLOAT64;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        return this.values[offset(row) + feature];
+    }
+
+    @Override
+    void set(int row, int feature, double value) {
+        this.values[offset(row) + feature] = value;
+    }
+
+    @Override
+    public DoubleBuffer getRow(int row) {
+        return DoubleBuffer.wrap(this.values, offset(row), this.numberOfFeatures).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void copyRow(int row, double[] destination) {
+        System.arraycopy(this.values, offset(row), destination, 0, this.numberOfFeatures);
+    }
+
+    @Override
+    void writeRows(ByteBuffer destination, int startRow, int numberOfRows) {
+        int length = numberOfRows * this.numberOfFeatures;
+        destination.asDoubleBuffer().put(this.values, offset(startRow), length);
+        destination.position(destination.position() + length * Double.BYTES);
+    }
+
+    @Override
+    void readRows(ByteBuffer source, Precision sourcePrecision, int startRow, int numberOfRows) {
+        if (sourcePrecision != Precision.FLOAT64) {
+            super.readRows(source, sourcePrecision, startRow, numberOfRows);
+            return;
+        }
+
+        int length = numberOfRows * this.numberOfFeatures;
+        source.asDoubleBuffer().get(this.values, offset(startRow), length);
+        source.position(source.position() + length * Double.BYTES);
+    }
+
+    @Override
+    protected double calculateSquaredNorm(int row) {
+        return Vector.squaredNorm(this.values, offset(row), this.numberOfFeatures);
+    }
+
+    @Override
+    protected void divideRow(int row, double divisor) {
+        int offset = offset(row);
+
+        for (int i = offset; i < offset + this.numberOfFeatures; i++)
+            this.values[i] /= divisor;
+    }
+
+    @Override
+    public double dotProduct(QueryVector query, int row) {
+        return Vector.dotProduct(query.getValues(), this.values, offset(row));
+    }
+
+    @Override
+    public double euclideanDistanceNoSqrt(QueryVector query, int row) {
+        return Vector.euclideanDistanceNoSqrt(query.getValues(), this.values, offset(row));
+    }
+
+    @Override
+    public int euclideanDistanceAbandonAt(QueryVector query, int row, double bound) {
+        return Vector.euclideanDistanceAbandonAt(query.getValues(), this.values, offset(row), bound);
+    }
+}
@@ -0,0 +1,401 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+import ie.atu.sw.util.Vector;
+
+/**
+ * <p>
+ * the word vectors of a words-embeddings file, stored in one contiguous,
+ * row-major array (row i holds the vector of word i)
+ * </p>
+ * <p>
+ * one array, instead of one array per word, means a single heap object, one
+ * allocation at load time, and similarity scans that stream through memory
+ * sequentially
+ * </p>
+ * <p>
+ * the values are stored as doubles (DoubleEmbeddingMatrix) or floats
+ * (FloatEmbeddingMatrix), see Precision, or outside the Java heap
+ * (OffHeapEmbeddingMatrix); either way, the squared norm of every row is
+ * computed once, in double, after loading
+ * </p>
+ */
+public abstract class EmbeddingMatrix {
+
+    /**
+     * the number of bytes of rows in one tile of a batched scan (see
+     * scoreTiles), small enough to stay in a core's L2 cache while a block of
+     * queries is scored against it
+     */
+    public static final int TILE_BYTES = 128 * 1024;
+
+    protected final int numberOfRows;
+    protected final int numberOfFeatures;
+    private double[] squaredNorms;
+
+    /**
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     */
+    protected EmbeddingMatrix(int numberOfRows, int numberOfFeatures) {
+        this.numberOfRows = numberOfRows;
+        this.numberOfFeatures = numberOfFeatures;
+    }
+
+    /**
+     * check that a matrix fits in a single (heap) array
+     *
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     * @return the number of values in the matrix
+     * @throws Exception if the matrix is too big for a single array
+     */
+    protected static int singleArraySize(int numberOfRows, int numberOfFeatures) throws Exception {
+        long size = (long) numberOfRows * numberOfFeatures;
+
+        if (size > Integer.MAX_VALUE - 8)
+            throw new Exception("Too many values (" + size + ") to store the embeddings in a single array");
+
+        return (int) size;
+    }
+
+    /**
+     * create an empty matrix, ready to be filled by the loader
+     *
+     * @param precision        - the number type to store the values as
+     * @param offHeap          - store the values outside the Java heap?
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     * @return an empty matrix
+     * @throws Exception if the matrix is too big for a single heap array, or
+     *                   for the direct memory limit (off-heap)
+     */
+    public static EmbeddingMatrix create(Precision precision, boolean offHeap, int numberOfRows,
+            int numberOfFeatures) throws Exception {
+        if (offHeap)
+            return new OffHeapEmbeddingMatrix(precision, numberOfRows, numberOfFeatures);
+
+        return switch (precision) {
+            case FLOAT64 -> new DoubleEmbeddingMatrix(numberOfRows, numberOfFeatures);
+            case FLOAT32 -> new FloatEmbeddingMatrix(numberOfRows, numberOfFeatures);
+        };
+    }
+
+    /**
+     * are the values stored outside the Java heap?
+     *
+     * @return whether the values are stored outside the Java heap
+     */
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    /**
+     * are the squared norms (and scores) computed with the SIMD kernels? norms
+     * computed with other kernels can differ in their last bits, so a snapshot
+     * records which kernels computed the norms it saved
+     *
+     * @return whether the SIMD kernels are used
+     */
+    public boolean usesSimdKernels() {
+        return Vector.SIMD_ENABLED;
+    }
+
+    /**
+     * get a query vector's squared norm, summed by the same kernels as the
+     * rows' norms, so a row scores exactly 1.0 against itself with cosine
+     * similarity
+     *
+     * @param query - a query vector with one value per feature
+     * @return the query vector's squared norm
+     */
+    public double getQuerySquaredNorm(QueryVector query) {
+        return usesSimdKernels() ? query.getSquaredNorm() : query.getScalarSquaredNorm();
+    }
+
+    /**
+     * drop the matrix's references to the values, once it is no longer needed;
+     * heap matrices are left as they are, off-heap matrices drop their buffers,
+     * for the garbage collector to free (or unmap) later, and must not be used
+     * again; nothing is freed deterministically
+     */
+    public void dropValues() {
+    }
+
+    /**
+     * get the number type the values are stored as
+     *
+     * @return the number type the values are stored as
+     */
+    public abstract Precision getPrecision();
+
+    /**
+     * get the number of rows (words) in the matrix
+     *
+     * @return the number of rows in the matrix
+     */
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    /**
+     * get the number of features (columns) in each row
+     *
+     * @return the number of features in each row
+     */
+    public int getNumberOfFeatures() {
+        return numberOfFeatures;
+    }
+
+    /**
+     * get the number of bytes used by the stored values
+     *
+     * @return the number of bytes used by the stored values
+     */
+    public long getSizeInBytes() {
+        return (long) this.numberOfRows * this.numberOfFeatures * getPrecision().getBytes();
+    }
+
+    /**
+     * get the index of a row's first value in the flat array
+     *
+     * @param row - the row
+     * @return the index of the row's first value
+     */
+    protected int offset(int row) {
+        return row * this.numberOfFeatures;
+    }
+
+    /**
+     * get one value of the matrix
+     *
+     * @param row     - the row (word)
+     * @param feature - the feature (column)
+     * @return the value
+     */
+    public abstract double get(int row, int feature);
+
+    /**
+     * set one value of the matrix, while loading
+     *
+     * @param row     - the row (word)
+     * @param feature - the feature (column)
+     * @param value   - the value to store
+     */
+    abstract void set(int row, int feature, double value);
+
+    /**
+     * get a read-only view of a row (a float32 row is widened into a new buffer)
+     *
+     * @param row - the row (word)
+     * @return a read-only buffer over the row's values
+     */
+    public abstract DoubleBuffer getRow(int row);
+
+    /**
+     * copy a row into an existing array
+     *
+     * @param row         - the row (word)
+     * @param destination - an array with one value per feature
+     */
+    public abstract void copyRow(int row, double[] destination);
+
+    /**
+     * copy a row into a new array
+     *
+     * @param row - the row (word)
+     * @return a copy of the row's values
+     */
+    public double[] copyRow(int row) {
+        double[] copy = new double[this.numberOfFeatures];
+        copyRow(row, copy);
+        return copy;
+    }
+
+    /**
+     * calculate the squared norm of a row, from the stored values
+     *
+     * @param row - the row (word)
+     * @return the squared norm of the row
+     */
+    protected abstract double calculateSquaredNorm(int row);
+
+    /**
+     * divide every value of a row, while loading
+     *
+     * @param row     - the row (word)
+     * @param divisor - the number to divide by
+     */
+    protected abstract void divideRow(int row, double divisor);
+
+    /**
+     * get the squared norm of a row, computed after loading
+     *
+     * @param row - the row (word)
+     * @return the squared norm of the row
+     */
+    public double getSquaredNorm(int row) {
+        return this.squaredNorms[row];
+    }
+
+    /**
+     * get the squared norms of all rows, computed after loading
+     *
+     * @return the squared norm of every row
+     */
+    double[] getSquaredNorms() {
+        return this.squaredNorms;
+    }
+
+    /**
+     * set the squared norms of all rows, e.g. read from a snapshot file
+     *
+     * @param squaredNorms - the squared norm of every row
+     */
+    void setSquaredNorms(double[] squaredNorms) {
+        this.squaredNorms = squaredNorms;
+    }
+
+    /**
+     * write a block of rows into a buffer, in the buffer's byte order, advancing
+     * the buffer's position
+     *
+     * @param destination  - the buffer to write to
+     * @param startRow     - the first row to write
+     * @param numberOfRows - the number of rows to write
+     */
+    abstract void writeRows(ByteBuffer destination, int startRow, int numberOfRows);
+
+    /**
+     * read a block of rows from a buffer, in the buffer's byte order, advancing
+     * the buffer's position; values stored with another precision are converted
+     * one by one
+     *
+     * @param source          - the buffer to read from
+     * @param sourcePrecision - the number type of the values in the buffer
+     * @param startRow        - the first row to read
+     * @param numberOfRows    - the number of rows to read
+     */
+    void readRows(ByteBuffer source, Precision sourcePrecision, int startRow, int numberOfRows) {
+        for (int row = startRow; row < startRow + numberOfRows; row++)
+            for (int feature = 0; feature < this.numberOfFeatures; feature++)
+                set(row, feature, sourcePrecision == Precision.FLOAT64 ? source.getDouble() : source.getFloat());
+    }
+
+    /**
+     * compute the squared norm of every row; if 'normalize' is true, divide each
+     * row by its norm first, so every stored squared norm becomes 1.0 (all-zero
+     * rows are left as they are)
+     *
+     * @param normalize - store L2-normalized rows?
+     */
+    void setSquaredNorms(boolean normalize) {
+        this.squaredNorms = new double[this.numberOfRows];
+
+        for (int row = 0; row < this.numberOfRows; row++) {
+            double squaredNorm = calculateSquaredNorm(row);
+
+            if (normalize && squaredNorm > 0) {
+                divideRow(row, Math.sqrt(squaredNorm));
+                squaredNorm = 1.0;
+            }
+
+            this.squaredNorms[row] = squaredNorm;
+        }
+    }
+
+    /**
+     * calculate the dot product of a query vector and a row
+     *
+     * @param query - a query vector with one value per feature
+     * @param row   - the row (word)
+     * @return the dot product of the vector and the row
+     */
+    public abstract double dotProduct(QueryVector query, int row);
+
+    /**
+     * calculate the euclidean distance between a query vector and a row, without
+     * applying the final square-root operation
+     *
+     * @param query - a query vector with one value per feature
+     * @param row   - the row (word)
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public abstract double euclideanDistanceNoSqrt(QueryVector query, int row);
+
+    /**
+     * sum the squared differences between a query vector and a row, one block of
+     * features at a time, and stop early once the partial sum exceeds a bound;
+     * the partial sums may round differently from euclideanDistanceNoSqrt(), so
+     * a row that is not abandoned should be rescored with it
+     *
+     * @param query - a query vector with one value per feature
+     * @param row   - the row (word)
+     * @param bound - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the number of features if it never did
+     */
+    public abstract int euclideanDistanceAbandonAt(QueryVector query, int row, double bound);
+
+    /**
+     * score a row against a query vector with a similarity algorithm, using the
+     * precomputed squared norms of the row and query for cosine similarity
+     *
+     * @param algorithm - the similarity algorithm to use
+     * @param query     - a query vector with one value per feature
+     * @param row       - the row (word)
+     * @return the similarity score
+     */
+    public double score(SimilarityAlgorithm algorithm, QueryVector query, int row) {
+        return switch (algorithm) {
+            case DOT_PRODUCT -> dotProduct(query, row);
+            case EUCLIDEAN_DISTANCE_NO_SQRT -> euclideanDistanceNoSqrt(query, row);
+            case EUCLIDEAN_DISTANCE -> Math.sqrt(euclideanDistanceNoSqrt(query, row));
+            case COSINE_SIMILARITY ->
+                dotProduct(query, row) / Math.sqrt(getQuerySquaredNorm(query) * this.squaredNorms[row]);
+        };
+    }
+
+    /**
+     * <p>
+     * score a range of rows against a block of query vectors, offering each
+     * score to the query's TopK, one tile of TILE_BYTES of rows at a time: every
+     * query is scored against a tile before the next tile is read, so a tile is
+     * read from memory once per block of queries instead of once per query
+     * </p>
+     * <p>
+     * each (query, row) pair is scored by score(), so the results are the same
+     * as one scan per query
+     * </p>
+     *
+     * @param algorithm  - the similarity algorithm to use
+     * @param queries    - the query vectors, one value per feature each
+     * @param firstQuery - the index of the block's first query
+     * @param startRow   - the first row to score (inclusive)
+     * @param endRow     - the last row to score (exclusive)
+     * @param filter     - the rows to score, or null for every row
+     * @param results    - one TopK per query of the block, from 'firstQuery'
+     */
+    public void scoreTiles(SimilarityAlgorithm algorithm, QueryVector[] queries, int firstQuery, int startRow,
+            int endRow, RowFilter filter, TopK[] results) {
+        int tileRows = Math.max(1, TILE_BYTES / Math.max(1, this.numberOfFeatures * getPrecision().getBytes()));
+
+        for (int tileStart = startRow; tileStart < endRow; tileStart += tileRows) {
+            int tileEnd = Math.min(endRow, tileStart + tileRows);
+
+            for (int q = 0; q < results.length; q++) {
+                QueryVector query = queries[firstQuery + q];
+                TopK topK = results[q];
+
+                for (int row = RowFilter.next(filter, tileStart); row < tileEnd; row = RowFilter.next(filter, row + 1))
+                    topK.offer(row, score(algorithm, query, row));
+            }
+        }
+    }
+}
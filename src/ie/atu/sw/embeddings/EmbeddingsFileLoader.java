@@ -0,0 +1,607 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ie.atu.sw.console.ConsoleColor;
+import ie.atu.sw.console.ConsoleProgressMeter;
+import ie.atu.sw.util.DoubleParser;
+
+/**
+ * <p>
+ * load the words and word vectors of a words-embeddings text file, in parallel
+ * </p>
+ * <p>
+ * the file is memory-mapped and split at newline boundaries into chunks; the
+ * lines of every chunk are counted in parallel, which sizes the words array and
+ * the embedding matrix and gives every chunk its first row, then the chunks
+ * are parsed in parallel directly into the matrix; with a word cap (see
+ * LoadOptions.setMaxWords), only the chunks holding the first words are read
+ * </p>
+ * <p>
+ * lines end with '\n' or "\r\n"; the delimiter is detected from the first
+ * line, and every line must have the same number of values as the first
+ * </p>
+ * <p>
+ * each line is split on the delimiter's bytes, the way String.split would
+ * split it, and the values are parsed straight from the bytes (DoubleParser),
+ * so the only String created per line is the word
+ * </p>
+ * <p>
+ * a RowListener is told about every chunk's rows as soon as they are parsed,
+ * on the parsing thread, e.g. to build a search index while the file loads
+ * </p>
+ */
+public class EmbeddingsFileLoader {
+
+    /**
+     * notified by the loader as the rows of the matrix are filled
+     */
+    public interface RowListener {
+
+        /**
+         * the matrix was allocated, and is about to be filled
+         *
+         * @param matrix - the (still empty) embedding matrix
+         * @throws Exception
+         */
+        void matrixCreated(EmbeddingMatrix matrix) throws Exception;
+
+        /**
+         * a range of rows was parsed into the matrix; ranges may arrive in any
+         * order, and from several threads at once, but each row arrives once
+         *
+         * @param firstRow     - the first parsed row
+         * @param numberOfRows - the number of parsed rows
+         * @throws Exception
+         */
+        void rowsParsed(int firstRow, int numberOfRows) throws Exception;
+    }
+
+    /** the smallest chunk of the file given to one task */
+    private static final long MIN_CHUNK_BYTES = 1L << 20;
+
+    /** the largest chunk of the file given to one task (and mapped at once) */
+    private static final long MAX_CHUNK_BYTES = 1L << 26;
+
+    /** aim for a few chunks per thread, so uneven chunks still balance */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final String fileName;
+    private final LoadOptions loadOptions;
+
+    private String delimiter;
+    private byte[] delimiterBytes;
+
+    private String[] words;
+    private int numberOfWords;
+
+    private EmbeddingMatrix embeddings;
+    private int numberOfFeatures;
+
+    private int numberOfChunksParsed;
+    private RowListener rowListener;
+
+    /**
+     * a contiguous range of whole lines in the file
+     */
+    private static class Chunk {
+        private final long start;
+        private final int length;
+        private final boolean last;
+        private MappedByteBuffer buffer;
+        private int firstRow;
+        private int numberOfRows;
+
+        private Chunk(long start, int length, boolean last) {
+            this.start = start;
+            this.length = length;
+            this.last = last;
+        }
+    }
+
+    /**
+     * @param fileName    - a file name to load words-embeddings from
+     * @param loadOptions - how to store the loaded word vectors
+     */
+    public EmbeddingsFileLoader(String fileName, LoadOptions loadOptions) {
+        this.fileName = fileName;
+        this.loadOptions = loadOptions;
+    }
+
+    /**
+     * set a listener to tell about the rows as they are parsed
+     *
+     * @param rowListener - the listener, or null
+     */
+    public void setRowListener(RowListener rowListener) {
+        this.rowListener = rowListener;
+    }
+
+    /**
+     * get the detected delimiter
+     *
+     * @return the detected delimiter, e.g. ", "
+     */
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * get the loaded words, one per row of the embedding matrix
+     *
+     * @return the loaded words
+     */
+    public String[] getWords() {
+        return words;
+    }
+
+    /**
+     * get the number of loaded words
+     *
+     * @return the number of loaded words
+     */
+    public int getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    /**
+     * get the loaded word vectors
+     *
+     * @return the loaded word vectors
+     */
+    public EmbeddingMatrix getEmbeddings() {
+        return embeddings;
+    }
+
+    /**
+     * get the number of features per word
+     *
+     * @return the number of features per word
+     */
+    public int getNumberOfFeatures() {
+        return numberOfFeatures;
+    }
+
+    /**
+     * load all the words and word vectors from the file, or only the first
+     * words, up to the load options' word cap
+     *
+     * @throws Exception if the file cannot be read, or a line has a different
+     *                   format
+     */
+    public void load() throws Exception {
+        int parallelism = Math.max(1, this.loadOptions.getParallelism());
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ)) {
+            List<Chunk> allChunks = splitIntoChunks(channel, parallelism);
+            List<Chunk> chunks = new ArrayList<>();
+            int maxWords = this.loadOptions.getMaxWords();
+            int numberOfCounted = 0;
+            long numberOfWords = 0;
+
+            // with a word cap, the chunks are counted a wave (one per thread) at a
+            // time, until the first chunks hold enough lines; the rest of the file
+            // is never read
+            while (numberOfCounted < allChunks.size() && numberOfWords < maxWords) {
+                int waveEnd = maxWords == Integer.MAX_VALUE
+                        ? allChunks.size()
+                        : Math.min(allChunks.size(), numberOfCounted + parallelism);
+                List<Chunk> wave = allChunks.subList(numberOfCounted, waveEnd);
+
+                List<Callable<Void>> countTasks = new ArrayList<>();
+                for (Chunk chunk : wave)
+                    countTasks.add(() -> {
+                        chunk.buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.length);
+                        chunk.numberOfRows = countLines(chunk);
+                        return null;
+                    });
+                run(pool, countTasks);
+
+                for (Chunk chunk : wave) {
+                    chunk.firstRow = (int) Math.min(numberOfWords, Integer.MAX_VALUE);
+                    chunk.numberOfRows = (int) Math.min(chunk.numberOfRows, maxWords - numberOfWords);
+                    numberOfWords += chunk.numberOfRows;
+
+                    if (chunk.numberOfRows > 0)
+                        chunks.add(chunk);
+                }
+
+                numberOfCounted = waveEnd;
+            }
+
+            if (numberOfWords > Integer.MAX_VALUE - 1)
+                throw new Exception("There are too many words (" + numberOfWords
+                        + ") in the provided word-embeddings file: " + this.fileName);
+
+            if (numberOfWords == 0)
+                throw new Exception("There are no words in the provided word-embeddings file: " + this.fileName);
+
+            this.numberOfWords = (int) numberOfWords;
+            this.words = new String[this.numberOfWords];
+            this.numberOfFeatures = countEmbeddingsFeatures(readFirstLine(chunks.get(0)));
+            this.embeddings = EmbeddingMatrix.create(this.loadOptions.getPrecision(), this.loadOptions.isOffHeap(),
+                    this.numberOfWords, this.numberOfFeatures);
+
+            if (this.rowListener != null)
+                this.rowListener.matrixCreated(this.embeddings);
+
+            printFileLoadingHeader();
+
+            List<Callable<Void>> parseTasks = new ArrayList<>();
+            for (Chunk chunk : chunks)
+                parseTasks.add(() -> {
+                    parseChunk(chunk);
+                    if (this.rowListener != null)
+                        this.rowListener.rowsParsed(chunk.firstRow, chunk.numberOfRows);
+                    printChunkParsed(chunks.size());
+                    return null;
+                });
+            run(pool, parseTasks);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+    /**
+     * run tasks on a pool, or one after another on the calling thread if the
+     * pool is null; the exception of the first failed task (in list order) is
+     * thrown, so errors are reported in file order
+     *
+     * @param pool  - the pool to run on, or null
+     * @param tasks - the tasks to run
+     * @throws Exception the exception of the first failed task
+     */
+    private static void run(ForkJoinPool pool, List<Callable<Void>> tasks) throws Exception {
+        if (pool == null) {
+            for (Callable<Void> task : tasks)
+                task.call();
+            return;
+        }
+
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                // ForkJoinPool wraps a callable's checked exception in plain
+                // RuntimeExceptions
+                while (cause != null && cause.getClass() == RuntimeException.class && cause.getCause() != null)
+                    cause = cause.getCause();
+
+                if (cause instanceof Exception)
+                    throw (Exception) cause;
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * split the file into chunks of whole lines, each ending just after a '\n'
+     * (except, perhaps, the last)
+     *
+     * @param channel     - the open file
+     * @param parallelism - the number of threads that will share the chunks
+     * @return the chunks, in file order
+     * @throws Exception if a single line is too long to map
+     */
+    private List<Chunk> splitIntoChunks(FileChannel channel, int parallelism) throws Exception {
+        long fileSize = channel.size();
+        long chunkBytes = Math.max(MIN_CHUNK_BYTES,
+                Math.min(MAX_CHUNK_BYTES, fileSize / ((long) parallelism * CHUNKS_PER_THREAD)));
+        List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+
+        do {
+            long end = Math.min(start + chunkBytes, fileSize);
+
+            if (end < fileSize)
+                end = findLineEnd(channel, end - 1, fileSize);
+
+            if (end - start > Integer.MAX_VALUE)
+                throw new Exception("A line in " + this.fileName + " is too long to load");
+
+            chunks.add(new Chunk(start, (int) (end - start), end == fileSize));
+            start = end;
+        } while (start < fileSize);
+
+        return chunks;
+    }
+
+    /**
+     * find the end of the line that contains a position in the file
+     *
+     * @param channel  - the open file
+     * @param position - a position in the file
+     * @param fileSize - the size of the file
+     * @return the position just after the next '\n', or the file size
+     * @throws Exception
+     */
+    private static long findLineEnd(FileChannel channel, long position, long fileSize) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        while (position < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+
+            if (read <= 0)
+                break;
+
+            for (int i = 0; i < read; i++)
+                if (buffer.get(i) == '\n')
+                    return position + i + 1;
+
+            position += read;
+        }
+
+        return fileSize;
+    }
+
+    /**
+     * count the lines in a chunk; only the file's last line may be missing its
+     * '\n'
+     *
+     * @param chunk - the chunk to count
+     * @return the number of lines in the chunk
+     */
+    private static int countLines(Chunk chunk) {
+        MappedByteBuffer buffer = chunk.buffer;
+        int lines = 0;
+
+        for (int i = 0; i < chunk.length; i++)
+            if (buffer.get(i) == '\n')
+                lines++;
+
+        if (chunk.last && chunk.length > 0 && buffer.get(chunk.length - 1) != '\n')
+            lines++;
+
+        return lines;
+    }
+
+    /**
+     * get the length of a line, without its "\r\n" or '\n'
+     *
+     * @param buffer    - the chunk's buffer
+     * @param lineStart - the index of the line's first byte
+     * @param lineEnd   - the index of the line's '\n', or the end of the chunk
+     * @return the length of the line's text
+     */
+    private static int lineLength(ByteBuffer buffer, int lineStart, int lineEnd) {
+        if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+            lineEnd--;
+
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * read the first line of the file
+     *
+     * @param chunk - the first chunk of the file
+     * @return the first line, without its line ending
+     */
+    private static String readFirstLine(Chunk chunk) {
+        int lineEnd = 0;
+
+        while (lineEnd < chunk.length && chunk.buffer.get(lineEnd) != '\n')
+            lineEnd++;
+
+        byte[] bytes = new byte[lineLength(chunk.buffer, 0, lineEnd)];
+        chunk.buffer.get(0, bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * parse every line of a chunk into the words array and the embedding matrix
+     *
+     * @param chunk - the chunk to parse
+     * @throws Exception if a line has a different format
+     */
+    private void parseChunk(Chunk chunk) throws Exception {
+        MappedByteBuffer buffer = chunk.buffer;
+        byte[] line = new byte[256];
+        int[] tokenBounds = new int[2 * (this.numberOfFeatures + 1)];
+        int row = chunk.firstRow;
+        int endRow = chunk.firstRow + chunk.numberOfRows;
+        int lineStart = 0;
+
+        // a word cap can end the chunk's rows before its last line
+        for (int i = 0; i <= chunk.length && row < endRow; i++) {
+            if (i < chunk.length && buffer.get(i) != '\n')
+                continue;
+
+            // the chunk's end only closes a line if the file has no final '\n'
+            if (i == chunk.length && (i == lineStart || !chunk.last))
+                break;
+
+            int length = lineLength(buffer, lineStart, i);
+            if (line.length < length)
+                line = new byte[Math.max(length, line.length * 2)];
+            buffer.get(lineStart, line, 0, length);
+
+            setWordAndEmbeddingsValues(line, length, tokenBounds, row++);
+            lineStart = i + 1;
+        }
+    }
+
+    /**
+     * does the delimiter start at a position in a line?
+     *
+     * @param line     - the line's bytes
+     * @param length   - the length of the line
+     * @param position - the position to check
+     * @return whether the delimiter's bytes start at the position
+     */
+    private boolean isDelimiterAt(byte[] line, int length, int position) {
+        if (position + this.delimiterBytes.length > length)
+            return false;
+
+        for (int i = 0; i < this.delimiterBytes.length; i++)
+            if (line[position + i] != this.delimiterBytes[i])
+                return false;
+
+        return true;
+    }
+
+    /**
+     * split a line on the delimiter, like String.split: matches are found left to
+     * right, and trailing empty tokens are dropped
+     *
+     * @param line        - the line's bytes
+     * @param length      - the length of the line
+     * @param tokenBounds - filled with the start and end of each token, in pairs
+     * @return the number of tokens, which may be more than tokenBounds can hold
+     *         (only the tokens that fit are recorded)
+     */
+    private int tokenize(byte[] line, int length, int[] tokenBounds) {
+        if (length == 0)
+            return 1;
+
+        int end = length;
+        int delimiterLength = this.delimiterBytes.length;
+
+        // trailing empty tokens are dropped, so trailing delimiters can be ignored
+        while (end >= delimiterLength && isDelimiterAt(line, length, end - delimiterLength))
+            end -= delimiterLength;
+
+        if (end == 0)
+            return 0;
+
+        int tokens = 0;
+        int tokenStart = 0;
+        int i = 0;
+
+        while (i <= end - delimiterLength) {
+            if (isDelimiterAt(line, end, i)) {
+                if (2 * tokens < tokenBounds.length) {
+                    tokenBounds[2 * tokens] = tokenStart;
+                    tokenBounds[2 * tokens + 1] = i;
+                }
+                tokens++;
+                i += delimiterLength;
+                tokenStart = i;
+            } else {
+                i++;
+            }
+        }
+
+        if (2 * tokens < tokenBounds.length) {
+            tokenBounds[2 * tokens] = tokenStart;
+            tokenBounds[2 * tokens + 1] = end;
+        }
+
+        return tokens + 1;
+    }
+
+    /**
+     * advance the progress meter by one parsed chunk
+     *
+     * @param numberOfChunks - the total number of chunks
+     */
+    private synchronized void printChunkParsed(int numberOfChunks) {
+        ConsoleProgressMeter.printProgress(++this.numberOfChunksParsed, numberOfChunks);
+    }
+
+    /**
+     * check if a string is delimited by a comma-and-space; a comma; or a space; and
+     * store the value for later use
+     *
+     * @param delimitedString
+     * @return the array of split strings, split with the found delimiter
+     * @throws Exception if the delimiter is not detected
+     */
+    private String[] splitWithCommasOrSpaces(String delimitedString) throws Exception {
+        String[] delimiters = {
+                ", ",
+                ",",
+                " "
+        };
+
+        String[] splitString = null;
+        String tempDelimiter = null;
+
+        for (String delimiter : delimiters) {
+            splitString = delimitedString.split(delimiter);
+            if (splitString.length > 1) {
+                tempDelimiter = delimiter;
+                break;
+            }
+        }
+
+        if (tempDelimiter == null)
+            throw new Exception("Cannot determine the delimiter for the input data.");
+
+        this.delimiter = tempDelimiter;
+        this.delimiterBytes = tempDelimiter.getBytes(StandardCharsets.UTF_8);
+        return splitString;
+    }
+
+    /**
+     * count the number of features in the vector representations of the words in
+     * the loaded words-embeddings file
+     *
+     * @param embeddingsLine - one line from the loaded words-embeddings file
+     * @return the number of features in the vector representations of the words
+     * @throws Exception
+     */
+    private int countEmbeddingsFeatures(String embeddingsLine) throws Exception {
+        String[] stringArray = splitWithCommasOrSpaces(embeddingsLine);
+        int stringLength = stringArray.length;
+
+        return stringLength - 1;
+    }
+
+    /**
+     * print information detected in the loaded words-embeddings file
+     */
+    private void printFileLoadingHeader() {
+        System.out.println();
+        System.out.println("Loading Embeddings From:\t" + this.fileName);
+        System.out.println("Delimiter:\t\t\t'" + this.delimiter + "'");
+        System.out.println("#Words:\t\t\t\t" + this.numberOfWords
+                + (this.loadOptions.getMaxWords() == this.numberOfWords ? " (capped)" : ""));
+        System.out.println("#Features/Word:\t\t\t" + this.numberOfFeatures);
+        System.out.println("Precision:\t\t\t" + this.loadOptions.getPrecision());
+        System.out.println("Off-Heap:\t\t\t" + this.loadOptions.isOffHeap());
+    }
+
+    /**
+     * set the words, and word-vectors, after loading a words-embeddings file
+     *
+     * @param line        - a line from the words-embeddings file, as bytes
+     * @param length      - the length of the line
+     * @param tokenBounds - room for the start and end of each expected token
+     * @param lineNumber  - the line number that is currently being read
+     * @throws Exception if a line has a different number of values than the first
+     *                   read line
+     */
+    private void setWordAndEmbeddingsValues(byte[] line, int length, int[] tokenBounds, int lineNumber)
+            throws Exception {
+        if (tokenize(line, length, tokenBounds) != this.numberOfFeatures + 1) {
+            System.out.println(ConsoleColor.RESET + "\n");
+            throw new Exception(
+                    "Line #" + (lineNumber + 1) + " in " + this.fileName + " has a different format.");
+        }
+
+        this.words[lineNumber] = new String(line, tokenBounds[0], tokenBounds[1] - tokenBounds[0],
+                StandardCharsets.UTF_8);
+
+        for (int i = 0; i < this.numberOfFeatures; i++)
+            this.embeddings.set(lineNumber, i,
+                    DoubleParser.parseDouble(line, tokenBounds[2 * i + 2], tokenBounds[2 * i + 3]));
+    }
+}
@@ -0,0 +1,460 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * <p>
+ * save a loaded words-embeddings file as a versioned binary snapshot, and load
+ * it back without parsing any text
+ * </p>
+ * <p>
+ * layout (little-endian):
+ * </p>
+ * <ul>
+ * <li>a 128-byte header: magic bytes, version, bytes per value (dtype), number
+ * of rows, number of features, flags, word index size, the offset and length
+ * of each block, a checksum of the vocabulary, word index and norms blocks, a
+ * checksum of the matrix block, and a checksum of the header itself</li>
+ * <li>the vocabulary: the UTF-8 length and bytes of every word</li>
+ * <li>the word index: the slots and hashes of the WordIndex table, so no word
+ * is hashed again</li>
+ * <li>the squared norm of every row</li>
+ * <li>the matrix, row-major, starting on a page boundary</li>
+ * </ul>
+ * <p>
+ * a snapshot is loaded by memory-mapping the file and bulk-copying each block;
+ * off-heap word vectors are not copied at all, the matrix block is mapped
+ * straight into an OffHeapEmbeddingMatrix; files are recognised by their magic
+ * bytes, whatever their name
+ * </p>
+ * <p>
+ * checking the matrix block's checksum reads all of it; a mapped matrix skips
+ * that read (and the check) when LoadOptions.setVerifySnapshot(false), so its
+ * pages are only read by the searches that need them
+ * </p>
+ * <p>
+ * the saved norms are only reused by a matrix that computes norms with the
+ * same kernels (SIMD or scalar) at the same precision, so a word still scores
+ * exactly 1.0 against itself; otherwise they are computed again from the
+ * loaded rows
+ * </p>
+ */
+public class EmbeddingsSnapshot {
+
+    private static final byte[] MAGIC = "WEMBSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 128;
+    private static final int HEADER_CHECKSUM_POSITION = HEADER_BYTES - Long.BYTES;
+    private static final int PAGE_BYTES = 4096;
+    private static final int FLAG_NORMALIZED = 1;
+    private static final int FLAG_SIMD_NORMS = 2;
+
+    /** the largest block of matrix rows written or mapped at once */
+    private static final int MATRIX_BLOCK_BYTES = 1 << 26;
+
+    private final String fileName;
+    private final LoadOptions loadOptions;
+
+    private String[] words;
+    private int numberOfWords;
+    private WordIndex wordIndex;
+
+    private EmbeddingMatrix embeddings;
+    private int numberOfFeatures;
+
+    private boolean normalized;
+
+    /**
+     * @param fileName    - a snapshot file name to load words-embeddings from
+     * @param loadOptions - how to store the loaded word vectors
+     */
+    public EmbeddingsSnapshot(String fileName, LoadOptions loadOptions) {
+        this.fileName = fileName;
+        this.loadOptions = loadOptions;
+    }
+
+    /**
+     * get the loaded words, one per row of the embedding matrix
+     *
+     * @return the loaded words
+     */
+    public String[] getWords() {
+        return words;
+    }
+
+    /**
+     * get the number of loaded words
+     *
+     * @return the number of loaded words
+     */
+    public int getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    /**
+     * get the loaded word index
+     *
+     * @return the loaded word index
+     */
+    public WordIndex getWordIndex() {
+        return wordIndex;
+    }
+
+    /**
+     * get the loaded word vectors
+     *
+     * @return the loaded word vectors
+     */
+    public EmbeddingMatrix getEmbeddings() {
+        return embeddings;
+    }
+
+    /**
+     * get the number of features per word
+     *
+     * @return the number of features per word
+     */
+    public int getNumberOfFeatures() {
+        return numberOfFeatures;
+    }
+
+    /**
+     * are the loaded word vectors L2-normalized?
+     *
+     * @return whether the loaded word vectors are L2-normalized
+     */
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    /**
+     * check the first bytes of a file for the snapshot magic bytes
+     *
+     * @param fileName - the file to check
+     * @return whether the file is a snapshot
+     * @throws Exception if the file cannot be read
+     */
+    public static boolean isSnapshot(String fileName) throws Exception {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+
+            while (magic.hasRemaining() && channel.read(magic) > 0)
+                ;
+
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        }
+    }
+
+    /**
+     * round a file position up to the next page boundary
+     */
+    private static long alignToPage(long position) {
+        return (position + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES;
+    }
+
+    /**
+     * write a snapshot of loaded words-embeddings; the file is written next to
+     * its final name first, then moved into place
+     *
+     * @param fileName   - the snapshot file name to write
+     * @param words      - the loaded words
+     * @param wordIndex  - the index of the loaded words
+     * @param embeddings - the loaded word vectors, with their squared norms
+     * @param normalized - are the word vectors L2-normalized?
+     * @throws Exception if the file cannot be written
+     */
+    public static void save(String fileName, String[] words, WordIndex wordIndex, EmbeddingMatrix embeddings,
+            boolean normalized) throws Exception {
+        int numberOfRows = embeddings.getNumberOfRows();
+        int numberOfFeatures = embeddings.getNumberOfFeatures();
+        Precision precision = embeddings.getPrecision();
+        int[] slots = wordIndex.getSlots();
+        int[] hashes = wordIndex.getHashes();
+
+        byte[][] wordBytes = new byte[numberOfRows][];
+        long vocabularyLength = 0;
+        for (int row = 0; row < numberOfRows; row++) {
+            wordBytes[row] = words[row].getBytes(StandardCharsets.UTF_8);
+            vocabularyLength += Integer.BYTES + wordBytes[row].length;
+        }
+
+        long vocabularyOffset = HEADER_BYTES;
+        long wordIndexOffset = vocabularyOffset + vocabularyLength;
+        long normsOffset = wordIndexOffset + 2L * slots.length * Integer.BYTES;
+        long metadataLength = normsOffset + (long) numberOfRows * Double.BYTES - vocabularyOffset;
+        long matrixOffset = alignToPage(vocabularyOffset + metadataLength);
+        long matrixLength = embeddings.getSizeInBytes();
+
+        if (metadataLength > Integer.MAX_VALUE)
+            throw new Exception("Too many words (" + numberOfRows + ") to write a snapshot");
+
+        ByteBuffer metadata = ByteBuffer.allocate((int) (matrixOffset - vocabularyOffset))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] word : wordBytes)
+            metadata.putInt(word.length).put(word);
+        metadata.asIntBuffer().put(slots).put(hashes);
+        metadata.position((int) (normsOffset - vocabularyOffset));
+        metadata.asDoubleBuffer().put(embeddings.getSquaredNorms());
+        metadata.clear();
+
+        CRC32C metadataChecksum = new CRC32C();
+        metadataChecksum.update(metadata.duplicate().limit((int) metadataLength));
+
+        Path path = Paths.get(fileName);
+        Path temporaryPath = Paths.get(fileName + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, metadata, vocabularyOffset);
+
+            int rowBytes = numberOfFeatures * precision.getBytes();
+            int blockRows = Math.max(1, MATRIX_BLOCK_BYTES / Math.max(1, rowBytes));
+            ByteBuffer block = ByteBuffer.allocateDirect(blockRows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32C matrixChecksum = new CRC32C();
+            long position = matrixOffset;
+
+            for (int row = 0; row < numberOfRows; row += blockRows) {
+                int rows = Math.min(blockRows, numberOfRows - row);
+                block.clear();
+                embeddings.writeRows(block, row, rows);
+                block.flip();
+                matrixChecksum.update(block.duplicate());
+                position += writeFully(channel, block, position);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(precision.getBytes())
+                    .putInt(numberOfRows)
+                    .putInt(numberOfFeatures)
+                    .putInt((normalized ? FLAG_NORMALIZED : 0) | (embeddings.usesSimdKernels() ? FLAG_SIMD_NORMS : 0))
+                    .putInt(slots.length)
+                    .putLong(vocabularyOffset)
+                    .putLong(vocabularyLength)
+                    .putLong(wordIndexOffset)
+                    .putLong(normsOffset)
+                    .putLong(matrixOffset)
+                    .putLong(matrixLength)
+                    .putLong(metadataChecksum.getValue())
+                    .putLong(matrixChecksum.getValue());
+            header.putLong(HEADER_CHECKSUM_POSITION, headerChecksum(header));
+            header.clear();
+            writeFully(channel, header, 0);
+
+            channel.force(true);
+        }
+
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * write all of a buffer's remaining bytes at a file position
+     *
+     * @return the number of bytes written
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws Exception {
+        int written = 0;
+
+        while (buffer.hasRemaining())
+            written += channel.write(buffer, position + written);
+
+        return written;
+    }
+
+    /**
+     * calculate the checksum of a header, up to its own checksum field
+     */
+    private static long headerChecksum(ByteBuffer header) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(header.duplicate().clear().limit(HEADER_CHECKSUM_POSITION));
+        return checksum.getValue();
+    }
+
+    /**
+     * load the words, word index and word vectors from the snapshot, checking
+     * every checksum (the matrix block's only if the load options ask for it);
+     * the word vectors are converted if the snapshot was saved
+     * with another precision, and normalized if the load options ask for it
+     *
+     * @throws Exception if the file is not a valid snapshot
+     */
+    public void load() throws Exception {
+        try (FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+
+            if (fileSize < HEADER_BYTES)
+                throw new Exception("Not a words-embeddings snapshot: " + this.fileName);
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new Exception("Not a words-embeddings snapshot: " + this.fileName);
+
+            if (header.getLong(HEADER_CHECKSUM_POSITION) != headerChecksum(header))
+                throw new Exception("The snapshot header is corrupt: " + this.fileName);
+
+            // version 1 snapshots did not record the kernels that computed the norms
+            int version = header.getInt();
+            if (version < 1 || version > VERSION)
+                throw new Exception("Unsupported snapshot version " + version + ": " + this.fileName);
+
+            int bytesPerValue = header.getInt();
+            Precision precision = bytesPerValue == Double.BYTES ? Precision.FLOAT64
+                    : bytesPerValue == Float.BYTES ? Precision.FLOAT32 : null;
+            if (precision == null)
+                throw new Exception("Unsupported snapshot value size " + bytesPerValue + ": " + this.fileName);
+
+            this.numberOfWords = header.getInt();
+            this.numberOfFeatures = header.getInt();
+            int flags = header.getInt();
+            this.normalized = (flags & FLAG_NORMALIZED) != 0;
+            boolean simdNorms = (flags & FLAG_SIMD_NORMS) != 0;
+            int wordIndexCapacity = header.getInt();
+            long vocabularyOffset = header.getLong();
+            header.getLong(); // vocabulary length
+            long wordIndexOffset = header.getLong();
+            long normsOffset = header.getLong();
+            long matrixOffset = header.getLong();
+            long matrixLength = header.getLong();
+            long metadataChecksum = header.getLong();
+            long matrixChecksum = header.getLong();
+
+            long metadataLength = normsOffset + (long) this.numberOfWords * Double.BYTES - vocabularyOffset;
+            if (matrixLength != (long) this.numberOfWords * this.numberOfFeatures * bytesPerValue
+                    || matrixOffset + matrixLength > fileSize || metadataLength > Integer.MAX_VALUE)
+                throw new Exception("The snapshot is truncated or corrupt: " + this.fileName);
+
+            printFileLoadingHeader(precision);
+
+            ByteBuffer metadata = channel.map(FileChannel.MapMode.READ_ONLY, vocabularyOffset, metadataLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            CRC32C checksum = new CRC32C();
+            checksum.update(metadata.duplicate());
+            if (checksum.getValue() != metadataChecksum)
+                throw new Exception("The snapshot vocabulary is corrupt: " + this.fileName);
+
+            readVocabulary(metadata);
+            readWordIndex(metadata, (int) (wordIndexOffset - vocabularyOffset), wordIndexCapacity);
+
+            boolean normalize = this.loadOptions.isNormalized() && !this.normalized;
+
+            // rows that are used as stored are mapped read-only, instead of copied
+            if (this.loadOptions.isOffHeap() && precision == this.loadOptions.getPrecision() && !normalize) {
+                this.embeddings = OffHeapEmbeddingMatrix.map(channel, matrixOffset, precision, this.numberOfWords,
+                        this.numberOfFeatures);
+                readMatrix(channel, matrixOffset, precision, matrixChecksum, false);
+            } else {
+                this.embeddings = EmbeddingMatrix.create(this.loadOptions.getPrecision(),
+                        this.loadOptions.isOffHeap(), this.numberOfWords, this.numberOfFeatures);
+                readMatrix(channel, matrixOffset, precision, matrixChecksum, true);
+            }
+
+            // norms of normalized rows are stored as exactly 1.0, whatever the kernels
+            boolean sameNorms = this.normalized
+                    || version >= 2 && simdNorms == this.embeddings.usesSimdKernels();
+
+            if (precision == this.embeddings.getPrecision() && !normalize && sameNorms) {
+                double[] squaredNorms = new double[this.numberOfWords];
+                metadata.position((int) (normsOffset - vocabularyOffset));
+                metadata.asDoubleBuffer().get(squaredNorms);
+                this.embeddings.setSquaredNorms(squaredNorms);
+            } else {
+                // converted or newly normalized values, or norms from other kernels,
+                // need their norms again
+                this.embeddings.setSquaredNorms(normalize);
+                this.normalized |= normalize;
+            }
+        }
+    }
+
+    /**
+     * read every word from the vocabulary block
+     */
+    private void readVocabulary(ByteBuffer metadata) {
+        this.words = new String[this.numberOfWords];
+        byte[] bytes = new byte[256];
+
+        for (int row = 0; row < this.numberOfWords; row++) {
+            int length = metadata.getInt();
+            if (bytes.length < length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            metadata.get(bytes, 0, length);
+            this.words[row] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * read the word index table from the word index block
+     */
+    private void readWordIndex(ByteBuffer metadata, int position, int capacity) throws Exception {
+        int[] slots = new int[capacity];
+        int[] hashes = new int[capacity];
+
+        metadata.position(position);
+        metadata.asIntBuffer().get(slots).get(hashes);
+
+        this.wordIndex = new WordIndex(this.words, slots, hashes);
+    }
+
+    /**
+     * map the matrix block, one block of rows at a time, check its checksum
+     * (if the load options ask for it), and copy it into the embedding matrix
+     * (unless the embedding matrix is mapped from the same file)
+     */
+    private void readMatrix(FileChannel channel, long matrixOffset, Precision precision, long matrixChecksum,
+            boolean copy) throws Exception {
+        boolean verify = this.loadOptions.isVerifySnapshot();
+        if (!copy && !verify)
+            return;
+
+        int rowBytes = this.numberOfFeatures * precision.getBytes();
+        int blockRows = Math.max(1, MATRIX_BLOCK_BYTES / Math.max(1, rowBytes));
+        CRC32C checksum = new CRC32C();
+        long position = matrixOffset;
+
+        for (int row = 0; row < this.numberOfWords; row += blockRows) {
+            int rows = Math.min(blockRows, this.numberOfWords - row);
+            MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) rows * rowBytes);
+            block.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (verify)
+                checksum.update(block.duplicate());
+            if (copy)
+                this.embeddings.readRows(block, precision, row, rows);
+            position += (long) rows * rowBytes;
+        }
+
+        if (verify && checksum.getValue() != matrixChecksum) {
+            this.embeddings.dropValues();
+            throw new Exception("The snapshot word vectors are corrupt: " + this.fileName);
+        }
+    }
+
+    /**
+     * print information read from the snapshot header
+     */
+    private void printFileLoadingHeader(Precision precision) {
+        System.out.println();
+        System.out.println("Loading Snapshot From:\t\t" + this.fileName);
+        System.out.println("#Words:\t\t\t\t" + this.numberOfWords);
+        System.out.println("#Features/Word:\t\t\t" + this.numberOfFeatures);
+        System.out.println("Precision:\t\t\t" + precision);
+        System.out.println("Normalized:\t\t\t" + this.normalized);
+        System.out.println("Off-Heap:\t\t\t" + this.loadOptions.isOffHeap());
+    }
+}
@@ -0,0 +1,109 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+import ie.atu.sw.util.Vector;
+
+/**
+ * <p>
+ * an EmbeddingMatrix that stores its values in one array of floats
+ * </p>
+ * <p>
+ * word vectors rarely carry more than 6 significant digits, so floats hold
+ * them in half the memory of doubles, and fit twice as many values in each
+ * SIMD lane; query vectors are rounded to floats once per scan, and the
+ * kernels return (and the norms are kept in) double
+ * </p>
+ */
+public class FloatEmbeddingMatrix extends EmbeddingMatrix {
+
+    private final float[] values;
+
+    /**
+     * create an empty matrix, ready to be filled by the loader
+     *
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     * @throws Exception if the matrix is too big for a single array
+     */
+    public FloatEmbeddingMatrix(int numberOfRows, int numberOfFeatures) throws Exception {
+        super(numberOfRows, numberOfFeatures);
+        this.values = new float[singleArraySize(numberOfRows, numberOfFeatures)];
+    }
+
+    @Override
+    public Precision getPrecision() {
+        return Precision.FLOAT32;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        return this.values[offset(row) + feature];
+    }
+
+    @Override
+    void set(int row, int feature, double value) {
+        this.values[offset(row) + feature] = (float) value;
+    }
+
+    @Override
+    public DoubleBuffer getRow(int row) {
+        return DoubleBuffer.wrap(copyRow(row)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void copyRow(int row, double[] destination) {
+        int offset = offset(row);
+
+        for (int i = 0; i < this.numberOfFeatures; i++)
+            destination[i] = this.values[offset + i];
+    }
+
+    @Override
+    void writeRows(ByteBuffer destination, int startRow, int numberOfRows) {
+        int length = numberOfRows * this.numberOfFeatures;
+        destination.asFloatBuffer().put(this.values, offset(startRow), length);
+        destination.position(destination.position() + length * Float.BYTES);
+    }
+
+    @Override
+    void readRows(ByteBuffer source, Precision sourcePrecision, int startRow, int numberOfRows) {
+        if (sourcePrecision != Precision.FLOAT32) {
+            super.readRows(source, sourcePrecision, startRow, numberOfRows);
+            return;
+        }
+
+        int length = numberOfRows * this.numberOfFeatures;
+        source.asFloatBuffer().get(this.values, offset(startRow), length);
+        source.position(source.position() + length * Float.BYTES);
+    }
+
+    @Override
+    protected double calculateSquaredNorm(int row) {
+        return Vector.squaredNorm(this.values, offset(row), this.numberOfFeatures);
+    }
+
+    @Override
+    protected void divideRow(int row, double divisor) {
+        int offset = offset(row);
+
+        for (int i = offset; i < offset + this.numberOfFeatures; i++)
+            this.values[i] = (float) (this.values[i] / divisor);
+    }
+
+    @Override
+    public double dotProduct(QueryVector query, int row) {
+        return Vector.dotProduct(query.getFloatValues(), this.values, offset(row));
+    }
+
+    @Override
+    public double euclideanDistanceNoSqrt(QueryVector query, int row) {
+        return Vector.euclideanDistanceNoSqrt(query.getFloatValues(), this.values, offset(row));
+    }
+
+    @Override
+    public int euclideanDistanceAbandonAt(QueryVector query, int row, double bound) {
+        return Vector.euclideanDistanceAbandonAt(query.getFloatValues(), this.values, offset(row), bound);
+    }
+}
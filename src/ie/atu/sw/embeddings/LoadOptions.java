@@ -0,0 +1,177 @@
+package ie.atu.sw.embeddings;
+
+import ie.atu.sw.index.IndexParameters;
+import ie.atu.sw.index.SearchIndexType;
+
+/**
+ * <p>
+ * options that decide how a words-embeddings file is loaded and stored
+ * </p>
+ * <p>
+ * defaults: word vectors are stored as they are in the file, as doubles, on
+ * the Java heap; the file is parsed on one thread per available processor, and
+ * no search index is built while it loads, and every word is loaded; a
+ * snapshot's word vectors are checked against their checksum
+ * </p>
+ */
+public class LoadOptions {
+
+    private boolean normalized = false;
+    private Precision precision = Precision.FLOAT64;
+    private boolean offHeap = false;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private SearchIndexType searchIndexType = SearchIndexType.EXACT;
+    private IndexParameters indexParameters = new IndexParameters();
+    private int maxWords = Integer.MAX_VALUE;
+    private boolean verifySnapshot = true;
+
+    /**
+     * store every word vector L2-normalized?
+     *
+     * @return whether word vectors are stored L2-normalized
+     */
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    /**
+     * store every word vector L2-normalized?
+     *
+     * @param normalized - store L2-normalized word vectors?
+     */
+    public void setNormalized(boolean normalized) {
+        this.normalized = normalized;
+    }
+
+    /**
+     * get the number type used to store the word vectors
+     *
+     * @return the number type used to store the word vectors
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * set the number type used to store the word vectors
+     *
+     * @param precision - the number type used to store the word vectors
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * store the word vectors outside the Java heap?
+     *
+     * @return whether word vectors are stored outside the Java heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * store the word vectors outside the Java heap? a snapshot file is then
+     * memory-mapped, instead of copied; a text file's word vectors go into
+     * direct buffers, which are limited by -XX:MaxDirectMemorySize (by default,
+     * the maximum heap size, -Xmx), and are only freed by the garbage collector
+     *
+     * @param offHeap - store word vectors outside the Java heap?
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * check a snapshot's word vectors against their checksum?
+     *
+     * @return whether a snapshot's word vectors are checked
+     */
+    public boolean isVerifySnapshot() {
+        return verifySnapshot;
+    }
+
+    /**
+     * check a snapshot's word vectors against their checksum? checking reads
+     * every page of the matrix block, so a memory-mapped (off-heap) snapshot
+     * is read in full at load time; without it, the pages are only read by the
+     * first searches, and a corrupt matrix block is not detected (the header,
+     * vocabulary, word index and norms are always checked)
+     *
+     * @param verifySnapshot - check a snapshot's word vectors?
+     */
+    public void setVerifySnapshot(boolean verifySnapshot) {
+        this.verifySnapshot = verifySnapshot;
+    }
+
+    /**
+     * get the number of threads used to parse the file
+     *
+     * @return the number of threads used to parse the file
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * set the number of threads used to parse the file
+     *
+     * @param parallelism - the number of threads (1 parses on the calling thread)
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * get the largest number of words to load from a text file
+     *
+     * @return the largest number of words to load (Integer.MAX_VALUE for every
+     *         word)
+     */
+    public int getMaxWords() {
+        return maxWords;
+    }
+
+    /**
+     * load only the first words of a text file: GloVe and word2vec files are
+     * ordered by frequency, so a cap keeps the most frequent words, and skips
+     * reading the rest of the file; snapshots are always loaded whole (save a
+     * snapshot of a capped file instead)
+     *
+     * @param maxWords - the largest number of words to load (0 or less loads
+     *                 every word)
+     */
+    public void setMaxWords(int maxWords) {
+        this.maxWords = maxWords > 0 ? maxWords : Integer.MAX_VALUE;
+    }
+
+    /**
+     * get the search index to build while the file is parsed
+     *
+     * @return the search index to build while the file is parsed
+     */
+    public SearchIndexType getSearchIndexType() {
+        return searchIndexType;
+    }
+
+    /**
+     * set the search index to build while a text file is parsed, row by row;
+     * only SearchIndexType.LSH can be built this way (other kinds of index, and
+     * indexes of snapshot files, are built once loading has finished)
+     *
+     * @param searchIndexType - the search index to build while the file is parsed
+     */
+    public void setSearchIndexType(SearchIndexType searchIndexType) {
+        this.searchIndexType = searchIndexType;
+    }
+
+    /**
+     * get the parameters of the search index built while the file is parsed;
+     * they become the loaded WordsEmbeddings' index parameters
+     *
+     * @return the index parameters
+     */
+    public IndexParameters getIndexParameters() {
+        return indexParameters;
+    }
+}
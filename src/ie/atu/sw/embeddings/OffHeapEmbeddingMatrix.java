@@ -0,0 +1,305 @@
+package ie.atu.sw.embeddings;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+import ie.atu.sw.util.ScalarVector;
+
+/**
+ * <p>
+ * an EmbeddingMatrix that stores its values outside the Java heap, as doubles
+ * or floats, in direct byte buffers, or in buffers memory-mapped from a
+ * snapshot file
+ * </p>
+ * <p>
+ * the GC never marks or moves the values, and the heap only holds the
+ * vocabulary, the word index and the row norms; a buffer holds at most 2GB, so
+ * the rows are split into pages of whole rows (at most 1GB each)
+ * </p>
+ * <p>
+ * direct buffers count against the JVM's direct memory limit,
+ * -XX:MaxDirectMemorySize, which defaults to the maximum heap size (-Xmx);
+ * mapped snapshot pages do not
+ * </p>
+ * <p>
+ * the memory is not freed deterministically: dropValues() drops the matrix's
+ * references to its pages, so a later use fails fast, and the memory is freed
+ * (or unmapped) when the garbage collector collects the unreachable buffers,
+ * as the JDK offers no supported way to free a direct buffer sooner
+ * </p>
+ */
+public class OffHeapEmbeddingMatrix extends EmbeddingMatrix {
+
+    private static final long MAX_PAGE_BYTES = 1L << 30;
+
+    private final Precision precision;
+    private final int rowsPerPage;
+    private ByteBuffer[] pages;
+    private DoubleBuffer[] doublePages;
+    private FloatBuffer[] floatPages;
+
+    /**
+     * allocate an empty off-heap matrix, ready to be filled by the loader
+     *
+     * @param precision        - the number type to store the values as
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     * @throws Exception if the values do not fit in the direct memory limit
+     */
+    public OffHeapEmbeddingMatrix(Precision precision, int numberOfRows, int numberOfFeatures) throws Exception {
+        super(numberOfRows, numberOfFeatures);
+
+        this.precision = precision;
+        this.rowsPerPage = rowsPerPage(precision, numberOfFeatures);
+        this.pages = new ByteBuffer[numberOfPages()];
+
+        try {
+            for (int page = 0; page < this.pages.length; page++)
+                this.pages[page] = ByteBuffer.allocateDirect(pageBytes(page)).order(ByteOrder.nativeOrder());
+        } catch (OutOfMemoryError e) {
+            this.pages = null;
+            throw new Exception("Not enough direct memory for " + getSizeInBytes()
+                    + " bytes of word vectors; raise it with -XX:MaxDirectMemorySize (defaults to -Xmx)");
+        }
+
+        createViews();
+    }
+
+    /**
+     * wrap pages that were already filled, e.g. mapped from a file
+     */
+    private OffHeapEmbeddingMatrix(Precision precision, int numberOfRows, int numberOfFeatures,
+            ByteBuffer[] pages) {
+        super(numberOfRows, numberOfFeatures);
+
+        this.precision = precision;
+        this.rowsPerPage = rowsPerPage(precision, numberOfFeatures);
+        this.pages = pages;
+
+        createViews();
+    }
+
+    /**
+     * memory-map a little-endian, row-major matrix from a file, without copying
+     * it; the mapping is read-only, so the rows must be used as they are stored
+     *
+     * @param channel          - the open file
+     * @param position         - the position of the matrix's first byte in the
+     *                         file
+     * @param precision        - the number type of the values in the file
+     * @param numberOfRows     - the number of words
+     * @param numberOfFeatures - the number of features per word
+     * @return a matrix over the mapped file
+     * @throws Exception if the file cannot be mapped
+     */
+    static OffHeapEmbeddingMatrix map(FileChannel channel, long position, Precision precision, int numberOfRows,
+            int numberOfFeatures) throws Exception {
+        int rowsPerPage = rowsPerPage(precision, numberOfFeatures);
+        int numberOfPages = (numberOfRows + rowsPerPage - 1) / rowsPerPage;
+        long rowBytes = (long) numberOfFeatures * precision.getBytes();
+        ByteBuffer[] pages = new ByteBuffer[numberOfPages];
+
+        for (int page = 0; page < numberOfPages; page++) {
+            int rows = Math.min(rowsPerPage, numberOfRows - page * rowsPerPage);
+            pages[page] = channel.map(FileChannel.MapMode.READ_ONLY, position, rows * rowBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            position += rows * rowBytes;
+        }
+
+        return new OffHeapEmbeddingMatrix(precision, numberOfRows, numberOfFeatures, pages);
+    }
+
+    /**
+     * get the number of whole rows that fit in one page
+     */
+    private static int rowsPerPage(Precision precision, int numberOfFeatures) {
+        long rowBytes = Math.max(1, (long) numberOfFeatures * precision.getBytes());
+        return (int) Math.max(1, MAX_PAGE_BYTES / rowBytes);
+    }
+
+    private int numberOfPages() {
+        return (this.numberOfRows + this.rowsPerPage - 1) / this.rowsPerPage;
+    }
+
+    private int pageBytes(int page) {
+        int rows = Math.min(this.rowsPerPage, this.numberOfRows - page * this.rowsPerPage);
+        return rows * this.numberOfFeatures * this.precision.getBytes();
+    }
+
+    /**
+     * create the typed views that the kernels read from
+     */
+    private void createViews() {
+        if (this.precision == Precision.FLOAT64) {
+            this.doublePages = new DoubleBuffer[this.pages.length];
+            for (int page = 0; page < this.pages.length; page++)
+                this.doublePages[page] = this.pages[page].asDoubleBuffer();
+        } else {
+            this.floatPages = new FloatBuffer[this.pages.length];
+            for (int page = 0; page < this.pages.length; page++)
+                this.floatPages[page] = this.pages[page].asFloatBuffer();
+        }
+    }
+
+    /**
+     * get the index of a row's first value in its page
+     *
+     * @param row - the row
+     * @return the index of the row's first value in its page
+     */
+    @Override
+    protected int offset(int row) {
+        return (row % this.rowsPerPage) * this.numberOfFeatures;
+    }
+
+    @Override
+    public Precision getPrecision() {
+        return this.precision;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    // buffers are always read with the scalar kernels
+    @Override
+    public boolean usesSimdKernels() {
+        return false;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        int page = row / this.rowsPerPage;
+
+        return this.precision == Precision.FLOAT64 ? this.doublePages[page].get(offset(row) + feature)
+                : this.floatPages[page].get(offset(row) + feature);
+    }
+
+    @Override
+    void set(int row, int feature, double value) {
+        int page = row / this.rowsPerPage;
+
+        if (this.precision == Precision.FLOAT64)
+            this.doublePages[page].put(offset(row) + feature, value);
+        else
+            this.floatPages[page].put(offset(row) + feature, (float) value);
+    }
+
+    @Override
+    public DoubleBuffer getRow(int row) {
+        if (this.precision == Precision.FLOAT32)
+            return DoubleBuffer.wrap(copyRow(row)).asReadOnlyBuffer();
+
+        int offset = offset(row);
+        return this.doublePages[row / this.rowsPerPage].duplicate().position(offset)
+                .limit(offset + this.numberOfFeatures).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public void copyRow(int row, double[] destination) {
+        for (int i = 0; i < this.numberOfFeatures; i++)
+            destination[i] = get(row, i);
+    }
+
+    @Override
+    void writeRows(ByteBuffer destination, int startRow, int numberOfRows) {
+        for (int row = startRow; row < startRow + numberOfRows;) {
+            int page = row / this.rowsPerPage;
+            int rows = Math.min(startRow + numberOfRows, (page + 1) * this.rowsPerPage) - row;
+            int offset = offset(row);
+            int length = rows * this.numberOfFeatures;
+
+            if (this.precision == Precision.FLOAT64)
+                destination.asDoubleBuffer()
+                        .put(this.doublePages[page].duplicate().position(offset).limit(offset + length));
+            else
+                destination.asFloatBuffer()
+                        .put(this.floatPages[page].duplicate().position(offset).limit(offset + length));
+
+            destination.position(destination.position() + length * this.precision.getBytes());
+            row += rows;
+        }
+    }
+
+    @Override
+    void readRows(ByteBuffer source, Precision sourcePrecision, int startRow, int numberOfRows) {
+        if (sourcePrecision != this.precision) {
+            super.readRows(source, sourcePrecision, startRow, numberOfRows);
+            return;
+        }
+
+        for (int row = startRow; row < startRow + numberOfRows;) {
+            int page = row / this.rowsPerPage;
+            int rows = Math.min(startRow + numberOfRows, (page + 1) * this.rowsPerPage) - row;
+            int offset = offset(row);
+            int length = rows * this.numberOfFeatures;
+
+            if (this.precision == Precision.FLOAT64)
+                this.doublePages[page].duplicate().position(offset).put(source.asDoubleBuffer().limit(length));
+            else
+                this.floatPages[page].duplicate().position(offset).put(source.asFloatBuffer().limit(length));
+
+            source.position(source.position() + length * this.precision.getBytes());
+            row += rows;
+        }
+    }
+
+    @Override
+    protected double calculateSquaredNorm(int row) {
+        int page = row / this.rowsPerPage;
+
+        return this.precision == Precision.FLOAT64
+                ? ScalarVector.squaredNorm(this.doublePages[page], offset(row), this.numberOfFeatures)
+                : ScalarVector.squaredNorm(this.floatPages[page], offset(row), this.numberOfFeatures);
+    }
+
+    @Override
+    protected void divideRow(int row, double divisor) {
+        for (int i = 0; i < this.numberOfFeatures; i++)
+            set(row, i, get(row, i) / divisor);
+    }
+
+    @Override
+    public double dotProduct(QueryVector query, int row) {
+        int page = row / this.rowsPerPage;
+
+        return this.precision == Precision.FLOAT64
+                ? ScalarVector.dotProduct(query.getValues(), this.doublePages[page], offset(row))
+                : ScalarVector.dotProduct(query.getFloatValues(), this.floatPages[page], offset(row));
+    }
+
+    @Override
+    public double euclideanDistanceNoSqrt(QueryVector query, int row) {
+        int page = row / this.rowsPerPage;
+
+        return this.precision == Precision.FLOAT64
+                ? ScalarVector.euclideanDistanceNoSqrt(query.getValues(), this.doublePages[page], offset(row))
+                : ScalarVector.euclideanDistanceNoSqrt(query.getFloatValues(), this.floatPages[page], offset(row));
+    }
+
+    @Override
+    public int euclideanDistanceAbandonAt(QueryVector query, int row, double bound) {
+        int page = row / this.rowsPerPage;
+
+        return this.precision == Precision.FLOAT64
+                ? ScalarVector.euclideanDistanceAbandonAt(query.getValues(), this.doublePages[page], offset(row),
+                        bound)
+                : ScalarVector.euclideanDistanceAbandonAt(query.getFloatValues(), this.floatPages[page],
+                        offset(row), bound);
+    }
+
+    /**
+     * drop every page, so the garbage collector can free (or unmap) them;
+     * afterwards, any use of the matrix throws a NullPointerException
+     */
+    @Override
+    public void dropValues() {
+        this.pages = null;
+        this.doublePages = null;
+        this.floatPages = null;
+    }
+}
@@ -0,0 +1,31 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * the number type used to store the word vectors of a words-embeddings file
+ */
+public enum Precision {
+    FLOAT64("64-bit Double", Double.BYTES),
+    FLOAT32("32-bit Float", Float.BYTES);
+
+    private final String title;
+    private final int bytes;
+
+    private Precision(String title, int bytes) {
+        this.title = title;
+        this.bytes = bytes;
+    }
+
+    /**
+     * get the number of bytes used to store one value
+     *
+     * @return the number of bytes used to store one value
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -0,0 +1,84 @@
+package ie.atu.sw.embeddings;
+
+import ie.atu.sw.util.ScalarVector;
+import ie.atu.sw.util.Vector;
+
+/**
+ * <p>
+ * a query vector, prepared once before a similarity scan
+ * </p>
+ * <p>
+ * holds the vector's squared norm, for cosine similarity, and a float copy of
+ * the vector, for scanning a float32 matrix with float kernels; the norm is
+ * also kept as the scalar kernels sum it, for matrices scored with those
+ * (see EmbeddingMatrix.getQuerySquaredNorm)
+ * </p>
+ */
+public class QueryVector {
+
+    private final double[] values;
+    private final float[] floatValues;
+    private final double squaredNorm;
+    private final double scalarSquaredNorm;
+
+    /**
+     * prepare a vector for scanning
+     *
+     * @param values - the vector, with one value per feature
+     */
+    public QueryVector(double[] values) {
+        this.values = values;
+        this.floatValues = new float[values.length];
+        this.squaredNorm = Vector.squaredNorm(values);
+        this.scalarSquaredNorm = Vector.SIMD_ENABLED ? ScalarVector.squaredNorm(values, 0, values.length)
+                : this.squaredNorm;
+
+        for (int i = 0; i < values.length; i++)
+            this.floatValues[i] = (float) values[i];
+    }
+
+    /**
+     * get the vector's values
+     *
+     * @return the vector's values
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * get the vector's values, rounded to floats
+     *
+     * @return the vector's values, rounded to floats
+     */
+    public float[] getFloatValues() {
+        return floatValues;
+    }
+
+    /**
+     * get the vector's squared norm
+     *
+     * @return the vector's squared norm
+     */
+    public double getSquaredNorm() {
+        return squaredNorm;
+    }
+
+    /**
+     * get the vector's squared norm, summed by the scalar kernels
+     *
+     * @return the vector's squared norm, summed by the scalar kernels
+     */
+    public double getScalarSquaredNorm() {
+        return scalarSquaredNorm;
+    }
+
+    /**
+     * get the number of features in the vector
+     *
+     * @return the number of features in the vector
+     */
+    public int getNumberOfFeatures() {
+        return values.length;
+    }
+}
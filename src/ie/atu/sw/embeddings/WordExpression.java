@@ -0,0 +1,515 @@
+package ie.atu.sw.embeddings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * a word-vector expression, e.g. "king - man + woman * 0.5", compiled once
+ * against a loaded words-embeddings file, then evaluated as often as needed,
+ * e.g. from the word calculator, a script, or a batched search
+ * </p>
+ * <p>
+ * grammar, with the usual precedence (unary minus, then * and /, then + and
+ * -), all operators applied feature by feature; numbers are scalars, and apply
+ * to every feature:
+ * </p>
+ *
+ * <pre>
+ * expression := term (('+' | '-') term)*
+ * term       := factor (('*' | '/') factor)*
+ * factor     := '-' factor | number | word | '"' word '"' | '(' expression ')'
+ * </pre>
+ * <p>
+ * a '-' inside a word belongs to the word (e.g. 'well-known'), so put spaces
+ * around a minus between two words; a word that looks like a number (e.g.
+ * '1990') is written in double quotes
+ * </p>
+ * <p>
+ * compiling parses the source into a syntax tree, folds every subtree without
+ * words into one constant, folds chains of constants over * and over + and -
+ * (e.g. 'w * 2 * 3' becomes 'w * 6', and '2 - w + 3' becomes '5 - w'), and
+ * flattens the tree into a postfix program; folding a chain reassociates it,
+ * so a result can differ from left-to-right evaluation in its last bits;
+ * evaluating runs the program once per feature on a small stack, reading each
+ * word's value straight from the matrix, and writes one output buffer, so no
+ * intermediate vector is built
+ * </p>
+ * <p>
+ * the compiled words are bound to the words-embeddings file loaded at the
+ * time; an instance reuses its stack and output buffer, so it is not thread
+ * safe (compile one per thread instead)
+ * </p>
+ */
+public class WordExpression {
+
+    private static final String OPERATORS = "+-*/()";
+    private static final Pattern NUMBER = Pattern.compile("(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final Pattern MANTISSA = Pattern.compile("\\d+\\.?\\d*|\\.\\d+");
+
+    /**
+     * the operations of the syntax tree, and of the postfix program
+     */
+    private enum Operation {
+        NUMBER, WORD, NEGATE, ADD, SUBTRACT, MULTIPLY, DIVIDE;
+
+        private double apply(double left, double right) {
+            return switch (this) {
+                case ADD -> left + right;
+                case SUBTRACT -> left - right;
+                case MULTIPLY -> left * right;
+                case DIVIDE -> left / right;
+                default -> throw new IllegalStateException(this + " is not a binary operation");
+            };
+        }
+    }
+
+    /**
+     * a node of the syntax tree: a number, a word (row), or an operation on one
+     * or two nodes
+     */
+    private static class Node {
+        private final Operation operation;
+        private final double value;
+        private final int row;
+        private final Node left;
+        private final Node right;
+
+        private Node(Operation operation, double value, int row, Node left, Node right) {
+            this.operation = operation;
+            this.value = value;
+            this.row = row;
+            this.left = left;
+            this.right = right;
+        }
+
+        private static Node number(double value) {
+            return new Node(Operation.NUMBER, value, -1, null, null);
+        }
+
+        private static Node word(int row) {
+            return new Node(Operation.WORD, 0.0, row, null, null);
+        }
+
+        private boolean isNumber() {
+            return this.operation == Operation.NUMBER;
+        }
+
+        /**
+         * is this node 'x * c', with a constant factor c?
+         */
+        private boolean isScaled() {
+            return this.operation == Operation.MULTIPLY && this.right.isNumber();
+        }
+
+        /**
+         * is this node 'x + c' or 'c - x', with a constant term c?
+         */
+        private boolean isOffset() {
+            return this.operation == Operation.ADD && this.right.isNumber()
+                    || this.operation == Operation.SUBTRACT && this.left.isNumber();
+        }
+
+        /**
+         * negate a node, folding constants and double negations into it
+         */
+        private static Node negate(Node node) {
+            if (node.isNumber())
+                return number(-node.value);
+
+            if (node.operation == Operation.NEGATE)
+                return node.left;
+
+            // -(x * c) is x * -c, -(x + c) is -c - x, and -(c - x) is x + -c
+            if (node.isScaled())
+                return new Node(Operation.MULTIPLY, 0.0, -1, node.left, number(-node.right.value));
+
+            if (node.isOffset())
+                return node.operation == Operation.ADD
+                        ? new Node(Operation.SUBTRACT, 0.0, -1, number(-node.right.value), node.left)
+                        : new Node(Operation.ADD, 0.0, -1, node.right, number(-node.left.value));
+
+            return new Node(Operation.NEGATE, 0.0, -1, node, null);
+        }
+
+        /**
+         * combine two nodes, folding them into one constant if neither holds a
+         * word, and folding chains of constants over * and over + and -
+         */
+        private static Node binary(Operation operation, Node left, Node right) {
+            if (left.isNumber() && right.isNumber())
+                return number(operation.apply(left.value, right.value));
+
+            return switch (operation) {
+                case MULTIPLY -> multiply(left, right);
+                case ADD -> add(left, false, right);
+                case SUBTRACT -> add(left, true, right);
+                default -> new Node(operation, 0.0, -1, left, right);
+            };
+        }
+
+        /**
+         * multiply two nodes, keeping a constant factor on the right of its
+         * product ('x * c'), and pulling constant factors out of both sides, so
+         * that they meet: (x * 2) * y * 3 becomes (x * y) * 6
+         */
+        private static Node multiply(Node left, Node right) {
+            if (left.isNumber())
+                return multiply(right, left);
+
+            if (right.isNumber()) {
+                if (left.isScaled())
+                    return multiply(left.left, number(left.right.value * right.value));
+
+                if (left.operation == Operation.NEGATE)
+                    return multiply(left.left, number(-right.value));
+
+                return new Node(Operation.MULTIPLY, 0.0, -1, left, right);
+            }
+
+            if (left.isScaled() || right.isScaled()) {
+                Node product = multiply(left.isScaled() ? left.left : left, right.isScaled() ? right.left : right);
+                double factor = (left.isScaled() ? left.right.value : 1.0)
+                        * (right.isScaled() ? right.right.value : 1.0);
+
+                return new Node(Operation.MULTIPLY, 0.0, -1, product, number(factor));
+            }
+
+            return new Node(Operation.MULTIPLY, 0.0, -1, left, right);
+        }
+
+        /**
+         * add (or subtract) two nodes; each side is split into a sign, a part with
+         * words, and a constant term ('x + c' or 'c - x'), so the constant terms
+         * of both sides are summed into one, kept outermost: (x + 2) - y + 3
+         * becomes (x - y) + 5, and 2 - x + 3 becomes 5 - x
+         */
+        private static Node add(Node left, boolean subtract, Node right) {
+            // x - -y is x + y, x + -y is x - y, and -x + y is y - x
+            if (right.operation == Operation.NEGATE)
+                return add(left, !subtract, right.left);
+
+            if (left.operation == Operation.NEGATE && !subtract)
+                return add(right, true, left.left);
+
+            if (!left.isNumber() && !left.isOffset() && !right.isNumber() && !right.isOffset())
+                return new Node(subtract ? Operation.SUBTRACT : Operation.ADD, 0.0, -1, left, right);
+
+            // left is leftSign * leftWords + leftConstant (without words if null)
+            Node leftWords = left.isNumber() ? null : left.isOffset() ? offsetWords(left) : left;
+            boolean leftNegative = left.isOffset() && left.operation == Operation.SUBTRACT;
+            double leftConstant = left.isNumber() ? left.value : left.isOffset() ? offsetConstant(left) : 0.0;
+
+            // right is rightSign * rightWords + rightConstant, negated if subtracted
+            Node rightWords = right.isNumber() ? null : right.isOffset() ? offsetWords(right) : right;
+            boolean rightNegative = (right.isOffset() && right.operation == Operation.SUBTRACT) != subtract;
+            double rightConstant = right.isNumber() ? right.value : right.isOffset() ? offsetConstant(right) : 0.0;
+            if (subtract)
+                rightConstant = -rightConstant;
+
+            // the words of both sides, and whether they are subtracted from the
+            // constant; a negative left and a positive right are written 'y - x'
+            Node words;
+            boolean negative;
+            if (leftWords == null || rightWords == null) {
+                words = leftWords != null ? leftWords : rightWords;
+                negative = leftWords != null ? leftNegative : rightNegative;
+            } else if (leftNegative == rightNegative) {
+                words = add(leftWords, false, rightWords);
+                negative = leftNegative;
+            } else {
+                words = leftNegative ? add(rightWords, true, leftWords) : add(leftWords, true, rightWords);
+                negative = false;
+            }
+
+            // a missing constant term is not added as 0.0, which would turn -0.0 into 0.0
+            boolean leftHasConstant = leftWords == null || left.isOffset();
+            boolean rightHasConstant = rightWords == null || right.isOffset();
+            Node constant = number(leftHasConstant && rightHasConstant ? leftConstant + rightConstant
+                    : leftHasConstant ? leftConstant : rightConstant);
+
+            return negative ? new Node(Operation.SUBTRACT, 0.0, -1, constant, words)
+                    : new Node(Operation.ADD, 0.0, -1, words, constant);
+        }
+
+        /**
+         * get the part with words of 'x + c' or 'c - x'
+         */
+        private static Node offsetWords(Node node) {
+            return node.operation == Operation.ADD ? node.left : node.right;
+        }
+
+        /**
+         * get the constant term of 'x + c' or 'c - x'
+         */
+        private static double offsetConstant(Node node) {
+            return node.operation == Operation.ADD ? node.right.value : node.left.value;
+        }
+    }
+
+    private final String source;
+    private final EmbeddingMatrix matrix;
+    private final List<String> words = new ArrayList<>();
+
+    // the postfix program: one operation per step, with its constant or row
+    private final Operation[] operations;
+    private final double[] constants;
+    private final int[] rows;
+
+    private final double[] stack;
+    private final double[] output;
+
+    // parser state
+    private List<String> tokens;
+    private int position;
+
+    private WordExpression(String source, WordsEmbeddings wordsEmbeddings) throws Exception {
+        this.source = source;
+        this.matrix = wordsEmbeddings.getEmbeddingMatrix();
+        this.tokens = tokenize(source);
+        this.position = 0;
+
+        Node root = parseExpression(wordsEmbeddings);
+        if (this.position < this.tokens.size())
+            throw new Exception("Unexpected '" + this.tokens.get(this.position) + "' in expression: " + source);
+
+        if (root.operation == Operation.NUMBER)
+            throw new Exception("An expression needs at least one word: " + source);
+
+        List<Node> program = new ArrayList<>();
+        int depth = flatten(root, program);
+
+        this.operations = new Operation[program.size()];
+        this.constants = new double[program.size()];
+        this.rows = new int[program.size()];
+        for (int i = 0; i < program.size(); i++) {
+            this.operations[i] = program.get(i).operation;
+            this.constants[i] = program.get(i).value;
+            this.rows[i] = program.get(i).row;
+        }
+
+        this.stack = new double[depth];
+        this.output = new double[this.matrix.getNumberOfFeatures()];
+        this.tokens = null;
+    }
+
+    /**
+     * compile an expression against a loaded words-embeddings file
+     *
+     * @param source          - the expression, e.g. "king - man + woman * 0.5"
+     * @param wordsEmbeddings - the loaded words-embeddings file to find the
+     *                        expression's words in
+     * @return the compiled expression
+     * @throws Exception if the expression is malformed, holds no word, or a word
+     *                   is not found
+     */
+    public static WordExpression compile(String source, WordsEmbeddings wordsEmbeddings) throws Exception {
+        return new WordExpression(source, wordsEmbeddings);
+    }
+
+    /**
+     * get the expression's source text
+     *
+     * @return the expression's source text
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * get the words the expression uses, in order of first use
+     *
+     * @return the words the expression uses
+     */
+    public String[] getWords() {
+        return this.words.toArray(new String[0]);
+    }
+
+    /**
+     * get the number of steps of the compiled (and constant-folded) postfix
+     * program
+     *
+     * @return the number of steps of the program
+     */
+    public int getProgramLength() {
+        return this.operations.length;
+    }
+
+    /**
+     * evaluate the expression into this instance's output buffer, which is
+     * overwritten by the next call
+     *
+     * @return the output buffer, holding one value per feature
+     */
+    public double[] evaluate() {
+        return evaluate(this.output);
+    }
+
+    /**
+     * evaluate the expression into a caller's buffer, e.g. one row of a batch
+     *
+     * @param destination - the buffer to write, with one value per feature
+     * @return the destination buffer
+     */
+    public double[] evaluate(double[] destination) {
+        double[] stack = this.stack;
+
+        for (int feature = 0; feature < destination.length; feature++) {
+            int top = 0;
+
+            for (int i = 0; i < this.operations.length; i++) {
+                switch (this.operations[i]) {
+                    case NUMBER -> stack[top++] = this.constants[i];
+                    case WORD -> stack[top++] = this.matrix.get(this.rows[i], feature);
+                    case NEGATE -> stack[top - 1] = -stack[top - 1];
+                    case ADD -> stack[--top - 1] += stack[top];
+                    case SUBTRACT -> stack[--top - 1] -= stack[top];
+                    case MULTIPLY -> stack[--top - 1] *= stack[top];
+                    case DIVIDE -> stack[--top - 1] /= stack[top];
+                }
+            }
+
+            destination[feature] = stack[0];
+        }
+
+        return destination;
+    }
+
+    /**
+     * write a node's postfix program, children first
+     *
+     * @return the stack depth the node needs
+     */
+    private static int flatten(Node node, List<Node> program) {
+        int depth = switch (node.operation) {
+            case NUMBER, WORD -> 1;
+            case NEGATE -> flatten(node.left, program);
+            default -> Math.max(flatten(node.left, program), 1 + flatten(node.right, program));
+        };
+
+        program.add(node);
+        return depth;
+    }
+
+    /**
+     * split the source into operators, numbers, words and quoted words (kept
+     * with their quotes)
+     */
+    private static List<String> tokenize(String source) throws Exception {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+
+        while (i < source.length()) {
+            char c = source.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (OPERATORS.indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = source.indexOf('"', i + 1);
+                if (end < 0)
+                    throw new Exception("Missing closing quote in expression: " + source);
+
+                tokens.add(source.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                // a '-' only starts an operator at the start of a token, and a '+'
+                // inside a number's exponent (e.g. '1e+5') belongs to the number
+                int start = i;
+                while (i < source.length() && !Character.isWhitespace(source.charAt(i))
+                        && (source.charAt(i) == '-' || OPERATORS.indexOf(source.charAt(i)) < 0
+                                || source.charAt(i) == '+' && isExponent(source, start, i))
+                        && source.charAt(i) != '"')
+                    i++;
+
+                tokens.add(source.substring(start, i));
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * is the '+' at 'position' the sign of a number's exponent, e.g. in
+     * '2.5e+3', where the token from 'start' is '2.5e' and a digit follows?
+     */
+    private static boolean isExponent(String source, int start, int position) {
+        if (position - start < 2 || Character.toLowerCase(source.charAt(position - 1)) != 'e'
+                || position + 1 >= source.length() || !Character.isDigit(source.charAt(position + 1)))
+            return false;
+
+        return MANTISSA.matcher(source.substring(start, position - 1)).matches();
+    }
+
+    private String peek() {
+        return this.position < this.tokens.size() ? this.tokens.get(this.position) : null;
+    }
+
+    private Node parseExpression(WordsEmbeddings wordsEmbeddings) throws Exception {
+        Node node = parseTerm(wordsEmbeddings);
+
+        while ("+".equals(peek()) || "-".equals(peek())) {
+            Operation operation = this.tokens.get(this.position++).equals("+") ? Operation.ADD : Operation.SUBTRACT;
+            node = Node.binary(operation, node, parseTerm(wordsEmbeddings));
+        }
+
+        return node;
+    }
+
+    private Node parseTerm(WordsEmbeddings wordsEmbeddings) throws Exception {
+        Node node = parseFactor(wordsEmbeddings);
+
+        while ("*".equals(peek()) || "/".equals(peek())) {
+            Operation operation = this.tokens.get(this.position++).equals("*") ? Operation.MULTIPLY
+                    : Operation.DIVIDE;
+            node = Node.binary(operation, node, parseFactor(wordsEmbeddings));
+        }
+
+        return node;
+    }
+
+    private Node parseFactor(WordsEmbeddings wordsEmbeddings) throws Exception {
+        String token = peek();
+
+        if (token == null)
+            throw new Exception("Unexpected end of expression: " + this.source);
+
+        this.position++;
+
+        if (token.equals("-"))
+            return Node.negate(parseFactor(wordsEmbeddings));
+
+        if (token.equals("(")) {
+            Node node = parseExpression(wordsEmbeddings);
+
+            if (!")".equals(peek()))
+                throw new Exception("Missing ')' in expression: " + this.source);
+
+            this.position++;
+            return node;
+        }
+
+        if (OPERATORS.indexOf(token.charAt(0)) >= 0)
+            throw new Exception("Unexpected '" + token + "' in expression: " + this.source);
+
+        if (token.startsWith("\""))
+            return word(token.substring(1, token.length() - 1), wordsEmbeddings);
+
+        if (NUMBER.matcher(token).matches())
+            return Node.number(Double.parseDouble(token));
+
+        return word(token, wordsEmbeddings);
+    }
+
+    private Node word(String word, WordsEmbeddings wordsEmbeddings) throws Exception {
+        Node node = Node.word(wordsEmbeddings.getWordIndex(word));
+
+        if (!this.words.contains(word))
+            this.words.add(word);
+
+        return node;
+    }
+}
@@ -0,0 +1,174 @@
+package ie.atu.sw.embeddings;
+
+/**
+ * <p>
+ * an open-addressing hash table that maps each word to its row in the
+ * words-embeddings file
+ * </p>
+ * <p>
+ * row ids and word hashes are stored in primitive int arrays (no boxing); a
+ * slot holds (row + 1), so that 0 marks an empty slot; collisions are resolved
+ * with linear probing
+ * </p>
+ * <p>
+ * if a word appears more than once, the first row is kept, which matches the
+ * old linear-scan behaviour
+ * </p>
+ */
+public class WordIndex {
+
+    /** maximum fraction of slots that may be used before probing gets slow */
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    /** the largest power-of-two int array size */
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private String[] words;
+    private int[] slots;
+    private int[] hashes;
+    private int mask;
+
+    /**
+     * build an index of the first 'numberOfWords' words in a words array
+     *
+     * @param words         - the words loaded from the words-embeddings file
+     * @param numberOfWords - how many of the words to index
+     * @throws Exception if there are too many words for one table
+     */
+    public WordIndex(String[] words, int numberOfWords) throws Exception {
+        int capacity = tableCapacity(numberOfWords);
+
+        this.words = words;
+        this.slots = new int[capacity];
+        this.hashes = new int[capacity];
+        this.mask = capacity - 1;
+
+        for (int row = 0; row < numberOfWords; row++)
+            insert(words[row], row);
+    }
+
+    /**
+     * rebuild an index from the table arrays of another index, e.g. read from a
+     * snapshot file, without hashing any words
+     *
+     * @param words  - the words loaded from the words-embeddings file
+     * @param slots  - the slots of the other index (row + 1, or 0 when empty)
+     * @param hashes - the word hashes of the other index
+     * @throws Exception if the table size is not a power of two
+     */
+    WordIndex(String[] words, int[] slots, int[] hashes) throws Exception {
+        if (Integer.bitCount(slots.length) != 1 || hashes.length != slots.length)
+            throw new Exception("Invalid word index table size: " + slots.length);
+
+        this.words = words;
+        this.slots = slots;
+        this.hashes = hashes;
+        this.mask = slots.length - 1;
+    }
+
+    /**
+     * get the table's slots, each holding (row + 1), or 0 when empty
+     *
+     * @return the table's slots
+     */
+    int[] getSlots() {
+        return slots;
+    }
+
+    /**
+     * get the table's word hashes
+     *
+     * @return the table's word hashes
+     */
+    int[] getHashes() {
+        return hashes;
+    }
+
+    /**
+     * get the smallest power-of-two table size that keeps the load factor below
+     * MAX_LOAD_FACTOR
+     *
+     * @param numberOfWords - how many words will be stored
+     * @return the number of slots to allocate
+     * @throws Exception if even MAX_CAPACITY slots would be too full
+     */
+    private static int tableCapacity(int numberOfWords) throws Exception {
+        if (numberOfWords > MAX_CAPACITY * MAX_LOAD_FACTOR)
+            throw new Exception("Too many words to index: " + numberOfWords + " (at most "
+                    + (int) (MAX_CAPACITY * MAX_LOAD_FACTOR) + ")");
+
+        int capacity = 16;
+
+        while (capacity < MAX_CAPACITY && capacity * MAX_LOAD_FACTOR < numberOfWords)
+            capacity <<= 1;
+
+        return capacity;
+    }
+
+    /**
+     * spread the bits of a String hash code, so that similar words do not cluster
+     * in neighbouring slots
+     *
+     * @param word - the word to hash
+     * @return the mixed hash code
+     */
+    private static int hash(String word) {
+        int h = word.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * add a word to the table, unless it is already present
+     *
+     * @param word - the word to add
+     * @param row  - the row of the word in the words-embeddings file
+     */
+    private void insert(String word, int row) {
+        int hash = hash(word);
+        int slot = hash & this.mask;
+
+        while (this.slots[slot] != 0) {
+            if (this.hashes[slot] == hash && this.words[this.slots[slot] - 1].equals(word))
+                return;
+            slot = (slot + 1) & this.mask;
+        }
+
+        this.slots[slot] = row + 1;
+        this.hashes[slot] = hash;
+    }
+
+    /**
+     * find the row of a word
+     *
+     * @param word - the word to find
+     * @return the row of the word, or -1 if the word is not indexed
+     */
+    public int get(String word) {
+        int hash = hash(word);
+        int slot = hash & this.mask;
+
+        while (this.slots[slot] != 0) {
+            if (this.hashes[slot] == hash && this.words[this.slots[slot] - 1].equals(word))
+                return this.slots[slot] - 1;
+            slot = (slot + 1) & this.mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * find the rows of several words at once
+     *
+     * @param words - the words to find
+     * @return the row of each word, in the same order, with -1 for any word that
+     *         is not indexed
+     */
+    public int[] get(String[] words) {
+        int[] rows = new int[words.length];
+
+        for (int i = 0; i < words.length; i++)
+            rows[i] = get(words[i]);
+
+        return rows;
+    }
+}
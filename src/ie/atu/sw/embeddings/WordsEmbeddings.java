@@ -1,17 +1,31 @@
 package ie.atu.sw.embeddings;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.stream.Stream;
-
-import ie.atu.sw.console.ConsoleColor;
-import ie.atu.sw.console.ConsoleProgressMeter;
-import ie.atu.sw.util.Array;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import ie.atu.sw.index.BinaryIndex;
+import ie.atu.sw.index.HnswIndex;
+import ie.atu.sw.index.IndexFile;
+import ie.atu.sw.index.IndexParameters;
+import ie.atu.sw.index.Int8Index;
+import ie.atu.sw.index.IvfIndex;
+import ie.atu.sw.index.LshIndex;
+import ie.atu.sw.index.ProductQuantizationIndex;
+import ie.atu.sw.index.SearchIndexType;
+import ie.atu.sw.index.SimilarityIndex;
+import ie.atu.sw.index.VpTreeIndex;
+import ie.atu.sw.util.AnalogyObjective;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
 import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
 import ie.atu.sw.util.Vector;
 
 /**
@@ -20,26 +34,66 @@ import ie.atu.sw.util.Vector;
  * </p>
  * <ul>
  * <li>csv format detection</li>
+ * <li>binary snapshot save and load</li>
+ * <li>on-heap or off-heap word vector storage</li>
  * <li>word vector operations (search, add, subtract, multiply, divide)</li>
  * <li>similarity algorithms to find similar/dissimilar words</li>
+ * <li>row filters, cached by name, to restrict searches to some words</li>
+ * <li>tiered searches of the most frequent words first</li>
+ * <li>optional search indexes, built after loading</li>
  * </ul>
  */
-public class WordsEmbeddings {
+public class WordsEmbeddings implements AutoCloseable {
+
+    /**
+     * the number of queries a batched search scores against each tile of the
+     * word vectors (see EmbeddingMatrix.scoreTiles)
+     */
+    private static final int QUERY_BLOCK = 32;
+
+    /**
+     * the name of the built-in filter allowing only words made of letters (see
+     * getFilter)
+     */
+    public static final String ALPHABETIC_FILTER = "alphabetic";
 
     private String fileName;
     private String delimiter;
+    private boolean snapshot;
 
     private String[] words;
     private int numberOfWords;
+    private WordIndex wordIndex;
 
-    private double[][] embeddings;
+    private EmbeddingMatrix embeddings;
     private int numberOfFeatures;
 
+    private LoadOptions loadOptions;
+    private boolean normalized;
+
     private String[] previousSimilarWords;
     private double[] previousSimilarWordsScores;
+    private long previousSkippedFeatures = -1;
+    private String[][] previousBatchSimilarWords;
+    private double[][] previousBatchSimilarWordsScores;
 
     private SimilarityAlgorithm similarityAlgorithm = SimilarityAlgorithm.COSINE_SIMILARITY;
 
+    private int parallelism = 1;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    private ForkJoinPool forkJoinPool;
+
+    private SimilarityIndex searchIndex;
+    private int[] searchIndexBuildValues;
+    private IndexParameters indexParameters;
+    private boolean exactSearch;
+    private boolean earlyAbandon;
+    private final Map<String, RowFilter> filters = new ConcurrentHashMap<>();
+
+    private int tierWords;
+    private double tierScoreThreshold = Double.NaN;
+    private int previousSearchedWords;
+
     /**
      * <p>
      * create a WordsEmbeddings instance by loading a words-embeddings file from
@@ -56,9 +110,57 @@ public class WordsEmbeddings {
      * @throws Exception
      */
     public WordsEmbeddings(String fileName) throws Exception {
+        this(fileName, false);
+    }
+
+    /**
+     * <p>
+     * create a WordsEmbeddings instance by loading a words-embeddings file from
+     * a file name, optionally storing every word vector L2-normalized
+     * </p>
+     * <p>
+     * normalized rows turn a cosine similarity search into a plain dot-product
+     * scan; all other vector operations then also see unit-length vectors
+     * </p>
+     * 
+     * @param fileName   - a file name to load words-embeddings from
+     * @param normalized - store L2-normalized word vectors?
+     * @throws Exception
+     */
+    public WordsEmbeddings(String fileName, boolean normalized) throws Exception {
+        this(fileName, createLoadOptions(normalized));
+    }
+
+    /**
+     * <p>
+     * create a WordsEmbeddings instance by loading a words-embeddings file from
+     * a file name, storing the word vectors as decided by the load options
+     * </p>
+     * <p>
+     * e.g. Precision.FLOAT32 stores the word vectors in half the memory
+     * </p>
+     * 
+     * @param fileName    - a file name to load words-embeddings from
+     * @param loadOptions - how to store the loaded word vectors
+     * @throws Exception
+     */
+    public WordsEmbeddings(String fileName, LoadOptions loadOptions) throws Exception {
+        this.loadOptions = loadOptions;
         setFileName(fileName);
     }
 
+    /**
+     * create the default load options, optionally normalized
+     * 
+     * @param normalized - store L2-normalized word vectors?
+     * @return the load options
+     */
+    private static LoadOptions createLoadOptions(boolean normalized) {
+        LoadOptions loadOptions = new LoadOptions();
+        loadOptions.setNormalized(normalized);
+        return loadOptions;
+    }
+
     /**
      * get the loaded words-embeddings file name
      * 
@@ -98,11 +200,29 @@ public class WordsEmbeddings {
     }
 
     /**
-     * get the array of words-embeddings arrays
+     * get the matrix of word vectors, stored as one contiguous row-major array of
+     * doubles or floats
+     * 
+     * @return the matrix of word vectors loaded from the words-embeddings file
+     */
+    public EmbeddingMatrix getEmbeddingMatrix() {
+        return embeddings;
+    }
+
+    /**
+     * get a copy of the word vectors as an array of words-embeddings arrays; kept
+     * for compatibility, as it copies the whole matrix (prefer
+     * getEmbeddingMatrix() or getWordEmbedding())
      * 
-     * @return the words-embeddings array loaded from the words-embeddings file
+     * @return a copy of the words-embeddings arrays loaded from the
+     *         words-embeddings file
      */
     public double[][] getEmbeddings() {
+        double[][] embeddings = new double[this.numberOfWords][];
+
+        for (int i = 0; i < this.numberOfWords; i++)
+            embeddings[i] = this.embeddings.copyRow(i);
+
         return embeddings;
     }
 
@@ -117,6 +237,59 @@ public class WordsEmbeddings {
         return numberOfFeatures;
     }
 
+    /**
+     * were the word vectors L2-normalized when they were loaded?
+     * 
+     * @return whether the word vectors are stored L2-normalized
+     */
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    /**
+     * get the number type used to store the word vectors
+     * 
+     * @return the number type used to store the word vectors
+     */
+    public Precision getPrecision() {
+        return embeddings.getPrecision();
+    }
+
+    /**
+     * get the norm (length) of a word vector, computed once when the
+     * words-embeddings file was loaded
+     * 
+     * @param wordIndex - the index of the word
+     * @return the norm of the word vector (1.0 when normalized, unless the vector
+     *         is all zeros)
+     */
+    public double getWordNorm(int wordIndex) {
+        return Math.sqrt(this.embeddings.getSquaredNorm(wordIndex));
+    }
+
+    /**
+     * are the word vectors stored outside the Java heap?
+     * 
+     * @return whether the word vectors are stored outside the Java heap
+     */
+    public boolean isOffHeap() {
+        return embeddings.isOffHeap();
+    }
+
+    /**
+     * release the word vectors and the parallel search thread pool; off-heap
+     * word vectors are dropped, to be freed (or unmapped) later by the garbage
+     * collector, so this instance must not be used afterwards
+     */
+    @Override
+    public void close() {
+        setParallelism(1);
+        this.searchIndex = null;
+
+        if (this.embeddings != null)
+            this.embeddings.dropValues();
+    }
+
     /**
      * get the current similarity algorithm, e.g. dot product; cosine similarity
      * 
@@ -133,6 +306,250 @@ public class WordsEmbeddings {
         this.similarityAlgorithm = similarityAlgorithm;
     }
 
+    /**
+     * get the number of threads used by a parallel similarity search
+     * 
+     * @return the number of threads used by a parallel similarity search
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * set the number of threads used by a parallel similarity search; a new
+     * ForkJoin pool is created if the number changes (1 disables parallel
+     * searches)
+     * 
+     * @param parallelism - the number of threads to use
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism == this.parallelism)
+            return;
+
+        if (this.forkJoinPool != null)
+            this.forkJoinPool.shutdown();
+
+        this.parallelism = parallelism;
+        this.forkJoinPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * get the kind of search index used by similarity searches
+     * 
+     * @return the kind of search index - defaults to an exact scan
+     */
+    public SearchIndexType getSearchIndexType() {
+        return this.searchIndex == null ? SearchIndexType.EXACT : this.searchIndex.getType();
+    }
+
+    /**
+     * get the search index used by similarity searches
+     * 
+     * @return the search index, or null for an exact scan
+     */
+    public SimilarityIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * would setSearchIndexType() build (or load) an index? it would not if the
+     * same kind of index is already built with the same build parameters, and,
+     * for an index built for one similarity algorithm, for the current algorithm
+     * 
+     * @param type - the kind of search index to use
+     * @return whether the index would be built
+     */
+    public boolean needsSearchIndexBuild(SearchIndexType type) {
+        if (type != getSearchIndexType()
+                || !Arrays.equals(this.indexParameters.getBuildValues(type), this.searchIndexBuildValues))
+            return true;
+
+        // similar words have the largest scores, except for euclidean distances
+        boolean largest = this.similarityAlgorithm != SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                && this.similarityAlgorithm != SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+
+        return type.isAlgorithmSpecific() && !this.searchIndex.supports(this.similarityAlgorithm, largest);
+    }
+
+    /**
+     * set the kind of search index used by similarity searches, and build it (in
+     * parallel, if parallel searches are enabled); nothing is rebuilt unless
+     * needsSearchIndexBuild()
+     * <p>
+     * persistent indexes are read from their file next to the words-embeddings
+     * file, if it matches, instead of being rebuilt (see IndexFile); searches
+     * with a similarity algorithm that the index does not support fall back to
+     * an exact scan
+     * </p>
+     * 
+     * @param type - the kind of search index to use
+     * @throws Exception if the index cannot be built
+     */
+    public void setSearchIndexType(SearchIndexType type) throws Exception {
+        if (!needsSearchIndexBuild(type))
+            return;
+
+        int[] buildValues = this.indexParameters.getBuildValues(type);
+        EmbeddingMatrix matrix = this.embeddings;
+        IndexParameters parameters = this.indexParameters;
+        ForkJoinPool pool = this.forkJoinPool;
+        HnswIndex.Metric metric = HnswIndex.Metric.of(this.similarityAlgorithm);
+
+        this.searchIndex = null;
+        this.searchIndex = switch (type) {
+            case EXACT -> null;
+            case INT8 -> Int8Index.build(matrix, parameters, pool);
+            case PRODUCT_QUANTIZED -> IndexFile.loadOrBuild(this.fileName, this.normalized, matrix, type, null,
+                    parameters, in -> ProductQuantizationIndex.read(in, matrix, parameters),
+                    () -> ProductQuantizationIndex.build(matrix, parameters, pool));
+            case BINARY -> BinaryIndex.build(matrix, parameters, pool);
+            case HNSW -> IndexFile.loadOrBuild(this.fileName, this.normalized, matrix, type, metric.name(),
+                    parameters, in -> HnswIndex.read(in, matrix, parameters, metric),
+                    () -> HnswIndex.build(matrix, parameters, metric, pool));
+            case IVF -> IndexFile.loadOrBuild(this.fileName, this.normalized, matrix, type, null, parameters,
+                    in -> IvfIndex.read(in, matrix, parameters), () -> IvfIndex.build(matrix, parameters, pool));
+            case LSH -> LshIndex.build(matrix, parameters, pool);
+            case VP_TREE -> VpTreeIndex.build(matrix, pool);
+        };
+        this.searchIndexBuildValues = buildValues;
+    }
+
+    /**
+     * are similarity searches forced to scan every word exactly, bypassing the
+     * search index?
+     * 
+     * @return whether searches bypass the search index - defaults to false
+     */
+    public boolean isExactSearch() {
+        return exactSearch;
+    }
+
+    /**
+     * force similarity searches to scan every word exactly, bypassing the search
+     * index (which is kept, for when the flag is cleared)
+     * 
+     * @param exactSearch - whether searches bypass the search index
+     */
+    public void setExactSearch(boolean exactSearch) {
+        this.exactSearch = exactSearch;
+    }
+
+    /**
+     * do full scans for the nearest words by euclidean distance abandon a word
+     * early, once its partial sum of squared differences is already worse than
+     * the current k-th best distance?
+     * 
+     * @return whether euclidean scans abandon words early - defaults to false
+     */
+    public boolean isEarlyAbandon() {
+        return earlyAbandon;
+    }
+
+    /**
+     * <p>
+     * let full scans for the nearest words by euclidean distance abandon a word
+     * early: once 'howMany' words are kept, a word's sum of squared differences
+     * is checked against the current k-th best distance after every block of
+     * features (see Vector.ABANDON_BLOCK), and the rest of its features are
+     * skipped as soon as it is worse
+     * </p>
+     * <p>
+     * the search stays exact: words that are not abandoned are scored as usual,
+     * and the bound is loosened by a tiny relative slack for rounding errors;
+     * searches for dissimilar words, and other algorithms, are not affected
+     * </p>
+     * 
+     * @param earlyAbandon - whether euclidean scans abandon words early
+     */
+    public void setEarlyAbandon(boolean earlyAbandon) {
+        this.earlyAbandon = earlyAbandon;
+    }
+
+    /**
+     * get the number of words in the head tier of a tiered search
+     * 
+     * @return the number of words in the head tier, or 0 if searches are not
+     *         tiered
+     */
+    public int getTierWords() {
+        return tierWords;
+    }
+
+    /**
+     * <p>
+     * tier full scans for similar words: GloVe and word2vec files are ordered
+     * by frequency, and most useful neighbours are among the first words, so
+     * the first 'tierWords' words (the head tier) are scanned first, and the
+     * rest (the tail) only when the head cannot fill the top-k with scores at
+     * least as good as the tier score threshold, or when a full search is asked
+     * for
+     * </p>
+     * <p>
+     * when the tail is scanned, its results are merged with the head's, so the
+     * results are the same as an untiered scan's; searches with a search index,
+     * and searches for dissimilar words, are never tiered
+     * </p>
+     * 
+     * @param tierWords - the number of words in the head tier (0 or less, or at
+     *                  least the number of words, scans every word at once)
+     */
+    public void setTierWords(int tierWords) {
+        this.tierWords = Math.max(0, tierWords);
+    }
+
+    /**
+     * get the score the worst of the head tier's top-k must reach for a tiered
+     * search to stop at the head
+     * 
+     * @return the tier score threshold, or NaN if any full top-k is enough
+     */
+    public double getTierScoreThreshold() {
+        return tierScoreThreshold;
+    }
+
+    /**
+     * set the score the worst of the head tier's top-k must reach for a tiered
+     * search to stop at the head, in the similarity algorithm's own scores: at
+     * least the threshold for dot products and cosine similarities, at most the
+     * threshold for euclidean distances
+     * 
+     * @param tierScoreThreshold - the tier score threshold, or NaN if any full
+     *                           top-k is enough
+     */
+    public void setTierScoreThreshold(double tierScoreThreshold) {
+        this.tierScoreThreshold = tierScoreThreshold;
+    }
+
+    /**
+     * get the parameters of the search indexes; search-time parameters, e.g.
+     * IndexParameter.OVERSAMPLE, apply to the next search
+     * 
+     * @return the parameters of the search indexes
+     */
+    public IndexParameters getIndexParameters() {
+        return indexParameters;
+    }
+
+    /**
+     * get the minimum number of words needed for a similarity search to run in
+     * parallel
+     * 
+     * @return the minimum number of words needed for a parallel search
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * set the minimum number of words needed for a similarity search to run in
+     * parallel; smaller vocabularies are scanned on the calling thread
+     * 
+     * @param parallelThreshold - the minimum number of words for a parallel search
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
     /**
      * get the words string-array of the latest similar-or-dissimilar words search
      * 
@@ -154,6 +571,49 @@ public class WordsEmbeddings {
         return previousSimilarWordsScores;
     }
 
+    /**
+     * get the words string-arrays of the latest batched similar-or-dissimilar
+     * words search, one per query
+     * 
+     * @return the words string-arrays of the latest batched search
+     */
+    public String[][] getPreviousBatchSimilarWords() {
+        return previousBatchSimilarWords;
+    }
+
+    /**
+     * get the double-array scores-results of the latest batched
+     * similar-or-dissimilar words search, one per query
+     * 
+     * @return the double-array scores-results of the latest batched search, in
+     *         the same order as getPreviousBatchSimilarWords()
+     */
+    public double[][] getPreviousBatchSimilarWordsScores() {
+        return previousBatchSimilarWordsScores;
+    }
+
+    /**
+     * get the number of features (summed over every word) that the latest
+     * similar-or-dissimilar words search skipped by abandoning words early
+     * 
+     * @return the number of skipped features, or -1 if the latest search did not
+     *         abandon words early (see setEarlyAbandon)
+     */
+    public long getPreviousSkippedFeatures() {
+        return previousSkippedFeatures;
+    }
+
+    /**
+     * get the number of words the most recent search (or batched search) could
+     * return: every word, unless a tiered search stopped at the head tier (for
+     * any query of a batch)
+     * 
+     * @return the number of (first) words searched
+     */
+    public int getPreviousSearchedWords() {
+        return previousSearchedWords;
+    }
+
     /**
      * get the index of a word from the array of words that were loaded from the
      * words-embeddings file
@@ -164,16 +624,139 @@ public class WordsEmbeddings {
      * @throws Exception if the word is not found
      */
     public int getWordIndex(String word) throws Exception {
-        for (int i = 0; i < this.numberOfWords; i++)
-            if (this.words[i].equals(word))
-                return i;
+        int wordIndex = findWordIndex(word);
+
+        if (wordIndex < 0)
+            throw new Exception("Cannot find word: '" + word + "'");
 
-        throw new Exception("Cannot find word: '" + word + "'");
+        return wordIndex;
     }
 
     /**
-     * get the word-embedding array representing a word, which was loaded from the
-     * words-embeddings file
+     * get the index of a word from the array of words that were loaded from the
+     * words-embeddings file, without throwing an exception if it is missing
+     * 
+     * @param word - the word to find
+     * @return the index of the word, or -1 if the word is not found
+     */
+    public int findWordIndex(String word) {
+        return this.wordIndex.get(word);
+    }
+
+    /**
+     * get the indexes of several words at once, without throwing an exception for
+     * missing words
+     * 
+     * @param words - the words to find
+     * @return the index of each word, in the same order, with -1 for any word that
+     *         is not found
+     */
+    public int[] findWordIndexes(String[] words) {
+        return this.wordIndex.get(words);
+    }
+
+    /**
+     * build a row filter allowing the words that pass a test, e.g. no digits
+     * 
+     * @param wordPredicate - is a word allowed?
+     * @return the filter, covering every loaded word
+     */
+    public RowFilter createFilter(Predicate<String> wordPredicate) {
+        return RowFilter.of(this.numberOfWords, row -> wordPredicate.test(this.words[row]));
+    }
+
+    /**
+     * build a row filter allowing only a list of words (a whitelist, e.g. domain
+     * terms), or every word but them (e.g. the query words, or stopwords)
+     * 
+     * @param words - the words to allow or exclude; missing words are ignored
+     * @param allow - allow only the words (true), or every word but them (false)?
+     * @return the filter, covering every loaded word
+     */
+    public RowFilter createFilter(String[] words, boolean allow) {
+        return RowFilter.of(this.numberOfWords, findWordIndexes(words), allow);
+    }
+
+    /**
+     * cache a row filter by name, replacing any filter with that name, so it is
+     * built once and reused by every search that names it
+     * 
+     * @param name   - the name to cache the filter as
+     * @param filter - the filter
+     * @throws Exception if the filter does not cover the loaded words
+     */
+    public void putFilter(String name, RowFilter filter) throws Exception {
+        if (filter.getNumberOfRows() != this.numberOfWords)
+            throw new Exception("A filter of " + filter.getNumberOfRows() + " rows can't filter "
+                    + this.numberOfWords + " words");
+
+        this.filters.put(name, filter);
+    }
+
+    /**
+     * get a cached row filter by name; ALPHABETIC_FILTER is built on first use
+     * 
+     * @param name - the name of the filter
+     * @return the filter
+     * @throws Exception if no filter has that name
+     */
+    public RowFilter getFilter(String name) throws Exception {
+        if (ALPHABETIC_FILTER.equals(name))
+            return this.filters.computeIfAbsent(name,
+                    key -> createFilter(word -> !word.isEmpty() && word.chars().allMatch(Character::isLetter)));
+
+        RowFilter filter = this.filters.get(name);
+        if (filter == null)
+            throw new Exception("No filter named '" + name + "'");
+
+        return filter;
+    }
+
+    /**
+     * remove a cached row filter
+     * 
+     * @param name - the name of the filter
+     * @return whether a filter had that name
+     */
+    public boolean removeFilter(String name) {
+        return this.filters.remove(name) != null;
+    }
+
+    /**
+     * get the names of the cached row filters, sorted
+     * 
+     * @return the names of the cached row filters
+     */
+    public String[] getFilterNames() {
+        String[] names = this.filters.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * check that a search can find 'howMany' words among the words a filter
+     * allows
+     */
+    private void checkSearch(int howMany, RowFilter filter) throws Exception {
+        if (howMany > this.numberOfWords)
+            throw new Exception("Can't find " + howMany + " words in a words-embeddings file with "
+                    + this.numberOfWords + " words");
+
+        if (filter == null)
+            return;
+
+        if (filter.getNumberOfRows() != this.numberOfWords)
+            throw new Exception("A filter of " + filter.getNumberOfRows() + " rows can't filter "
+                    + this.numberOfWords + " words");
+
+        if (howMany > filter.getCardinality())
+            throw new Exception("Can't find " + howMany + " words with a filter allowing "
+                    + filter.getCardinality() + " words");
+    }
+
+    /**
+     * get a copy of the word-embedding array representing a word, which was
+     * loaded from the words-embeddings file
      * 
      * @param word - the word to find an embedding for
      * @return a word-embedding array representing a word
@@ -181,7 +764,18 @@ public class WordsEmbeddings {
      */
     public double[] getWordEmbedding(String word) throws Exception {
         int wordIndex = getWordIndex(word);
-        return this.embeddings[wordIndex];
+        return this.embeddings.copyRow(wordIndex);
+    }
+
+    /**
+     * get a read-only view of the word-embedding of a word, without copying it
+     * (float32 word vectors are widened into a new buffer)
+     * 
+     * @param wordIndex - the index of the word
+     * @return a read-only buffer over the word's vector
+     */
+    public DoubleBuffer getWordEmbeddingView(int wordIndex) {
+        return this.embeddings.getRow(wordIndex);
     }
 
     /**
@@ -196,7 +790,7 @@ public class WordsEmbeddings {
     public double[] add(String word1, String word2) throws Exception {
         int wordIndex1 = getWordIndex(word1);
         int wordIndex2 = getWordIndex(word2);
-        return Vector.add(this.embeddings[wordIndex1], this.embeddings[wordIndex2]);
+        return Vector.addInPlace(this.embeddings.copyRow(wordIndex1), this.embeddings.copyRow(wordIndex2));
     }
 
     /**
@@ -210,7 +804,7 @@ public class WordsEmbeddings {
      */
     public double[] add(String word, double[] embedding) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.add(this.embeddings[wordIndex], embedding);
+        return Vector.addInPlace(this.embeddings.copyRow(wordIndex), embedding);
     }
 
     /**
@@ -224,7 +818,8 @@ public class WordsEmbeddings {
      */
     public double[] add(double[] embedding, String word) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.add(embedding, this.embeddings[wordIndex]);
+        double[] wordEmbedding = this.embeddings.copyRow(wordIndex);
+        return Vector.add(embedding, wordEmbedding, wordEmbedding);
     }
 
     /**
@@ -251,7 +846,7 @@ public class WordsEmbeddings {
     public double[] subtract(String word1, String word2) throws Exception {
         int wordIndex1 = getWordIndex(word1);
         int wordIndex2 = getWordIndex(word2);
-        return Vector.subtract(this.embeddings[wordIndex1], this.embeddings[wordIndex2]);
+        return Vector.subtractInPlace(this.embeddings.copyRow(wordIndex1), this.embeddings.copyRow(wordIndex2));
     }
 
     /**
@@ -265,7 +860,7 @@ public class WordsEmbeddings {
      */
     public double[] subtract(String word, double[] embedding) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.subtract(this.embeddings[wordIndex], embedding);
+        return Vector.subtractInPlace(this.embeddings.copyRow(wordIndex), embedding);
     }
 
     /**
@@ -279,7 +874,8 @@ public class WordsEmbeddings {
      */
     public double[] subtract(double[] embedding, String word) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.subtract(embedding, this.embeddings[wordIndex]);
+        double[] wordEmbedding = this.embeddings.copyRow(wordIndex);
+        return Vector.subtract(embedding, wordEmbedding, wordEmbedding);
     }
 
     /**
@@ -306,7 +902,7 @@ public class WordsEmbeddings {
     public double[] multiply(String word1, String word2) throws Exception {
         int wordIndex1 = getWordIndex(word1);
         int wordIndex2 = getWordIndex(word2);
-        return Vector.multiply(this.embeddings[wordIndex1], this.embeddings[wordIndex2]);
+        return Vector.multiplyInPlace(this.embeddings.copyRow(wordIndex1), this.embeddings.copyRow(wordIndex2));
     }
 
     /**
@@ -320,7 +916,7 @@ public class WordsEmbeddings {
      */
     public double[] multiply(String word, double[] embedding) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.multiply(this.embeddings[wordIndex], embedding);
+        return Vector.multiplyInPlace(this.embeddings.copyRow(wordIndex), embedding);
     }
 
     /**
@@ -334,7 +930,8 @@ public class WordsEmbeddings {
      */
     public double[] multiply(double[] embedding, String word) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.multiply(embedding, this.embeddings[wordIndex]);
+        double[] wordEmbedding = this.embeddings.copyRow(wordIndex);
+        return Vector.multiply(embedding, wordEmbedding, wordEmbedding);
     }
 
     /**
@@ -361,7 +958,7 @@ public class WordsEmbeddings {
     public double[] divide(String word1, String word2) throws Exception {
         int wordIndex1 = getWordIndex(word1);
         int wordIndex2 = getWordIndex(word2);
-        return Vector.divide(this.embeddings[wordIndex1], this.embeddings[wordIndex2]);
+        return Vector.divideInPlace(this.embeddings.copyRow(wordIndex1), this.embeddings.copyRow(wordIndex2));
     }
 
     /**
@@ -375,7 +972,7 @@ public class WordsEmbeddings {
      */
     public double[] divide(String word, double[] embedding) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.divide(this.embeddings[wordIndex], embedding);
+        return Vector.divideInPlace(this.embeddings.copyRow(wordIndex), embedding);
     }
 
     /**
@@ -389,7 +986,8 @@ public class WordsEmbeddings {
      */
     public double[] divide(double[] embedding, String word) throws Exception {
         int wordIndex = getWordIndex(word);
-        return Vector.divide(embedding, this.embeddings[wordIndex]);
+        double[] wordEmbedding = this.embeddings.copyRow(wordIndex);
+        return Vector.divide(embedding, wordEmbedding, wordEmbedding);
     }
 
     /**
@@ -468,9 +1066,25 @@ public class WordsEmbeddings {
      * @throws Exception
      */
     public String[] getSimilarWords(String word, int howMany, boolean similar) throws Exception {
+        return getSimilarWords(word, howMany, similar, null);
+    }
+
+    /**
+     * get 'howMany' similar-or-dissimilar words to a word that was loaded from the
+     * words-embeddings file, among the words a filter allows
+     * 
+     * @param word    - the word to search for
+     * @param howMany - the number of similarities to find
+     * @param similar - search for similar or dissimilar words?
+     * @param filter  - the words that may be returned, or null for every word
+     * @return an array of similar-or-dissimilar words, found using the set
+     *         similarity algorithm
+     * @throws Exception
+     */
+    public String[] getSimilarWords(String word, int howMany, boolean similar, RowFilter filter) throws Exception {
         int wordIndex = getWordIndex(word);
-        double[] embedding = this.embeddings[wordIndex];
-        return getSimilarWords(embedding, howMany, similar);
+        double[] embedding = this.embeddings.copyRow(wordIndex);
+        return getSimilarWords(embedding, howMany, similar, filter);
     }
 
     /**
@@ -485,10 +1099,52 @@ public class WordsEmbeddings {
      * @throws Exception
      */
     public String[] getSimilarWords(double[] embedding, int howMany, boolean similar) throws Exception {
-        double[] similarityScores = new double[this.numberOfWords];
+        return getSimilarWords(embedding, howMany, similar, null);
+    }
 
-        for (int i = 0; i < this.numberOfWords; i++)
-            similarityScores[i] = this.similarityAlgorithm.calculate(embedding, this.embeddings[i]);
+    /**
+     * <p>
+     * get 'howMany' similar-or-dissimilar words to a vector representation of a
+     * word, among the words a filter allows
+     * </p>
+     * <p>
+     * the filter is pushed down into the search: excluded words are skipped by
+     * the scan (a whole long of the bitset at a time), or by the search index,
+     * while the top-k are selected, so even a very selective filter finds
+     * 'howMany' words without over-fetching
+     * </p>
+     * 
+     * @param embedding - the vector representation of a word
+     * @param howMany   - the number of similarities to find
+     * @param similar   - search for similar or dissimilar words?
+     * @param filter    - the words that may be returned, or null for every word
+     * @return an array of similar-or-dissimilar words, found using the set
+     *         similarity algorithm
+     * @throws Exception if the filter allows fewer than 'howMany' words
+     */
+    public String[] getSimilarWords(double[] embedding, int howMany, boolean similar, RowFilter filter)
+            throws Exception {
+        return getSimilarWords(embedding, howMany, similar, filter, false);
+    }
+
+    /**
+     * get 'howMany' similar-or-dissimilar words to a vector representation of a
+     * word, among the words a filter allows, searching every word even if
+     * searches are tiered (see setTierWords) when 'fullSearch' is set
+     * 
+     * @param embedding  - the vector representation of a word
+     * @param howMany    - the number of similarities to find
+     * @param similar    - search for similar or dissimilar words?
+     * @param filter     - the words that may be returned, or null for every
+     *                   word
+     * @param fullSearch - search every word, without stopping at the head tier?
+     * @return an array of similar-or-dissimilar words, found using the set
+     *         similarity algorithm
+     * @throws Exception if the filter allows fewer than 'howMany' words
+     */
+    public String[] getSimilarWords(double[] embedding, int howMany, boolean similar, RowFilter filter,
+            boolean fullSearch) throws Exception {
+        checkSearch(howMany, filter);
 
         // Euclidean Distances use smallest values for best similarity
         // and largest for best dissimilarity
@@ -497,164 +1153,597 @@ public class WordsEmbeddings {
                 || this.similarityAlgorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
         boolean useMinimums = usingEuclidean ? similar : !similar;
 
-        int[] wordIndexes = useMinimums ? Array.getMinValuesIndexes(similarityScores, howMany)
-                : Array.getMaxValuesIndexes(similarityScores, howMany);
+        if (embedding.length != this.numberOfFeatures)
+            throw new Exception("The two vector arrays must be of the same length.");
+
+        // score and select in a single pass, using the norms computed at load time;
+        // large vocabularies are split into chunks and scanned in parallel
+        SimilarityAlgorithm algorithm = this.similarityAlgorithm;
+        EmbeddingMatrix matrix = this.embeddings;
+        QueryVector query = new QueryVector(embedding);
+        ForkJoinPool pool = this.numberOfWords >= this.parallelThreshold ? this.forkJoinPool : null;
+        SimilarityIndex index = this.exactSearch ? null : this.searchIndex;
+        boolean useIndex = index != null && index.supports(algorithm, !useMinimums);
+        boolean abandonEarly = this.earlyAbandon && usingEuclidean && useMinimums && !useIndex;
+        LongAdder skippedFeatures = new LongAdder();
+        int headWords = !useIndex && !fullSearch ? getHeadWords(similar) : this.numberOfWords;
+
+        ParallelScan.RangeScanner scanner = (start, end, results) -> {
+            if (abandonEarly) {
+                skippedFeatures.add(scanAbandoningEarly(matrix, algorithm, query, start, end, filter, results));
+                return;
+            }
 
+            for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1))
+                results.offer(i, matrix.score(algorithm, query, i));
+        };
+
+        TopK topK = useIndex
+                ? index.search(query, algorithm, howMany, !useMinimums, filter, pool)
+                : ParallelScan.scan(pool, headWords, howMany, !useMinimums, scanner);
+
+        // the head tier could not fill the top-k well enough; scan the tail too
+        int searchedWords = headWords;
+        if (headWords < this.numberOfWords && !isHeadFilled(topK, howMany, !useMinimums)) {
+            topK.merge(ParallelScan.scan(pool, this.numberOfWords - headWords, howMany, !useMinimums,
+                    (start, end, results) -> scanner.scan(headWords + start, headWords + end, results)));
+            searchedWords = this.numberOfWords;
+        }
+
+        int[] wordIndexes = topK.getIndexes();
         String[] similarWords = new String[wordIndexes.length];
-        double[] similarWordsScores = new double[wordIndexes.length];
 
-        for (int i = 0; i < wordIndexes.length; i++) {
+        for (int i = 0; i < wordIndexes.length; i++)
             similarWords[i] = this.words[wordIndexes[i]];
-            similarWordsScores[i] = similarityScores[wordIndexes[i]];
-        }
 
         this.previousSimilarWords = similarWords;
-        this.previousSimilarWordsScores = similarWordsScores;
+        this.previousSimilarWordsScores = topK.getScores();
+        this.previousSkippedFeatures = abandonEarly ? skippedFeatures.sum() : -1;
+        this.previousSearchedWords = searchedWords;
 
         return similarWords;
     }
 
     /**
-     * after setting a words-embeddings file name, load all relevant data from that
-     * file, including number of words; the words themselves; and the
-     * words-embeddings vectors
-     * 
-     * @throws Exception
+     * get the number of words a scan searches first: the head tier, for tiered
+     * searches for similar words, or else every word
      */
-    public void setWordsAndEmbeddings() throws Exception {
-        this.numberOfWords = (int) countFileLines();
-        this.words = new String[this.numberOfWords];
+    private int getHeadWords(boolean similar) {
+        return similar && this.tierWords > 0 ? Math.min(this.tierWords, this.numberOfWords) : this.numberOfWords;
+    }
 
-        try (BufferedReader buffer = new BufferedReader(new FileReader(this.fileName))) {
-            readBufferLinesData(buffer);
-            buffer.close();
-        }
+    /**
+     * did the head tier fill the top-k with scores at least as good as the tier
+     * score threshold?
+     */
+    private boolean isHeadFilled(TopK topK, int howMany, boolean largest) {
+        if (topK.size() < howMany)
+            return false;
+
+        if (howMany == 0 || Double.isNaN(this.tierScoreThreshold))
+            return true;
+
+        double[] scores = topK.getScores();
+        double worst = scores[scores.length - 1];
+
+        return largest ? worst >= this.tierScoreThreshold : worst <= this.tierScoreThreshold;
     }
 
     /**
-     * count the number of lines/number-of-words in the provided words-embeddings
-     * file
+     * get 'howMany' similar-or-dissimilar words to each of many words in one
+     * batched search (see the double[][] version)
      * 
-     * @return the number of lines/number-of-words in the provided words-embeddings
-     *         file
-     * @throws Exception
+     * @param words   - the words to search for
+     * @param howMany - the number of similarities to find per word
+     * @param similar - search for similar or dissimilar words?
+     * @return one array of similar-or-dissimilar words per word
+     * @throws Exception if a word is not found
      */
-    private long countFileLines() throws Exception {
-        Path path = Paths.get(this.fileName);
-
-        try (Stream<String> stream = Files.lines(path, StandardCharsets.UTF_8)) {
-            long numberOfWords = stream.count();
+    public String[][] getSimilarWords(String[] words, int howMany, boolean similar) throws Exception {
+        double[][] embeddings = new double[words.length][];
 
-            if (numberOfWords > Integer.MAX_VALUE - 1)
-                throw new Exception("There are too many words (" + numberOfWords
-                        + ") in the provided word-embeddings file: " + getFileName());
+        for (int i = 0; i < words.length; i++)
+            embeddings[i] = getWordEmbedding(words[i]);
 
-            return numberOfWords;
-        }
+        return getSimilarWords(embeddings, howMany, similar);
     }
 
     /**
-     * read each line in the provided words-embeddings file, and set relevant data,
-     * e.g. number of vector features; size of the embeddings arrays needed
+     * <p>
+     * get 'howMany' similar-or-dissimilar words to each of many vectors in one
+     * batched search, with the same results as one getSimilarWords() call per
+     * vector
+     * </p>
+     * <p>
+     * without a search index, the queries are scored in blocks of QUERY_BLOCK
+     * against tiles of the word vectors (see EmbeddingMatrix.scoreTiles), so the
+     * word vectors are streamed from memory once per block of queries instead
+     * of once per query; large vocabularies are split into chunks of rows and
+     * scanned in parallel, as for a single query (early abandoning is not used)
+     * </p>
+     * <p>
+     * with a search index that supports the similarity algorithm, each vector
+     * is searched in the index
+     * </p>
      * 
-     * @param buffer - a buffer of the data in the provided words-embeddings file
+     * @param embeddings - the vector representations of the words
+     * @param howMany    - the number of similarities to find per vector
+     * @param similar    - search for similar or dissimilar words?
+     * @return one array of similar-or-dissimilar words per vector, found using
+     *         the set similarity algorithm
      * @throws Exception
      */
-    private void readBufferLinesData(BufferedReader buffer) throws Exception {
-        String embeddingsFileLine = buffer.readLine();
-
-        this.numberOfFeatures = countEmbeddingsFeatures(embeddingsFileLine);
-        this.embeddings = new double[this.numberOfWords][getNumberOfFeatures()];
+    public String[][] getSimilarWords(double[][] embeddings, int howMany, boolean similar) throws Exception {
+        return getSimilarWords(embeddings, howMany, similar, null);
+    }
 
-        printFileLoadingHeader();
+    /**
+     * get 'howMany' similar-or-dissimilar words to each of many vectors in one
+     * batched search, among the words a filter allows (see the version without
+     * a filter, and the single-vector version with one)
+     * 
+     * @param embeddings - the vector representations of the words
+     * @param howMany    - the number of similarities to find per vector
+     * @param similar    - search for similar or dissimilar words?
+     * @param filter     - the words that may be returned, or null for every word
+     * @return one array of similar-or-dissimilar words per vector, found using
+     *         the set similarity algorithm
+     * @throws Exception if the filter allows fewer than 'howMany' words
+     */
+    public String[][] getSimilarWords(double[][] embeddings, int howMany, boolean similar, RowFilter filter)
+            throws Exception {
+        return getSimilarWords(embeddings, howMany, similar, filter, false);
+    }
 
-        for (int i = 0; i < this.numberOfWords; i++) {
-            setWordAndEmbeddingsValues(embeddingsFileLine, i);
-            ConsoleProgressMeter.printProgress(i, this.numberOfWords - 1);
-            embeddingsFileLine = buffer.readLine();
-        }
+    /**
+     * get 'howMany' similar-or-dissimilar words to each of many vectors in one
+     * batched search, among the words a filter allows; with tiered searches
+     * (see setTierWords), every query is scored against the head tier, and only
+     * the queries the head cannot fill continue into the tail, as a smaller
+     * batch, unless 'fullSearch' is set
+     * 
+     * @param embeddings - the vector representations of the words
+     * @param howMany    - the number of similarities to find per vector
+     * @param similar    - search for similar or dissimilar words?
+     * @param filter     - the words that may be returned, or null for every
+     *                   word
+     * @param fullSearch - search every word, without stopping at the head tier?
+     * @return one array of similar-or-dissimilar words per vector, found using
+     *         the set similarity algorithm
+     * @throws Exception if the filter allows fewer than 'howMany' words
+     */
+    public String[][] getSimilarWords(double[][] embeddings, int howMany, boolean similar, RowFilter filter,
+            boolean fullSearch) throws Exception {
+        return getSimilarWords(embeddings, howMany, similar, filter, null, fullSearch);
     }
 
     /**
-     * check if a string is delimited by a comma-and-space; a comma; or a space; and
-     * store the value for later use
+     * get 'howMany' similar-or-dissimilar words to each of many vectors in one
+     * batched search, among the words a filter allows, leaving one row out of
+     * each vector's results, e.g. the query word itself, so "cat dog" can still
+     * find "dog" similar to "cat"
+     * <p>
+     * the batch shares one filter, so each vector's top 'howMany' + 1 are found,
+     * and its own excluded row (or else the last row) is dropped; the results
+     * are the same as searching each vector with the filter minus its row
+     * </p>
      * 
-     * @param delimitedString
-     * @return the array of split strings, split with the found delimiter
-     * @throws Exception if the delimiter is not detected
+     * @param embeddings   - the vector representations of the words
+     * @param howMany      - the number of similarities to find per vector
+     * @param similar      - search for similar or dissimilar words?
+     * @param filter       - the words that may be returned, or null for every
+     *                     word
+     * @param excludedRows - the row to leave out of each vector's results (-1
+     *                     for none), or null to leave no rows out
+     * @param fullSearch   - search every word, without stopping at the head
+     *                     tier?
+     * @return one array of similar-or-dissimilar words per vector, found using
+     *         the set similarity algorithm
+     * @throws Exception if the filter, less a vector's excluded row, allows
+     *                   fewer than 'howMany' words
      */
-    private String[] splitWithCommasOrSpaces(String delimitedString) throws Exception {
-        String[] delimiters = {
-                ", ",
-                ",",
-                " "
-        };
+    public String[][] getSimilarWords(double[][] embeddings, int howMany, boolean similar, RowFilter filter,
+            int[] excludedRows, boolean fullSearch) throws Exception {
+        checkSearch(howMany, filter);
+
+        int allowedWords = filter == null ? this.numberOfWords : filter.getCardinality();
+        int searchMany = howMany;
+
+        if (excludedRows != null) {
+            if (excludedRows.length != embeddings.length)
+                throw new Exception("Expected one excluded row per vector: " + excludedRows.length + " rows for "
+                        + embeddings.length + " vectors");
+
+            for (int row : excludedRows)
+                if (row >= 0 && RowFilter.allows(filter, row) && howMany > allowedWords - 1)
+                    throw new Exception("Can't find " + howMany + " words with a filter allowing "
+                            + (allowedWords - 1) + " words");
+
+            searchMany = Math.min(howMany + 1, allowedWords);
+        }
+
+        boolean usingEuclidean = this.similarityAlgorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                || this.similarityAlgorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+        boolean useMinimums = usingEuclidean ? similar : !similar;
 
-        String[] splitString = null;
-        String tempDelimiter = null;
+        QueryVector[] queries = new QueryVector[embeddings.length];
+        for (int q = 0; q < embeddings.length; q++) {
+            if (embeddings[q].length != this.numberOfFeatures)
+                throw new Exception("The two vector arrays must be of the same length.");
+
+            queries[q] = new QueryVector(embeddings[q]);
+        }
 
-        for (String delimiter : delimiters) {
-            splitString = delimitedString.split(delimiter);
-            if (splitString.length > 1) {
-                tempDelimiter = delimiter;
-                break;
+        SimilarityAlgorithm algorithm = this.similarityAlgorithm;
+        EmbeddingMatrix matrix = this.embeddings;
+        ForkJoinPool pool = this.numberOfWords >= this.parallelThreshold ? this.forkJoinPool : null;
+        SimilarityIndex index = this.exactSearch ? null : this.searchIndex;
+        boolean useIndex = index != null && index.supports(algorithm, !useMinimums);
+        int headWords = !useIndex && !fullSearch ? getHeadWords(similar) : this.numberOfWords;
+        int searchedWords = this.numberOfWords;
+
+        String[][] similarWords = new String[queries.length][];
+        double[][] scores = new double[queries.length][];
+
+        for (int firstQuery = 0; firstQuery < queries.length; firstQuery += QUERY_BLOCK) {
+            int first = firstQuery;
+            int blockSize = Math.min(QUERY_BLOCK, queries.length - first);
+            TopK[] block = new TopK[blockSize];
+
+            if (useIndex) {
+                for (int q = 0; q < blockSize; q++)
+                    block[q] = index.search(queries[first + q], algorithm, searchMany, !useMinimums, filter, pool);
+            } else {
+                block = ParallelScan.scanBatch(pool, headWords, blockSize, searchMany, !useMinimums,
+                        (start, end, results) -> matrix.scoreTiles(algorithm, queries, first, start, end, filter,
+                                results));
+
+                // the queries the head tier could not fill continue into the tail
+                List<Integer> unfilled = new ArrayList<>();
+                for (int q = 0; q < blockSize && headWords < this.numberOfWords; q++)
+                    if (!isHeadFilled(block[q], searchMany, !useMinimums))
+                        unfilled.add(q);
+                    else
+                        searchedWords = headWords;
+
+                if (!unfilled.isEmpty()) {
+                    QueryVector[] tailQueries = new QueryVector[unfilled.size()];
+                    for (int t = 0; t < tailQueries.length; t++)
+                        tailQueries[t] = queries[first + unfilled.get(t)];
+
+                    TopK[] tail = ParallelScan.scanBatch(pool, this.numberOfWords - headWords, tailQueries.length,
+                            searchMany, !useMinimums, (start, end, results) -> matrix.scoreTiles(algorithm,
+                                    tailQueries, 0, headWords + start, headWords + end, filter, results));
+
+                    for (int t = 0; t < tail.length; t++)
+                        block[unfilled.get(t)].merge(tail[t]);
+                }
+            }
+
+            for (int q = 0; q < blockSize; q++) {
+                int[] wordIndexes = block[q].getIndexes();
+                double[] blockScores = block[q].getScores();
+                int excludedRow = excludedRows == null ? -1 : excludedRows[first + q];
+                int found = Math.min(howMany, wordIndexes.length);
+                similarWords[first + q] = new String[found];
+                scores[first + q] = new double[found];
+
+                // keep the best 'howMany', skipping the excluded row
+                int kept = 0;
+                for (int i = 0; i < wordIndexes.length && kept < found; i++) {
+                    if (wordIndexes[i] == excludedRow)
+                        continue;
+
+                    similarWords[first + q][kept] = this.words[wordIndexes[i]];
+                    scores[first + q][kept++] = blockScores[i];
+                }
+
+                if (kept < found) {
+                    similarWords[first + q] = Arrays.copyOf(similarWords[first + q], kept);
+                    scores[first + q] = Arrays.copyOf(scores[first + q], kept);
+                }
             }
         }
 
-        if (tempDelimiter == null)
-            throw new Exception("Cannot determine the delimiter for the input data.");
+        this.previousBatchSimilarWords = similarWords;
+        this.previousBatchSimilarWordsScores = scores;
+        this.previousSearchedWords = searchedWords;
 
-        this.delimiter = tempDelimiter;
-        return splitString;
+        return similarWords;
     }
 
     /**
-     * count the number of features in the vector representations of the words in
-     * the loaded words-embeddings file
+     * compile a word-vector expression, e.g. "king - man + woman * 0.5", against
+     * the loaded words-embeddings file (see WordExpression); evaluate() then
+     * gives the vector to search for, as often as needed
      * 
-     * @param embeddingsLine - one line from the loaded words-embeddings file
-     * @return the number of features in the vector representations of the words
+     * @param expression - the expression's source text
+     * @return the compiled expression
+     * @throws Exception if the expression is malformed, holds no word, or a word
+     *                   is not found
+     */
+    public WordExpression compileExpression(String expression) throws Exception {
+        return WordExpression.compile(expression, this);
+    }
+
+    /**
+     * get 'howMany' similar-or-dissimilar words to each of many compiled
+     * expressions, evaluated into one matrix of query vectors, in one batched
+     * search (see the double[][] version)
+     * 
+     * @param expressions - the compiled expressions
+     * @param howMany     - the number of similarities to find per expression
+     * @param similar     - search for similar or dissimilar words?
+     * @return one array of similar-or-dissimilar words per expression
      * @throws Exception
      */
-    private int countEmbeddingsFeatures(String embeddingsLine) throws Exception {
-        String[] stringArray = splitWithCommasOrSpaces(embeddingsLine);
-        int stringLength = stringArray.length;
+    public String[][] getSimilarWords(WordExpression[] expressions, int howMany, boolean similar)
+            throws Exception {
+        double[][] embeddings = new double[expressions.length][this.numberOfFeatures];
+
+        for (int i = 0; i < expressions.length; i++)
+            expressions[i].evaluate(embeddings[i]);
 
-        return stringLength - 1;
+        return getSimilarWords(embeddings, howMany, similar);
     }
 
     /**
-     * print information detected in the loaded words-embeddings file
+     * complete the analogy "a is to b as c is to ?" (see the version with
+     * several positive and negative words)
+     * 
+     * @param a         - the first word of the analogy (a negative term)
+     * @param b         - the word that a relates to (a positive term)
+     * @param c         - the word to relate in the same way (a positive term)
+     * @param howMany   - the number of words to find
+     * @param objective - how to combine the similarities to the terms
+     * @return the best words, best first
+     * @throws Exception if a word is not found
      */
-    private void printFileLoadingHeader() {
-        System.out.println();
-        System.out.println("Loading Embeddings From:\t" + this.fileName);
-        System.out.println("Delimiter:\t\t\t'" + this.delimiter + "'");
-        System.out.println("#Words:\t\t\t\t" + this.numberOfWords);
-        System.out.println("#Features/Word:\t\t\t" + this.numberOfFeatures);
+    public String[] getAnalogyWords(String a, String b, String c, int howMany, AnalogyObjective objective)
+            throws Exception {
+        return getAnalogyWords(a, b, c, howMany, objective, null);
     }
 
     /**
-     * set the words, and word-vectors, after loading a words-embeddings file
+     * complete the analogy "a is to b as c is to ?" among the words a filter
+     * allows (see the version with several positive and negative words)
      * 
-     * @param embeddingsFileLine - a line from the words-embeddings file
-     * @param lineNumber         - the line number that is currently being read
-     * @throws Exception if a line has a different number of values than the first
-     *                   read line
+     * @param a         - the first word of the analogy (a negative term)
+     * @param b         - the word that a relates to (a positive term)
+     * @param c         - the word to relate in the same way (a positive term)
+     * @param howMany   - the number of words to find
+     * @param objective - how to combine the similarities to the terms
+     * @param filter    - the words that may be returned, or null for every word
+     * @return the best words, best first
+     * @throws Exception if a word is not found, or the filter allows too few
+     *                   words
      */
-    private void setWordAndEmbeddingsValues(String embeddingsFileLine, int lineNumber) throws Exception {
-        String[] wordAndEmbeddings = embeddingsFileLine.split(this.delimiter);
+    public String[] getAnalogyWords(String a, String b, String c, int howMany, AnalogyObjective objective,
+            RowFilter filter) throws Exception {
+        return getAnalogyWords(new String[] { b, c }, new String[] { a }, howMany, objective, filter);
+    }
+
+    /**
+     * find the 'howMany' words that best relate to the positive words and not
+     * to the negative words (see the version with a filter)
+     * 
+     * @param positive  - the words to relate to
+     * @param negative  - the words to relate away from
+     * @param howMany   - the number of words to find
+     * @param objective - how to combine the similarities to the terms
+     * @return the best words, best first; their scores are stored as the
+     *         previous similar words' scores
+     * @throws Exception if a word is not found, or too many words are requested
+     */
+    public String[] getAnalogyWords(String[] positive, String[] negative, int howMany,
+            AnalogyObjective objective) throws Exception {
+        return getAnalogyWords(positive, negative, howMany, objective, null);
+    }
 
-        if (wordAndEmbeddings.length != this.numberOfFeatures + 1) {
-            System.out.println(ConsoleColor.RESET + "\n");
-            throw new Exception(
-                    "Line #" + (lineNumber + 1) + " in " + this.fileName + " has a different format.");
+    /**
+     * <p>
+     * find the 'howMany' words that best relate to the positive words and not
+     * to the negative words, by an analogy objective over their cosine
+     * similarities (see AnalogyObjective), e.g. positive 'king' and 'woman', and
+     * negative 'man', for "man is to king as woman is to ?"
+     * </p>
+     * <p>
+     * every word is scored against all of the terms in one pass over the word
+     * vectors (the row stays in cache while each term's dot product is taken),
+     * dividing by the norms computed at load time, so no intermediate vector is
+     * built; the positive and negative words themselves are never returned,
+     * nor are the words a filter excludes, which are skipped without being
+     * scored; large vocabularies are scanned in parallel, and search indexes
+     * are not used, as no single query vector exists for 3CosMul
+     * </p>
+     * 
+     * @param positive  - the words to relate to
+     * @param negative  - the words to relate away from
+     * @param howMany   - the number of words to find
+     * @param objective - how to combine the similarities to the terms
+     * @param filter    - the words that may be returned, or null for every word
+     * @return the best words, best first; their scores are stored as the
+     *         previous similar words' scores
+     * @throws Exception if a word is not found, or too many words are requested
+     */
+    public String[] getAnalogyWords(String[] positive, String[] negative, int howMany,
+            AnalogyObjective objective, RowFilter filter) throws Exception {
+        checkSearch(howMany, filter);
+
+        int numberOfTerms = positive.length + negative.length;
+        int[] termRows = new int[numberOfTerms];
+        QueryVector[] terms = new QueryVector[numberOfTerms];
+
+        for (int t = 0; t < numberOfTerms; t++) {
+            String word = t < positive.length ? positive[t] : negative[t - positive.length];
+            termRows[t] = getWordIndex(word);
+            terms[t] = new QueryVector(this.embeddings.copyRow(termRows[t]));
+        }
+
+        int[] excludedRows = Arrays.stream(termRows).distinct().sorted().toArray();
+        int numberOfCandidates = filter == null ? this.numberOfWords : filter.getCardinality();
+        for (int row : excludedRows)
+            if (RowFilter.allows(filter, row))
+                numberOfCandidates--;
+
+        if (howMany > numberOfCandidates)
+            throw new Exception("Can't find " + howMany + " words "
+                    + (filter == null ? "in a words-embeddings file with " : "with a filter allowing ")
+                    + numberOfCandidates + " words besides the analogy's words");
+
+        EmbeddingMatrix matrix = this.embeddings;
+        int numberOfPositives = positive.length;
+        ForkJoinPool pool = this.numberOfWords >= this.parallelThreshold ? this.forkJoinPool : null;
+
+        TopK topK = ParallelScan.scan(pool, this.numberOfWords, howMany, true, (start, end, results) -> {
+            double[] cosines = new double[numberOfTerms];
+
+            for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1)) {
+                if (Arrays.binarySearch(excludedRows, i) >= 0)
+                    continue;
+
+                double squaredNorm = matrix.getSquaredNorm(i);
+                for (int t = 0; t < numberOfTerms; t++)
+                    cosines[t] = matrix.dotProduct(terms[t], i)
+                            / Math.sqrt(matrix.getQuerySquaredNorm(terms[t]) * squaredNorm);
+
+                results.offer(i, objective.score(cosines, numberOfPositives));
+            }
+        });
+
+        int[] wordIndexes = topK.getIndexes();
+        String[] analogyWords = new String[wordIndexes.length];
+
+        for (int i = 0; i < wordIndexes.length; i++)
+            analogyWords[i] = this.words[wordIndexes[i]];
+
+        this.previousSimilarWords = analogyWords;
+        this.previousSimilarWordsScores = topK.getScores();
+        this.previousSkippedFeatures = -1;
+        this.previousSearchedWords = this.numberOfWords;
+
+        return analogyWords;
+    }
+
+    /**
+     * scan a range of (allowed) rows for the smallest euclidean distances,
+     * abandoning a row once its partial sum of squared differences cannot beat
+     * the k-th best distance kept so far (squared, and loosened by a tiny
+     * relative slack); the rows that are not abandoned are scored exactly as the
+     * full scan scores them, so the results are the same, ties included
+     * 
+     * @return the number of features skipped
+     */
+    private long scanAbandoningEarly(EmbeddingMatrix matrix, SimilarityAlgorithm algorithm, QueryVector query,
+            int start, int end, RowFilter filter, TopK results) {
+        boolean squared = algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+
+        // 32-bit floats are summed with much larger rounding errors
+        double slack = matrix.getPrecision() == Precision.FLOAT32 ? 1e-4 : 1e-9;
+        long skippedFeatures = 0;
+
+        for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1)) {
+            // NaN until 'howMany' rows are kept (or while TopK buffers every row)
+            double threshold = results.getThreshold();
+
+            if (!Double.isNaN(threshold)) {
+                double bound = (squared ? threshold : threshold * threshold) * (1 + slack);
+                int summed = matrix.euclideanDistanceAbandonAt(query, i, bound);
+
+                if (summed < this.numberOfFeatures) {
+                    skippedFeatures += this.numberOfFeatures - summed;
+                    continue;
+                }
+            }
+
+            results.offer(i, matrix.score(algorithm, query, i));
         }
 
-        this.words[lineNumber] = wordAndEmbeddings[0];
+        return skippedFeatures;
+    }
 
-        for (int i = 0; i < this.numberOfFeatures; i++)
-            this.embeddings[lineNumber][i] = Double.parseDouble(wordAndEmbeddings[i + 1]);
+    /**
+     * after setting a words-embeddings file name, load all relevant data from that
+     * file, including number of words; the words themselves; and the
+     * words-embeddings vectors (see EmbeddingsFileLoader); then index the words
+     * for fast look-ups, and compute the norm of every word vector
+     * <p>
+     * binary snapshot files are detected by their first bytes, and loaded with
+     * their saved word index and norms instead (see EmbeddingsSnapshot)
+     * </p>
+     * <p>
+     * the load options' index parameters become this instance's, and an LSH
+     * index (LoadOptions.setSearchIndexType) is built as a text file is parsed
+     * </p>
+     * 
+     * @throws Exception
+     */
+    public void setWordsAndEmbeddings() throws Exception {
+        this.snapshot = EmbeddingsSnapshot.isSnapshot(this.fileName);
+        this.indexParameters = this.loadOptions.getIndexParameters();
+        this.searchIndex = null;
+        this.searchIndexBuildValues = null;
+        this.filters.clear();
+
+        if (this.snapshot) {
+            EmbeddingsSnapshot snapshot = new EmbeddingsSnapshot(this.fileName, this.loadOptions);
+            snapshot.load();
+
+            this.delimiter = null;
+            this.words = snapshot.getWords();
+            this.numberOfWords = snapshot.getNumberOfWords();
+            this.wordIndex = snapshot.getWordIndex();
+            this.embeddings = snapshot.getEmbeddings();
+            this.numberOfFeatures = snapshot.getNumberOfFeatures();
+            this.normalized = snapshot.isNormalized();
+            return;
+        }
+
+        EmbeddingsFileLoader loader = new EmbeddingsFileLoader(this.fileName, this.loadOptions);
+
+        // an LSH index hashes each row as it is parsed, on the parsing threads
+        LshIndex.Builder lshBuilder = this.loadOptions.getSearchIndexType() == SearchIndexType.LSH
+                ? new LshIndex.Builder(this.indexParameters)
+                : null;
+        loader.setRowListener(lshBuilder);
+        loader.load();
+
+        this.delimiter = loader.getDelimiter();
+        this.words = loader.getWords();
+        this.numberOfWords = loader.getNumberOfWords();
+        this.embeddings = loader.getEmbeddings();
+        this.numberOfFeatures = loader.getNumberOfFeatures();
+        this.normalized = this.loadOptions.isNormalized();
+
+        this.wordIndex = new WordIndex(this.words, this.numberOfWords);
+
+        // the embeddings never change after loading, so compute the norms once
+        this.embeddings.setSquaredNorms(this.normalized);
+
+        if (lshBuilder != null) {
+            this.searchIndex = lshBuilder.finish();
+            this.searchIndexBuildValues = this.indexParameters.getBuildValues(SearchIndexType.LSH);
+        }
+    }
+
+    /**
+     * was the words-embeddings file loaded from a binary snapshot?
+     * 
+     * @return whether the words-embeddings file is a binary snapshot
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * save the loaded words, word index and word vectors as a binary snapshot,
+     * which loads much faster than a text file (see EmbeddingsSnapshot)
+     * 
+     * @param snapshotFileName - the file name to save the snapshot as
+     * @throws Exception if the snapshot cannot be written
+     */
+    public void saveSnapshot(String snapshotFileName) throws Exception {
+        EmbeddingsSnapshot.save(snapshotFileName, this.words, this.wordIndex, this.embeddings, this.normalized);
     }
 
 }
@@ -0,0 +1,122 @@
+package ie.atu.sw.index;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * a 1-bit-per-dimension sketch of every row: the sign bit of each feature,
+ * packed 64 to a long; a 300-feature row takes 5 longs (40 bytes), instead of
+ * 2400 bytes of doubles
+ * </p>
+ * <p>
+ * the number of differing sign bits (the hamming distance, counted with
+ * Long.bitCount) grows with the angle between two vectors, so it is a very
+ * cheap first-stage filter for cosine similarity searches; the best
+ * 'howMany' x BINARY_OVERSAMPLE rows are then rescored exactly (see
+ * QuantizedIndex)
+ * </p>
+ */
+public class BinaryIndex extends QuantizedIndex {
+
+    private final int longsPerRow;
+    private final long[] sketches;
+
+    private BinaryIndex(EmbeddingMatrix matrix, IndexParameters parameters) throws Exception {
+        super(matrix, parameters);
+
+        this.longsPerRow = (this.numberOfFeatures + Long.SIZE - 1) / Long.SIZE;
+
+        long size = (long) this.numberOfRows * this.longsPerRow;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new Exception(
+                    "Too many rows (" + this.numberOfRows + ") to store a sign-bit index in a single array");
+
+        this.sketches = new long[(int) size];
+    }
+
+    /**
+     * sketch every row of a matrix
+     *
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters (BINARY_OVERSAMPLE is read at
+     *                   search time)
+     * @param pool       - the pool to build on, or null to build on the calling
+     *                   thread
+     * @return the index
+     * @throws Exception if the matrix is too big for a single array of longs
+     */
+    public static BinaryIndex build(EmbeddingMatrix matrix, IndexParameters parameters, ForkJoinPool pool)
+            throws Exception {
+        BinaryIndex index = new BinaryIndex(matrix, parameters);
+
+        ParallelScan.forEach(pool, index.numberOfRows, (start, end) -> {
+            double[] row = new double[index.numberOfFeatures];
+
+            for (int i = start; i < end; i++) {
+                matrix.copyRow(i, row);
+                index.sketch(row, index.sketches, i * index.longsPerRow);
+            }
+        });
+
+        return index;
+    }
+
+    /**
+     * pack the sign bits of a vector (1 for negative values) into longs
+     */
+    private void sketch(double[] vector, long[] sketches, int offset) {
+        for (int feature = 0; feature < vector.length; feature++)
+            if (vector[feature] < 0)
+                sketches[offset + feature / Long.SIZE] |= 1L << (feature % Long.SIZE);
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.BINARY;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return algorithm == SimilarityAlgorithm.COSINE_SIMILARITY;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return (long) this.sketches.length * Long.BYTES;
+    }
+
+    @Override
+    protected IndexParameter getOversampleParameter() {
+        return IndexParameter.BINARY_OVERSAMPLE;
+    }
+
+    @Override
+    protected TopK scanCandidates(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        long[] querySketch = new long[this.longsPerRow];
+        sketch(query.getValues(), querySketch, 0);
+
+        int longsPerRow = this.longsPerRow;
+        long[] sketches = this.sketches;
+
+        // matching bits minus differing bits: larger is more similar, like cosine
+        return ParallelScan.scan(pool, this.numberOfRows, howMany, largest, (start, end, results) -> {
+            for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1)) {
+                int offset = i * longsPerRow;
+                int differingBits = 0;
+
+                for (int j = 0; j < longsPerRow; j++)
+                    differingBits += Long.bitCount(querySketch[j] ^ sketches[offset + j]);
+
+                results.offer(i, this.numberOfFeatures - 2 * differingBits);
+            }
+        });
+    }
+}
@@ -0,0 +1,686 @@
+package ie.atu.sw.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * a hierarchical navigable small world (HNSW) graph: every row is a node,
+ * linked to up to 2 x HNSW_M of its nearest rows on the bottom layer, and to up
+ * to HNSW_M on each of the (exponentially sparser) upper layers it was given
+ * </p>
+ * <p>
+ * a search descends greedily from the top layer's entry point, then explores
+ * the bottom layer with a list of the HNSW_EF_SEARCH best rows found so far;
+ * the rows found are rescored exactly, so a search touches a few thousand rows
+ * instead of all of them
+ * </p>
+ * <p>
+ * a search with a RowFilter explores the graph through every row, but only
+ * keeps allowed rows, with HNSW_EF_SEARCH scaled up by the share of rows the
+ * filter excludes; very selective filters scan the allowed rows instead
+ * </p>
+ * <p>
+ * the graph is built for one Metric: euclidean distance, dot product or cosine
+ * similarity; dissimilar words are found by searching for the negated query
+ * (for dot products and cosine similarity), while the farthest euclidean
+ * distances are left to an exact scan
+ * </p>
+ * <p>
+ * the first rows are linked on the calling thread, then the rest are linked in
+ * parallel, with a lock per node (striped); the graph is saved next to the
+ * words-embeddings file (see IndexFile)
+ * </p>
+ */
+public class HnswIndex implements PersistentIndex {
+
+    /**
+     * the distances a graph can be built for, one per family of similarity
+     * algorithms
+     */
+    public enum Metric {
+        EUCLIDEAN, DOT_PRODUCT, COSINE;
+
+        /**
+         * get the metric that orders rows in the same way as a similarity
+         * algorithm
+         *
+         * @param algorithm - the similarity algorithm
+         * @return the matching metric
+         */
+        public static Metric of(SimilarityAlgorithm algorithm) {
+            return switch (algorithm) {
+                case EUCLIDEAN_DISTANCE, EUCLIDEAN_DISTANCE_NO_SQRT -> EUCLIDEAN;
+                case DOT_PRODUCT -> DOT_PRODUCT;
+                case COSINE_SIMILARITY -> COSINE;
+            };
+        }
+    }
+
+    private static final long SEED = 42;
+    private static final int MAX_LEVEL = 32;
+    private static final int SEQUENTIAL_ROWS = 1000;
+    private static final int NUMBER_OF_LOCKS = 4096;
+
+    private final EmbeddingMatrix matrix;
+    private final IndexParameters parameters;
+    private final Metric metric;
+    private final int numberOfRows;
+    private final int m;
+    private final int maxBottomLinks;
+
+    private final byte[] levels;
+    private final int[] bottomLinks;
+    private final int[][] upperLinks;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private final Object entryLock = new Object();
+    private final Object[] locks = new Object[NUMBER_OF_LOCKS];
+    private final ThreadLocal<Workspace> workspaces;
+
+    private HnswIndex(EmbeddingMatrix matrix, IndexParameters parameters, Metric metric, int m) throws Exception {
+        this.matrix = matrix;
+        this.parameters = parameters;
+        this.metric = metric;
+        this.numberOfRows = matrix.getNumberOfRows();
+        this.m = m;
+        this.maxBottomLinks = 2 * m;
+
+        long size = (long) this.numberOfRows * (this.maxBottomLinks + 1);
+        if (size > Integer.MAX_VALUE - 8)
+            throw new Exception("Too many links (" + size + ") to store an HNSW graph in a single array");
+
+        this.levels = new byte[this.numberOfRows];
+        this.bottomLinks = new int[(int) size];
+        this.upperLinks = new int[this.numberOfRows][];
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(this.numberOfRows, this.maxBottomLinks));
+
+        for (int i = 0; i < NUMBER_OF_LOCKS; i++)
+            this.locks[i] = new Object();
+    }
+
+    /**
+     * link every row into a graph for a metric
+     *
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters (HNSW_EF_SEARCH is read at search
+     *                   time)
+     * @param metric     - the metric to build the graph for
+     * @param pool       - the pool to build on, or null to build on the calling
+     *                   thread
+     * @return the index
+     * @throws Exception if the matrix is too big for a single array of links
+     */
+    public static HnswIndex build(EmbeddingMatrix matrix, IndexParameters parameters, Metric metric,
+            ForkJoinPool pool) throws Exception {
+        HnswIndex index = new HnswIndex(matrix, parameters, metric, parameters.get(IndexParameter.HNSW_M));
+        index.assignLevels();
+
+        int sequentialRows = Math.min(SEQUENTIAL_ROWS, index.numberOfRows);
+        for (int i = 0; i < sequentialRows; i++)
+            index.insert(i);
+
+        // once the graph has a backbone, the remaining rows can be linked at once
+        ParallelScan.forEach(pool, index.numberOfRows - sequentialRows, (start, end) -> {
+            for (int i = start; i < end; i++)
+                index.insert(sequentialRows + i);
+        });
+
+        return index;
+    }
+
+    /**
+     * read an index saved by write()
+     *
+     * @param in         - the stream to read from
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters
+     * @param metric     - the metric the graph must have been built for
+     * @return the index
+     * @throws Exception if the data does not fit the matrix
+     */
+    public static HnswIndex read(DataInputStream in, EmbeddingMatrix matrix, IndexParameters parameters,
+            Metric metric) throws Exception {
+        Metric savedMetric = Metric.valueOf(in.readUTF());
+        int m = in.readInt();
+
+        if (savedMetric != metric || m < IndexParameter.HNSW_M.getMinimum() || m > IndexParameter.HNSW_M.getMaximum())
+            throw new Exception("The HNSW index does not fit the loaded words-embeddings");
+
+        HnswIndex index = new HnswIndex(matrix, parameters, metric, m);
+        index.maxLevel = in.readInt();
+        index.entryPoint = in.readInt();
+        in.readFully(index.levels);
+        IndexFile.readInts(in, index.bottomLinks);
+
+        for (int i = 0; i < index.numberOfRows; i++) {
+            if (index.levels[i] < 0 || index.levels[i] > index.maxLevel)
+                throw new Exception("The HNSW index has an invalid level");
+
+            if (index.levels[i] > 0) {
+                index.upperLinks[i] = new int[index.levels[i] * (m + 1)];
+                IndexFile.readInts(in, index.upperLinks[i]);
+            }
+        }
+
+        index.validate();
+        return index;
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(this.metric.name());
+        out.writeInt(this.m);
+        out.writeInt(this.maxLevel);
+        out.writeInt(this.entryPoint);
+        out.write(this.levels);
+        IndexFile.writeInts(out, this.bottomLinks);
+
+        for (int[] links : this.upperLinks)
+            if (links != null)
+                IndexFile.writeInts(out, links);
+    }
+
+    /**
+     * check that every link read from a file points to a row of the matrix
+     */
+    private void validate() throws Exception {
+        boolean empty = this.numberOfRows == 0;
+
+        if (empty ? this.entryPoint != -1 || this.maxLevel != -1
+                : this.entryPoint < 0 || this.entryPoint >= this.numberOfRows
+                        || this.levels[this.entryPoint] != this.maxLevel)
+            throw new Exception("The HNSW index has an invalid entry point");
+
+        for (int i = 0; i < this.numberOfRows; i++) {
+            for (int layer = 0; layer <= this.levels[i]; layer++) {
+                int[] links = getLinks(layer, i);
+                int offset = getLinksOffset(layer, i);
+                int count = links[offset];
+
+                if (count < 0 || count > getMaxLinks(layer))
+                    throw new Exception("The HNSW index has an invalid number of links");
+
+                for (int j = 1; j <= count; j++)
+                    if (links[offset + j] < 0 || links[offset + j] >= this.numberOfRows
+                            || this.levels[links[offset + j]] < layer)
+                        throw new Exception("The HNSW index has an invalid link");
+            }
+        }
+    }
+
+    /**
+     * give every row a random top layer, with exponentially fewer rows on each
+     * layer up (the same levels for the same matrix and HNSW_M)
+     */
+    private void assignLevels() {
+        Random random = new Random(SEED);
+        double levelMultiplier = 1.0 / Math.log(this.m);
+
+        for (int i = 0; i < this.numberOfRows; i++) {
+            int level = (int) Math.min(MAX_LEVEL, -Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+
+            this.levels[i] = (byte) level;
+            if (level > 0)
+                this.upperLinks[i] = new int[level * (this.m + 1)];
+        }
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.HNSW;
+    }
+
+    /**
+     * get the metric the graph was built for
+     *
+     * @return the metric the graph was built for
+     */
+    public Metric getMetric() {
+        return metric;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return Metric.of(algorithm) == this.metric && !(this.metric == Metric.EUCLIDEAN && largest);
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = this.levels.length + (long) this.bottomLinks.length * Integer.BYTES;
+
+        for (int[] links : this.upperLinks)
+            if (links != null)
+                size += (long) links.length * Integer.BYTES;
+
+        return size;
+    }
+
+    @Override
+    public TopK search(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        // a selective filter leaves too few allowed rows near the query
+        if (filter != null && filter.getSelectivity() < FILTER_SCAN_SELECTIVITY)
+            return SimilarityIndex.scan(this.matrix, query, algorithm, howMany, largest, filter, pool);
+
+        // the graph is explored through every row, but only allowed rows are
+        // kept, so keep more rows the more of them the filter excludes
+        int ef = Math.max(howMany, this.parameters.get(IndexParameter.HNSW_EF_SEARCH));
+        if (filter != null)
+            ef = (int) Math.min(this.numberOfRows, Math.ceil(ef / filter.getSelectivity()));
+
+        TopK results = new TopK(howMany, largest, Math.min(ef, this.numberOfRows));
+
+        if (this.entryPoint >= 0) {
+            // the graph finds the nearest rows; the rows with the smallest dot
+            // products (or cosine similarities) are the nearest to -query
+            QueryVector graphQuery = largest || this.metric == Metric.EUCLIDEAN ? query : negate(query);
+            Workspace workspace = this.workspaces.get();
+
+            int nearest = descend(graphQuery, this.entryPoint, this.maxLevel, 0, workspace);
+            searchLayer(graphQuery, nearest, ef, 0, workspace);
+
+            for (int i = 0; i < workspace.results.size; i++) {
+                int row = workspace.results.ids[i];
+
+                if (RowFilter.allows(filter, row))
+                    results.offer(row, this.matrix.score(algorithm, query, row));
+            }
+        }
+
+        // a graph cut off from some rows can return too few; scan them all instead
+        if (results.size() < howMany)
+            return SimilarityIndex.scan(this.matrix, query, algorithm, howMany, largest, filter, pool);
+
+        return results;
+    }
+
+    private static QueryVector negate(QueryVector query) {
+        double[] values = query.getValues().clone();
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = -values[i];
+
+        return new QueryVector(values);
+    }
+
+    /**
+     * the graph distance between a query and a row: smaller is nearer
+     */
+    private double distance(QueryVector query, int row) {
+        double distance = switch (this.metric) {
+            case EUCLIDEAN -> this.matrix.euclideanDistanceNoSqrt(query, row);
+            case DOT_PRODUCT -> -this.matrix.dotProduct(query, row);
+            case COSINE -> -this.matrix.score(SimilarityAlgorithm.COSINE_SIMILARITY, query, row);
+        };
+
+        // zero vectors have no cosine similarity; keep them out of the way
+        return Double.isNaN(distance) ? Double.POSITIVE_INFINITY : distance;
+    }
+
+    private int getMaxLinks(int layer) {
+        return layer == 0 ? this.maxBottomLinks : this.m;
+    }
+
+    private int[] getLinks(int layer, int node) {
+        return layer == 0 ? this.bottomLinks : this.upperLinks[node];
+    }
+
+    /**
+     * get the position of a node's number of links on a layer, followed by the
+     * links themselves
+     */
+    private int getLinksOffset(int layer, int node) {
+        return layer == 0 ? node * (this.maxBottomLinks + 1) : (layer - 1) * (this.m + 1);
+    }
+
+    private Object getLock(int node) {
+        return this.locks[node % NUMBER_OF_LOCKS];
+    }
+
+    /**
+     * copy a node's links on a layer, under the node's lock
+     *
+     * @return the number of links copied
+     */
+    private int copyLinks(int layer, int node, int[] destination) {
+        int[] links = getLinks(layer, node);
+        int offset = getLinksOffset(layer, node);
+
+        synchronized (getLock(node)) {
+            int count = links[offset];
+            System.arraycopy(links, offset + 1, destination, 0, count);
+            return count;
+        }
+    }
+
+    /**
+     * move greedily towards the query on each layer from 'fromLayer' down to (but
+     * not including) 'toLayer'
+     *
+     * @return the nearest node found
+     */
+    private int descend(QueryVector query, int node, int fromLayer, int toLayer, Workspace workspace) {
+        double nodeDistance = distance(query, node);
+
+        for (int layer = fromLayer; layer > toLayer; layer--) {
+            boolean changed = true;
+
+            while (changed) {
+                changed = false;
+                int count = copyLinks(layer, node, workspace.links);
+
+                for (int i = 0; i < count; i++) {
+                    double linkDistance = distance(query, workspace.links[i]);
+
+                    if (linkDistance < nodeDistance) {
+                        node = workspace.links[i];
+                        nodeDistance = linkDistance;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * explore a layer from an entry node, keeping the 'ef' nearest nodes found in
+     * the workspace's results (a max-heap, farthest first)
+     */
+    private void searchLayer(QueryVector query, int entry, int ef, int layer, Workspace workspace) {
+        NodeHeap candidates = workspace.candidates;
+        NodeHeap results = workspace.results;
+        int generation = workspace.nextGeneration();
+        double entryDistance = distance(query, entry);
+
+        candidates.clear();
+        results.clear();
+        candidates.push(entry, entryDistance);
+        results.push(entry, entryDistance);
+        workspace.visited[entry] = generation;
+
+        while (candidates.size > 0) {
+            if (candidates.peekDistance() > results.peekDistance() && results.size >= ef)
+                break;
+
+            int count = copyLinks(layer, candidates.pop(), workspace.links);
+
+            for (int i = 0; i < count; i++) {
+                int link = workspace.links[i];
+
+                if (workspace.visited[link] == generation)
+                    continue;
+
+                workspace.visited[link] = generation;
+                double linkDistance = distance(query, link);
+
+                if (results.size < ef || linkDistance < results.peekDistance()) {
+                    candidates.push(link, linkDistance);
+                    results.push(link, linkDistance);
+
+                    if (results.size > ef)
+                        results.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * link a node into every layer up to its level; a node that raises the top
+     * layer is linked while holding the entry lock, so it becomes the new entry
+     * point once its links are in place
+     */
+    private void insert(int node) {
+        synchronized (this.entryLock) {
+            if (this.levels[node] > this.maxLevel) {
+                link(node, this.entryPoint, this.maxLevel);
+                this.entryPoint = node;
+                this.maxLevel = this.levels[node];
+                return;
+            }
+        }
+
+        int entry;
+        int top;
+
+        synchronized (this.entryLock) {
+            entry = this.entryPoint;
+            top = this.maxLevel;
+        }
+
+        link(node, entry, top);
+    }
+
+    private void link(int node, int entry, int top) {
+        if (entry < 0)
+            return;
+
+        Workspace workspace = this.workspaces.get();
+        QueryVector query = new QueryVector(this.matrix.copyRow(node));
+        int level = this.levels[node];
+        int efConstruction = this.parameters.get(IndexParameter.HNSW_EF_CONSTRUCTION);
+
+        int nearest = descend(query, entry, top, level, workspace);
+
+        for (int layer = Math.min(level, top); layer >= 0; layer--) {
+            searchLayer(query, nearest, efConstruction, layer, workspace);
+
+            int count = workspace.results.size;
+            int[] ids = new int[count];
+            double[] distances = new double[count];
+
+            // nearest first
+            for (int i = count - 1; i >= 0; i--) {
+                distances[i] = workspace.results.peekDistance();
+                ids[i] = workspace.results.pop();
+            }
+
+            int[] neighbours = selectNeighbours(ids, distances, count, getMaxLinks(layer));
+            setLinks(layer, node, neighbours, neighbours.length);
+
+            for (int neighbour : neighbours)
+                addLink(layer, neighbour, node);
+
+            nearest = ids[0];
+        }
+    }
+
+    /**
+     * choose up to 'maxLinks' of the candidates (nearest first), skipping any
+     * candidate that is nearer to an already-chosen neighbour than to the node,
+     * so the links spread out in different directions
+     */
+    private int[] selectNeighbours(int[] ids, double[] distances, int count, int maxLinks) {
+        if (count <= maxLinks)
+            return Arrays.copyOf(ids, count);
+
+        int[] selected = new int[maxLinks];
+        int numberSelected = 0;
+
+        for (int i = 0; i < count && numberSelected < maxLinks; i++) {
+            boolean keep = true;
+
+            if (numberSelected > 0) {
+                QueryVector candidate = new QueryVector(this.matrix.copyRow(ids[i]));
+
+                for (int j = 0; j < numberSelected && keep; j++)
+                    keep = distance(candidate, selected[j]) >= distances[i];
+            }
+
+            if (keep)
+                selected[numberSelected++] = ids[i];
+        }
+
+        return Arrays.copyOf(selected, numberSelected);
+    }
+
+    private void setLinks(int layer, int node, int[] neighbours, int count) {
+        int[] links = getLinks(layer, node);
+        int offset = getLinksOffset(layer, node);
+
+        synchronized (getLock(node)) {
+            System.arraycopy(neighbours, 0, links, offset + 1, count);
+            links[offset] = count;
+        }
+    }
+
+    /**
+     * add a link back from a neighbour to a new node; a neighbour with no room
+     * left keeps the best of its links and the new one
+     */
+    private void addLink(int layer, int neighbour, int node) {
+        int[] links = getLinks(layer, neighbour);
+        int offset = getLinksOffset(layer, neighbour);
+        int maxLinks = getMaxLinks(layer);
+
+        synchronized (getLock(neighbour)) {
+            int count = links[offset];
+
+            if (count < maxLinks) {
+                links[offset + 1 + count] = node;
+                links[offset] = count + 1;
+                return;
+            }
+
+            QueryVector query = new QueryVector(this.matrix.copyRow(neighbour));
+            int[] ids = new int[count + 1];
+            double[] distances = new double[count + 1];
+            Integer[] order = new Integer[count + 1];
+
+            System.arraycopy(links, offset + 1, ids, 0, count);
+            ids[count] = node;
+
+            for (int i = 0; i <= count; i++) {
+                distances[i] = distance(query, ids[i]);
+                order[i] = i;
+            }
+
+            Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+
+            int[] sortedIds = new int[count + 1];
+            double[] sortedDistances = new double[count + 1];
+            for (int i = 0; i <= count; i++) {
+                sortedIds[i] = ids[order[i]];
+                sortedDistances[i] = distances[order[i]];
+            }
+
+            int[] kept = selectNeighbours(sortedIds, sortedDistances, count + 1, maxLinks);
+            System.arraycopy(kept, 0, links, offset + 1, kept.length);
+            links[offset] = kept.length;
+        }
+    }
+
+    /**
+     * the per-thread buffers of a search: visited marks (one generation number
+     * per search, so they never need clearing), the two heaps, and a copy of a
+     * node's links
+     */
+    private static class Workspace {
+        private final int[] visited;
+        private final int[] links;
+        private final NodeHeap candidates = new NodeHeap(false);
+        private final NodeHeap results = new NodeHeap(true);
+        private int generation;
+
+        private Workspace(int numberOfRows, int maxLinks) {
+            this.visited = new int[numberOfRows];
+            this.links = new int[maxLinks];
+        }
+
+        private int nextGeneration() {
+            if (++this.generation == Integer.MAX_VALUE) {
+                Arrays.fill(this.visited, 0);
+                this.generation = 1;
+            }
+
+            return this.generation;
+        }
+    }
+
+    /**
+     * a growable binary heap of nodes by distance, with the nearest (min-heap)
+     * or the farthest (max-heap) node on top
+     */
+    private static class NodeHeap {
+        private final boolean farthestFirst;
+        private int[] ids = new int[64];
+        private double[] distances = new double[64];
+        private int size;
+
+        private NodeHeap(boolean farthestFirst) {
+            this.farthestFirst = farthestFirst;
+        }
+
+        private void clear() {
+            this.size = 0;
+        }
+
+        private double peekDistance() {
+            return this.distances[0];
+        }
+
+        private boolean above(int a, int b) {
+            return this.farthestFirst ? this.distances[a] > this.distances[b]
+                    : this.distances[a] < this.distances[b];
+        }
+
+        private void swap(int a, int b) {
+            int id = this.ids[a];
+            this.ids[a] = this.ids[b];
+            this.ids[b] = id;
+
+            double distance = this.distances[a];
+            this.distances[a] = this.distances[b];
+            this.distances[b] = distance;
+        }
+
+        private void push(int id, double distance) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                this.distances = Arrays.copyOf(this.distances, this.size * 2);
+            }
+
+            int i = this.size++;
+            this.ids[i] = id;
+            this.distances[i] = distance;
+
+            while (i > 0 && above(i, (i - 1) / 2)) {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+
+        private int pop() {
+            int top = this.ids[0];
+            swap(0, --this.size);
+
+            for (int i = 0;;) {
+                int child = 2 * i + 1;
+                if (child >= this.size)
+                    break;
+                if (child + 1 < this.size && above(child + 1, child))
+                    child++;
+                if (!above(child, i))
+                    break;
+                swap(i, child);
+                i = child;
+            }
+
+            return top;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package ie.atu.sw.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+
+/**
+ * <p>
+ * save a PersistentIndex next to its words-embeddings file, e.g.
+ * glove.txt.product-quantized.index, and read it back instead of rebuilding
+ * it; an index built for one similarity algorithm adds a variant to its name,
+ * e.g. glove.txt.hnsw-cosine.index
+ * </p>
+ * <p>
+ * a header records what the index was built from: the index type and
+ * variant, the matrix's shape, whether its rows were normalized, the size and
+ * modification time of the words-embeddings file, and the index's build
+ * parameters; a saved index is only used if all of them still match, and a
+ * CRC32C checksum of the whole file, stored at its end, must also match
+ * </p>
+ */
+public class IndexFile {
+
+    private static final long MAGIC = 0x57454D42494E4458L; // "WEMBINDX"
+    private static final int VERSION = 1;
+    private static final int BULK_BYTES = 1 << 16;
+
+    /**
+     * read an index from its saved file
+     */
+    @FunctionalInterface
+    public interface Reader {
+        /**
+         * @param in - the stream to read from, positioned after the header
+         * @return the index
+         * @throws Exception if the data is not a valid index
+         */
+        PersistentIndex read(DataInputStream in) throws Exception;
+    }
+
+    /**
+     * build an index from scratch
+     */
+    @FunctionalInterface
+    public interface Builder {
+        /**
+         * @return the index
+         * @throws Exception
+         */
+        PersistentIndex build() throws Exception;
+    }
+
+    /**
+     * get the file name an index is saved as, next to its words-embeddings file
+     *
+     * @param modelFileName - the words-embeddings file name
+     * @param type          - the kind of index
+     * @param variant       - the variant of the index, e.g. the metric it was
+     *                      built for, or null
+     * @return the index file name
+     */
+    public static String getFileName(String modelFileName, SearchIndexType type, String variant) {
+        String name = variant == null ? type.name() : type.name() + "-" + variant;
+        return modelFileName + "." + name.toLowerCase().replace('_', '-') + ".index";
+    }
+
+    /**
+     * read an index from its saved file if the file matches the loaded
+     * words-embeddings; otherwise build the index, and save it for next time (an
+     * index that cannot be saved is still used)
+     *
+     * @param modelFileName - the words-embeddings file name
+     * @param normalized    - are the matrix's rows L2-normalized?
+     * @param matrix        - the loaded word vectors
+     * @param type          - the kind of index
+     * @param variant       - the variant of the index, or null
+     * @param parameters    - the index parameters
+     * @param reader        - reads the index's data
+     * @param builder       - builds the index
+     * @return the index
+     * @throws Exception if the index cannot be built
+     */
+    public static PersistentIndex loadOrBuild(String modelFileName, boolean normalized, EmbeddingMatrix matrix,
+            SearchIndexType type, String variant, IndexParameters parameters, Reader reader, Builder builder)
+            throws Exception {
+        String fileName = getFileName(modelFileName, type, variant);
+
+        if (new File(fileName).isFile()) {
+            try {
+                PersistentIndex index = load(fileName, modelFileName, normalized, matrix, type, variant, parameters,
+                        reader);
+
+                if (index != null) {
+                    ConsolePrint.printInfo("Search index loaded: " + fileName);
+                    return index;
+                }
+            } catch (Exception e) {
+                ConsolePrint.printWarning("Rebuilding the search index: " + e.getMessage());
+            }
+        }
+
+        PersistentIndex index = builder.build();
+
+        try {
+            save(fileName, modelFileName, normalized, matrix, type, variant, parameters, index);
+            ConsolePrint.printInfo("Search index saved: " + fileName);
+        } catch (Exception e) {
+            ConsolePrint.printWarning("The search index could not be saved: " + fileName);
+        }
+
+        return index;
+    }
+
+    /**
+     * write an index to a temporary file, then move it into place
+     */
+    private static void save(String fileName, String modelFileName, boolean normalized, EmbeddingMatrix matrix,
+            SearchIndexType type, String variant, IndexParameters parameters, PersistentIndex index)
+            throws Exception {
+        Path path = Paths.get(fileName);
+        Path temporaryPath = Paths.get(fileName + ".tmp");
+        File modelFile = new File(modelFileName);
+
+        try (CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporaryPath.toFile()), 1 << 20), new CRC32C());
+                DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(type.name());
+            out.writeUTF(variant == null ? "" : variant);
+            out.writeInt(matrix.getNumberOfRows());
+            out.writeInt(matrix.getNumberOfFeatures());
+            out.writeBoolean(normalized);
+            out.writeLong(modelFile.length());
+            out.writeLong(modelFile.lastModified());
+
+            int[] buildValues = parameters.getBuildValues(type);
+            out.writeInt(buildValues.length);
+            for (int value : buildValues)
+                out.writeInt(value);
+
+            index.write(out);
+
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+        } catch (Exception e) {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * read an index from its saved file
+     *
+     * @return the index, or null if the file was saved for other words-embeddings
+     *         or other build parameters
+     * @throws Exception if the file is corrupt
+     */
+    private static PersistentIndex load(String fileName, String modelFileName, boolean normalized,
+            EmbeddingMatrix matrix, SearchIndexType type, String variant, IndexParameters parameters, Reader reader)
+            throws Exception {
+        File modelFile = new File(modelFileName);
+
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(fileName), 1 << 20), new CRC32C());
+                DataInputStream in = new DataInputStream(checked)) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(type.name())
+                    || !in.readUTF().equals(variant == null ? "" : variant))
+                throw new Exception("Not a " + type + " index file: " + fileName);
+
+            boolean matches = in.readInt() == matrix.getNumberOfRows()
+                    & in.readInt() == matrix.getNumberOfFeatures()
+                    & in.readBoolean() == normalized
+                    & in.readLong() == modelFile.length()
+                    & in.readLong() == modelFile.lastModified();
+
+            int[] buildValues = new int[in.readInt()];
+            for (int i = 0; i < buildValues.length; i++)
+                buildValues[i] = in.readInt();
+
+            if (!matches || !Arrays.equals(buildValues, parameters.getBuildValues(type)))
+                return null;
+
+            PersistentIndex index = reader.read(in);
+
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum || in.read() != -1)
+                throw new Exception("The search index file is corrupt: " + fileName);
+
+            return index;
+        } catch (EOFException | RuntimeException e) {
+            throw new Exception("The search index file is corrupt: " + fileName);
+        }
+    }
+
+    /**
+     * write an array of ints in blocks, instead of one writeInt() call each
+     *
+     * @param out    - the stream to write to
+     * @param values - the values to write
+     * @throws IOException
+     */
+    public static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BULK_BYTES);
+
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, BULK_BYTES / Integer.BYTES);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, i, count);
+            out.write(buffer.array(), 0, count * Integer.BYTES);
+            i += count;
+        }
+    }
+
+    /**
+     * read an array of ints written by writeInts()
+     *
+     * @param in     - the stream to read from
+     * @param values - the array to fill
+     * @throws IOException
+     */
+    public static void readInts(DataInputStream in, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BULK_BYTES);
+
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, BULK_BYTES / Integer.BYTES);
+            in.readFully(buffer.array(), 0, count * Integer.BYTES);
+            buffer.clear();
+            buffer.asIntBuffer().get(values, i, count);
+            i += count;
+        }
+    }
+
+    /**
+     * write an array of floats in blocks, instead of one writeFloat() call each
+     *
+     * @param out    - the stream to write to
+     * @param values - the values to write
+     * @throws IOException
+     */
+    public static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BULK_BYTES);
+
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, BULK_BYTES / Float.BYTES);
+            buffer.clear();
+            buffer.asFloatBuffer().put(values, i, count);
+            out.write(buffer.array(), 0, count * Float.BYTES);
+            i += count;
+        }
+    }
+
+    /**
+     * read an array of floats written by writeFloats()
+     *
+     * @param in     - the stream to read from
+     * @param values - the array to fill
+     * @throws IOException
+     */
+    public static void readFloats(DataInputStream in, float[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BULK_BYTES);
+
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, BULK_BYTES / Float.BYTES);
+            in.readFully(buffer.array(), 0, count * Float.BYTES);
+            buffer.clear();
+            buffer.asFloatBuffer().get(values, i, count);
+            i += count;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ie.atu.sw.index;
+
+/**
+ * <p>
+ * the tunable parameters of the search indexes, each with a preference key, a
+ * default value and a range of valid values
+ * </p>
+ * <p>
+ * build parameters shape the index itself, so changing one rebuilds the index
+ * (and invalidates a saved index file); the others apply to the next search
+ * </p>
+ */
+public enum IndexParameter {
+    OVERSAMPLE("Quantized Search Oversampling (candidates per result)", "indexOversample", 4, 1, 1000, false),
+    BINARY_OVERSAMPLE("Sign-Bit Search Oversampling (candidates per result)", "indexBinaryOversample", 40, 1, 10000,
+            false),
+    PQ_SUBSPACES("Product Quantization Subspaces (bytes per word)", "indexPqSubspaces", 16, 1, 1024, true),
+    TRAINING_ROWS("K-Means Training Sample (rows)", "indexTrainingRows", 50000, 256, 100000000, true),
+    KMEANS_ITERATIONS("K-Means Iterations", "indexKMeansIterations", 15, 1, 1000, true),
+    HNSW_M("HNSW Links per Node (M)", "indexHnswM", 16, 2, 128, true),
+    HNSW_EF_CONSTRUCTION("HNSW Build Candidates (efConstruction)", "indexHnswEfConstruction", 100, 4, 4096, true),
+    HNSW_EF_SEARCH("HNSW Search Candidates (efSearch)", "indexHnswEfSearch", 64, 1, 100000, false),
+    IVF_LISTS("IVF Lists (k-means centroids)", "indexIvfLists", 1024, 1, 65536, true),
+    IVF_NPROBE("IVF Lists Scanned per Search (nprobe)", "indexIvfNprobe", 16, 1, 65536, false),
+    LSH_TABLES("LSH Hash Tables", "indexLshTables", 8, 1, 64, true),
+    LSH_BITS("LSH Signature Bits per Table", "indexLshBits", 12, 1, 30, true);
+
+    private final String title;
+    private final String key;
+    private final int defaultValue;
+    private final int minimum;
+    private final int maximum;
+    private final boolean buildParameter;
+
+    private IndexParameter(String title, String key, int defaultValue, int minimum, int maximum,
+            boolean buildParameter) {
+        this.title = title;
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.buildParameter = buildParameter;
+    }
+
+    /**
+     * get the key used to store the parameter's value as a preference
+     *
+     * @return the preference key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * get the parameter's default value
+     *
+     * @return the default value
+     */
+    public int getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * get the smallest valid value
+     *
+     * @return the smallest valid value
+     */
+    public int getMinimum() {
+        return minimum;
+    }
+
+    /**
+     * get the largest valid value
+     *
+     * @return the largest valid value
+     */
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * does the parameter shape the index itself (true), or only the searches
+     * (false)?
+     *
+     * @return whether changing the parameter rebuilds the index
+     */
+    public boolean isBuildParameter() {
+        return buildParameter;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
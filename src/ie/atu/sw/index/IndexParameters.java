@@ -0,0 +1,59 @@
+package ie.atu.sw.index;
+
+import java.util.Arrays;
+
+/**
+ * the current value of every IndexParameter, shared by a WordsEmbeddings
+ * instance and its search index, so search-time parameters apply to the next
+ * search without rebuilding the index
+ */
+public class IndexParameters {
+
+    private final int[] values = new int[IndexParameter.values().length];
+
+    /**
+     * create a set of parameters with their default values
+     */
+    public IndexParameters() {
+        for (IndexParameter parameter : IndexParameter.values())
+            this.values[parameter.ordinal()] = parameter.getDefaultValue();
+    }
+
+    /**
+     * get the current value of a parameter
+     *
+     * @param parameter - the parameter
+     * @return the parameter's value
+     */
+    public int get(IndexParameter parameter) {
+        return this.values[parameter.ordinal()];
+    }
+
+    /**
+     * set the value of a parameter
+     *
+     * @param parameter - the parameter
+     * @param value     - the parameter's new value
+     * @throws Exception if the value is out of the parameter's range
+     */
+    public void set(IndexParameter parameter, int value) throws Exception {
+        if (value < parameter.getMinimum() || value > parameter.getMaximum())
+            throw new Exception(parameter + " must be between " + parameter.getMinimum() + " and "
+                    + parameter.getMaximum());
+
+        this.values[parameter.ordinal()] = value;
+    }
+
+    /**
+     * get the values of the build parameters used by a kind of index, in the
+     * order of SearchIndexType.getParameters(); an index built with other
+     * values must be rebuilt
+     *
+     * @param type - the kind of index
+     * @return the values of the index's build parameters
+     */
+    public int[] getBuildValues(SearchIndexType type) {
+        return Arrays.stream(type.getParameters()).filter(IndexParameter::isBuildParameter).mapToInt(this::get)
+                .toArray();
+    }
+}
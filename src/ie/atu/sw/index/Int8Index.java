@@ -0,0 +1,215 @@
+package ie.atu.sw.index;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * an int8 copy of an EmbeddingMatrix: every value is stored in one byte, with
+ * a scale and offset per dimension (feature), computed from the minimum and
+ * maximum value of the dimension when the index is built
+ * </p>
+ * <p>
+ * a search scans the bytes for candidates, then rescores them exactly (see
+ * QuantizedIndex)
+ * </p>
+ * <p>
+ * the bytes take 1/8 of the memory of doubles (1/4 of floats); storing the
+ * full-precision matrix off-heap, or memory-mapped from a snapshot, then keeps
+ * it out of the heap, as only the rescored rows are read from it
+ * </p>
+ */
+public class Int8Index extends QuantizedIndex {
+
+    private final byte[] codes;
+    private final double[] offsets;
+    private final double[] scales;
+
+    private Int8Index(EmbeddingMatrix matrix, IndexParameters parameters) throws Exception {
+        super(matrix, parameters);
+
+        long size = (long) this.numberOfRows * this.numberOfFeatures;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new Exception("Too many values (" + size + ") to store an int8 index in a single array");
+
+        this.codes = new byte[(int) size];
+        this.offsets = new double[this.numberOfFeatures];
+        this.scales = new double[this.numberOfFeatures];
+    }
+
+    /**
+     * quantize every row of a matrix
+     *
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters (OVERSAMPLE is read at search
+     *                   time)
+     * @param pool       - the pool to build on, or null to build on the calling
+     *                   thread
+     * @return the index
+     * @throws Exception if the matrix is too big for a single array of bytes
+     */
+    public static Int8Index build(EmbeddingMatrix matrix, IndexParameters parameters, ForkJoinPool pool)
+            throws Exception {
+        Int8Index index = new Int8Index(matrix, parameters);
+        index.setScales(pool);
+        index.encode(pool);
+        return index;
+    }
+
+    /**
+     * find the minimum and maximum of every dimension, and map each range onto
+     * the 256 byte values
+     */
+    private void setScales(ForkJoinPool pool) throws Exception {
+        double[] minimums = new double[this.numberOfFeatures];
+        double[] maximums = new double[this.numberOfFeatures];
+        Arrays.fill(minimums, Double.POSITIVE_INFINITY);
+        Arrays.fill(maximums, Double.NEGATIVE_INFINITY);
+
+        ParallelScan.forEach(pool, this.numberOfRows, (start, end) -> {
+            double[] localMinimums = new double[this.numberOfFeatures];
+            double[] localMaximums = new double[this.numberOfFeatures];
+            Arrays.fill(localMinimums, Double.POSITIVE_INFINITY);
+            Arrays.fill(localMaximums, Double.NEGATIVE_INFINITY);
+            double[] row = new double[this.numberOfFeatures];
+
+            for (int i = start; i < end; i++) {
+                this.matrix.copyRow(i, row);
+                for (int feature = 0; feature < this.numberOfFeatures; feature++) {
+                    localMinimums[feature] = Math.min(localMinimums[feature], row[feature]);
+                    localMaximums[feature] = Math.max(localMaximums[feature], row[feature]);
+                }
+            }
+
+            synchronized (minimums) {
+                for (int feature = 0; feature < this.numberOfFeatures; feature++) {
+                    minimums[feature] = Math.min(minimums[feature], localMinimums[feature]);
+                    maximums[feature] = Math.max(maximums[feature], localMaximums[feature]);
+                }
+            }
+        });
+
+        for (int feature = 0; feature < this.numberOfFeatures; feature++) {
+            this.offsets[feature] = this.numberOfRows > 0 ? minimums[feature] : 0.0;
+            this.scales[feature] = this.numberOfRows > 0 ? (maximums[feature] - minimums[feature]) / 255.0 : 0.0;
+        }
+    }
+
+    /**
+     * store every value as the nearest of its dimension's 256 steps
+     */
+    private void encode(ForkJoinPool pool) throws Exception {
+        ParallelScan.forEach(pool, this.numberOfRows, (start, end) -> {
+            double[] row = new double[this.numberOfFeatures];
+
+            for (int i = start; i < end; i++) {
+                this.matrix.copyRow(i, row);
+                int offset = i * this.numberOfFeatures;
+
+                for (int feature = 0; feature < this.numberOfFeatures; feature++) {
+                    double scale = this.scales[feature];
+                    long step = scale > 0 ? Math.round((row[feature] - this.offsets[feature]) / scale) : 0;
+                    this.codes[offset + feature] = (byte) Math.max(0, Math.min(255, step));
+                }
+            }
+        });
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.INT8;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return true;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return this.codes.length + 2L * this.numberOfFeatures * Double.BYTES;
+    }
+
+    /**
+     * get the quantized (approximate) value of a row's feature
+     *
+     * @param row     - the row (word)
+     * @param feature - the feature (column)
+     * @return the value, as restored from its byte
+     */
+    public double get(int row, int feature) {
+        return this.offsets[feature]
+                + this.scales[feature] * (this.codes[row * this.numberOfFeatures + feature] & 0xFF);
+    }
+
+    @Override
+    protected TopK scanCandidates(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        double[] values = query.getValues();
+        double[] weights = new double[this.numberOfFeatures];
+        double base = 0.0;
+
+        // dot products: q.x = sum(q * offset) + sum((q * scale) * code)
+        // distances: (q - x)^2 = ((q - offset) - scale * code)^2
+        for (int feature = 0; feature < this.numberOfFeatures; feature++) {
+            if (isDistance(algorithm)) {
+                weights[feature] = values[feature] - this.offsets[feature];
+            } else {
+                weights[feature] = values[feature] * this.scales[feature];
+                base += values[feature] * this.offsets[feature];
+            }
+        }
+
+        double dotProductBase = base;
+
+        return ParallelScan.scan(pool, this.numberOfRows, howMany, largest, (start, end, results) -> {
+            for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1)) {
+                int offset = i * this.numberOfFeatures;
+
+                double score = switch (algorithm) {
+                    case DOT_PRODUCT -> dotProductBase + dotProduct(weights, offset);
+                    case COSINE_SIMILARITY -> (dotProductBase + dotProduct(weights, offset))
+                            / Math.sqrt(this.matrix.getQuerySquaredNorm(query) * this.matrix.getSquaredNorm(i));
+                    // the square root does not change the order of distances
+                    case EUCLIDEAN_DISTANCE, EUCLIDEAN_DISTANCE_NO_SQRT -> euclideanDistanceNoSqrt(weights, offset);
+                };
+
+                results.offer(i, score);
+            }
+        });
+    }
+
+    /**
+     * sum the weighted codes of a row
+     */
+    private double dotProduct(double[] weights, int offset) {
+        double dotProduct = 0.0;
+
+        for (int feature = 0; feature < weights.length; feature++)
+            dotProduct += weights[feature] * (this.codes[offset + feature] & 0xFF);
+
+        return dotProduct;
+    }
+
+    /**
+     * sum the squared differences between the shifted query and a row's scaled
+     * codes
+     */
+    private double euclideanDistanceNoSqrt(double[] shiftedQuery, int offset) {
+        double distance = 0.0;
+
+        for (int feature = 0; feature < shiftedQuery.length; feature++) {
+            double difference = shiftedQuery[feature] - this.scales[feature] * (this.codes[offset + feature] & 0xFF);
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+}
@@ -0,0 +1,290 @@
+package ie.atu.sw.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * an inverted file (IVF) index: k-means trains IVF_LISTS centroids on a sample
+ * of TRAINING_ROWS rows, and every row is filed in the list of its nearest
+ * centroid
+ * </p>
+ * <p>
+ * a search scores the centroids against the query with the search's own
+ * similarity algorithm, then scans the rows of the IVF_NPROBE best lists
+ * exactly (more lists, if those hold fewer than 'howMany' rows, or allowed
+ * rows with a RowFilter, while very selective filters scan the allowed rows
+ * instead); the rows of a list are stored together, so a probe reads one
+ * contiguous run of row ids
+ * </p>
+ * <p>
+ * the index only adds one int per row and the centroids to the matrix, and
+ * builds in a few k-means iterations; the centroids and lists are saved next to
+ * the words-embeddings file (see IndexFile)
+ * </p>
+ */
+public class IvfIndex implements PersistentIndex {
+
+    private static final long SEED = 42;
+
+    private final EmbeddingMatrix matrix;
+    private final IndexParameters parameters;
+    private final int numberOfRows;
+    private final int numberOfFeatures;
+    private final int numberOfLists;
+
+    private final float[] centroids;
+    private final double[] centroidSquaredNorms;
+    private final int[] listStarts;
+    private final int[] listRows;
+
+    private IvfIndex(EmbeddingMatrix matrix, IndexParameters parameters, int numberOfLists) {
+        this.matrix = matrix;
+        this.parameters = parameters;
+        this.numberOfRows = matrix.getNumberOfRows();
+        this.numberOfFeatures = matrix.getNumberOfFeatures();
+        this.numberOfLists = numberOfLists;
+
+        this.centroids = new float[numberOfLists * this.numberOfFeatures];
+        this.centroidSquaredNorms = new double[numberOfLists];
+        this.listStarts = new int[numberOfLists + 1];
+        this.listRows = new int[this.numberOfRows];
+    }
+
+    /**
+     * train the centroids on a sample of rows, then file every row in the list
+     * of its nearest centroid
+     *
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters (IVF_NPROBE is read at search
+     *                   time)
+     * @param pool       - the pool to build on, or null to build on the calling
+     *                   thread
+     * @return the index
+     * @throws Exception
+     */
+    public static IvfIndex build(EmbeddingMatrix matrix, IndexParameters parameters, ForkJoinPool pool)
+            throws Exception {
+        int[] sample = KMeans.sampleRows(matrix.getNumberOfRows(), parameters.get(IndexParameter.TRAINING_ROWS),
+                SEED);
+        int numberOfLists = Math.min(parameters.get(IndexParameter.IVF_LISTS), sample.length);
+        int features = matrix.getNumberOfFeatures();
+
+        IvfIndex index = new IvfIndex(matrix, parameters, numberOfLists);
+
+        if (numberOfLists > 0) {
+            float[] points = new float[sample.length * features];
+            double[] row = new double[features];
+
+            for (int i = 0; i < sample.length; i++) {
+                matrix.copyRow(sample[i], row);
+                for (int d = 0; d < features; d++)
+                    points[i * features + d] = (float) row[d];
+            }
+
+            float[] centroids = KMeans.train(points, sample.length, features, numberOfLists,
+                    parameters.get(IndexParameter.KMEANS_ITERATIONS), SEED, pool);
+            System.arraycopy(centroids, 0, index.centroids, 0, centroids.length);
+        }
+
+        index.fileRows(pool);
+        index.setCentroidNorms();
+        return index;
+    }
+
+    /**
+     * read an index saved by write()
+     *
+     * @param in         - the stream to read from
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters
+     * @return the index
+     * @throws Exception if the data does not fit the matrix
+     */
+    public static IvfIndex read(DataInputStream in, EmbeddingMatrix matrix, IndexParameters parameters)
+            throws Exception {
+        int numberOfLists = in.readInt();
+
+        if (numberOfLists < 0 || numberOfLists > IndexParameter.IVF_LISTS.getMaximum()
+                || numberOfLists > matrix.getNumberOfRows()
+                || (numberOfLists == 0) != (matrix.getNumberOfRows() == 0))
+            throw new Exception("The IVF index does not fit the loaded words-embeddings");
+
+        IvfIndex index = new IvfIndex(matrix, parameters, numberOfLists);
+        IndexFile.readFloats(in, index.centroids);
+        IndexFile.readInts(in, index.listStarts);
+        IndexFile.readInts(in, index.listRows);
+
+        if (index.listStarts[0] != 0 || index.listStarts[numberOfLists] != index.numberOfRows)
+            throw new Exception("The IVF index has invalid lists");
+
+        for (int list = 0; list < numberOfLists; list++)
+            if (index.listStarts[list] > index.listStarts[list + 1])
+                throw new Exception("The IVF index has invalid lists");
+
+        for (int row : index.listRows)
+            if (row < 0 || row >= index.numberOfRows)
+                throw new Exception("The IVF index has an invalid row");
+
+        index.setCentroidNorms();
+        return index;
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.numberOfLists);
+        IndexFile.writeFloats(out, this.centroids);
+        IndexFile.writeInts(out, this.listStarts);
+        IndexFile.writeInts(out, this.listRows);
+    }
+
+    /**
+     * assign every row to its nearest centroid (in parallel), then store the
+     * rows list by list, in row order within each list
+     */
+    private void fileRows(ForkJoinPool pool) throws Exception {
+        if (this.numberOfLists == 0)
+            return;
+
+        int[] assignments = new int[this.numberOfRows];
+
+        ParallelScan.forEach(pool, this.numberOfRows, (start, end) -> {
+            double[] row = new double[this.numberOfFeatures];
+
+            for (int i = start; i < end; i++) {
+                this.matrix.copyRow(i, row);
+                assignments[i] = KMeans.nearest(this.centroids, this.numberOfLists, this.numberOfFeatures, row, 0);
+            }
+        });
+
+        // a counting sort: count each list's rows, then place them
+        for (int assignment : assignments)
+            this.listStarts[assignment + 1]++;
+
+        for (int list = 0; list < this.numberOfLists; list++)
+            this.listStarts[list + 1] += this.listStarts[list];
+
+        int[] next = this.listStarts.clone();
+        for (int i = 0; i < this.numberOfRows; i++)
+            this.listRows[next[assignments[i]]++] = i;
+    }
+
+    private void setCentroidNorms() {
+        for (int list = 0; list < this.numberOfLists; list++) {
+            double squaredNorm = 0.0;
+
+            for (int d = 0; d < this.numberOfFeatures; d++) {
+                double value = this.centroids[list * this.numberOfFeatures + d];
+                squaredNorm += value * value;
+            }
+
+            this.centroidSquaredNorms[list] = squaredNorm;
+        }
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.IVF;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return true;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return (long) this.listRows.length * Integer.BYTES + (long) this.listStarts.length * Integer.BYTES
+                + (long) this.centroids.length * Float.BYTES + (long) this.numberOfLists * Double.BYTES;
+    }
+
+    /**
+     * get the number of rows in each list
+     *
+     * @return the number of rows in each list
+     */
+    public int[] getListSizes() {
+        int[] sizes = new int[this.numberOfLists];
+
+        for (int list = 0; list < this.numberOfLists; list++)
+            sizes[list] = this.listStarts[list + 1] - this.listStarts[list];
+
+        return sizes;
+    }
+
+    @Override
+    public TopK search(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        // a selective filter leaves too few allowed rows in the nearest lists
+        if (filter != null && filter.getSelectivity() < FILTER_SCAN_SELECTIVITY)
+            return SimilarityIndex.scan(this.matrix, query, algorithm, howMany, largest, filter, pool);
+
+        int[] probed = rankLists(query, algorithm, largest);
+        int numberOfProbes = Math.min(this.numberOfLists, this.parameters.get(IndexParameter.IVF_NPROBE));
+        int[] candidates = new int[0];
+        int numberOfCandidates = 0;
+
+        // the nearest lists may hold too few (allowed) rows; probe the next ones
+        // as well
+        for (int i = 0; i < this.numberOfLists && (i < numberOfProbes || numberOfCandidates < howMany); i++) {
+            int start = this.listStarts[probed[i]];
+            int end = this.listStarts[probed[i] + 1];
+
+            if (numberOfCandidates + end - start > candidates.length)
+                candidates = Arrays.copyOf(candidates,
+                        Math.max(2 * candidates.length, numberOfCandidates + end - start));
+
+            for (int position = start; position < end; position++)
+                if (RowFilter.allows(filter, this.listRows[position]))
+                    candidates[numberOfCandidates++] = this.listRows[position];
+        }
+
+        int[] allowed = candidates;
+
+        return ParallelScan.scan(pool, numberOfCandidates, howMany, largest, (start, end, results) -> {
+            for (int i = start; i < end; i++)
+                results.offer(allowed[i], this.matrix.score(algorithm, query, allowed[i]));
+        });
+    }
+
+    /**
+     * score every centroid against the query, as its rows would be scored, and
+     * order the lists best first
+     */
+    private int[] rankLists(QueryVector query, SimilarityAlgorithm algorithm, boolean largest) {
+        double[] values = query.getValues();
+        TopK ranking = new TopK(this.numberOfLists, largest, this.numberOfLists);
+
+        for (int list = 0; list < this.numberOfLists; list++) {
+            int offset = list * this.numberOfFeatures;
+            double dotProduct = 0.0;
+            double distance = 0.0;
+
+            for (int d = 0; d < this.numberOfFeatures; d++) {
+                double centroid = this.centroids[offset + d];
+                double difference = values[d] - centroid;
+                dotProduct += values[d] * centroid;
+                distance += difference * difference;
+            }
+
+            ranking.offer(list, switch (algorithm) {
+                case DOT_PRODUCT -> dotProduct;
+                case COSINE_SIMILARITY -> dotProduct
+                        / Math.sqrt(query.getSquaredNorm() * this.centroidSquaredNorms[list]);
+                case EUCLIDEAN_DISTANCE, EUCLIDEAN_DISTANCE_NO_SQRT -> distance;
+            });
+        }
+
+        return ranking.getIndexes();
+    }
+}
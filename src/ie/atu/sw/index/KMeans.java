@@ -0,0 +1,180 @@
+package ie.atu.sw.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.util.ParallelScan;
+
+/**
+ * <p>
+ * Lloyd's k-means clustering of points stored in one flat, row-major float
+ * array, with squared euclidean distances
+ * </p>
+ * <p>
+ * the centroids start as distinct random points; each iteration assigns every
+ * point to its nearest centroid in parallel (the expensive step), then moves
+ * each centroid to the mean of its points on the calling thread, in point
+ * order, so the result only depends on the seed, never on the number of
+ * threads; an empty cluster restarts at a random point
+ * </p>
+ */
+public class KMeans {
+
+    /**
+     * pick up to 'sampleSize' distinct rows at random, in ascending order
+     *
+     * @param numberOfRows - the number of rows to pick from
+     * @param sampleSize   - the number of rows to pick
+     * @param seed         - the random seed
+     * @return the picked rows, in ascending order (every row if sampleSize is at
+     *         least numberOfRows)
+     */
+    public static int[] sampleRows(int numberOfRows, int sampleSize, long seed) {
+        if (sampleSize >= numberOfRows) {
+            int[] rows = new int[numberOfRows];
+            Arrays.setAll(rows, i -> i);
+            return rows;
+        }
+
+        // Floyd's algorithm: one random number per picked row
+        Random random = new Random(seed);
+        BitSet picked = new BitSet(numberOfRows);
+
+        for (int i = numberOfRows - sampleSize; i < numberOfRows; i++) {
+            int row = random.nextInt(i + 1);
+            picked.set(picked.get(row) ? i : row);
+        }
+
+        return picked.stream().toArray();
+    }
+
+    /**
+     * train 'k' centroids on a set of points
+     *
+     * @param points         - the points, one after another
+     * @param numberOfPoints - the number of points
+     * @param dimensions     - the number of values per point
+     * @param k              - the number of centroids (at most numberOfPoints)
+     * @param iterations     - the number of assign-and-update iterations
+     * @param seed           - the random seed
+     * @param pool           - the pool to assign points on, or null to train on
+     *                       the calling thread
+     * @return the centroids, one after another
+     * @throws Exception
+     */
+    public static float[] train(float[] points, int numberOfPoints, int dimensions, int k, int iterations,
+            long seed, ForkJoinPool pool) throws Exception {
+        Random random = new Random(seed);
+        float[] centroids = new float[k * dimensions];
+        int[] first = sampleRows(numberOfPoints, k, random.nextLong());
+
+        for (int c = 0; c < k; c++)
+            System.arraycopy(points, first[c] * dimensions, centroids, c * dimensions, dimensions);
+
+        int[] assignments = new int[numberOfPoints];
+        double[] sums = new double[k * dimensions];
+        int[] counts = new int[k];
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            float[] current = centroids;
+
+            ParallelScan.forEach(pool, numberOfPoints, (start, end) -> {
+                for (int i = start; i < end; i++)
+                    assignments[i] = nearest(current, k, dimensions, points, i * dimensions);
+            });
+
+            Arrays.fill(sums, 0.0);
+            Arrays.fill(counts, 0);
+
+            for (int i = 0; i < numberOfPoints; i++) {
+                int c = assignments[i];
+                counts[c]++;
+                for (int d = 0; d < dimensions; d++)
+                    sums[c * dimensions + d] += points[i * dimensions + d];
+            }
+
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    int point = random.nextInt(numberOfPoints);
+                    System.arraycopy(points, point * dimensions, centroids, c * dimensions, dimensions);
+                    continue;
+                }
+
+                for (int d = 0; d < dimensions; d++)
+                    centroids[c * dimensions + d] = (float) (sums[c * dimensions + d] / counts[c]);
+            }
+        }
+
+        return centroids;
+    }
+
+    /**
+     * find the centroid nearest to a point
+     *
+     * @param centroids  - the centroids, one after another
+     * @param k          - the number of centroids
+     * @param dimensions - the number of values per point
+     * @param points     - an array holding the point
+     * @param offset     - the index of the point's first value
+     * @return the nearest centroid (the lowest one, if several are as near)
+     */
+    public static int nearest(float[] centroids, int k, int dimensions, float[] points, int offset) {
+        int nearest = 0;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+
+        for (int c = 0; c < k; c++) {
+            double distance = squaredDistance(centroids, c * dimensions, points, offset, dimensions);
+
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = c;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * find the centroid nearest to a point given as doubles
+     *
+     * @param centroids  - the centroids, one after another
+     * @param k          - the number of centroids
+     * @param dimensions - the number of values per point
+     * @param point      - an array holding the point
+     * @param offset     - the index of the point's first value
+     * @return the nearest centroid (the lowest one, if several are as near)
+     */
+    public static int nearest(float[] centroids, int k, int dimensions, double[] point, int offset) {
+        int nearest = 0;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+
+        for (int c = 0; c < k; c++) {
+            double distance = 0.0;
+
+            for (int d = 0; d < dimensions; d++) {
+                double difference = point[offset + d] - centroids[c * dimensions + d];
+                distance += difference * difference;
+            }
+
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = c;
+            }
+        }
+
+        return nearest;
+    }
+
+    private static double squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int dimensions) {
+        double distance = 0.0;
+
+        for (int d = 0; d < dimensions; d++) {
+            double difference = a[aOffset + d] - b[bOffset + d];
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+}
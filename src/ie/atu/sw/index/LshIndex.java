@@ -0,0 +1,268 @@
+package ie.atu.sw.index;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.EmbeddingsFileLoader;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * a random-hyperplane locality-sensitive hashing (LSH) index for cosine
+ * similarity: each of LSH_TABLES hash tables gives every row a signature of
+ * LSH_BITS bits, one per random hyperplane, set when the row lies on the
+ * hyperplane's negative side; rows at a small angle share most bits
+ * </p>
+ * <p>
+ * a search gathers the rows that share the query's signature in any table,
+ * then rescores that union of candidates exactly; more tables find more of the
+ * true neighbours (higher recall), more bits make each bucket smaller (faster
+ * searches); dissimilar words share the negated query's signatures
+ * </p>
+ * <p>
+ * the signature of a row only depends on that row, so the index can be built
+ * while the file is parsed (see Builder, and LoadOptions); the buckets are
+ * sorted once every row is hashed
+ * </p>
+ */
+public class LshIndex implements SimilarityIndex {
+
+    private static final long SEED = 42;
+
+    private final EmbeddingMatrix matrix;
+    private final int numberOfRows;
+    private final int numberOfTables;
+    private final int numberOfBits;
+    private final float[] hyperplanes;
+
+    // per table: the signatures in ascending order, and their rows
+    private final int[][] sortedSignatures;
+    private final int[][] sortedRows;
+
+    private LshIndex(EmbeddingMatrix matrix, int numberOfTables, int numberOfBits, float[] hyperplanes,
+            int[][] sortedSignatures, int[][] sortedRows) {
+        this.matrix = matrix;
+        this.numberOfRows = matrix.getNumberOfRows();
+        this.numberOfTables = numberOfTables;
+        this.numberOfBits = numberOfBits;
+        this.hyperplanes = hyperplanes;
+        this.sortedSignatures = sortedSignatures;
+        this.sortedRows = sortedRows;
+    }
+
+    /**
+     * hash every row of a loaded matrix
+     *
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters
+     * @param pool       - the pool to build on, or null to build on the calling
+     *                   thread
+     * @return the index
+     * @throws Exception if the matrix is too big for the signature arrays
+     */
+    public static LshIndex build(EmbeddingMatrix matrix, IndexParameters parameters, ForkJoinPool pool)
+            throws Exception {
+        Builder builder = new Builder(parameters);
+        builder.matrixCreated(matrix);
+
+        ParallelScan.forEach(pool, matrix.getNumberOfRows(),
+                (start, end) -> builder.rowsParsed(start, end - start));
+
+        return builder.finish();
+    }
+
+    /**
+     * <p>
+     * builds an LshIndex row range by row range, e.g. while the loader parses a
+     * words-embeddings file (see EmbeddingsFileLoader.RowListener); ranges may be
+     * hashed by several threads at once
+     * </p>
+     */
+    public static class Builder implements EmbeddingsFileLoader.RowListener {
+
+        private final int numberOfTables;
+        private final int numberOfBits;
+        private EmbeddingMatrix matrix;
+        private float[] hyperplanes;
+        private int[][] signatures;
+
+        /**
+         * @param parameters - the index parameters (LSH_TABLES and LSH_BITS)
+         */
+        public Builder(IndexParameters parameters) {
+            this.numberOfTables = parameters.get(IndexParameter.LSH_TABLES);
+            this.numberOfBits = parameters.get(IndexParameter.LSH_BITS);
+        }
+
+        @Override
+        public void matrixCreated(EmbeddingMatrix matrix) throws Exception {
+            int features = matrix.getNumberOfFeatures();
+            long size = (long) this.numberOfTables * this.numberOfBits * features;
+            if (size > Integer.MAX_VALUE - 8)
+                throw new Exception("Too many hyperplane values (" + size + ") to store an LSH index");
+
+            Random random = new Random(SEED);
+            this.matrix = matrix;
+            this.hyperplanes = new float[(int) size];
+            this.signatures = new int[this.numberOfTables][matrix.getNumberOfRows()];
+
+            for (int i = 0; i < this.hyperplanes.length; i++)
+                this.hyperplanes[i] = (float) random.nextGaussian();
+        }
+
+        @Override
+        public void rowsParsed(int firstRow, int numberOfRows) throws Exception {
+            double[] row = new double[this.matrix.getNumberOfFeatures()];
+
+            for (int i = firstRow; i < firstRow + numberOfRows; i++) {
+                this.matrix.copyRow(i, row);
+
+                for (int table = 0; table < this.numberOfTables; table++)
+                    this.signatures[table][i] = signature(this.hyperplanes, this.numberOfBits, table, row);
+            }
+        }
+
+        /**
+         * sort every table's rows by signature, once every row is hashed
+         *
+         * @return the index
+         */
+        public LshIndex finish() {
+            int numberOfRows = this.matrix.getNumberOfRows();
+            int[][] sortedSignatures = new int[this.numberOfTables][];
+            int[][] sortedRows = new int[this.numberOfTables][];
+
+            for (int table = 0; table < this.numberOfTables; table++) {
+                // signatures are at most 30 bits, so a key sorts by signature, then row
+                long[] keys = new long[numberOfRows];
+                for (int i = 0; i < numberOfRows; i++)
+                    keys[i] = (long) this.signatures[table][i] << 32 | i;
+
+                Arrays.parallelSort(keys);
+
+                sortedSignatures[table] = new int[numberOfRows];
+                sortedRows[table] = new int[numberOfRows];
+                for (int i = 0; i < numberOfRows; i++) {
+                    sortedSignatures[table][i] = (int) (keys[i] >>> 32);
+                    sortedRows[table][i] = (int) keys[i];
+                }
+
+                this.signatures[table] = null;
+            }
+
+            return new LshIndex(this.matrix, this.numberOfTables, this.numberOfBits, this.hyperplanes,
+                    sortedSignatures, sortedRows);
+        }
+    }
+
+    /**
+     * hash a vector with one table's hyperplanes: bit b is set when the vector
+     * lies on the negative side of hyperplane b
+     */
+    private static int signature(float[] hyperplanes, int numberOfBits, int table, double[] vector) {
+        int features = vector.length;
+        int signature = 0;
+
+        for (int bit = 0; bit < numberOfBits; bit++) {
+            int offset = (table * numberOfBits + bit) * features;
+            double dotProduct = 0.0;
+
+            for (int d = 0; d < features; d++)
+                dotProduct += hyperplanes[offset + d] * vector[d];
+
+            if (dotProduct < 0)
+                signature |= 1 << bit;
+        }
+
+        return signature;
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.LSH;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return algorithm == SimilarityAlgorithm.COSINE_SIMILARITY;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return 2L * this.numberOfTables * this.numberOfRows * Integer.BYTES
+                + (long) this.hyperplanes.length * Float.BYTES;
+    }
+
+    @Override
+    public TopK search(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        double[] values = query.getValues();
+
+        // the least similar rows lie around the opposite vector
+        if (!largest) {
+            values = values.clone();
+            for (int i = 0; i < values.length; i++)
+                values[i] = -values[i];
+        }
+
+        int[] candidates = new int[0];
+        int numberOfCandidates = 0;
+
+        for (int table = 0; table < this.numberOfTables; table++) {
+            int signature = signature(this.hyperplanes, this.numberOfBits, table, values);
+            int start = firstIndexOf(this.sortedSignatures[table], signature);
+            int end = firstIndexOf(this.sortedSignatures[table], signature + 1);
+
+            if (numberOfCandidates + end - start > candidates.length)
+                candidates = Arrays.copyOf(candidates,
+                        Math.max(2 * candidates.length, numberOfCandidates + end - start));
+
+            System.arraycopy(this.sortedRows[table], start, candidates, numberOfCandidates, end - start);
+            numberOfCandidates += end - start;
+        }
+
+        // the union of the buckets: every (allowed) candidate once
+        Arrays.sort(candidates, 0, numberOfCandidates);
+        int numberOfUnique = 0;
+        for (int i = 0; i < numberOfCandidates; i++)
+            if ((i == 0 || candidates[i] != candidates[i - 1]) && RowFilter.allows(filter, candidates[i]))
+                candidates[numberOfUnique++] = candidates[i];
+
+        // too few rows share a bucket with the query; scan them all instead
+        if (numberOfUnique < howMany)
+            return SimilarityIndex.scan(this.matrix, query, algorithm, howMany, largest, filter, pool);
+
+        int[] union = candidates;
+
+        return ParallelScan.scan(pool, numberOfUnique, howMany, largest, (start, end, results) -> {
+            for (int i = start; i < end; i++)
+                results.offer(union[i], this.matrix.score(algorithm, query, union[i]));
+        });
+    }
+
+    /**
+     * find the first position of a sorted array holding a value at least as big
+     * as a key
+     */
+    private static int firstIndexOf(int[] sorted, int key) {
+        int low = 0;
+        int high = sorted.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (sorted[middle] < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,19 @@
+package ie.atu.sw.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * a SimilarityIndex that can be saved next to its words-embeddings file, and
+ * read back instead of being rebuilt (see IndexFile)
+ */
+public interface PersistentIndex extends SimilarityIndex {
+
+    /**
+     * write the index's data (IndexFile writes the header and checksum)
+     *
+     * @param out - the stream to write to
+     * @throws IOException
+     */
+    void write(DataOutputStream out) throws IOException;
+}
@@ -0,0 +1,252 @@
+package ie.atu.sw.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * a product-quantization index: the features are split into PQ_SUBSPACES
+ * contiguous subvectors, k-means trains a codebook of (up to) 256 centroids per
+ * subspace on a sample of TRAINING_ROWS rows, and every row is stored as one
+ * byte per subspace, the number of its nearest centroid
+ * </p>
+ * <p>
+ * a search builds a lookup table per query, holding each centroid's partial
+ * dot product with (or squared distance to) the query's matching subvector,
+ * then scores every row with one table lookup per subspace (asymmetric distance
+ * computation, as the query itself is not quantized); the best candidates are
+ * then rescored exactly (see QuantizedIndex)
+ * </p>
+ * <p>
+ * the codebooks and codes are saved next to the words-embeddings file (see
+ * IndexFile)
+ * </p>
+ */
+public class ProductQuantizationIndex extends QuantizedIndex implements PersistentIndex {
+
+    private static final int MAX_CENTROIDS = 256;
+    private static final long SEED = 42;
+
+    private final int numberOfSubspaces;
+    private final int numberOfCentroids;
+    private final int[] subspaceStarts;
+    private final float[][] codebooks;
+    private final byte[] codes;
+
+    private ProductQuantizationIndex(EmbeddingMatrix matrix, IndexParameters parameters, int numberOfSubspaces,
+            int numberOfCentroids) throws Exception {
+        super(matrix, parameters);
+
+        this.numberOfSubspaces = numberOfSubspaces;
+        this.numberOfCentroids = numberOfCentroids;
+        this.subspaceStarts = new int[numberOfSubspaces + 1];
+        this.codebooks = new float[numberOfSubspaces][];
+
+        for (int subspace = 0; subspace <= numberOfSubspaces; subspace++)
+            this.subspaceStarts[subspace] = (int) ((long) subspace * this.numberOfFeatures / numberOfSubspaces);
+
+        long size = (long) this.numberOfRows * numberOfSubspaces;
+        if (size > Integer.MAX_VALUE - 8)
+            throw new Exception(
+                    "Too many codes (" + size + ") to store a product-quantization index in a single array");
+
+        this.codes = new byte[(int) size];
+    }
+
+    /**
+     * train the codebooks on a sample of rows, then encode every row
+     *
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters
+     * @param pool       - the pool to build on, or null to build on the calling
+     *                   thread
+     * @return the index
+     * @throws Exception if the matrix is too big for a single array of codes
+     */
+    public static ProductQuantizationIndex build(EmbeddingMatrix matrix, IndexParameters parameters,
+            ForkJoinPool pool) throws Exception {
+        int numberOfSubspaces = Math.max(1,
+                Math.min(parameters.get(IndexParameter.PQ_SUBSPACES), matrix.getNumberOfFeatures()));
+        int numberOfCentroids = Math.max(1, Math.min(MAX_CENTROIDS, matrix.getNumberOfRows()));
+
+        ProductQuantizationIndex index = new ProductQuantizationIndex(matrix, parameters, numberOfSubspaces,
+                numberOfCentroids);
+        index.train(pool);
+        index.encode(pool);
+        return index;
+    }
+
+    /**
+     * read an index saved by write()
+     *
+     * @param in         - the stream to read from
+     * @param matrix     - the loaded word vectors
+     * @param parameters - the index parameters
+     * @return the index
+     * @throws Exception if the data does not fit the matrix
+     */
+    public static ProductQuantizationIndex read(DataInputStream in, EmbeddingMatrix matrix,
+            IndexParameters parameters) throws Exception {
+        int numberOfSubspaces = in.readInt();
+        int numberOfCentroids = in.readInt();
+
+        if (numberOfSubspaces < 1 || numberOfSubspaces > matrix.getNumberOfFeatures() || numberOfCentroids < 1
+                || numberOfCentroids > MAX_CENTROIDS)
+            throw new Exception("The product-quantization index does not fit the loaded words-embeddings");
+
+        ProductQuantizationIndex index = new ProductQuantizationIndex(matrix, parameters, numberOfSubspaces,
+                numberOfCentroids);
+
+        for (int subspace = 0; subspace < numberOfSubspaces; subspace++) {
+            index.codebooks[subspace] = new float[numberOfCentroids * index.getSubspaceSize(subspace)];
+            IndexFile.readFloats(in, index.codebooks[subspace]);
+        }
+
+        in.readFully(index.codes);
+        return index;
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.numberOfSubspaces);
+        out.writeInt(this.numberOfCentroids);
+
+        for (float[] codebook : this.codebooks)
+            IndexFile.writeFloats(out, codebook);
+
+        out.write(this.codes);
+    }
+
+    private int getSubspaceSize(int subspace) {
+        return this.subspaceStarts[subspace + 1] - this.subspaceStarts[subspace];
+    }
+
+    /**
+     * train one codebook per subspace, with k-means on the sampled rows'
+     * subvectors
+     */
+    private void train(ForkJoinPool pool) throws Exception {
+        int sampleSize = this.parameters.get(IndexParameter.TRAINING_ROWS);
+        int[] sample = KMeans.sampleRows(this.numberOfRows, sampleSize, SEED);
+        int iterations = this.parameters.get(IndexParameter.KMEANS_ITERATIONS);
+        double[] row = new double[this.numberOfFeatures];
+        float[][] subvectors = new float[this.numberOfSubspaces][];
+
+        for (int subspace = 0; subspace < this.numberOfSubspaces; subspace++)
+            subvectors[subspace] = new float[sample.length * getSubspaceSize(subspace)];
+
+        for (int i = 0; i < sample.length; i++) {
+            this.matrix.copyRow(sample[i], row);
+
+            for (int subspace = 0; subspace < this.numberOfSubspaces; subspace++) {
+                int size = getSubspaceSize(subspace);
+                for (int d = 0; d < size; d++)
+                    subvectors[subspace][i * size + d] = (float) row[this.subspaceStarts[subspace] + d];
+            }
+        }
+
+        for (int subspace = 0; subspace < this.numberOfSubspaces; subspace++)
+            this.codebooks[subspace] = KMeans.train(subvectors[subspace], sample.length, getSubspaceSize(subspace),
+                    this.numberOfCentroids, iterations, SEED + subspace, pool);
+    }
+
+    /**
+     * store every row as the nearest centroid of each of its subvectors
+     */
+    private void encode(ForkJoinPool pool) throws Exception {
+        ParallelScan.forEach(pool, this.numberOfRows, (start, end) -> {
+            double[] row = new double[this.numberOfFeatures];
+
+            for (int i = start; i < end; i++) {
+                this.matrix.copyRow(i, row);
+
+                for (int subspace = 0; subspace < this.numberOfSubspaces; subspace++)
+                    this.codes[i * this.numberOfSubspaces + subspace] = (byte) KMeans.nearest(
+                            this.codebooks[subspace], this.numberOfCentroids, getSubspaceSize(subspace), row,
+                            this.subspaceStarts[subspace]);
+            }
+        });
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.PRODUCT_QUANTIZED;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return true;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return this.codes.length + (long) this.numberOfCentroids * this.numberOfFeatures * Float.BYTES;
+    }
+
+    @Override
+    protected TopK scanCandidates(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        float[] table = createLookupTable(query.getValues(), isDistance(algorithm));
+        int subspaces = this.numberOfSubspaces;
+        int centroids = this.numberOfCentroids;
+
+        // the table sums approximate dot products or squared distances (the
+        // square root does not change the order of distances)
+        return ParallelScan.scan(pool, this.numberOfRows, howMany, largest, (start, end, results) -> {
+            for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1)) {
+                int offset = i * subspaces;
+                double score = 0.0;
+
+                for (int subspace = 0; subspace < subspaces; subspace++)
+                    score += table[subspace * centroids + (this.codes[offset + subspace] & 0xFF)];
+
+                if (algorithm == SimilarityAlgorithm.COSINE_SIMILARITY)
+                    score /= Math.sqrt(this.matrix.getQuerySquaredNorm(query) * this.matrix.getSquaredNorm(i));
+
+                results.offer(i, score);
+            }
+        });
+    }
+
+    /**
+     * compute each centroid's partial dot product with, or squared distance to,
+     * the query's matching subvector
+     */
+    private float[] createLookupTable(double[] query, boolean distance) {
+        float[] table = new float[this.numberOfSubspaces * this.numberOfCentroids];
+
+        for (int subspace = 0; subspace < this.numberOfSubspaces; subspace++) {
+            int start = this.subspaceStarts[subspace];
+            int size = getSubspaceSize(subspace);
+            float[] codebook = this.codebooks[subspace];
+
+            for (int c = 0; c < this.numberOfCentroids; c++) {
+                double sum = 0.0;
+
+                for (int d = 0; d < size; d++) {
+                    double centroid = codebook[c * size + d];
+
+                    if (distance) {
+                        double difference = query[start + d] - centroid;
+                        sum += difference * difference;
+                    } else {
+                        sum += query[start + d] * centroid;
+                    }
+                }
+
+                table[subspace * this.numberOfCentroids + c] = (float) sum;
+            }
+        }
+
+        return table;
+    }
+}
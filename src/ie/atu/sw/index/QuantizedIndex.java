@@ -0,0 +1,104 @@
+package ie.atu.sw.index;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * a search index that scores every row approximately, from a compressed copy
+ * of the matrix, then rescores the best 'howMany' x OVERSAMPLE (or another
+ * oversampling parameter) candidates against the full-precision matrix
+ * </p>
+ * <p>
+ * the results carry exact scores, and only miss a row when its approximate
+ * score pushes it out of the candidates; with a RowFilter, only allowed rows
+ * become candidates, and when there are no more allowed rows than candidates,
+ * every allowed row is rescored instead
+ * </p>
+ */
+public abstract class QuantizedIndex implements SimilarityIndex {
+
+    protected final EmbeddingMatrix matrix;
+    protected final IndexParameters parameters;
+    protected final int numberOfRows;
+    protected final int numberOfFeatures;
+
+    /**
+     * @param matrix     - the loaded word vectors, used for rescoring
+     * @param parameters - the index parameters (OVERSAMPLE is read at search
+     *                   time)
+     */
+    protected QuantizedIndex(EmbeddingMatrix matrix, IndexParameters parameters) {
+        this.matrix = matrix;
+        this.parameters = parameters;
+        this.numberOfRows = matrix.getNumberOfRows();
+        this.numberOfFeatures = matrix.getNumberOfFeatures();
+    }
+
+    /**
+     * get the parameter that sets the number of candidates per result
+     *
+     * @return the oversampling parameter (OVERSAMPLE, unless overridden)
+     */
+    protected IndexParameter getOversampleParameter() {
+        return IndexParameter.OVERSAMPLE;
+    }
+
+    /**
+     * scan the compressed (allowed) rows for the best approximate scores
+     *
+     * @param query      - the query vector
+     * @param algorithm  - the similarity algorithm to approximate
+     * @param candidates - the number of candidates to find
+     * @param largest    - find the largest (true) or smallest (false) scores
+     * @param filter     - the rows to scan, or null for every row
+     * @param pool       - the pool to scan on, or null to scan on the calling
+     *                   thread
+     * @return the candidates, with their approximate scores
+     * @throws Exception
+     */
+    protected abstract TopK scanCandidates(QueryVector query, SimilarityAlgorithm algorithm, int candidates,
+            boolean largest, RowFilter filter, ForkJoinPool pool) throws Exception;
+
+    @Override
+    public TopK search(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        int numberOfAllowed = filter == null ? this.numberOfRows : filter.getCardinality();
+        long oversampled = (long) howMany * this.parameters.get(getOversampleParameter());
+        int numberOfCandidates = (int) Math.min(numberOfAllowed, oversampled);
+
+        TopK candidates = numberOfCandidates < numberOfAllowed
+                ? scanCandidates(query, algorithm, numberOfCandidates, largest, filter, pool)
+                : null;
+
+        // rescore the candidates (or every allowed row, if that is no more work)
+        // exactly
+        TopK results = new TopK(howMany, largest, numberOfCandidates);
+
+        if (candidates == null)
+            for (int i = RowFilter.next(filter, 0); i < this.numberOfRows; i = RowFilter.next(filter, i + 1))
+                results.offer(i, this.matrix.score(algorithm, query, i));
+        else
+            for (int i : candidates.getIndexes())
+                results.offer(i, this.matrix.score(algorithm, query, i));
+
+        return results;
+    }
+
+    /**
+     * does the similarity algorithm rank rows by distance (smallest first, when
+     * searching for similar words)?
+     *
+     * @param algorithm - the similarity algorithm
+     * @return whether the algorithm is a euclidean distance
+     */
+    protected static boolean isDistance(SimilarityAlgorithm algorithm) {
+        return algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                || algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+    }
+}
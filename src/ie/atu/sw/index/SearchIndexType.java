@@ -0,0 +1,55 @@
+package ie.atu.sw.index;
+
+/**
+ * the kinds of search index that can answer similarity searches (see
+ * SimilarityIndex), each with the IndexParameters it uses; EXACT scans every
+ * row, and needs no index
+ */
+public enum SearchIndexType {
+    EXACT("Exact Scan", false),
+    INT8("Int8 Quantized Scan, Exactly Rescored", false, IndexParameter.OVERSAMPLE),
+    PRODUCT_QUANTIZED("Product Quantization (ADC), Exactly Rescored", false, IndexParameter.PQ_SUBSPACES,
+            IndexParameter.TRAINING_ROWS, IndexParameter.KMEANS_ITERATIONS, IndexParameter.OVERSAMPLE),
+    BINARY("Sign-Bit Sketch with Popcount Prefilter, Exactly Rescored", false, IndexParameter.BINARY_OVERSAMPLE),
+    HNSW("HNSW Graph (Approximate Nearest Neighbours), Exactly Rescored", true, IndexParameter.HNSW_M,
+            IndexParameter.HNSW_EF_CONSTRUCTION, IndexParameter.HNSW_EF_SEARCH),
+    IVF("Inverted File (k-means lists), Nearest Lists Scanned Exactly", false, IndexParameter.IVF_LISTS,
+            IndexParameter.TRAINING_ROWS, IndexParameter.KMEANS_ITERATIONS, IndexParameter.IVF_NPROBE),
+    LSH("Random-Hyperplane LSH, Exactly Rescored (cosine similarity, built while loading)", false,
+            IndexParameter.LSH_TABLES, IndexParameter.LSH_BITS),
+    VP_TREE("Vantage-Point Tree, Exact (euclidean distances, nearest and farthest)", false);
+
+    private final String title;
+    private final boolean algorithmSpecific;
+    private final IndexParameter[] parameters;
+
+    private SearchIndexType(String title, boolean algorithmSpecific, IndexParameter... parameters) {
+        this.title = title;
+        this.algorithmSpecific = algorithmSpecific;
+        this.parameters = parameters;
+    }
+
+    /**
+     * is this kind of index built for one similarity algorithm (so it must be
+     * rebuilt when another algorithm is chosen)?
+     *
+     * @return whether the index is built for one similarity algorithm
+     */
+    public boolean isAlgorithmSpecific() {
+        return algorithmSpecific;
+    }
+
+    /**
+     * get the parameters used by this kind of index
+     *
+     * @return the parameters used by this kind of index
+     */
+    public IndexParameter[] getParameters() {
+        return parameters.clone();
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -0,0 +1,103 @@
+package ie.atu.sw.index;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * a search index over the rows of an EmbeddingMatrix, built after a
+ * words-embeddings file is loaded, which answers top-k similarity searches
+ * without (or with less of) a full scan of the matrix
+ * </p>
+ * <p>
+ * searches return rows with their exact scores, as a full scan would score
+ * them; approximate indexes may miss some of the best rows (see recall in
+ * IndexBenchmark)
+ * </p>
+ * <p>
+ * a search with a RowFilter only returns allowed rows, and still returns
+ * 'howMany' of them while there are that many allowed rows; an index falls
+ * back to a scan of the allowed rows when the filter is too selective for the
+ * index to find enough of them
+ * </p>
+ */
+public interface SimilarityIndex {
+
+    /**
+     * filters allowing less than this share of the rows are answered by a scan
+     * of the allowed rows, where a graph or tree search would mostly visit
+     * excluded rows
+     */
+    double FILTER_SCAN_SELECTIVITY = 0.02;
+
+    /**
+     * get the kind of index
+     *
+     * @return the kind of index
+     */
+    SearchIndexType getType();
+
+    /**
+     * can this index answer searches with a similarity algorithm, for the largest
+     * or smallest scores? other searches fall back to a full scan
+     *
+     * @param algorithm - the similarity algorithm
+     * @param largest   - searching for the largest (true) or smallest (false)
+     *                  scores?
+     * @return whether the index can answer the search
+     */
+    boolean supports(SimilarityAlgorithm algorithm, boolean largest);
+
+    /**
+     * find the 'howMany' best allowed rows for a query vector
+     *
+     * @param query     - the query vector
+     * @param algorithm - the similarity algorithm to score rows with
+     * @param howMany   - the number of rows to find
+     * @param largest   - find the largest (true) or smallest (false) scores
+     * @param filter    - the rows that may be returned, or null for every row
+     * @param pool      - the pool to search on, or null to search on the calling
+     *                  thread
+     * @return the best rows found, with their exact scores
+     * @throws Exception
+     */
+    TopK search(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest, RowFilter filter,
+            ForkJoinPool pool) throws Exception;
+
+    /**
+     * get the number of bytes used by the index, not counting the
+     * EmbeddingMatrix it rescores against
+     *
+     * @return the number of bytes used by the index
+     */
+    long getSizeInBytes();
+
+    /**
+     * score every allowed row exactly, as the full scan would: the fallback for
+     * searches an index cannot answer with enough rows
+     *
+     * @param matrix    - the loaded word vectors
+     * @param query     - the query vector
+     * @param algorithm - the similarity algorithm to score rows with
+     * @param howMany   - the number of rows to find
+     * @param largest   - find the largest (true) or smallest (false) scores
+     * @param filter    - the rows to scan, or null for every row
+     * @param pool      - the pool to scan on, or null to scan on the calling
+     *                  thread
+     * @return the best allowed rows, with their exact scores
+     * @throws Exception
+     */
+    static TopK scan(EmbeddingMatrix matrix, QueryVector query, SimilarityAlgorithm algorithm, int howMany,
+            boolean largest, RowFilter filter, ForkJoinPool pool) throws Exception {
+        return ParallelScan.scan(pool, matrix.getNumberOfRows(), howMany, largest, (start, end, results) -> {
+            for (int i = RowFilter.next(filter, start); i < end; i = RowFilter.next(filter, i + 1))
+                results.offer(i, matrix.score(algorithm, query, i));
+        });
+    }
+}
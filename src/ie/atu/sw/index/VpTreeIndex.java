@@ -0,0 +1,295 @@
+package ie.atu.sw.index;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ie.atu.sw.embeddings.EmbeddingMatrix;
+import ie.atu.sw.embeddings.Precision;
+import ie.atu.sw.embeddings.QueryVector;
+import ie.atu.sw.util.ParallelScan;
+import ie.atu.sw.util.RowFilter;
+import ie.atu.sw.util.SimilarityAlgorithm;
+import ie.atu.sw.util.TopK;
+
+/**
+ * <p>
+ * an exact vantage-point tree for euclidean distances: each node picks a row
+ * as its vantage point, and splits the rest of its rows at their median
+ * distance from it into an inner and an outer child, recording the range of
+ * distances (from the vantage point) in each child
+ * </p>
+ * <p>
+ * by the triangle inequality, every row x of a child with distances in [low,
+ * high] from the vantage point v lies between max(low - d(q,v), d(q,v) - high)
+ * and d(q,v) + high from the query q; a child whose range cannot beat the
+ * current k-th best distance is skipped, for the nearest rows and, the other
+ * way round, for the farthest rows
+ * </p>
+ * <p>
+ * the bounds are loosened by a tiny relative slack for rounding errors, and
+ * every row that is not skipped is scored exactly as the full scan scores it,
+ * so the results are the same as the full scan's, ties included
+ * </p>
+ * <p>
+ * with a RowFilter, vantage points are still scored (to route the search), but
+ * only allowed rows are kept; very selective filters scan the allowed rows
+ * instead
+ * </p>
+ */
+public class VpTreeIndex implements SimilarityIndex {
+
+    private static final long SEED = 42;
+    private static final int LEAF_SIZE = 16;
+
+    private final EmbeddingMatrix matrix;
+    private final int numberOfRows;
+    private final double slack;
+
+    // the rows in tree order: a node over positions [start, end) has its
+    // vantage point at 'start', its inner child from start + 1 to split[start],
+    // and its outer child from split[start] to 'end' (leaves have no split)
+    private final int[] rows;
+    private final int[] splits;
+    private final double[] innerLows;
+    private final double[] innerHighs;
+    private final double[] outerLows;
+    private final double[] outerHighs;
+
+    private VpTreeIndex(EmbeddingMatrix matrix) {
+        this.matrix = matrix;
+        this.numberOfRows = matrix.getNumberOfRows();
+
+        // 32-bit floats are summed with much larger rounding errors
+        this.slack = matrix.getPrecision() == Precision.FLOAT32 ? 1e-4 : 1e-9;
+
+        this.rows = new int[this.numberOfRows];
+        this.splits = new int[this.numberOfRows];
+        this.innerLows = new double[this.numberOfRows];
+        this.innerHighs = new double[this.numberOfRows];
+        this.outerLows = new double[this.numberOfRows];
+        this.outerHighs = new double[this.numberOfRows];
+
+        for (int i = 0; i < this.numberOfRows; i++)
+            this.rows[i] = i;
+    }
+
+    /**
+     * build the tree over every row
+     *
+     * @param matrix - the loaded word vectors
+     * @param pool   - the pool to compute distances on, or null to build on the
+     *               calling thread
+     * @return the index
+     * @throws Exception
+     */
+    public static VpTreeIndex build(EmbeddingMatrix matrix, ForkJoinPool pool) throws Exception {
+        VpTreeIndex index = new VpTreeIndex(matrix);
+        index.buildNode(0, index.numberOfRows, new double[index.numberOfRows], new Random(SEED), pool);
+        return index;
+    }
+
+    /**
+     * pick a random vantage point for the rows in [start, end), move it to
+     * 'start', then split the other rows at their median distance from it
+     */
+    private void buildNode(int start, int end, double[] distances, Random random, ForkJoinPool pool)
+            throws Exception {
+        if (end - start <= LEAF_SIZE) {
+            if (start < end)
+                this.splits[start] = -1;
+            return;
+        }
+
+        swap(start, start + random.nextInt(end - start), distances);
+        QueryVector vantagePoint = new QueryVector(this.matrix.copyRow(this.rows[start]));
+
+        // the only O(n) step of a node, spread over the pool for large nodes
+        ParallelScan.forEach(pool, end - start - 1, (from, to) -> {
+            for (int i = start + 1 + from; i < start + 1 + to; i++)
+                distances[i] = Math.sqrt(this.matrix.euclideanDistanceNoSqrt(vantagePoint, this.rows[i]));
+        });
+
+        int split = start + 1 + (end - start - 1) / 2;
+        select(start + 1, end - 1, split, distances);
+
+        this.splits[start] = split;
+        this.innerLows[start] = Double.POSITIVE_INFINITY;
+        this.innerHighs[start] = Double.NEGATIVE_INFINITY;
+        this.outerLows[start] = Double.POSITIVE_INFINITY;
+        this.outerHighs[start] = Double.NEGATIVE_INFINITY;
+
+        for (int i = start + 1; i < end; i++) {
+            if (i < split) {
+                this.innerLows[start] = Math.min(this.innerLows[start], distances[i]);
+                this.innerHighs[start] = Math.max(this.innerHighs[start], distances[i]);
+            } else {
+                this.outerLows[start] = Math.min(this.outerLows[start], distances[i]);
+                this.outerHighs[start] = Math.max(this.outerHighs[start], distances[i]);
+            }
+        }
+
+        buildNode(start + 1, split, distances, random, pool);
+        buildNode(split, end, distances, random, pool);
+    }
+
+    /**
+     * quickselect: reorder positions [left, right] so the position 'k' holds the
+     * distance it would hold if sorted, with no larger distance before it and no
+     * smaller one after it
+     */
+    private void select(int left, int right, int k, double[] distances) {
+        while (left < right) {
+            double pivot = distances[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (distances[i] < pivot)
+                    i++;
+                while (distances[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--, distances);
+            }
+
+            if (k <= j)
+                right = j;
+            else if (k >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private void swap(int i, int j, double[] distances) {
+        int row = this.rows[i];
+        this.rows[i] = this.rows[j];
+        this.rows[j] = row;
+
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    @Override
+    public SearchIndexType getType() {
+        return SearchIndexType.VP_TREE;
+    }
+
+    @Override
+    public boolean supports(SimilarityAlgorithm algorithm, boolean largest) {
+        return algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE
+                || algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return 2L * this.numberOfRows * Integer.BYTES + 4L * this.numberOfRows * Double.BYTES;
+    }
+
+    @Override
+    public TopK search(QueryVector query, SimilarityAlgorithm algorithm, int howMany, boolean largest,
+            RowFilter filter, ForkJoinPool pool) throws Exception {
+        if (filter != null && filter.getSelectivity() < FILTER_SCAN_SELECTIVITY)
+            return SimilarityIndex.scan(this.matrix, query, algorithm, howMany, largest, filter, pool);
+
+        Search search = new Search(query, algorithm, new TopK(howMany, largest, this.numberOfRows), filter);
+
+        if (this.numberOfRows > 0)
+            searchNode(0, this.numberOfRows, search);
+
+        return search.results;
+    }
+
+    /**
+     * the state of one search: the query, and the best rows found so far
+     */
+    private static class Search {
+        private final QueryVector query;
+        private final SimilarityAlgorithm algorithm;
+        private final TopK results;
+        private final RowFilter filter;
+        private final boolean farthest;
+
+        private Search(QueryVector query, SimilarityAlgorithm algorithm, TopK results, RowFilter filter) {
+            this.query = query;
+            this.algorithm = algorithm;
+            this.results = results;
+            this.filter = filter;
+            this.farthest = results.isLargest();
+        }
+
+        /**
+         * get the current k-th best distance (not squared), or NaN until there
+         * are k results
+         */
+        private double getThreshold() {
+            double threshold = this.results.getThreshold();
+
+            return this.algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT ? Math.sqrt(threshold)
+                    : threshold;
+        }
+    }
+
+    /**
+     * score a row exactly as the full scan would, keep it if it is allowed, and
+     * return its distance (not squared)
+     */
+    private double score(int row, Search search) {
+        double squaredDistance = this.matrix.euclideanDistanceNoSqrt(search.query, row);
+
+        if (RowFilter.allows(search.filter, row))
+            search.results.offer(row, search.algorithm == SimilarityAlgorithm.EUCLIDEAN_DISTANCE_NO_SQRT
+                    ? squaredDistance
+                    : Math.sqrt(squaredDistance));
+
+        return Math.sqrt(squaredDistance);
+    }
+
+    private void searchNode(int start, int end, Search search) {
+        if (this.splits[start] < 0) {
+            for (int i = start; i < end; i++)
+                if (RowFilter.allows(search.filter, this.rows[i]))
+                    score(this.rows[i], search);
+            return;
+        }
+
+        int split = this.splits[start];
+        double distance = score(this.rows[start], search);
+
+        // nearest: the inner child first if the query is inside the median
+        // distance; farthest: the other way round
+        boolean innerFirst = (distance <= this.outerLows[start]) != search.farthest;
+
+        if (innerFirst) {
+            if (canBeat(distance, this.innerLows[start], this.innerHighs[start], search))
+                searchNode(start + 1, split, search);
+            if (canBeat(distance, this.outerLows[start], this.outerHighs[start], search))
+                searchNode(split, end, search);
+        } else {
+            if (canBeat(distance, this.outerLows[start], this.outerHighs[start], search))
+                searchNode(split, end, search);
+            if (canBeat(distance, this.innerLows[start], this.innerHighs[start], search))
+                searchNode(start + 1, split, search);
+        }
+    }
+
+    /**
+     * could a child, whose rows lie between 'low' and 'high' from the vantage
+     * point, hold a row that beats the current k-th best distance?
+     */
+    private boolean canBeat(double distance, double low, double high, Search search) {
+        double threshold = search.getThreshold();
+
+        // NaN distances order nothing, so nothing can be skipped
+        if (Double.isNaN(threshold) || Double.isNaN(distance) || Double.isNaN(low) || Double.isNaN(high))
+            return true;
+
+        double tolerance = this.slack * (distance + high + threshold);
+
+        if (search.farthest)
+            return distance + high + tolerance >= threshold;
+
+        return Math.max(low - distance, distance - high) - tolerance <= threshold;
+    }
+}
@@ -0,0 +1,46 @@
+package ie.atu.sw.menu;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.index.IndexParameter;
+
+/**
+ * turn the IndexParameter enum into a menu
+ */
+public class IndexParameterMenuItem {
+
+    /**
+     * look up a keyboard shortcut, and find the appropriate menu item
+     * 
+     * @param key - the keyboard shortcut to match
+     * @return the matching menu item
+     * @throws Exception if no matching menu item is found
+     */
+    public static IndexParameter valueOfKey(String key) throws Exception {
+        for (IndexParameter item : IndexParameter.values())
+            if (Integer.toString(item.ordinal() + 1).equals(key))
+                return item;
+
+        throw new Exception("'" + key + "' is not a valid search index parameter.");
+    }
+
+    /**
+     * print the menu's title to the terminal
+     */
+    public static void printTitle() {
+        ConsolePrint.printTitle("Search Index Parameters");
+    }
+
+    /**
+     * print all of the menu options with their shortcuts, to the terminal
+     */
+    public static void printOptions() {
+        String[] options = new String[IndexParameter.values().length];
+        int index = 0;
+
+        for (IndexParameter item : IndexParameter.values())
+            options[index++] = "[" + (item.ordinal() + 1) + "] " + item.toString();
+
+        ConsolePrint.printMenuOptions(options);
+    }
+
+}
@@ -1,6 +1,8 @@
 package ie.atu.sw.menu;
 
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 import ie.atu.sw.console.ConsolePrint;
@@ -104,43 +106,124 @@ public class MainMenu {
         ConsolePrint.printInfo("Interpreting input as: '" + sanitizedInput + "'");
         String[] words = sanitizedInput.split(" ");
 
-        // write the first word using the current setting for appending or overwriting
-        // the data output file
-        try {
+        if (words.length == 1) {
+            try {
 
-            settingsMenu.getWordsEmbeddings().getSimilarWords(
-                    words[0],
-                    settingsMenu.getNumberOfSimilaritiesToFind(),
-                    similar);
+                settingsMenu.getWordsEmbeddings().getSimilarWords(
+                        words[0],
+                        settingsMenu.getNumberOfSimilaritiesToFind(),
+                        similar,
+                        settingsMenu.getSearchFilter(words[0]));
 
-            settingsMenu.printDataOutput(words[0], similar);
+                settingsMenu.printDataOutput(words[0], similar);
 
-        } catch (Exception e) {
-            ConsolePrint.printError(e.getMessage());
+                if (scanFullSearch()) {
+                    settingsMenu.getWordsEmbeddings().getSimilarWords(
+                            settingsMenu.getWordsEmbeddings().getWordEmbedding(words[0]),
+                            settingsMenu.getNumberOfSimilaritiesToFind(),
+                            similar,
+                            settingsMenu.getSearchFilter(words[0]),
+                            true);
+
+                    settingsMenu.printDataOutput(words[0], similar);
+                }
+
+            } catch (Exception e) {
+                ConsolePrint.printError(e.getMessage());
+            }
+            return;
         }
 
-        // temporarily use append mode
-        // write the rest of the word-search results, if they exist
-        // then set it back to user value
-        // so multiple words can be written to data output file from one input
-        // without overwriting previous words (from same input)
-        boolean appendData = settingsMenu.getAppendDataOutputFile();
-        settingsMenu.setAppendDataOutputFile(true);
-        for (int i = 1; i < words.length; i++) {
+        // several words are searched together in one batch, which streams the
+        // word vectors once per block of words, instead of once per word;
+        // words that are not found are reported, and left out of the batch;
+        // excluding the query words leaves each word out of its own results only,
+        // so "cat dog" can still find "dog" similar to "cat"
+        List<String> foundWords = new ArrayList<>();
+        List<double[]> embeddings = new ArrayList<>();
+        for (String word : words) {
             try {
+                embeddings.add(settingsMenu.getWordsEmbeddings().getWordEmbedding(word));
+                foundWords.add(word);
+            } catch (Exception e) {
+                ConsolePrint.printError(e.getMessage());
+            }
+        }
+
+        if (foundWords.isEmpty())
+            return;
+
+        try {
+            settingsMenu.getWordsEmbeddings().getSimilarWords(
+                    embeddings.toArray(new double[0][]),
+                    settingsMenu.getNumberOfSimilaritiesToFind(),
+                    similar,
+                    settingsMenu.getSearchFilter(),
+                    settingsMenu.getExcludedRows(foundWords.toArray(new String[0])),
+                    false);
+            printBatchDataOutput(foundWords, similar);
 
+            if (scanFullSearch()) {
                 settingsMenu.getWordsEmbeddings().getSimilarWords(
-                        words[i],
+                        embeddings.toArray(new double[0][]),
                         settingsMenu.getNumberOfSimilaritiesToFind(),
-                        similar);
+                        similar,
+                        settingsMenu.getSearchFilter(),
+                        settingsMenu.getExcludedRows(foundWords.toArray(new String[0])),
+                        true);
+                printBatchDataOutput(foundWords, similar);
+            }
+        } catch (Exception e) {
+            ConsolePrint.printError(e.getMessage());
+        }
+    }
 
-                settingsMenu.printDataOutput(words[i], similar);
+    /**
+     * print the results of the previous batched search, one query word at a
+     * time
+     * 
+     * @param foundWords - the query words of the batch, in order
+     * @param similar    - were similarities or dissimilarities found?
+     */
+    private void printBatchDataOutput(List<String> foundWords, boolean similar) {
+        String[][] similarWords = settingsMenu.getWordsEmbeddings().getPreviousBatchSimilarWords();
+        double[][] scores = settingsMenu.getWordsEmbeddings().getPreviousBatchSimilarWordsScores();
 
-            } catch (Exception e) {
-                ConsolePrint.printError(e.getMessage());
+        // write the first word using the current setting for appending or
+        // overwriting the data output file, then temporarily use append mode
+        // for the rest, so multiple words can be written to data output file
+        // from one input without overwriting previous words (from same input)
+        boolean appendData = settingsMenu.getAppendDataOutputFile();
+        try {
+            for (int i = 0; i < foundWords.size(); i++) {
+                settingsMenu.printDataOutput(foundWords.get(i), similar, similarWords[i], scores[i]);
+                settingsMenu.setAppendDataOutputFile(true);
             }
+        } catch (Exception e) {
+            ConsolePrint.printError(e.getMessage());
+        } finally {
+            settingsMenu.setAppendDataOutputFile(appendData);
         }
-        settingsMenu.setAppendDataOutputFile(appendData);
+    }
+
+    /**
+     * if the previous search stopped at the most frequent words (see Tiered
+     * Search in the settings), offer to search every word
+     * 
+     * @return whether the user asked for a full search
+     */
+    private boolean scanFullSearch() {
+        int searchedWords = settingsMenu.getWordsEmbeddings().getPreviousSearchedWords();
+        int numberOfWords = settingsMenu.getWordsEmbeddings().getNumberOfWords();
+
+        if (searchedWords >= numberOfWords)
+            return false;
+
+        ConsolePrint.printInfo("Only the " + searchedWords + " most frequent of " + numberOfWords
+                + " words were searched");
+        System.out.print("Enter 'f' for a full search, or hit ENTER to continue: ");
+
+        return this.inputScanner.nextLine().trim().equalsIgnoreCase("f");
     }
 
     /**
@@ -0,0 +1,46 @@
+package ie.atu.sw.menu;
+
+import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.index.SearchIndexType;
+
+/**
+ * turn the SearchIndexType enum into a menu
+ */
+public class SearchIndexMenuItem {
+
+    /**
+     * look up a keyboard shortcut, and find the appropriate menu item
+     * 
+     * @param key - the keyboard shortcut to match
+     * @return the matching menu item
+     * @throws Exception if no matching menu item is found
+     */
+    public static SearchIndexType valueOfKey(String key) throws Exception {
+        for (SearchIndexType item : SearchIndexType.values())
+            if (Integer.toString(item.ordinal() + 1).equals(key))
+                return item;
+
+        throw new Exception("'" + key + "' is not a valid search index.");
+    }
+
+    /**
+     * print the menu's title to the terminal
+     */
+    public static void printTitle() {
+        ConsolePrint.printTitle("Similarity Search Indexes");
+    }
+
+    /**
+     * print all of the menu options with their shortcuts, to the terminal
+     */
+    public static void printOptions() {
+        String[] options = new String[SearchIndexType.values().length];
+        int index = 0;
+
+        for (SearchIndexType item : SearchIndexType.values())
+            options[index++] = "[" + (item.ordinal() + 1) + "] " + item.toString();
+
+        ConsolePrint.printMenuOptions(options);
+    }
+
+}
@@ -8,7 +8,13 @@ import java.util.Scanner;
 import java.util.prefs.Preferences;
 
 import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.LoadOptions;
+import ie.atu.sw.embeddings.Precision;
 import ie.atu.sw.embeddings.WordsEmbeddings;
+import ie.atu.sw.index.IndexParameter;
+import ie.atu.sw.index.SearchIndexType;
+import ie.atu.sw.util.AnalogyObjective;
+import ie.atu.sw.util.RowFilter;
 import ie.atu.sw.util.SimilarityAlgorithm;
 
 /**
@@ -173,6 +179,350 @@ public class SettingsMenu {
         this.preferences.putBoolean("appendDataOutputFile", append);
     }
 
+    /**
+     * get a boolean representing whether word vectors should be stored
+     * L2-normalized when a words-embeddings file is loaded (defaults to false)
+     * 
+     * @return whether word vectors should be stored L2-normalized
+     */
+    public boolean getNormalizeEmbeddings() {
+        return this.preferences.getBoolean("normalizeEmbeddings", false);
+    }
+
+    /**
+     * set and store whether word vectors should be stored L2-normalized when a
+     * words-embeddings file is loaded
+     * 
+     * @param normalize - whether word vectors should be stored L2-normalized
+     */
+    private void setNormalizeEmbeddings(boolean normalize) {
+        this.preferences.putBoolean("normalizeEmbeddings", normalize);
+    }
+
+    /**
+     * get the number type used to store word vectors when a words-embeddings file
+     * is loaded (defaults to 64-bit doubles)
+     * 
+     * @return the number type used to store word vectors
+     * @throws Exception if the stored value is not a valid precision
+     */
+    public Precision getEmbeddingsPrecision() throws Exception {
+        return Precision.valueOf(this.preferences.get("embeddingsPrecision", Precision.FLOAT64.name()));
+    }
+
+    /**
+     * set and store the number type used to store word vectors when a
+     * words-embeddings file is loaded
+     * 
+     * @param precision - the number type used to store word vectors
+     */
+    private void setEmbeddingsPrecision(Precision precision) {
+        this.preferences.put("embeddingsPrecision", precision.name());
+    }
+
+    /**
+     * get a boolean representing whether word vectors should be stored outside
+     * the Java heap when a words-embeddings file is loaded (defaults to false)
+     * 
+     * @return whether word vectors should be stored outside the Java heap
+     */
+    public boolean getOffHeapEmbeddings() {
+        return this.preferences.getBoolean("offHeapEmbeddings", false);
+    }
+
+    /**
+     * set and store whether word vectors should be stored outside the Java heap
+     * when a words-embeddings file is loaded
+     * 
+     * @param offHeap - whether word vectors should be stored outside the Java heap
+     */
+    private void setOffHeapEmbeddings(boolean offHeap) {
+        this.preferences.putBoolean("offHeapEmbeddings", offHeap);
+    }
+
+    /**
+     * get a boolean representing whether a snapshot's word vectors are checked
+     * against their checksum when it is loaded (defaults to true)
+     * 
+     * @return whether a snapshot's word vectors are checked
+     */
+    public boolean getVerifySnapshot() {
+        return this.preferences.getBoolean("verifySnapshot", true);
+    }
+
+    /**
+     * set and store whether a snapshot's word vectors are checked against their
+     * checksum when it is loaded
+     * 
+     * @param verifySnapshot - whether a snapshot's word vectors are checked
+     */
+    private void setVerifySnapshot(boolean verifySnapshot) {
+        this.preferences.putBoolean("verifySnapshot", verifySnapshot);
+    }
+
+    /**
+     * get the stored number of threads used by parallel similarity searches and
+     * file loading (defaults to the number of available processors)
+     * 
+     * @return the number of threads used by parallel searches and loading
+     */
+    public int getParallelism() {
+        return this.preferences.getInt("parallelism", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * set and store the number of threads used by parallel similarity searches and
+     * file loading
+     * 
+     * @param parallelism - the number of threads (1 disables parallel searches and
+     *                    loading)
+     */
+    private void setParallelism(int parallelism) {
+        this.preferences.putInt("parallelism", parallelism);
+    }
+
+    /**
+     * get the stored minimum number of words needed for a similarity search to
+     * run in parallel (defaults to 100000)
+     * 
+     * @return the minimum number of words needed for a parallel search
+     */
+    public int getParallelThreshold() {
+        return this.preferences.getInt("parallelThreshold", 100000);
+    }
+
+    /**
+     * set and store the minimum number of words needed for a similarity search to
+     * run in parallel
+     * 
+     * @param threshold - the minimum number of words needed for a parallel search
+     */
+    private void setParallelThreshold(int threshold) {
+        this.preferences.putInt("parallelThreshold", threshold);
+    }
+
+    /**
+     * get the kind of search index used by similarity searches (defaults to an
+     * exact scan)
+     * 
+     * @return the kind of search index used by similarity searches
+     * @throws Exception if the stored value is not a valid search index
+     */
+    public SearchIndexType getSearchIndexType() throws Exception {
+        return SearchIndexType.valueOf(this.preferences.get("searchIndex", SearchIndexType.EXACT.name()));
+    }
+
+    /**
+     * set and store the kind of search index used by similarity searches
+     * 
+     * @param type - the kind of search index used by similarity searches
+     */
+    private void setSearchIndexType(SearchIndexType type) {
+        this.preferences.put("searchIndex", type.name());
+    }
+
+    /**
+     * get the stored value of a search index parameter (defaults to the
+     * parameter's default value)
+     * 
+     * @param parameter - the search index parameter
+     * @return the value of the search index parameter
+     */
+    public int getIndexParameter(IndexParameter parameter) {
+        return this.preferences.getInt(parameter.getKey(), parameter.getDefaultValue());
+    }
+
+    /**
+     * set and store the value of a search index parameter
+     * 
+     * @param parameter - the search index parameter
+     * @param value     - the value of the search index parameter
+     */
+    private void setIndexParameter(IndexParameter parameter, int value) {
+        this.preferences.putInt(parameter.getKey(), value);
+    }
+
+    /**
+     * get a boolean representing whether similarity searches bypass the search
+     * index, and scan every word exactly (defaults to false)
+     * 
+     * @return whether similarity searches bypass the search index
+     */
+    public boolean getExactSearch() {
+        return this.preferences.getBoolean("exactSearch", false);
+    }
+
+    /**
+     * set and store whether similarity searches bypass the search index
+     * 
+     * @param exactSearch - whether similarity searches bypass the search index
+     */
+    private void setExactSearch(boolean exactSearch) {
+        this.preferences.putBoolean("exactSearch", exactSearch);
+    }
+
+    /**
+     * get a boolean representing whether full euclidean scans abandon a word
+     * once it cannot beat the current k-th best distance (defaults to false)
+     * 
+     * @return whether full euclidean scans abandon words early
+     */
+    public boolean getEarlyAbandon() {
+        return this.preferences.getBoolean("earlyAbandon", false);
+    }
+
+    /**
+     * set and store whether full euclidean scans abandon words early
+     * 
+     * @param earlyAbandon - whether full euclidean scans abandon words early
+     */
+    private void setEarlyAbandon(boolean earlyAbandon) {
+        this.preferences.putBoolean("earlyAbandon", earlyAbandon);
+    }
+
+    /**
+     * get a boolean representing whether searches only return words made of
+     * letters (defaults to false)
+     * 
+     * @return whether searches only return alphabetic words
+     */
+    public boolean getAlphabeticFilter() {
+        return this.preferences.getBoolean("alphabeticFilter", false);
+    }
+
+    /**
+     * set and store whether searches only return words made of letters
+     * 
+     * @param alphabeticFilter - whether searches only return alphabetic words
+     */
+    private void setAlphabeticFilter(boolean alphabeticFilter) {
+        this.preferences.putBoolean("alphabeticFilter", alphabeticFilter);
+    }
+
+    /**
+     * get a boolean representing whether searches leave the searched-for words
+     * out of their results (defaults to false)
+     * 
+     * @return whether searches exclude the query words
+     */
+    public boolean getExcludeQueryWords() {
+        return this.preferences.getBoolean("excludeQueryWords", false);
+    }
+
+    /**
+     * set and store whether searches leave the searched-for words out of their
+     * results
+     * 
+     * @param excludeQueryWords - whether searches exclude the query words
+     */
+    private void setExcludeQueryWords(boolean excludeQueryWords) {
+        this.preferences.putBoolean("excludeQueryWords", excludeQueryWords);
+    }
+
+    /**
+     * get the stored maximum number of words loaded from a words-embeddings file,
+     * the most frequent first (defaults to 0: every word)
+     * 
+     * @return the maximum number of words to load, or 0 for every word
+     */
+    public int getMaxWords() {
+        return this.preferences.getInt("maxWords", 0);
+    }
+
+    /**
+     * set and store the maximum number of words loaded from a words-embeddings
+     * file
+     * 
+     * @param maxWords - the maximum number of words to load, or 0 for every word
+     */
+    private void setMaxWords(int maxWords) {
+        this.preferences.putInt("maxWords", maxWords);
+    }
+
+    /**
+     * get the stored number of most frequent words (the head tier) searched
+     * before the rest (defaults to 0: searches are not tiered)
+     * 
+     * @return the number of words in the head tier, or 0 for untiered searches
+     */
+    public int getTierWords() {
+        return this.preferences.getInt("tierWords", 0);
+    }
+
+    /**
+     * set and store the number of most frequent words (the head tier) searched
+     * before the rest
+     * 
+     * @param tierWords - the number of words in the head tier, or 0 for untiered
+     *                  searches
+     */
+    private void setTierWords(int tierWords) {
+        this.preferences.putInt("tierWords", tierWords);
+    }
+
+    /**
+     * get the stored score every head-tier result must reach before a tiered
+     * search stops at the head (defaults to NaN: no threshold)
+     * 
+     * @return the head tier's score threshold, or NaN for none
+     */
+    public double getTierScoreThreshold() {
+        return this.preferences.getDouble("tierScoreThreshold", Double.NaN);
+    }
+
+    /**
+     * set and store the score every head-tier result must reach before a tiered
+     * search stops at the head
+     * 
+     * @param threshold - the head tier's score threshold, or NaN for none
+     */
+    private void setTierScoreThreshold(double threshold) {
+        this.preferences.putDouble("tierScoreThreshold", threshold);
+    }
+
+    /**
+     * get the row filter for a search, from the filter settings: only alphabetic
+     * words (built once, and cached by the WordsEmbeddings), and/or every word
+     * but the query words
+     * 
+     * @param queryWords - the words searched for, left out of the results if set
+     * @return the filter, or null if no filter is set
+     * @throws Exception
+     */
+    public RowFilter getSearchFilter(String... queryWords) throws Exception {
+        RowFilter filter = getAlphabeticFilter()
+                ? getWordsEmbeddings().getFilter(WordsEmbeddings.ALPHABETIC_FILTER)
+                : null;
+
+        if (getExcludeQueryWords() && queryWords.length > 0) {
+            RowFilter excluding = getWordsEmbeddings().createFilter(queryWords, false);
+            filter = filter == null ? excluding : filter.and(excluding);
+        }
+
+        return filter;
+    }
+
+    /**
+     * get the rows of the query words of a batched search, each to be left out
+     * of its own query's results, if the query words are excluded (the batch
+     * shares one filter, from getSearchFilter(), without the query words)
+     * 
+     * @param queryWords - the words searched for, one per query
+     * @return one row per query word, or null if the query words are not
+     *         excluded
+     * @throws Exception if a query word is not found
+     */
+    public int[] getExcludedRows(String... queryWords) throws Exception {
+        if (!getExcludeQueryWords())
+            return null;
+
+        int[] rows = new int[queryWords.length];
+        for (int q = 0; q < queryWords.length; q++)
+            rows[q] = getWordsEmbeddings().getWordIndex(queryWords[q]);
+
+        return rows;
+    }
+
     /**
      * format the search parameter used for display as a heading, along with other
      * relevant settings
@@ -199,7 +549,8 @@ public class SettingsMenu {
 
     /**
      * neatly print the most recently searched-for WordsEmbeddings matches to the
-     * stored data-output file
+     * stored data-output file; if the search abandoned words early, the number of
+     * skipped features is printed to the terminal only
      * 
      * @param dataHeadingText - text representing the search value(s) used, to
      *                        appear in the heading, along with other heading info
@@ -207,24 +558,72 @@ public class SettingsMenu {
      * @throws Exception
      */
     public void printDataOutput(String dataHeadingText, boolean similar) throws Exception {
-        BufferedWriter dataOutputBufferedWriter = getDataOutputBufferedWriter();
+        printDataOutput(dataHeadingText, similar, getWordsEmbeddings().getPreviousSimilarWords(),
+                getWordsEmbeddings().getPreviousSimilarWordsScores());
+
+        long skippedFeatures = getWordsEmbeddings().getPreviousSkippedFeatures();
+        if (skippedFeatures >= 0) {
+            long totalFeatures = (long) getWordsEmbeddings().getPreviousSearchedWords()
+                    * getWordsEmbeddings().getNumberOfFeatures();
+            ConsolePrint.printInfo(String.format("Early abandoning skipped %d of %d features (%.1f%%)",
+                    skippedFeatures, totalFeatures, 100.0 * skippedFeatures / Math.max(totalFeatures, 1)));
+        }
+    }
 
-        String heading = getSettingsAsHeading(dataHeadingText, similar);
+    /**
+     * neatly print one set of WordsEmbeddings matches, e.g. one query of a
+     * batched search, to the stored data-output file
+     * 
+     * @param dataHeadingText - text representing the search value(s) used, to
+     *                        appear in the heading, along with other heading info
+     * @param similar         - were similarities or dissimilarities found?
+     * @param words           - the matching words, best first
+     * @param scores          - the matching words' scores, in the same order
+     * @throws Exception
+     */
+    public void printDataOutput(String dataHeadingText, boolean similar, String[] words, double[] scores)
+            throws Exception {
+        writeDataOutput(getSettingsAsHeading(dataHeadingText, similar), words, scores);
+    }
+
+    /**
+     * neatly print the words of the most recent analogy search (see
+     * WordsEmbeddings.getAnalogyWords) to the stored data-output file
+     * 
+     * @param analogyText - text representing the analogy, to appear in the
+     *                    heading
+     * @param objective   - the analogy objective that was used
+     * @throws Exception
+     */
+    public void printAnalogyOutput(String analogyText, AnalogyObjective objective) throws Exception {
+        String heading = getNumberOfSimilaritiesToFind() + " ";
+        heading += getAddSimilarityScore() ? "Scores/" : "";
+        heading += "Words Completing '" + analogyText + "' using " + objective + ":";
+
+        writeDataOutput(heading, getWordsEmbeddings().getPreviousSimilarWords(),
+                getWordsEmbeddings().getPreviousSimilarWordsScores());
+    }
+
+    /**
+     * print a heading, then the words (and, if set, their scores), to the
+     * terminal and to the stored data-output file
+     */
+    private void writeDataOutput(String heading, String[] words, double[] scores) throws Exception {
+        BufferedWriter dataOutputBufferedWriter = getDataOutputBufferedWriter();
 
         ConsolePrint.printHeading(heading);
         dataOutputBufferedWriter.write(heading);
         dataOutputBufferedWriter.newLine();
 
-        for (int i = 0; i < getWordsEmbeddings().getPreviousSimilarWords().length; i++) {
+        for (int i = 0; i < words.length; i++) {
             if (getAddSimilarityScore()) {
-                double score = getWordsEmbeddings().getPreviousSimilarWordsScores()[i];
-                String formattedScore = String.format("%24.18f", score);
+                String formattedScore = String.format("%24.18f", scores[i]);
                 System.out.print(formattedScore + " ");
                 dataOutputBufferedWriter.write(formattedScore + " ");
             }
 
-            System.out.print(getWordsEmbeddings().getPreviousSimilarWords()[i]);
-            dataOutputBufferedWriter.write(getWordsEmbeddings().getPreviousSimilarWords()[i]);
+            System.out.print(words[i]);
+            dataOutputBufferedWriter.write(words[i]);
 
             System.out.println();
             dataOutputBufferedWriter.newLine();
@@ -264,6 +663,21 @@ public class SettingsMenu {
                 case OUTPUT_FILE -> specifyNewDataOutputFileName();
                 case TOGGLE_APPEND -> toggleAppendDataOutputFile();
                 case EMPTY_OUTPUT_FILE -> emptyDataOutputFile();
+                case TOGGLE_NORMALIZED -> toggleNormalizeEmbeddings();
+                case TOGGLE_PRECISION -> toggleEmbeddingsPrecision();
+                case TOGGLE_OFF_HEAP -> toggleOffHeapEmbeddings();
+                case TOGGLE_VERIFY_SNAPSHOT -> toggleVerifySnapshot();
+                case PARALLELISM -> specifyParallelism();
+                case PARALLEL_THRESHOLD -> specifyParallelThreshold();
+                case SEARCH_INDEX -> specifySearchIndex();
+                case INDEX_PARAMETERS -> specifyIndexParameter();
+                case TOGGLE_EXACT_SEARCH -> toggleExactSearch();
+                case TOGGLE_EARLY_ABANDON -> toggleEarlyAbandon();
+                case TOGGLE_ALPHABETIC_FILTER -> toggleAlphabeticFilter();
+                case TOGGLE_EXCLUDE_QUERY_WORDS -> toggleExcludeQueryWords();
+                case MAX_WORDS -> specifyMaxWords();
+                case TIERED_SEARCH -> specifyTieredSearch();
+                case SAVE_SNAPSHOT -> saveSnapshot();
                 case RESET -> resetSettings();
                 case PRINT -> printSettings();
                 case QUIT -> quitSettings();
@@ -281,8 +695,10 @@ public class SettingsMenu {
 
     /**
      * check if a words-embeddings file was loaded and, if not, offer to load one;
-     * also apply the currently-set similarity algorithm to the current
-     * WordsEmbeddings class
+     * also apply the currently-set similarity algorithm, parallel search and
+     * search index settings to the current WordsEmbeddings class (building the
+     * search index, if it, its build parameters, or - for an index built for one
+     * similarity algorithm - the algorithm changed)
      * 
      * @throws Exception
      */
@@ -291,10 +707,26 @@ public class SettingsMenu {
             loadNewWordsEmbeddingsFile();
 
         this.wordsEmbeddings.setSimilarityAlgorithm(getSimilarityAlgorithm());
+        this.wordsEmbeddings.setParallelism(getParallelism());
+        this.wordsEmbeddings.setParallelThreshold(getParallelThreshold());
+
+        for (IndexParameter parameter : IndexParameter.values())
+            this.wordsEmbeddings.getIndexParameters().set(parameter, getIndexParameter(parameter));
+
+        this.wordsEmbeddings.setExactSearch(getExactSearch());
+        this.wordsEmbeddings.setEarlyAbandon(getEarlyAbandon());
+        this.wordsEmbeddings.setTierWords(getTierWords());
+        this.wordsEmbeddings.setTierScoreThreshold(getTierScoreThreshold());
+
+        if (this.wordsEmbeddings.needsSearchIndexBuild(getSearchIndexType())) {
+            ConsolePrint.printInfo("Building search index: " + getSearchIndexType());
+            this.wordsEmbeddings.setSearchIndexType(getSearchIndexType());
+        }
     }
 
     /**
-     * load a new words-embeddings file from user text-input in the terminal
+     * load a new words-embeddings file from user text-input in the terminal; the
+     * previously loaded file is kept if the new one cannot be loaded
      * 
      * @throws Exception
      */
@@ -303,11 +735,33 @@ public class SettingsMenu {
 
         String wordsEmbeddingsFileName = scanFileName(getWordsEmbeddingsFileName());
 
-        this.wordsEmbeddings = new WordsEmbeddings(wordsEmbeddingsFileName);
+        LoadOptions loadOptions = new LoadOptions();
+        loadOptions.setNormalized(getNormalizeEmbeddings());
+        loadOptions.setPrecision(getEmbeddingsPrecision());
+        loadOptions.setOffHeap(getOffHeapEmbeddings());
+        loadOptions.setVerifySnapshot(getVerifySnapshot());
+        loadOptions.setParallelism(getParallelism());
+        loadOptions.setMaxWords(getMaxWords());
+        loadOptions.setSearchIndexType(getSearchIndexType());
+
+        for (IndexParameter parameter : IndexParameter.values())
+            loadOptions.getIndexParameters().set(parameter, getIndexParameter(parameter));
+
+        WordsEmbeddings loadedWordsEmbeddings = new WordsEmbeddings(wordsEmbeddingsFileName, loadOptions);
+
+        // release the previous file only once the new one has loaded, so a failed
+        // load keeps it
+        if (this.wordsEmbeddings != null)
+            this.wordsEmbeddings.close();
+
+        this.wordsEmbeddings = loadedWordsEmbeddings;
 
         setWordsEmbeddingsFileName(wordsEmbeddingsFileName);
 
-        ConsolePrint.printInfo("Words-Embeddings file loaded: " + wordsEmbeddingsFileName);
+        if (this.wordsEmbeddings.isSnapshot())
+            ConsolePrint.printInfo("Words-Embeddings snapshot loaded: " + wordsEmbeddingsFileName);
+        else
+            ConsolePrint.printInfo("Words-Embeddings file loaded: " + wordsEmbeddingsFileName);
     }
 
     /**
@@ -345,6 +799,135 @@ public class SettingsMenu {
         ConsolePrint.printInfo("Similarity Algorithm set to: " + algorithm);
     }
 
+    /**
+     * prompt user to enter the number of threads used by parallel similarity
+     * searches, and store the input value
+     * 
+     * @throws Exception
+     */
+    private void specifyParallelism() throws Exception {
+        ConsolePrint.printHeading("Specify Number of Parallel Search Threads");
+        ConsolePrint.printInfo("Available processors: " + Runtime.getRuntime().availableProcessors()
+                + " (1 disables parallel searches)");
+
+        int parallelism = scanPositiveInteger(getParallelism());
+
+        setParallelism(parallelism);
+
+        ConsolePrint.printInfo("Number of Parallel Search Threads is set to: " + parallelism);
+    }
+
+    /**
+     * prompt user to enter the minimum number of words needed for a similarity
+     * search to run in parallel, and store the input value
+     * 
+     * @throws Exception
+     */
+    private void specifyParallelThreshold() throws Exception {
+        ConsolePrint.printHeading("Specify Minimum Words for Parallel Search");
+
+        int threshold = scanPositiveInteger(getParallelThreshold());
+
+        setParallelThreshold(threshold);
+
+        ConsolePrint.printInfo("Minimum Words for Parallel Search is set to: " + threshold);
+    }
+
+    /**
+     * prompt user to enter the maximum number of words loaded from a
+     * words-embeddings file, and store the input value
+     * 
+     * @throws Exception
+     */
+    private void specifyMaxWords() throws Exception {
+        ConsolePrint.printHeading("Specify Maximum Words to Load");
+        ConsolePrint.printInfo("Words-embeddings files list the most frequent words first"
+                + " (0 loads every word; applies when the next file is loaded)");
+
+        int maxWords = scanNonNegativeInteger(getMaxWords());
+
+        setMaxWords(maxWords);
+
+        ConsolePrint.printInfo("Maximum Words to Load is set to: " + (maxWords == 0 ? "every word" : maxWords));
+    }
+
+    /**
+     * prompt user to enter the number of most frequent words searched first, and
+     * the score their results must reach for a search to stop there; and store
+     * the input values
+     * 
+     * @throws Exception
+     */
+    private void specifyTieredSearch() throws Exception {
+        ConsolePrint.printHeading("Specify Tiered Search");
+        ConsolePrint.printInfo("Similar-word scans search the most frequent words first, and the rest only"
+                + " if needed (0 searches every word)");
+
+        int tierWords = scanNonNegativeInteger(getTierWords());
+
+        setTierWords(tierWords);
+
+        if (tierWords == 0) {
+            ConsolePrint.printInfo("Tiered Search is off");
+            return;
+        }
+
+        ConsolePrint.printInfo("The rest are searched if a result from the first " + tierWords
+                + " words scores worse than a threshold (hit ENTER for no threshold)");
+
+        double threshold = scanOptionalDouble(getTierScoreThreshold());
+
+        setTierScoreThreshold(threshold);
+
+        ConsolePrint.printInfo("Tiered Search is set to: " + formatTieredSearch());
+    }
+
+    /**
+     * prompt user to choose the search index used by similarity searches, and
+     * store the input value (the index is built before the next search)
+     * 
+     * @throws Exception
+     */
+    private void specifySearchIndex() throws Exception {
+        SearchIndexMenuItem.printTitle();
+        SearchIndexMenuItem.printOptions();
+
+        String input = this.inputScanner.nextLine();
+
+        SearchIndexType type = SearchIndexMenuItem.valueOfKey(input);
+
+        setSearchIndexType(type);
+
+        ConsolePrint.printInfo("Similarity Search Index set to: " + type);
+    }
+
+    /**
+     * prompt user to choose a search index parameter and enter its new value, and
+     * store the input value
+     * 
+     * @throws Exception if the value is out of the parameter's range
+     */
+    private void specifyIndexParameter() throws Exception {
+        IndexParameterMenuItem.printTitle();
+        IndexParameterMenuItem.printOptions();
+
+        IndexParameter parameter = IndexParameterMenuItem.valueOfKey(this.inputScanner.nextLine());
+
+        ConsolePrint.printHeading("Specify " + parameter);
+        ConsolePrint.printInfo("Current value: " + getIndexParameter(parameter) + " (from "
+                + parameter.getMinimum() + " to " + parameter.getMaximum() + ")");
+
+        int value = scanPositiveInteger(getIndexParameter(parameter));
+
+        if (value < parameter.getMinimum() || value > parameter.getMaximum())
+            throw new Exception(parameter + " must be between " + parameter.getMinimum() + " and "
+                    + parameter.getMaximum() + ". Using previous value: " + getIndexParameter(parameter));
+
+        setIndexParameter(parameter, value);
+
+        ConsolePrint.printInfo(parameter + " is set to: " + value);
+    }
+
     /**
      * method that gives a consistent way to ask user for a file name; provides
      * option to hit ENTER for a default file name
@@ -398,6 +981,138 @@ public class SettingsMenu {
 
     }
 
+    /**
+     * prompt user to enter an integer greater than 0
+     * 
+     * @param previousValue - the value that is kept if the input is invalid
+     * @return the user-defined integer
+     * @throws Exception if the input is not an integer greater than 0
+     */
+    private int scanPositiveInteger(int previousValue) throws Exception {
+        try {
+
+            System.out.print("Enter an integer (greater than 0): ");
+            String input = this.inputScanner.nextLine();
+
+            int number = Integer.parseInt(input);
+
+            if (number < 1)
+                throw new Exception("Number must be greater than 0");
+
+            return number;
+
+        } catch (NumberFormatException e) {
+            throw new Exception("Invalid number. Using previous value: " + previousValue);
+        }
+    }
+
+    /**
+     * prompt user to enter an integer of 0 or more
+     * 
+     * @param previousValue - the value that is kept if the input is invalid
+     * @return the user-defined integer
+     * @throws Exception if the input is not an integer of 0 or more
+     */
+    private int scanNonNegativeInteger(int previousValue) throws Exception {
+        try {
+
+            System.out.print("Enter an integer (0 or more): ");
+            String input = this.inputScanner.nextLine();
+
+            int number = Integer.parseInt(input);
+
+            if (number < 0)
+                throw new Exception("Number must be 0 or more");
+
+            return number;
+
+        } catch (NumberFormatException e) {
+            throw new Exception("Invalid number. Using previous value: " + previousValue);
+        }
+    }
+
+    /**
+     * prompt user to enter a decimal number, or hit ENTER for none
+     * 
+     * @param previousValue - the value that is kept if the input is invalid
+     * @return the user-defined number, or NaN if ENTER was hit
+     * @throws Exception if the input is not a number
+     */
+    private double scanOptionalDouble(double previousValue) throws Exception {
+        try {
+
+            System.out.print("Enter a number (or hit ENTER for none): ");
+            String input = this.inputScanner.nextLine().trim();
+
+            if (input.isEmpty())
+                return Double.NaN;
+
+            double number = Double.parseDouble(input);
+
+            if (Double.isNaN(number) || Double.isInfinite(number))
+                throw new NumberFormatException();
+
+            return number;
+
+        } catch (NumberFormatException e) {
+            throw new Exception("Invalid number. Using previous value: " + previousValue);
+        }
+    }
+
+    /**
+     * toggle a boolean defining whether similarity searches bypass the search
+     * index, and scan every word exactly; and store the value
+     * 
+     * @throws Exception
+     */
+    private void toggleExactSearch() throws Exception {
+        setExactSearch(!getExactSearch());
+
+        if (getExactSearch())
+            ConsolePrint.printInfo("Similarity searches will scan every word exactly");
+        else
+            ConsolePrint.printInfo("Similarity searches will use the search index: " + getSearchIndexType());
+    }
+
+    /**
+     * toggle a boolean defining whether full euclidean scans abandon a word once
+     * it cannot beat the current k-th best distance; and store the value
+     */
+    private void toggleEarlyAbandon() {
+        setEarlyAbandon(!getEarlyAbandon());
+
+        if (getEarlyAbandon())
+            ConsolePrint.printInfo("Euclidean scans for similar words will abandon words early");
+        else
+            ConsolePrint.printInfo("Euclidean scans for similar words will score every feature of every word");
+    }
+
+    /**
+     * toggle a boolean defining whether searches only return words made of
+     * letters; and store the value
+     */
+    private void toggleAlphabeticFilter() {
+        setAlphabeticFilter(!getAlphabeticFilter());
+
+        if (getAlphabeticFilter())
+            ConsolePrint.printInfo("Searches will only return words made of letters");
+        else
+            ConsolePrint.printInfo("Searches will return words of any characters");
+    }
+
+    /**
+     * toggle a boolean defining whether searches leave the searched-for words out
+     * of their results; and store the value
+     */
+    private void toggleExcludeQueryWords() {
+        setExcludeQueryWords(!getExcludeQueryWords());
+
+        if (getExcludeQueryWords())
+            ConsolePrint.printInfo("Searches will leave the searched-for words out of their results");
+        else
+            ConsolePrint.printInfo("Searches may return the searched-for words");
+    }
+
     /**
      * toggle a boolean defining whether or not to use similarity score in the data
      * output; and store the value
@@ -460,6 +1175,90 @@ public class SettingsMenu {
         ConsolePrint.printInfo("Data-Output file is now empty: " + getDataOutputFileName());
     }
 
+    /**
+     * toggle a boolean defining whether word vectors are stored L2-normalized,
+     * which makes cosine similarity searches a plain dot-product scan; and store
+     * the value (it applies when the next words-embeddings file is loaded)
+     */
+    private void toggleNormalizeEmbeddings() {
+        setNormalizeEmbeddings(!getNormalizeEmbeddings());
+
+        if (getNormalizeEmbeddings())
+            ConsolePrint.printInfo("Word vectors will be L2-normalized when the next file is loaded");
+        else
+            ConsolePrint.printInfo("Word vectors will be stored as-is when the next file is loaded");
+    }
+
+    /**
+     * toggle the number type used to store word vectors between 64-bit doubles
+     * and 32-bit floats (half the memory); and store the value (it applies when
+     * the next words-embeddings file is loaded)
+     * 
+     * @throws Exception
+     */
+    private void toggleEmbeddingsPrecision() throws Exception {
+        Precision precision = getEmbeddingsPrecision() == Precision.FLOAT64 ? Precision.FLOAT32
+                : Precision.FLOAT64;
+
+        setEmbeddingsPrecision(precision);
+
+        ConsolePrint.printInfo("Word vectors will be stored as " + precision + " values when the next file is loaded");
+    }
+
+    /**
+     * toggle a boolean defining whether word vectors are stored outside the Java
+     * heap (memory-mapped, for snapshot files); and store the value (it applies
+     * when the next words-embeddings file is loaded)
+     */
+    private void toggleOffHeapEmbeddings() {
+        setOffHeapEmbeddings(!getOffHeapEmbeddings());
+
+        if (getOffHeapEmbeddings())
+            ConsolePrint.printInfo("Word vectors will be stored off-heap when the next file is loaded");
+        else
+            ConsolePrint.printInfo("Word vectors will be stored on the Java heap when the next file is loaded");
+    }
+
+    /**
+     * toggle a boolean defining whether a snapshot's word vectors are checked
+     * against their checksum when it is loaded; and store the value (it applies
+     * when the next snapshot is loaded)
+     */
+    private void toggleVerifySnapshot() {
+        setVerifySnapshot(!getVerifySnapshot());
+
+        if (getVerifySnapshot())
+            ConsolePrint.printInfo("Snapshot word vectors will be checked when the next snapshot is loaded");
+        else
+            ConsolePrint.printInfo("Snapshot word vectors will not be checked when the next snapshot is loaded"
+                    + " (memory-mapped snapshots then load without reading every page)");
+    }
+
+    /**
+     * save the loaded words-embeddings as a binary snapshot, to a file name from
+     * user text-input in the terminal; snapshot files are detected automatically
+     * when they are loaded
+     * 
+     * @throws Exception if no words-embeddings file can be loaded, or the
+     *                   snapshot cannot be written
+     */
+    private void saveSnapshot() throws Exception {
+        ConsolePrint.printHeading("Save Binary Snapshot");
+
+        if (this.wordsEmbeddings == null)
+            loadNewWordsEmbeddingsFile();
+
+        String snapshotFileName = scanFileName(this.wordsEmbeddings.getFileName().replaceFirst("\\.[^.\\\\/]*$", "")
+                + ".snapshot");
+
+        if (snapshotFileName.equals(this.wordsEmbeddings.getFileName()))
+            throw new Exception("Cannot overwrite the loaded words-embeddings file: " + snapshotFileName);
+
+        this.wordsEmbeddings.saveSnapshot(snapshotFileName);
+
+        ConsolePrint.printInfo("Words-Embeddings snapshot saved: " + snapshotFileName);
+    }
+
     /**
      * reset all settings to their defaults by clearing the preferences
      * 
@@ -488,9 +1287,41 @@ public class SettingsMenu {
         ConsolePrint.printInfo("Append/Overwrite Mode: " + appendOverwrite);
         ConsolePrint.printInfo("Include Similarity Score: " + getAddSimilarityScore());
         ConsolePrint.printInfo("Similarity Algorithm: " + getSimilarityAlgorithm());
+        ConsolePrint.printInfo("Normalized Embeddings: " + getNormalizeEmbeddings());
+        ConsolePrint.printInfo("Embeddings Storage: " + getEmbeddingsPrecision()
+                + (getOffHeapEmbeddings() ? ", off-heap" : ", on-heap"));
+        ConsolePrint.printInfo("Snapshot Word-Vector Checksum: " + getVerifySnapshot());
+        ConsolePrint.printInfo("Parallel Search: " + getParallelism() + " thread(s) for "
+                + getParallelThreshold() + "+ words");
+        ConsolePrint.printInfo("Search Index: " + getSearchIndexType()
+                + (getExactSearch() ? " (bypassed: exact search)" : ""));
+        ConsolePrint.printInfo("Early-Abandoning Euclidean Scans: " + getEarlyAbandon());
+        ConsolePrint.printInfo("Alphabetic-Words-Only Search Filter: " + getAlphabeticFilter());
+        ConsolePrint.printInfo("Exclude Query Words from Search Results: " + getExcludeQueryWords());
+        ConsolePrint.printInfo("Maximum Words to Load: " + (getMaxWords() == 0 ? "every word" : getMaxWords()));
+        ConsolePrint.printInfo("Tiered Search: " + formatTieredSearch());
+        for (IndexParameter parameter : IndexParameter.values())
+            ConsolePrint.printInfo(parameter + ": " + getIndexParameter(parameter));
         System.out.println();
     }
 
+    /**
+     * describe the tiered search settings, e.g. "first 50000 words, then the rest
+     * if a result scores worse than 0.5"
+     * 
+     * @return the tiered search settings as text
+     */
+    private String formatTieredSearch() {
+        if (getTierWords() == 0)
+            return "off";
+
+        String tiers = "first " + getTierWords() + " words, then the rest";
+
+        return Double.isNaN(getTierScoreThreshold())
+                ? tiers + " if fewer results are found"
+                : tiers + " if a result scores worse than " + getTierScoreThreshold();
+    }
+
     /**
      * allow settings loop to stop running by toggling 'keepSettingsOpen' boolean
      */
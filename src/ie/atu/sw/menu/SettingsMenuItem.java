@@ -14,6 +14,21 @@ public enum SettingsMenuItem {
     OUTPUT_FILE("Specify Data-Output File", null),
     TOGGLE_APPEND("Toggle Append/Overwrite Data-Output File", null),
     EMPTY_OUTPUT_FILE("Empty the Output File", null),
+    TOGGLE_NORMALIZED("Toggle Normalized Embeddings (applies on load)", null),
+    TOGGLE_PRECISION("Toggle 64-bit/32-bit Embeddings Storage (applies on load)", null),
+    TOGGLE_OFF_HEAP("Toggle Off-Heap Embeddings Storage (applies on load)", null),
+    TOGGLE_VERIFY_SNAPSHOT("Toggle Snapshot Word-Vector Checksum (applies on load)", null),
+    PARALLELISM("Number of Parallel Search and Load Threads", null),
+    PARALLEL_THRESHOLD("Minimum Words for Parallel Search", null),
+    SEARCH_INDEX("Similarity Search Index", null),
+    INDEX_PARAMETERS("Search Index Parameters", null),
+    TOGGLE_EXACT_SEARCH("Toggle Exact Search (bypass the search index)", null),
+    TOGGLE_EARLY_ABANDON("Toggle Early-Abandoning Euclidean Scans", null),
+    TOGGLE_ALPHABETIC_FILTER("Toggle Alphabetic-Words-Only Search Filter", null),
+    TOGGLE_EXCLUDE_QUERY_WORDS("Toggle Excluding Query Words from Search Results", null),
+    MAX_WORDS("Maximum Words to Load (applies on load)", null),
+    TIERED_SEARCH("Tiered Search: Head Words and Score Threshold", null),
+    SAVE_SNAPSHOT("Save Loaded Embeddings as a Binary Snapshot", null),
     RESET("Reset Settings to Defaults", null),
     PRINT("Print Current Settings", null),
     QUIT("Close Settings", "q");
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.util.Scanner;
 
 import ie.atu.sw.console.ConsolePrint;
+import ie.atu.sw.embeddings.WordExpression;
+import ie.atu.sw.util.AnalogyObjective;
 
 /**
  * handle user interactions which perform vector operations on words, and
@@ -51,7 +53,9 @@ public class WordCalculatorMenu {
         this.currentEmbedding = this.settingsMenu.getWordsEmbeddings().getWordEmbedding(input);
         settingsMenu.getWordsEmbeddings().getSimilarWords(
                 this.currentEmbedding,
-                settingsMenu.getNumberOfSimilaritiesToFind());
+                settingsMenu.getNumberOfSimilaritiesToFind(),
+                true,
+                settingsMenu.getSearchFilter());
 
         settingsMenu.printDataOutput(this.currentWordCalculation.toString(), true);
 
@@ -103,6 +107,9 @@ public class WordCalculatorMenu {
                             input);
                     calculateAndPrintOutput(" / " + input);
                 }
+                case EXPRESSION -> launchExpression();
+                case ANALOGY_ADD -> launchAnalogy(AnalogyObjective.THREE_COS_ADD);
+                case ANALOGY_MUL -> launchAnalogy(AnalogyObjective.THREE_COS_MUL);
                 case QUIT -> quitWordCalculator();
             }
 
@@ -146,11 +153,65 @@ public class WordCalculatorMenu {
 
         settingsMenu.getWordsEmbeddings().getSimilarWords(
                 this.currentEmbedding,
-                settingsMenu.getNumberOfSimilaritiesToFind());
+                settingsMenu.getNumberOfSimilaritiesToFind(),
+                true,
+                settingsMenu.getSearchFilter());
 
         settingsMenu.printDataOutput(this.currentWordCalculation.toString(), true);
     }
 
+    /**
+     * prompt user for a whole expression, e.g. "king - man + woman * 0.5", and
+     * compile it (see WordExpression); its result replaces the current
+     * calculation, and further operations apply to it
+     * 
+     * @throws Exception if the expression is malformed, or a word is not found
+     */
+    private void launchExpression() throws Exception {
+        System.out.print("Enter an expression: ");
+
+        String input = this.inputScanner.nextLine().trim().replaceAll("[\s]+", " ").toLowerCase();
+        ConsolePrint.printInfo("Interpreting input as: '" + input + "'");
+
+        WordExpression expression = this.settingsMenu.getWordsEmbeddings().compileExpression(input);
+        this.currentEmbedding = expression.evaluate().clone();
+
+        this.currentWordCalculation.setLength(0);
+        calculateAndPrintOutput(input);
+    }
+
+    /**
+     * prompt user for the three words of an analogy, "a is to b as c is to ?",
+     * and print the words that best complete it (excluding the three words),
+     * scored in one pass over the word vectors; the current calculation is left
+     * unchanged
+     * 
+     * @param objective - how to combine the similarities to the three words
+     * @throws Exception if the input is not three words, or a word is not found
+     */
+    private void launchAnalogy(AnalogyObjective objective) throws Exception {
+        System.out.print("Enter three words, a b c (a is to b as c is to ?): ");
+
+        String input = this.inputScanner.nextLine();
+        String[] words = input.trim().replaceAll("[\s]+", " ").toLowerCase().split(" ");
+
+        if (words.length != 3)
+            throw new Exception("An analogy needs exactly three words");
+
+        String analogy = words[0] + " : " + words[1] + " :: " + words[2] + " : ?";
+        ConsolePrint.printInfo("Interpreting input as: '" + analogy + "'");
+
+        this.settingsMenu.getWordsEmbeddings().getAnalogyWords(
+                words[0],
+                words[1],
+                words[2],
+                this.settingsMenu.getNumberOfSimilaritiesToFind(),
+                objective,
+                this.settingsMenu.getSearchFilter());
+
+        this.settingsMenu.printAnalogyOutput(analogy, objective);
+    }
+
     /**
      * allow settings loop to stop running by toggling 'keepWordCalculatorOpen'
      * boolean
@@ -11,6 +11,9 @@ public enum WordCalculatorMenuItem {
     SUBTRACT("Subtract", "-"),
     MULTIPLY("Multiply", "*"),
     DIVIDE("Divide", "/"),
+    EXPRESSION("Expression (e.g. king - man + woman * 0.5; replaces the calculation)", "e"),
+    ANALOGY_ADD("Analogy, 3CosAdd (a is to b as c is to ?)", "a"),
+    ANALOGY_MUL("Analogy, 3CosMul (a is to b as c is to ?)", "m"),
     QUIT("Close Word Calculator", "q");
 
     public final String key;
@@ -0,0 +1,74 @@
+package ie.atu.sw.util;
+
+/**
+ * <p>
+ * enum defining the objectives of an analogy query ("a is to b as c is to ?"):
+ * each combines a candidate word's cosine similarities to the positive terms
+ * (b and c) and to the negative terms (a) into one score, where larger is
+ * better
+ * </p>
+ * <p>
+ * 3CosAdd ranks candidates as cosine similarity to b - a + c would, with each
+ * term L2-normalized first; 3CosMul multiplies the similarities (shifted to
+ * [0, 1]) instead, so one large similarity cannot make up for a small one
+ * (Levy and Goldberg, 2014), and has no single query vector
+ * </p>
+ */
+public enum AnalogyObjective {
+    THREE_COS_ADD("3CosAdd") {
+        @Override
+        public double score(double[] cosines, int numberOfPositives) {
+            double score = 0.0;
+
+            for (int i = 0; i < cosines.length; i++)
+                score += i < numberOfPositives ? cosines[i] : -cosines[i];
+
+            return score;
+        }
+    },
+    THREE_COS_MUL("3CosMul") {
+        @Override
+        public double score(double[] cosines, int numberOfPositives) {
+            double positive = 1.0;
+            double negative = 1.0;
+
+            for (int i = 0; i < cosines.length; i++) {
+                double shifted = (cosines[i] + 1.0) / 2.0;
+
+                if (i < numberOfPositives)
+                    positive *= shifted;
+                else
+                    negative *= shifted;
+            }
+
+            return positive / (negative + EPSILON);
+        }
+    };
+
+    /**
+     * stops 3CosMul from dividing by zero when a candidate is opposite to a
+     * negative term
+     */
+    public static final double EPSILON = 0.001;
+
+    private String name;
+
+    AnalogyObjective(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * combine a candidate's cosine similarities to the terms of an analogy
+     *
+     * @param cosines           - the cosine similarities to the positive terms,
+     *                          then to the negative terms
+     * @param numberOfPositives - the number of positive terms
+     * @return the candidate's score, larger is better
+     */
+    public abstract double score(double[] cosines, int numberOfPositives);
+}
@@ -14,19 +14,7 @@ public class Array {
      * @throws Exception if the array length is shorter than 'howMany'
      */
     public static int[] getMaxValuesIndexes(double[] array, int howMany) throws Exception {
-        if (howMany > array.length)
-            throw new Exception(
-                    "Can't find largest " + howMany + " elements of array with length of " + array.length);
-
-        int[] maxValuesIndexes = new int[howMany];
-
-        double[] arrayCopy = new double[array.length];
-        System.arraycopy(array, 0, arrayCopy, 0, array.length);
-
-        for (int i = 0; i < maxValuesIndexes.length; i++)
-            maxValuesIndexes[i] = getMaxValueIndex(arrayCopy);
-
-        return maxValuesIndexes;
+        return getTopValuesIndexes(array, howMany, true);
     }
 
     /**
@@ -58,19 +46,31 @@ public class Array {
      * @throws Exception if the array length is shorter than 'howMany'
      */
     public static int[] getMinValuesIndexes(double[] array, int howMany) throws Exception {
-        if (howMany > array.length)
-            throw new Exception(
-                    "Can't find smallest " + howMany + " elements of array with length of " + array.length);
+        return getTopValuesIndexes(array, howMany, false);
+    }
 
-        int[] minValuesIndexes = new int[howMany];
+    /**
+     * find the indexes of 'howMany' maximum-or-minimum values of an array, in a
+     * single pass, using a TopK selector (equal values are ordered by lowest index
+     * first)
+     * 
+     * @param array   - the array to search
+     * @param howMany - how many results to search for
+     * @param largest - search for maximum (true) or minimum (false) values
+     * @return an array of the searched for indexes, best first
+     * @throws Exception if the array length is shorter than 'howMany'
+     */
+    public static int[] getTopValuesIndexes(double[] array, int howMany, boolean largest) throws Exception {
+        if (howMany > array.length)
+            throw new Exception("Can't find " + (largest ? "largest " : "smallest ") + howMany
+                    + " elements of array with length of " + array.length);
 
-        double[] arrayCopy = new double[array.length];
-        System.arraycopy(array, 0, arrayCopy, 0, array.length);
+        TopK topK = new TopK(howMany, largest, array.length);
 
-        for (int i = 0; i < minValuesIndexes.length; i++)
-            minValuesIndexes[i] = getMinValueIndex(arrayCopy);
+        for (int i = 0; i < array.length; i++)
+            topK.offer(i, array[i]);
 
-        return minValuesIndexes;
+        return topK.getIndexes();
     }
 
     /**
@@ -0,0 +1,132 @@
+package ie.atu.sw.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * utility class to parse decimal numbers straight from ASCII bytes, without
+ * creating a String for each number
+ * </p>
+ * <p>
+ * plain and scientific decimals, e.g. -0.41800, 1.5e-3, with at most 18
+ * significant digits, are parsed exactly when the significand fits in a double
+ * (no more than 2^53) and the decimal exponent is within +/-22: both are then
+ * exact doubles, and one multiplication or division rounds correctly, so the
+ * result is bit-identical to Double.parseDouble; every other input (more
+ * digits, larger exponents, NaN, Infinity, hex, type suffixes, invalid text)
+ * falls back to Double.parseDouble, which also throws NumberFormatException for
+ * invalid numbers
+ * </p>
+ */
+public class DoubleParser {
+
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+    private static final int MAX_EXACT_EXPONENT = 22;
+    private static final int MAX_SIGNIFICANT_DIGITS = 18;
+
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_EXPONENT + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i <= MAX_EXACT_EXPONENT; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * parse a decimal number from a range of bytes; leading and trailing
+     * characters up to ' ' (spaces, tabs, ...) are ignored, as in
+     * Double.parseDouble
+     *
+     * @param bytes - the bytes holding the number
+     * @param start - the index of the number's first byte
+     * @param end   - the index after the number's last byte
+     * @return the parsed number, bit-identical to Double.parseDouble
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    public static double parseDouble(byte[] bytes, int start, int end) {
+        int i = start;
+
+        while (i < end && (bytes[i] & 0xFF) <= ' ')
+            i++;
+        while (end > i && (bytes[end - 1] & 0xFF) <= ' ')
+            end--;
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+'))
+            negative = bytes[i++] == '-';
+
+        long significand = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int exponent = 0;
+
+        for (; i < end && isDigit(bytes[i]); i++, digits++)
+            if (significantDigits > 0 || bytes[i] != '0') {
+                if (++significantDigits > MAX_SIGNIFICANT_DIGITS)
+                    return parseWithJdk(bytes, start, end);
+                significand = significand * 10 + (bytes[i] - '0');
+            }
+
+        if (i < end && bytes[i] == '.')
+            for (i++; i < end && isDigit(bytes[i]); i++, digits++) {
+                exponent--;
+                if (significantDigits > 0 || bytes[i] != '0') {
+                    if (++significantDigits > MAX_SIGNIFICANT_DIGITS)
+                        return parseWithJdk(bytes, start, end);
+                    significand = significand * 10 + (bytes[i] - '0');
+                }
+            }
+
+        if (digits == 0)
+            return parseWithJdk(bytes, start, end);
+
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+'))
+                negativeExponent = bytes[i++] == '-';
+
+            int exponentStart = i;
+            int explicitExponent = 0;
+            for (; i < end && isDigit(bytes[i]); i++) {
+                if (i - exponentStart >= 4)
+                    return parseWithJdk(bytes, start, end);
+                explicitExponent = explicitExponent * 10 + (bytes[i] - '0');
+            }
+
+            if (i == exponentStart)
+                return parseWithJdk(bytes, start, end);
+
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (i != end)
+            return parseWithJdk(bytes, start, end);
+
+        // drop trailing zeros, e.g. 1.00000000000000000 has a small significand
+        while (significand > MAX_EXACT_SIGNIFICAND && significand % 10 == 0) {
+            significand /= 10;
+            exponent++;
+        }
+
+        if (significand == 0)
+            return negative ? -0.0 : 0.0;
+
+        if (significand > MAX_EXACT_SIGNIFICAND || exponent < -MAX_EXACT_EXPONENT
+                || exponent > MAX_EXACT_EXPONENT)
+            return parseWithJdk(bytes, start, end);
+
+        double value = exponent < 0 ? significand / POWERS_OF_TEN[-exponent]
+                : significand * POWERS_OF_TEN[exponent];
+
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static double parseWithJdk(byte[] bytes, int start, int end) {
+        return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+    }
+}
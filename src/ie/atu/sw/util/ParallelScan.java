@@ -0,0 +1,331 @@
+package ie.atu.sw.util;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * run a top-k scan over a range of rows, either on the calling thread or split
+ * into contiguous chunks on a ForkJoin pool
+ * </p>
+ * <p>
+ * each chunk is scanned into its own local TopK, and the local results are
+ * merged as the tasks join; because TopK orders equal scores by lowest index,
+ * the merged results are exactly the same as a sequential scan
+ * </p>
+ * <p>
+ * scanBatch() splits a range of rows the same way for a batch of queries, with
+ * one local TopK per query in each chunk
+ * </p>
+ * <p>
+ * forEach() splits a range of rows the same way, for work that produces no
+ * top-k results, e.g. building a search index
+ * </p>
+ */
+public class ParallelScan {
+
+    /**
+     * the smallest number of rows given to one task; each task streams through
+     * its rows sequentially, and larger chunks amortize the local top-k merge
+     */
+    public static final int MIN_CHUNK_ROWS = 4096;
+
+    /**
+     * scan a contiguous range of rows, offering each row's score to a TopK
+     */
+    @FunctionalInterface
+    public interface RangeScanner {
+        /**
+         * @param start   - the first row to scan (inclusive)
+         * @param end     - the last row to scan (exclusive)
+         * @param results - the TopK to offer each row's score to
+         * @throws Exception
+         */
+        void scan(int start, int end, TopK results) throws Exception;
+    }
+
+    /**
+     * scan a contiguous range of rows for a batch of queries, offering each
+     * row's score for query q to the q-th TopK
+     */
+    @FunctionalInterface
+    public interface BatchScanner {
+        /**
+         * @param start   - the first row to scan (inclusive)
+         * @param end     - the last row to scan (exclusive)
+         * @param results - one TopK per query
+         * @throws Exception
+         */
+        void scan(int start, int end, TopK[] results) throws Exception;
+    }
+
+    /**
+     * process a contiguous range of rows
+     */
+    @FunctionalInterface
+    public interface RangeTask {
+        /**
+         * @param start - the first row to process (inclusive)
+         * @param end   - the last row to process (exclusive)
+         * @throws Exception
+         */
+        void run(int start, int end) throws Exception;
+    }
+
+    /**
+     * scan rows [0, numberOfRows) for the 'howMany' best scores
+     *
+     * @param pool         - the pool to scan on, or null to scan on the calling
+     *                     thread
+     * @param numberOfRows - the number of rows to scan
+     * @param howMany      - the number of results to keep
+     * @param largest      - keep the largest (true) or smallest (false) scores
+     * @param scanner      - scores a range of rows
+     * @return the best results of the whole scan
+     * @throws Exception if the scanner throws an exception
+     */
+    public static TopK scan(ForkJoinPool pool, int numberOfRows, int howMany, boolean largest,
+            RangeScanner scanner) throws Exception {
+        if (pool == null) {
+            TopK results = new TopK(howMany, largest, numberOfRows);
+            scanner.scan(0, numberOfRows, results);
+            return results;
+        }
+
+        int chunkRows = Math.max(MIN_CHUNK_ROWS, howMany * 4);
+
+        try {
+            return pool.invoke(new ScanTask(0, numberOfRows, chunkRows, howMany, largest, scanner));
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * scan rows [0, numberOfRows) for the 'howMany' best scores of each query in
+     * a batch
+     *
+     * @param pool            - the pool to scan on, or null to scan on the
+     *                        calling thread
+     * @param numberOfRows    - the number of rows to scan
+     * @param numberOfQueries - the number of queries in the batch
+     * @param howMany         - the number of results to keep per query
+     * @param largest         - keep the largest (true) or smallest (false) scores
+     * @param scanner         - scores a range of rows for every query
+     * @return the best results of the whole scan, one TopK per query
+     * @throws Exception if the scanner throws an exception
+     */
+    public static TopK[] scanBatch(ForkJoinPool pool, int numberOfRows, int numberOfQueries, int howMany,
+            boolean largest, BatchScanner scanner) throws Exception {
+        if (pool == null) {
+            TopK[] results = createBatch(numberOfQueries, howMany, largest, numberOfRows);
+            scanner.scan(0, numberOfRows, results);
+            return results;
+        }
+
+        int chunkRows = Math.max(MIN_CHUNK_ROWS, howMany * 4);
+
+        try {
+            return pool.invoke(
+                    new BatchScanTask(0, numberOfRows, chunkRows, numberOfQueries, howMany, largest, scanner));
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static TopK[] createBatch(int numberOfQueries, int howMany, boolean largest, int expectedCount) {
+        TopK[] results = new TopK[numberOfQueries];
+
+        for (int q = 0; q < numberOfQueries; q++)
+            results[q] = new TopK(howMany, largest, expectedCount);
+
+        return results;
+    }
+
+    /**
+     * process rows [0, numberOfRows) in contiguous chunks, on a pool or on the
+     * calling thread; tasks that share state must synchronize it themselves
+     *
+     * @param pool         - the pool to run on, or null to run on the calling
+     *                     thread
+     * @param numberOfRows - the number of rows to process
+     * @param task         - processes a range of rows
+     * @throws Exception if the task throws an exception
+     */
+    public static void forEach(ForkJoinPool pool, int numberOfRows, RangeTask task) throws Exception {
+        if (pool == null || numberOfRows <= MIN_CHUNK_ROWS) {
+            task.run(0, numberOfRows);
+            return;
+        }
+
+        int chunkRows = Math.max(MIN_CHUNK_ROWS, numberOfRows / (pool.getParallelism() * 4));
+
+        try {
+            pool.invoke(new RangeAction(0, numberOfRows, chunkRows, task));
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * get the exception thrown by a task from the CompletionException that
+     * carried it out of the pool
+     */
+    private static Exception unwrap(CompletionException e) {
+        Throwable cause = e;
+
+        while (cause instanceof CompletionException && cause.getCause() != null)
+            cause = cause.getCause();
+
+        if (cause instanceof Exception)
+            return (Exception) cause;
+
+        return e;
+    }
+
+    /**
+     * an action that splits its range of rows in two until it is no bigger than
+     * one chunk, then runs the task on the chunk
+     */
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int chunkRows;
+        private final transient RangeTask task;
+
+        RangeAction(int start, int end, int chunkRows, RangeTask task) {
+            this.start = start;
+            this.end = end;
+            this.chunkRows = chunkRows;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= this.chunkRows) {
+                try {
+                    this.task.run(this.start, this.end);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+                return;
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            invokeAll(new RangeAction(this.start, middle, this.chunkRows, this.task),
+                    new RangeAction(middle, this.end, this.chunkRows, this.task));
+        }
+    }
+
+    /**
+     * a task that splits its range of rows in two until it is no bigger than one
+     * chunk, then scans the chunk into a local TopK
+     */
+    private static class ScanTask extends RecursiveTask<TopK> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int chunkRows;
+        private final int howMany;
+        private final boolean largest;
+        // ForkJoin tasks are never serialized, so the scanner need not be
+        private final transient RangeScanner scanner;
+
+        ScanTask(int start, int end, int chunkRows, int howMany, boolean largest, RangeScanner scanner) {
+            this.start = start;
+            this.end = end;
+            this.chunkRows = chunkRows;
+            this.howMany = howMany;
+            this.largest = largest;
+            this.scanner = scanner;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (this.end - this.start <= this.chunkRows) {
+                TopK results = new TopK(this.howMany, this.largest, this.end - this.start);
+
+                try {
+                    this.scanner.scan(this.start, this.end, results);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+
+                return results;
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            ScanTask left = new ScanTask(this.start, middle, this.chunkRows, this.howMany, this.largest, this.scanner);
+            ScanTask right = new ScanTask(middle, this.end, this.chunkRows, this.howMany, this.largest, this.scanner);
+
+            left.fork();
+            TopK results = right.compute();
+            results.merge(left.join());
+
+            return results;
+        }
+    }
+
+    /**
+     * a task that splits its range of rows in two until it is no bigger than one
+     * chunk, then scans the chunk into one local TopK per query
+     */
+    private static class BatchScanTask extends RecursiveTask<TopK[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int chunkRows;
+        private final int numberOfQueries;
+        private final int howMany;
+        private final boolean largest;
+        private final transient BatchScanner scanner;
+
+        BatchScanTask(int start, int end, int chunkRows, int numberOfQueries, int howMany, boolean largest,
+                BatchScanner scanner) {
+            this.start = start;
+            this.end = end;
+            this.chunkRows = chunkRows;
+            this.numberOfQueries = numberOfQueries;
+            this.howMany = howMany;
+            this.largest = largest;
+            this.scanner = scanner;
+        }
+
+        @Override
+        protected TopK[] compute() {
+            if (this.end - this.start <= this.chunkRows) {
+                TopK[] results = createBatch(this.numberOfQueries, this.howMany, this.largest,
+                        this.end - this.start);
+
+                try {
+                    this.scanner.scan(this.start, this.end, results);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+
+                return results;
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            BatchScanTask left = new BatchScanTask(this.start, middle, this.chunkRows, this.numberOfQueries,
+                    this.howMany, this.largest, this.scanner);
+            BatchScanTask right = new BatchScanTask(middle, this.end, this.chunkRows, this.numberOfQueries,
+                    this.howMany, this.largest, this.scanner);
+
+            left.fork();
+            TopK[] results = right.compute();
+            TopK[] leftResults = left.join();
+
+            for (int q = 0; q < this.numberOfQueries; q++)
+                results[q].merge(leftResults[q]);
+
+            return results;
+        }
+    }
+}
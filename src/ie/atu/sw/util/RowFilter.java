@@ -0,0 +1,251 @@
+package ie.atu.sw.util;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * <p>
+ * a precomputed set of the rows a search may return, one bit per row in a
+ * long[], e.g. every word but the stopwords, or a whitelist of domain terms
+ * </p>
+ * <p>
+ * scans and search indexes test the bits while selecting the top-k, instead of
+ * over-fetching and filtering afterwards, so very selective filters still find
+ * 'howMany' rows; nextRow() jumps over runs of excluded rows a whole long at a
+ * time
+ * </p>
+ * <p>
+ * a filter is not changed once built (and/negate return new filters), so one
+ * instance can be shared between threads and cached by name (see
+ * WordsEmbeddings.putFilter)
+ * </p>
+ */
+public class RowFilter {
+
+    private final long[] bits;
+    private final int numberOfRows;
+    private final int cardinality;
+
+    /**
+     * wrap a precomputed bitset: row i is allowed if bit (i % 64) of bits[i /
+     * 64] is set
+     *
+     * @param bits         - the bitset, with at least (numberOfRows + 63) / 64
+     *                     longs; it is copied, and bits past the last row are
+     *                     ignored
+     * @param numberOfRows - the number of rows the filter covers
+     * @throws Exception if the bitset is too short
+     */
+    public RowFilter(long[] bits, int numberOfRows) throws Exception {
+        int length = (numberOfRows + 63) >>> 6;
+        if (bits.length < length)
+            throw new Exception("A bitset of " + bits.length + " longs can't cover " + numberOfRows + " rows");
+
+        this.bits = new long[length];
+        System.arraycopy(bits, 0, this.bits, 0, length);
+        this.numberOfRows = numberOfRows;
+
+        // clear the bits past the last row, so they never count
+        if ((numberOfRows & 63) != 0)
+            this.bits[length - 1] &= (1L << numberOfRows) - 1;
+
+        int cardinality = 0;
+        for (long word : this.bits)
+            cardinality += Long.bitCount(word);
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * build a filter by testing every row once
+     *
+     * @param numberOfRows - the number of rows the filter covers
+     * @param predicate    - is a row allowed?
+     * @return the filter
+     */
+    public static RowFilter of(int numberOfRows, IntPredicate predicate) {
+        long[] bits = new long[(numberOfRows + 63) >>> 6];
+
+        for (int row = 0; row < numberOfRows; row++)
+            if (predicate.test(row))
+                bits[row >>> 6] |= 1L << row;
+
+        return wrap(bits, numberOfRows);
+    }
+
+    /**
+     * build a filter allowing (or excluding) a list of rows
+     *
+     * @param numberOfRows - the number of rows the filter covers
+     * @param rows         - the rows to allow (or exclude); rows outside [0,
+     *                     numberOfRows) are ignored
+     * @param allow        - allow only the rows (true), or every row but them
+     *                     (false)?
+     * @return the filter
+     */
+    public static RowFilter of(int numberOfRows, int[] rows, boolean allow) {
+        long[] bits = new long[(numberOfRows + 63) >>> 6];
+
+        if (!allow)
+            Arrays.fill(bits, -1L);
+
+        for (int row : rows) {
+            if (row < 0 || row >= numberOfRows)
+                continue;
+
+            if (allow)
+                bits[row >>> 6] |= 1L << row;
+            else
+                bits[row >>> 6] &= ~(1L << row);
+        }
+
+        return wrap(bits, numberOfRows);
+    }
+
+    private static RowFilter wrap(long[] bits, int numberOfRows) {
+        try {
+            return new RowFilter(bits, numberOfRows);
+        } catch (Exception e) {
+            // the bitset is always sized for numberOfRows
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * get the number of rows the filter covers
+     *
+     * @return the number of rows the filter covers
+     */
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    /**
+     * get the number of allowed rows
+     *
+     * @return the number of allowed rows
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * get the share of rows that are allowed
+     *
+     * @return the number of allowed rows / the number of rows, or 0 with no rows
+     */
+    public double getSelectivity() {
+        return this.numberOfRows == 0 ? 0.0 : (double) this.cardinality / this.numberOfRows;
+    }
+
+    /**
+     * is a row allowed?
+     *
+     * @param row - the row
+     * @return whether the row is allowed
+     */
+    public boolean contains(int row) {
+        return row >= 0 && row < this.numberOfRows && (this.bits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * find the first allowed row at or after a row
+     *
+     * @param from - the row to start from
+     * @return the first allowed row >= from, or getNumberOfRows() if there is
+     *         none
+     */
+    public int nextRow(int from) {
+        if (from >= this.numberOfRows)
+            return this.numberOfRows;
+
+        int position = from >>> 6;
+        long word = this.bits[position] & (-1L << from);
+
+        while (word == 0) {
+            if (++position == this.bits.length)
+                return this.numberOfRows;
+
+            word = this.bits[position];
+        }
+
+        return (position << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * find the first row a scan should score at or after a row, with or without
+     * a filter; loop with: for (int i = RowFilter.next(filter, start); i < end;
+     * i = RowFilter.next(filter, i + 1))
+     *
+     * @param filter - the filter, or null to allow every row
+     * @param from   - the row to start from
+     * @return from with no filter, else the filter's next allowed row
+     */
+    public static int next(RowFilter filter, int from) {
+        return filter == null ? from : filter.nextRow(from);
+    }
+
+    /**
+     * is a row allowed, with or without a filter?
+     *
+     * @param filter - the filter, or null to allow every row
+     * @param row    - the row
+     * @return whether the row is allowed
+     */
+    public static boolean allows(RowFilter filter, int row) {
+        return filter == null || filter.contains(row);
+    }
+
+    /**
+     * get the rows allowed by this filter and another
+     *
+     * @param other - the other filter, covering the same rows
+     * @return a new filter
+     * @throws Exception if the filters cover different numbers of rows
+     */
+    public RowFilter and(RowFilter other) throws Exception {
+        checkSameRows(other);
+        long[] bits = this.bits.clone();
+
+        for (int i = 0; i < bits.length; i++)
+            bits[i] &= other.bits[i];
+
+        return new RowFilter(bits, this.numberOfRows);
+    }
+
+    /**
+     * get the rows allowed by this filter or another
+     *
+     * @param other - the other filter, covering the same rows
+     * @return a new filter
+     * @throws Exception if the filters cover different numbers of rows
+     */
+    public RowFilter or(RowFilter other) throws Exception {
+        checkSameRows(other);
+        long[] bits = this.bits.clone();
+
+        for (int i = 0; i < bits.length; i++)
+            bits[i] |= other.bits[i];
+
+        return new RowFilter(bits, this.numberOfRows);
+    }
+
+    /**
+     * get the rows this filter excludes
+     *
+     * @return a new filter
+     */
+    public RowFilter negate() {
+        long[] bits = this.bits.clone();
+
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = ~bits[i];
+
+        return wrap(bits, this.numberOfRows);
+    }
+
+    private void checkSameRows(RowFilter other) throws Exception {
+        if (other.numberOfRows != this.numberOfRows)
+            throw new Exception("Can't combine a filter of " + this.numberOfRows + " rows with a filter of "
+                    + other.numberOfRows + " rows");
+    }
+}
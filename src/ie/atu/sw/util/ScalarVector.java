@@ -0,0 +1,401 @@
+package ie.atu.sw.util;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * <p>
+ * utility class with the plain-loop similarity kernels, used by Vector when
+ * the jdk.incubator.vector module is not available
+ * </p>
+ * <p>
+ * each kernel runs in a single loop and allocates nothing; the second vector
+ * may start at an offset inside a larger array, e.g. a row of a flat
+ * embeddings matrix; lengths are not checked here, Vector does that before
+ * dispatching
+ * </p>
+ * <p>
+ * the buffer kernels read off-heap (direct or memory-mapped) matrices with
+ * absolute gets; they are always scalar, as the Vector API can only load from
+ * arrays in every supported JDK
+ * </p>
+ */
+public class ScalarVector {
+    /**
+     * sum the squares of the values in a row of a matrix
+     *
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    public static double squaredNorm(double[] matrix, int offset, int length) {
+        double squaredNorm = 0.0;
+
+        for (int i = offset; i < offset + length; i++)
+            squaredNorm += matrix[i] * matrix[i];
+
+        return squaredNorm;
+    }
+
+    /**
+     * calculate the dot product of a vector and a row of a matrix
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    public static double dotProduct(double[] vector, double[] matrix, int offset) {
+        double dotProduct = 0.0;
+
+        for (int i = 0; i < vector.length; i++)
+            dotProduct += vector[i] * matrix[offset + i];
+
+        return dotProduct;
+    }
+
+    /**
+     * calculate the euclidean distance between a vector and a row of a matrix,
+     * without applying the final square-root operation
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public static double euclideanDistanceNoSqrt(double[] vector, double[] matrix, int offset) {
+        double distance = 0.0;
+
+        for (int i = 0; i < vector.length; i++) {
+            double difference = vector[i] - matrix[offset + i];
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+
+    /**
+     * sum the squared differences between a vector and a row of a matrix, one
+     * block of Vector.ABANDON_BLOCK features at a time, and stop early once the
+     * partial sum exceeds a bound
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did (the last
+     *         block is never checked)
+     */
+    public static int euclideanDistanceAbandonAt(double[] vector, double[] matrix, int offset, double bound) {
+        int length = vector.length;
+        double distance = 0.0;
+        int i = 0;
+
+        for (int end = Vector.ABANDON_BLOCK; end < length; end += Vector.ABANDON_BLOCK) {
+            for (; i < end; i++) {
+                double difference = vector[i] - matrix[offset + i];
+                distance += difference * difference;
+            }
+
+            if (distance > bound)
+                return end;
+        }
+
+        return length;
+    }
+
+    /**
+     * calculate the cosine similarity of a vector and a row of a matrix; the dot
+     * product and both squared norms are accumulated in a single loop
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the cosine similarity of the vector and the row
+     */
+    public static double cosineSimilarity(double[] vector, double[] matrix, int offset) {
+        double dotProduct = 0.0;
+        double squaredNorm1 = 0.0;
+        double squaredNorm2 = 0.0;
+
+        for (int i = 0; i < vector.length; i++) {
+            double value = matrix[offset + i];
+            dotProduct += vector[i] * value;
+            squaredNorm1 += vector[i] * vector[i];
+            squaredNorm2 += value * value;
+        }
+
+        return dotProduct / Math.sqrt(squaredNorm1 * squaredNorm2);
+    }
+
+    /**
+     * sum the squares of the values in a row of a float matrix, accumulating in
+     * double
+     *
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    public static double squaredNorm(float[] matrix, int offset, int length) {
+        double squaredNorm = 0.0;
+
+        for (int i = offset; i < offset + length; i++)
+            squaredNorm += (double) matrix[i] * matrix[i];
+
+        return squaredNorm;
+    }
+
+    /**
+     * calculate the dot product of a float vector and a row of a float matrix,
+     * accumulating in double
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    public static double dotProduct(float[] vector, float[] matrix, int offset) {
+        double dotProduct = 0.0;
+
+        for (int i = 0; i < vector.length; i++)
+            dotProduct += (double) vector[i] * matrix[offset + i];
+
+        return dotProduct;
+    }
+
+    /**
+     * calculate the euclidean distance between a float vector and a row of a
+     * float matrix, without applying the final square-root operation,
+     * accumulating in double
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public static double euclideanDistanceNoSqrt(float[] vector, float[] matrix, int offset) {
+        double distance = 0.0;
+
+        for (int i = 0; i < vector.length; i++) {
+            double difference = (double) vector[i] - matrix[offset + i];
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+
+    /**
+     * sum the squared differences between a float vector and a row of a float
+     * matrix, one block of Vector.ABANDON_BLOCK features at a time, and stop
+     * early once the partial sum exceeds a bound, accumulating in double
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did (the last
+     *         block is never checked)
+     */
+    public static int euclideanDistanceAbandonAt(float[] vector, float[] matrix, int offset, double bound) {
+        int length = vector.length;
+        double distance = 0.0;
+        int i = 0;
+
+        for (int end = Vector.ABANDON_BLOCK; end < length; end += Vector.ABANDON_BLOCK) {
+            for (; i < end; i++) {
+                double difference = (double) vector[i] - matrix[offset + i];
+                distance += difference * difference;
+            }
+
+            if (distance > bound)
+                return end;
+        }
+
+        return length;
+    }
+
+    /**
+     * sum the squares of the values in a row of a buffer matrix
+     *
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    public static double squaredNorm(DoubleBuffer matrix, int offset, int length) {
+        double squaredNorm = 0.0;
+
+        for (int i = offset; i < offset + length; i++) {
+            double value = matrix.get(i);
+            squaredNorm += value * value;
+        }
+
+        return squaredNorm;
+    }
+
+    /**
+     * calculate the dot product of a vector and a row of a buffer matrix
+     *
+     * @param vector
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    public static double dotProduct(double[] vector, DoubleBuffer matrix, int offset) {
+        double dotProduct = 0.0;
+
+        for (int i = 0; i < vector.length; i++)
+            dotProduct += vector[i] * matrix.get(offset + i);
+
+        return dotProduct;
+    }
+
+    /**
+     * calculate the euclidean distance between a vector and a row of a buffer
+     * matrix, without applying the final square-root operation
+     *
+     * @param vector
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public static double euclideanDistanceNoSqrt(double[] vector, DoubleBuffer matrix, int offset) {
+        double distance = 0.0;
+
+        for (int i = 0; i < vector.length; i++) {
+            double difference = vector[i] - matrix.get(offset + i);
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+
+    /**
+     * sum the squared differences between a vector and a row of a buffer
+     * matrix, one block of Vector.ABANDON_BLOCK features at a time, and stop
+     * early once the partial sum exceeds a bound
+     *
+     * @param vector
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did (the last
+     *         block is never checked)
+     */
+    public static int euclideanDistanceAbandonAt(double[] vector, DoubleBuffer matrix, int offset, double bound) {
+        int length = vector.length;
+        double distance = 0.0;
+        int i = 0;
+
+        for (int end = Vector.ABANDON_BLOCK; end < length; end += Vector.ABANDON_BLOCK) {
+            for (; i < end; i++) {
+                double difference = vector[i] - matrix.get(offset + i);
+                distance += difference * difference;
+            }
+
+            if (distance > bound)
+                return end;
+        }
+
+        return length;
+    }
+
+    /**
+     * sum the squares of the values in a row of a float buffer matrix,
+     * accumulating in double
+     *
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    public static double squaredNorm(FloatBuffer matrix, int offset, int length) {
+        double squaredNorm = 0.0;
+
+        for (int i = offset; i < offset + length; i++) {
+            double value = matrix.get(i);
+            squaredNorm += value * value;
+        }
+
+        return squaredNorm;
+    }
+
+    /**
+     * calculate the dot product of a float vector and a row of a float buffer
+     * matrix, accumulating in double
+     *
+     * @param vector
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    public static double dotProduct(float[] vector, FloatBuffer matrix, int offset) {
+        double dotProduct = 0.0;
+
+        for (int i = 0; i < vector.length; i++)
+            dotProduct += (double) vector[i] * matrix.get(offset + i);
+
+        return dotProduct;
+    }
+
+    /**
+     * calculate the euclidean distance between a float vector and a row of a
+     * float buffer matrix, without applying the final square-root operation,
+     * accumulating in double
+     *
+     * @param vector
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public static double euclideanDistanceNoSqrt(float[] vector, FloatBuffer matrix, int offset) {
+        double distance = 0.0;
+
+        for (int i = 0; i < vector.length; i++) {
+            double difference = (double) vector[i] - matrix.get(offset + i);
+            distance += difference * difference;
+        }
+
+        return distance;
+    }
+
+    /**
+     * sum the squared differences between a float vector and a row of a float
+     * buffer matrix, one block of Vector.ABANDON_BLOCK features at a time, and
+     * stop early once the partial sum exceeds a bound, accumulating in double
+     *
+     * @param vector
+     * @param matrix - a buffer holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did (the last
+     *         block is never checked)
+     */
+    public static int euclideanDistanceAbandonAt(float[] vector, FloatBuffer matrix, int offset, double bound) {
+        int length = vector.length;
+        double distance = 0.0;
+        int i = 0;
+
+        for (int end = Vector.ABANDON_BLOCK; end < length; end += Vector.ABANDON_BLOCK) {
+            for (; i < end; i++) {
+                double difference = (double) vector[i] - matrix.get(offset + i);
+                distance += difference * difference;
+            }
+
+            if (distance > bound)
+                return end;
+        }
+
+        return length;
+    }
+}
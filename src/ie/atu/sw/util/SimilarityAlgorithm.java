@@ -2,7 +2,8 @@ package ie.atu.sw.util;
 
 /**
  * enum defining different similarity algorithms, which each implement a
- * calculate method
+ * calculate method; a second calculate method accepts precomputed squared
+ * norms, which only cosine similarity uses
  */
 public enum SimilarityAlgorithm {
     DOT_PRODUCT("Dot Product") {
@@ -29,6 +30,12 @@ public enum SimilarityAlgorithm {
         public double calculate(double[] vector1, double[] vector2) throws Exception {
             return Vector.cosineSimilarity(vector1, vector2);
         }
+
+        @Override
+        public double calculate(double[] vector1, double[] vector2, double squaredNorm1, double squaredNorm2)
+                throws Exception {
+            return Vector.cosineSimilarity(vector1, vector2, squaredNorm1, squaredNorm2);
+        }
     };
 
     private String name;
@@ -43,4 +50,20 @@ public enum SimilarityAlgorithm {
     }
 
     public abstract double calculate(double[] vector1, double[] vector2) throws Exception;
+
+    /**
+     * calculate the similarity of two vectors whose squared norms are already
+     * known; algorithms that do not use norms ignore them
+     * 
+     * @param vector1
+     * @param vector2
+     * @param squaredNorm1 - the squared norm of vector1
+     * @param squaredNorm2 - the squared norm of vector2
+     * @return the similarity score
+     * @throws Exception if the vectors have different lengths
+     */
+    public double calculate(double[] vector1, double[] vector2, double squaredNorm1, double squaredNorm2)
+            throws Exception {
+        return calculate(vector1, vector2);
+    }
 }
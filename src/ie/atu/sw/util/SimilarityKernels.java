@@ -0,0 +1,74 @@
+package ie.atu.sw.util;
+
+/**
+ * <p>
+ * the similarity kernels that Vector dispatches to an optional, separately
+ * compiled implementation (SimdVector, in src-simd)
+ * </p>
+ * <p>
+ * the second vector may start at an offset inside a larger array, e.g. a row
+ * of a flat embeddings matrix; lengths are not checked here, Vector does that
+ * before dispatching
+ * </p>
+ */
+public interface SimilarityKernels {
+
+    /**
+     * sum the squares of the values in a row of a matrix
+     *
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    double squaredNorm(double[] matrix, int offset, int length);
+
+    /**
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    double dotProduct(double[] vector, double[] matrix, int offset);
+
+    /**
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the squared euclidean distance between the vector and the row
+     */
+    double euclideanDistanceNoSqrt(double[] vector, double[] matrix, int offset);
+
+    /**
+     * sum the squared differences between a vector and a row of a matrix, block
+     * by block, and stop early once the partial sum exceeds a bound
+     *
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did
+     */
+    int euclideanDistanceAbandonAt(double[] vector, double[] matrix, int offset, double bound);
+
+    /**
+     * @param vector
+     * @param matrix - a flat array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the cosine similarity of the vector and the row
+     */
+    double cosineSimilarity(double[] vector, double[] matrix, int offset);
+
+    /** float version of squaredNorm, summed in double */
+    double squaredNorm(float[] matrix, int offset, int length);
+
+    /** float version of dotProduct, returned as a double */
+    double dotProduct(float[] vector, float[] matrix, int offset);
+
+    /** float version of euclideanDistanceNoSqrt, returned as a double */
+    double euclideanDistanceNoSqrt(float[] vector, float[] matrix, int offset);
+
+    /** float version of euclideanDistanceAbandonAt */
+    int euclideanDistanceAbandonAt(float[] vector, float[] matrix, int offset, double bound);
+}
@@ -0,0 +1,308 @@
+package ie.atu.sw.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * select the 'howMany' best (index, score) pairs from a stream of scores, in a
+ * single pass
+ * </p>
+ * <p>
+ * "best" means largest or smallest, depending on how the selector is created;
+ * equal scores are ordered by the lowest index first, so results are the same
+ * regardless of the order in which scores are offered; NaN scores are never
+ * better than a real score
+ * </p>
+ * <ul>
+ * <li>small 'howMany': a bounded binary heap, with the worst kept score at the
+ * root, so most scores are rejected with a single comparison</li>
+ * <li>large 'howMany' (compared to the number of expected scores): every score
+ * is buffered, and quickselect finds the best ones at the end</li>
+ * </ul>
+ */
+public class TopK {
+
+    /**
+     * use quickselect when 'howMany' is at least this fraction of the expected
+     * number of scores, as most offers would then enter the heap anyway
+     */
+    private static final int QUICKSELECT_RATIO = 8;
+
+    private final int howMany;
+    private final boolean largest;
+    private final boolean useHeap;
+
+    private int[] indexes;
+    private double[] scores;
+    private int size;
+
+    private int[] sortedIndexes;
+    private double[] sortedScores;
+
+    /**
+     * create a selector for the 'howMany' largest-or-smallest scores
+     *
+     * @param howMany       - the number of results to keep
+     * @param largest       - keep the largest (true) or smallest (false) scores
+     * @param expectedCount - roughly how many scores will be offered (used to
+     *                      choose between the heap and quickselect)
+     */
+    public TopK(int howMany, boolean largest, int expectedCount) {
+        this.howMany = howMany;
+        this.largest = largest;
+        this.useHeap = (long) howMany * QUICKSELECT_RATIO < expectedCount;
+
+        int capacity = this.useHeap ? howMany : Math.max(howMany, expectedCount);
+        this.indexes = new int[Math.max(capacity, 1)];
+        this.scores = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * get the number of results to keep
+     *
+     * @return the number of results to keep
+     */
+    public int getHowMany() {
+        return howMany;
+    }
+
+    /**
+     * does this selector keep the largest (true) or smallest (false) scores?
+     *
+     * @return whether this selector keeps the largest scores
+     */
+    public boolean isLargest() {
+        return largest;
+    }
+
+    /**
+     * offer a score to the selector
+     *
+     * @param index - the index the score belongs to, e.g. a word's row
+     * @param score - the score to offer
+     */
+    public void offer(int index, double score) {
+        if (this.howMany <= 0)
+            return;
+
+        this.sortedIndexes = null;
+
+        if (!this.useHeap) {
+            append(index, score);
+            return;
+        }
+
+        if (this.size < this.howMany) {
+            this.indexes[this.size] = index;
+            this.scores[this.size] = score;
+            siftUp(this.indexes, this.scores, this.size++);
+        } else if (isBetter(score, index, this.scores[0], this.indexes[0])) {
+            this.indexes[0] = index;
+            this.scores[0] = score;
+            siftDown(this.indexes, this.scores, 0, this.size);
+        }
+    }
+
+    /**
+     * offer every result kept by another selector to this one, e.g. to combine
+     * the results of several partial searches
+     *
+     * @param other - the selector to merge into this one
+     */
+    public void merge(TopK other) {
+        for (int i = 0; i < other.size; i++)
+            offer(other.indexes[i], other.scores[i]);
+    }
+
+    /**
+     * get the number of results currently kept
+     *
+     * @return the number of results currently kept (at most 'howMany')
+     */
+    public int size() {
+        return Math.min(this.size, this.howMany);
+    }
+
+    /**
+     * get the score a new result must beat to be kept, once 'howMany' results
+     * are kept; a search can skip any row that cannot beat it
+     *
+     * @return the worst kept score, or NaN while fewer than 'howMany' results
+     *         are kept (or while results are buffered for quickselect)
+     */
+    public double getThreshold() {
+        return this.useHeap && this.size >= this.howMany && this.howMany > 0 ? this.scores[0] : Double.NaN;
+    }
+
+    /**
+     * get the indexes of the kept results, best first
+     *
+     * @return the indexes of the kept results, best first
+     */
+    public int[] getIndexes() {
+        sort();
+        return this.sortedIndexes;
+    }
+
+    /**
+     * get the scores of the kept results, best first
+     *
+     * @return the scores of the kept results, in the same order as getIndexes()
+     */
+    public double[] getScores() {
+        sort();
+        return this.sortedScores;
+    }
+
+    /**
+     * is score1/index1 a better result than score2/index2?
+     */
+    private boolean isBetter(double score1, int index1, double score2, int index2) {
+        boolean isNaN1 = Double.isNaN(score1);
+        boolean isNaN2 = Double.isNaN(score2);
+
+        if (isNaN1 || isNaN2)
+            return isNaN1 && isNaN2 ? index1 < index2 : isNaN2;
+
+        if (score1 != score2)
+            return this.largest ? score1 > score2 : score1 < score2;
+
+        return index1 < index2;
+    }
+
+    /**
+     * buffer a result, growing the buffer if more results arrive than expected
+     */
+    private void append(int index, double score) {
+        if (this.size == this.indexes.length) {
+            int capacity = this.indexes.length * 2;
+            this.indexes = Arrays.copyOf(this.indexes, capacity);
+            this.scores = Arrays.copyOf(this.scores, capacity);
+        }
+
+        this.indexes[this.size] = index;
+        this.scores[this.size] = score;
+        this.size++;
+    }
+
+    /**
+     * sort the kept results, best first, into the sortedIndexes and sortedScores
+     * arrays (only if anything changed since the last sort)
+     */
+    private void sort() {
+        if (this.sortedIndexes != null)
+            return;
+
+        if (!this.useHeap && this.size > this.howMany) {
+            quickselect(this.howMany);
+            this.size = this.howMany;
+        }
+
+        // sort a copy, so that the heap stays valid for further offers
+        int count = size();
+        int[] heapIndexes = Arrays.copyOf(this.indexes, count);
+        double[] heapScores = Arrays.copyOf(this.scores, count);
+
+        if (!this.useHeap)
+            for (int i = count / 2 - 1; i >= 0; i--)
+                siftDown(heapIndexes, heapScores, i, count);
+
+        // repeatedly move the worst result to the end of the heap
+        for (int end = count - 1; end > 0; end--) {
+            swap(heapIndexes, heapScores, 0, end);
+            siftDown(heapIndexes, heapScores, 0, end);
+        }
+
+        this.sortedIndexes = heapIndexes;
+        this.sortedScores = heapScores;
+    }
+
+    /**
+     * move a heap element towards the root while it is worse than its parent
+     */
+    private void siftUp(int[] indexes, double[] scores, int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+
+            if (!isBetter(scores[parent], indexes[parent], scores[position], indexes[position]))
+                break;
+
+            swap(indexes, scores, position, parent);
+            position = parent;
+        }
+    }
+
+    /**
+     * move a heap element away from the root while it is better than one of its
+     * children, keeping the worst element at the root
+     */
+    private void siftDown(int[] indexes, double[] scores, int position, int heapSize) {
+        while (true) {
+            int worst = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+
+            if (left < heapSize && isBetter(scores[worst], indexes[worst], scores[left], indexes[left]))
+                worst = left;
+            if (right < heapSize && isBetter(scores[worst], indexes[worst], scores[right], indexes[right]))
+                worst = right;
+
+            if (worst == position)
+                return;
+
+            swap(indexes, scores, position, worst);
+            position = worst;
+        }
+    }
+
+    /**
+     * partially order the buffered results, so that the best 'count' results
+     * occupy the first 'count' positions (in no particular order)
+     */
+    private void quickselect(int count) {
+        int low = 0;
+        int high = this.size - 1;
+
+        while (low < high) {
+            int pivot = partition(low, high, low + (high - low) / 2);
+
+            if (pivot == count - 1 || pivot == count)
+                return;
+            if (pivot < count)
+                low = pivot + 1;
+            else
+                high = pivot - 1;
+        }
+    }
+
+    /**
+     * Lomuto partition of the buffered results around a pivot, with better
+     * results moved to the left
+     *
+     * @return the final position of the pivot
+     */
+    private int partition(int low, int high, int pivotPosition) {
+        swap(this.indexes, this.scores, pivotPosition, high);
+
+        double pivotScore = this.scores[high];
+        int pivotIndex = this.indexes[high];
+        int store = low;
+
+        for (int i = low; i < high; i++)
+            if (isBetter(this.scores[i], this.indexes[i], pivotScore, pivotIndex))
+                swap(this.indexes, this.scores, i, store++);
+
+        swap(this.indexes, this.scores, store, high);
+        return store;
+    }
+
+    private static void swap(int[] indexes, double[] scores, int i, int j) {
+        int index = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = index;
+
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -1,10 +1,60 @@
 package ie.atu.sw.util;
 
 /**
+ * <p>
  * utility class with static methods for vector operations like add, subtract,
  * dot product
+ * </p>
+ * <p>
+ * the similarity kernels (dot product, euclidean distance, cosine similarity)
+ * use SimdVector when it was compiled (from src-simd) and the
+ * jdk.incubator.vector module is present at run time, and fall back to the
+ * plain loops in ScalarVector otherwise; SimdVector is loaded by name, so the
+ * rest of the tree compiles without the incubator module
+ * </p>
  */
 public class Vector {
+    private static final SimilarityKernels SIMD = loadSimdKernels();
+
+    /**
+     * true when the SIMD kernels in SimdVector can be used; set the
+     * 'ie.atu.sw.simd' system property to 'false' to force the scalar kernels
+     */
+    public static final boolean SIMD_ENABLED = SIMD != null;
+
+    /**
+     * the number of features the early-abandoning euclidean kernels sum between
+     * checks of their bound; the SIMD kernels round it up to a whole number of
+     * vectors
+     */
+    public static final int ABANDON_BLOCK = 16;
+
+    /**
+     * load SimdVector by name, if it was compiled and jdk.incubator.vector is
+     * present
+     *
+     * @return the SIMD kernels, or null if they cannot (or should not) be used
+     */
+    private static SimilarityKernels loadSimdKernels() {
+        if ("false".equals(System.getProperty("ie.atu.sw.simd"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return null;
+
+        try {
+            return (SimilarityKernels) Class.forName("ie.atu.sw.util.SimdVector").getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the SIMD kernels, or null when SIMD_ENABLED is false
+     */
+    public static SimilarityKernels getSimdKernels() {
+        return SIMD;
+    }
+
     /**
      * assert that two vectors have equal lengths
      * 
@@ -26,9 +76,22 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double[] add(double[] vector1, double[] vector2) throws Exception {
-        assertEqualLengths(vector1, vector2);
+        return add(vector1, vector2, new double[vector1.length]);
+    }
 
-        double[] result = new double[vector1.length];
+    /**
+     * add two vectors, writing the result into an existing array (which may be one of
+     * the input vectors)
+     * 
+     * @param vector1
+     * @param vector2
+     * @param result  - the array to write the result into
+     * @return the result array
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] add(double[] vector1, double[] vector2, double[] result) throws Exception {
+        assertEqualLengths(vector1, vector2);
+        assertEqualLengths(vector1, result);
 
         for (int i = 0; i < vector1.length; i++)
             result[i] = vector1[i] + vector2[i];
@@ -36,6 +99,18 @@ public class Vector {
         return result;
     }
 
+    /**
+     * add two vectors, overwriting the first vector with the result
+     * 
+     * @param vector1 - the vector to overwrite
+     * @param vector2
+     * @return vector1, holding the result
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] addInPlace(double[] vector1, double[] vector2) throws Exception {
+        return add(vector1, vector2, vector1);
+    }
+
     /**
      * subtract two vectors
      * 
@@ -45,9 +120,22 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double[] subtract(double[] vector1, double[] vector2) throws Exception {
-        assertEqualLengths(vector1, vector2);
+        return subtract(vector1, vector2, new double[vector1.length]);
+    }
 
-        double[] result = new double[vector1.length];
+    /**
+     * subtract two vectors, writing the result into an existing array (which may be one of
+     * the input vectors)
+     * 
+     * @param vector1
+     * @param vector2
+     * @param result  - the array to write the result into
+     * @return the result array
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] subtract(double[] vector1, double[] vector2, double[] result) throws Exception {
+        assertEqualLengths(vector1, vector2);
+        assertEqualLengths(vector1, result);
 
         for (int i = 0; i < vector1.length; i++)
             result[i] = vector1[i] - vector2[i];
@@ -55,6 +143,18 @@ public class Vector {
         return result;
     }
 
+    /**
+     * subtract two vectors, overwriting the first vector with the result
+     * 
+     * @param vector1 - the vector to overwrite
+     * @param vector2
+     * @return vector1, holding the result
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] subtractInPlace(double[] vector1, double[] vector2) throws Exception {
+        return subtract(vector1, vector2, vector1);
+    }
+
     /**
      * multiply two vectors
      * 
@@ -64,9 +164,22 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double[] multiply(double[] vector1, double[] vector2) throws Exception {
-        assertEqualLengths(vector1, vector2);
+        return multiply(vector1, vector2, new double[vector1.length]);
+    }
 
-        double[] result = new double[vector1.length];
+    /**
+     * multiply two vectors, writing the result into an existing array (which may be one of
+     * the input vectors)
+     * 
+     * @param vector1
+     * @param vector2
+     * @param result  - the array to write the result into
+     * @return the result array
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] multiply(double[] vector1, double[] vector2, double[] result) throws Exception {
+        assertEqualLengths(vector1, vector2);
+        assertEqualLengths(vector1, result);
 
         for (int i = 0; i < vector1.length; i++)
             result[i] = vector1[i] * vector2[i];
@@ -74,6 +187,18 @@ public class Vector {
         return result;
     }
 
+    /**
+     * multiply two vectors, overwriting the first vector with the result
+     * 
+     * @param vector1 - the vector to overwrite
+     * @param vector2
+     * @return vector1, holding the result
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] multiplyInPlace(double[] vector1, double[] vector2) throws Exception {
+        return multiply(vector1, vector2, vector1);
+    }
+
     /**
      * divide a vector by another
      * 
@@ -83,9 +208,22 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double[] divide(double[] vector1, double[] vector2) throws Exception {
-        assertEqualLengths(vector1, vector2);
+        return divide(vector1, vector2, new double[vector1.length]);
+    }
 
-        double[] result = new double[vector1.length];
+    /**
+     * divide a vector by another, writing the result into an existing array (which may be one of
+     * the input vectors)
+     * 
+     * @param vector1
+     * @param vector2
+     * @param result  - the array to write the result into
+     * @return the result array
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] divide(double[] vector1, double[] vector2, double[] result) throws Exception {
+        assertEqualLengths(vector1, vector2);
+        assertEqualLengths(vector1, result);
 
         for (int i = 0; i < vector1.length; i++)
             result[i] = vector1[i] / vector2[i];
@@ -93,6 +231,18 @@ public class Vector {
         return result;
     }
 
+    /**
+     * divide a vector by another, overwriting the first vector with the result
+     * 
+     * @param vector1 - the vector to overwrite
+     * @param vector2
+     * @return vector1, holding the result
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double[] divideInPlace(double[] vector1, double[] vector2) throws Exception {
+        return divide(vector1, vector2, vector1);
+    }
+
     /**
      * multiply a vector by itself
      * 
@@ -123,7 +273,31 @@ public class Vector {
     }
 
     /**
-     * calculate the dot product of two vectors
+     * sum the squares of all the values in a vector, without allocating
+     * 
+     * @param vector
+     * @return the squared length (L2 norm) of the vector
+     */
+    public static double squaredNorm(double[] vector) {
+        return squaredNorm(vector, 0, vector.length);
+    }
+
+    /**
+     * sum the squares of the values in a row of a flat matrix, without allocating
+     * 
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    public static double squaredNorm(double[] matrix, int offset, int length) {
+        return SIMD_ENABLED ? SIMD.squaredNorm(matrix, offset, length)
+                : ScalarVector.squaredNorm(matrix, offset, length);
+    }
+
+    /**
+     * calculate the dot product of two vectors in a single loop, without
+     * allocating
      * 
      * @param vector1
      * @param vector2
@@ -131,12 +305,28 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double dotProduct(double[] vector1, double[] vector2) throws Exception {
-        return sum(multiply(vector1, vector2));
+        assertEqualLengths(vector1, vector2);
+
+        return dotProduct(vector1, vector2, 0);
+    }
+
+    /**
+     * calculate the dot product of a vector and a row of a flat matrix, without
+     * allocating
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    public static double dotProduct(double[] vector, double[] matrix, int offset) {
+        return SIMD_ENABLED ? SIMD.dotProduct(vector, matrix, offset)
+                : ScalarVector.dotProduct(vector, matrix, offset);
     }
 
     /**
      * calculate the euclidean distance between two vectors, without applying the
-     * final square-root operation
+     * final square-root operation; single loop, without allocating
      * 
      * @param vector1
      * @param vector2
@@ -144,7 +334,41 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double euclideanDistanceNoSqrt(double[] vector1, double[] vector2) throws Exception {
-        return sum(square(subtract(vector1, vector2)));
+        assertEqualLengths(vector1, vector2);
+
+        return euclideanDistanceNoSqrt(vector1, vector2, 0);
+    }
+
+    /**
+     * calculate the euclidean distance between a vector and a row of a flat
+     * matrix, without applying the final square-root operation, and without
+     * allocating
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public static double euclideanDistanceNoSqrt(double[] vector, double[] matrix, int offset) {
+        return SIMD_ENABLED ? SIMD.euclideanDistanceNoSqrt(vector, matrix, offset)
+                : ScalarVector.euclideanDistanceNoSqrt(vector, matrix, offset);
+    }
+
+    /**
+     * sum the squared differences between a vector and a row of a flat matrix,
+     * block by block, and stop early once the partial sum exceeds a bound
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did
+     */
+    public static int euclideanDistanceAbandonAt(double[] vector, double[] matrix, int offset, double bound) {
+        return SIMD_ENABLED ? SIMD.euclideanDistanceAbandonAt(vector, matrix, offset, bound)
+                : ScalarVector.euclideanDistanceAbandonAt(vector, matrix, offset, bound);
     }
 
     /**
@@ -160,7 +384,8 @@ public class Vector {
     }
 
     /**
-     * calculate the cosine similarity of two vectors
+     * calculate the cosine similarity of two vectors; the dot product and both
+     * squared norms are accumulated in a single loop, without allocating
      * 
      * @param vector1
      * @param vector2
@@ -168,6 +393,101 @@ public class Vector {
      * @throws Exception if the vectors have different lengths
      */
     public static double cosineSimilarity(double[] vector1, double[] vector2) throws Exception {
-        return dotProduct(vector1, vector2) / Math.sqrt(sum(square(vector1)) * sum(square(vector2)));
+        assertEqualLengths(vector1, vector2);
+
+        return cosineSimilarity(vector1, vector2, 0);
+    }
+
+    /**
+     * calculate the cosine similarity of a vector and a row of a flat matrix; the
+     * dot product and both squared norms are accumulated in a single loop, without
+     * allocating
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the cosine similarity of the vector and the row
+     */
+    public static double cosineSimilarity(double[] vector, double[] matrix, int offset) {
+        return SIMD_ENABLED ? SIMD.cosineSimilarity(vector, matrix, offset)
+                : ScalarVector.cosineSimilarity(vector, matrix, offset);
+    }
+
+    /**
+     * calculate the cosine similarity of two vectors whose squared norms are
+     * already known, e.g. precomputed when the vectors were loaded; only the dot
+     * product is calculated
+     * 
+     * @param vector1
+     * @param vector2
+     * @param squaredNorm1 - the squared norm of vector1
+     * @param squaredNorm2 - the squared norm of vector2
+     * @return the cosine similarity of two vectors
+     * @throws Exception if the vectors have different lengths
+     */
+    public static double cosineSimilarity(double[] vector1, double[] vector2, double squaredNorm1,
+            double squaredNorm2) throws Exception {
+        return dotProduct(vector1, vector2) / Math.sqrt(squaredNorm1 * squaredNorm2);
+    }
+
+    /**
+     * sum the squares of the values in a row of a flat float matrix, without
+     * allocating; the result is accumulated in (or finished in) double
+     * 
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param length - the number of values in the row
+     * @return the squared length (L2 norm) of the row
+     */
+    public static double squaredNorm(float[] matrix, int offset, int length) {
+        return SIMD_ENABLED ? SIMD.squaredNorm(matrix, offset, length)
+                : ScalarVector.squaredNorm(matrix, offset, length);
+    }
+
+    /**
+     * calculate the dot product of a float vector and a row of a flat float
+     * matrix, without allocating
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the dot product of the vector and the row
+     */
+    public static double dotProduct(float[] vector, float[] matrix, int offset) {
+        return SIMD_ENABLED ? SIMD.dotProduct(vector, matrix, offset)
+                : ScalarVector.dotProduct(vector, matrix, offset);
+    }
+
+    /**
+     * calculate the euclidean distance between a float vector and a row of a flat
+     * float matrix, without applying the final square-root operation, and without
+     * allocating
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @return the euclidean distance between the vector and the row (no square
+     *         root)
+     */
+    public static double euclideanDistanceNoSqrt(float[] vector, float[] matrix, int offset) {
+        return SIMD_ENABLED ? SIMD.euclideanDistanceNoSqrt(vector, matrix, offset)
+                : ScalarVector.euclideanDistanceNoSqrt(vector, matrix, offset);
+    }
+
+    /**
+     * sum the squared differences between a float vector and a row of a flat
+     * float matrix, block by block, and stop early once the partial sum exceeds
+     * a bound
+     * 
+     * @param vector
+     * @param matrix - a flat, row-major array holding the row
+     * @param offset - the index of the row's first value in the matrix
+     * @param bound  - the partial sum to stop after
+     * @return the number of features summed when the partial sum exceeded the
+     *         bound, or the length of the vector if it never did
+     */
+    public static int euclideanDistanceAbandonAt(float[] vector, float[] matrix, int offset, double bound) {
+        return SIMD_ENABLED ? SIMD.euclideanDistanceAbandonAt(vector, matrix, offset, bound)
+                : ScalarVector.euclideanDistanceAbandonAt(vector, matrix, offset, bound);
     }
 }